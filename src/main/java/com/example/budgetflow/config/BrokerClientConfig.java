@@ -0,0 +1,33 @@
+package com.example.budgetflow.config;
+
+import com.example.budgetflow.service.BrokerClient;
+import com.example.budgetflow.service.BrokerOperationsApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class BrokerClientConfig {
+
+    // Предзагрузка следующей страницы операций, пока текущая пишется в БД
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService brokerPrefetchExecutor(@Value("${budgetflow.tinkoff.sync.threads:4}") int threads) {
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("broker-prefetch-"));
+    }
+
+    @Bean
+    public BrokerClient brokerClient(BrokerOperationsApi operationsApi,
+                                     ExecutorService brokerPrefetchExecutor,
+                                     @Value("${budgetflow.tinkoff.client.requests-per-second:5}") double requestsPerSecond,
+                                     @Value("${budgetflow.tinkoff.client.burst:10}") int burst,
+                                     @Value("${budgetflow.tinkoff.client.max-retries:5}") int maxRetries,
+                                     @Value("${budgetflow.tinkoff.client.backoff-base-ms:200}") long backoffBaseMillis,
+                                     @Value("${budgetflow.tinkoff.client.backoff-max-ms:10000}") long backoffMaxMillis) {
+        return new BrokerClient(operationsApi, brokerPrefetchExecutor, requestsPerSecond, burst,
+                maxRetries, backoffBaseMillis, backoffMaxMillis);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.budgetflow.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+@Configuration
+public class ExecutorConfig {
+
+    // Потоки стадии разбора CSV; стадия записи работает в потоке самого импорта
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService importParserExecutor(@Value("${budgetflow.import.parser-threads:2}") int threads) {
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("csv-parser-"));
+    }
+
+    // Фоновые задачи импорта; лишние задачи ждут в очереди, статус QUEUED виден через API
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService importJobExecutor(@Value("${budgetflow.import.job-threads:2}") int threads) {
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("csv-import-job-"));
+    }
+
+    // Тяжёлые расчёты аналитики (Монте-Карло, ковариации): пул fork/join отдельно от общего,
+    // чтобы не занимать commonPool; 0 — по числу процессоров
+    @Bean(destroyMethod = "shutdownNow")
+    public ForkJoinPool analyticsPool(@Value("${budgetflow.analytics.parallelism:0}") int parallelism) {
+        return new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+}
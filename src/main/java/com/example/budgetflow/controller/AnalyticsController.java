@@ -1,10 +1,32 @@
 package com.example.budgetflow.controller;
 
+import com.example.budgetflow.service.AnalyticsCache;
+import com.example.budgetflow.service.CovarianceEngine;
+import com.example.budgetflow.service.FxRateCache;
 import com.example.budgetflow.service.PortfolioAnalyticsService;
+import com.example.budgetflow.service.PortfolioSimulationService;
+import com.example.budgetflow.service.PortfolioSnapshotJob;
+import com.example.budgetflow.service.PriceCache;
+import com.example.budgetflow.service.PriceHistoryService;
+import com.example.budgetflow.service.PriceHistoryStore;
+import com.example.budgetflow.service.RealizedGainsService;
+import com.example.budgetflow.service.RiskMetricsService;
+import com.example.budgetflow.service.TaxLots;
+import com.example.budgetflow.service.ValueCurveService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -13,11 +35,133 @@ import java.util.Map;
 public class AnalyticsController {
 
     private final PortfolioAnalyticsService analyticsService;
+    private final PriceCache priceCache;
+    private final AnalyticsCache analyticsCache;
+    private final PriceHistoryService priceHistoryService;
+    private final ValueCurveService valueCurveService;
+    private final FxRateCache fxRateCache;
+    private final RiskMetricsService riskMetricsService;
+    private final PortfolioSnapshotJob snapshotJob;
+    private final PortfolioSimulationService simulationService;
+    private final CovarianceEngine covarianceEngine;
+    private final RealizedGainsService realizedGainsService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping("/portfolio/{userId}")
     public ResponseEntity<PortfolioAnalyticsService.PortfolioAnalytics> getPortfolioAnalytics(
             @PathVariable Long userId) {
-        return ResponseEntity.ok(analyticsService.calculateAnalytics(userId));
+        return ResponseEntity.ok(analyticsService.getAnalytics(userId));
+    }
+
+    /**
+     * Кривая стоимости портфеля за период; точки пишутся в ответ по мере прохода по истории.
+     */
+    @GetMapping("/portfolio/{userId}/value-curve")
+    public ResponseEntity<StreamingResponseBody> getValueCurve(
+            @PathVariable Long userId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "1") int intervalDays) {
+        ValueCurveService.validate(from, to, intervalDays);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.createGenerator(out)) {
+                json.writeStartArray();
+                valueCurveService.streamValueCurve(userId, from, to, intervalDays, point -> {
+                    try {
+                        json.writeObject(point);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                json.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Реализованный результат продаж за год: записи по закрытым лотам пишутся в ответ по мере прохода
+     * по сделкам, итоги по валютам — в конце.
+     */
+    @GetMapping("/portfolio/{userId}/realized-gains")
+    public ResponseEntity<StreamingResponseBody> getRealizedGains(
+            @PathVariable Long userId,
+            @RequestParam int year,
+            @RequestParam(defaultValue = "FIFO") TaxLots.Method method) {
+        RealizedGainsService.validate(year, method);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.createGenerator(out)) {
+                json.writeStartObject();
+                json.writeArrayFieldStart("gains");
+                RealizedGainsService.Summary summary = realizedGainsService.streamRealizedGains(userId, year, method,
+                        gain -> {
+                            try {
+                                json.writeObject(gain);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                json.writeEndArray();
+                json.writeObjectField("summary", summary);
+                json.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping("/portfolio/{userId}/risk")
+    public ResponseEntity<RiskMetricsService.RiskMetrics> getRiskMetrics(@PathVariable Long userId) {
+        return ResponseEntity.ok(riskMetricsService.getMetrics(userId));
+    }
+
+    /**
+     * Полная пересборка риск-метрик из истории снимков.
+     */
+    @PostMapping("/risk/rebuild")
+    public ResponseEntity<RiskMetricsService.RebuildSummary> rebuildRiskMetrics() {
+        return ResponseEntity.ok(riskMetricsService.rebuildAll());
+    }
+
+    /**
+     * Дисперсия портфеля по дневным доходностям и вклад каждого тикера в его волатильность.
+     */
+    @GetMapping("/portfolio/{userId}/risk/contributions")
+    public ResponseEntity<CovarianceEngine.PortfolioRisk> getRiskContributions(@PathVariable Long userId) {
+        return ResponseEntity.ok(covarianceEngine.portfolioRisk(userId));
+    }
+
+    @GetMapping("/portfolio/{userId}/correlation")
+    public ResponseEntity<CovarianceEngine.CorrelationMatrix> getPortfolioCorrelation(@PathVariable Long userId) {
+        return ResponseEntity.ok(CovarianceEngine.CorrelationMatrix.of(covarianceEngine.forPortfolio(userId)));
+    }
+
+    /**
+     * Корреляции дневных доходностей за период; без списка тикеров — по всем тикерам с котировками.
+     */
+    @GetMapping("/correlation")
+    public ResponseEntity<CovarianceEngine.CorrelationMatrix> getCorrelation(
+            @RequestParam(required = false) List<String> tickers,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        CovarianceEngine.CovarianceMatrix matrix = tickers != null && !tickers.isEmpty()
+                ? covarianceEngine.covariance(tickers, from, to)
+                : covarianceEngine.universe(from, to);
+        return ResponseEntity.ok(CovarianceEngine.CorrelationMatrix.of(matrix));
+    }
+
+    /**
+     * Прогноз стоимости портфеля методом Монте-Карло: перцентили по контрольным точкам горизонта.
+     * С тем же seed и теми же данными ответ повторяется.
+     */
+    @GetMapping("/portfolio/{userId}/simulation")
+    public ResponseEntity<PortfolioSimulationService.SimulationResult> simulatePortfolio(
+            @PathVariable Long userId,
+            @RequestParam(defaultValue = "10000") int paths,
+            @RequestParam(defaultValue = "252") int horizonDays,
+            @RequestParam(defaultValue = "21") int bandStepDays,
+            @RequestParam(defaultValue = "5,25,50,75,95") double[] percentiles,
+            @RequestParam(required = false) Long seed) {
+        return ResponseEntity.ok(simulationService.simulate(userId, paths, horizonDays, bandStepDays, percentiles, seed));
     }
 
     @GetMapping("/dividends/{userId}")
@@ -39,5 +183,51 @@ public class AnalyticsController {
         analyticsService.createSnapshot(userId);
         return ResponseEntity.ok("Снимок портфеля создан");
     }
-}
 
+    /**
+     * Ход текущего или последнего ночного прогона снимков.
+     */
+    @GetMapping("/snapshot/job")
+    public ResponseEntity<PortfolioSnapshotJob.Progress> getSnapshotJobProgress() {
+        PortfolioSnapshotJob.Progress progress = snapshotJob.getProgress();
+        return progress != null ? ResponseEntity.ok(progress) : ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<AnalyticsCache.CacheMetrics> getAnalyticsCacheMetrics() {
+        return ResponseEntity.ok(analyticsCache.getMetrics());
+    }
+
+    @GetMapping("/prices/cache")
+    public ResponseEntity<PriceCache.CacheMetrics> getPriceCacheMetrics() {
+        return ResponseEntity.ok(priceCache.getMetrics());
+    }
+
+    /**
+     * Рублей за единицу валюты на дату (последний курс не позже неё).
+     */
+    @GetMapping("/fx/{currency}")
+    public ResponseEntity<Double> getFxRate(
+            @PathVariable String currency,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        double rate = fxRateCache.rateAt(currency, date);
+        return Double.isNaN(rate) ? ResponseEntity.notFound().build() : ResponseEntity.ok(rate);
+    }
+
+    @GetMapping("/prices/{ticker}/history")
+    public ResponseEntity<PriceHistoryService.PriceHistory> getPriceHistory(
+            @PathVariable String ticker,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return ResponseEntity.ok(priceHistoryService.getHistory(ticker, from, to));
+    }
+
+    @GetMapping("/prices/{ticker}/at")
+    public ResponseEntity<PriceHistoryStore.PricePoint> getPriceAt(
+            @PathVariable String ticker,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime date) {
+        return priceHistoryService.getPriceAt(ticker, date)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -1,7 +1,9 @@
 package com.example.budgetflow.controller;
 
 import com.example.budgetflow.service.FileImportService;
+import com.example.budgetflow.service.ImportJobService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -12,6 +14,7 @@ import org.springframework.web.multipart.MultipartFile;
 public class FileImportController {
 
     private final FileImportService fileImportService;
+    private final ImportJobService importJobService;
 
     @PostMapping("/operations")
     public ResponseEntity<FileImportService.ImportResult> importOperations(
@@ -24,9 +27,21 @@ public class FileImportController {
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest()
-                    .body(new FileImportService.ImportResult(false, 0, 0, 
+                    .body(new FileImportService.ImportResult(false, 0, 0, 0,
                             java.util.List.of(e.getMessage())));
         }
     }
-}
 
+    @PostMapping("/jobs")
+    public ResponseEntity<ImportJobService.ImportJobStatus> submitImportJob(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam Long userId,
+            @RequestParam String accountNumber) throws java.io.IOException {
+        return new ResponseEntity<>(importJobService.submit(file, userId, accountNumber), HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<ImportJobService.ImportJobStatus> getImportJob(@PathVariable Long jobId) {
+        return ResponseEntity.ok(importJobService.getStatus(jobId));
+    }
+}
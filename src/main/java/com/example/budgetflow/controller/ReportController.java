@@ -7,6 +7,7 @@ import com.example.budgetflow.entity.Transaction;
 import com.example.budgetflow.service.AccountService;
 import com.example.budgetflow.service.AccrualService;
 import com.example.budgetflow.service.AssetService;
+import com.example.budgetflow.service.TransactionRollupService;
 import com.example.budgetflow.service.TransactionService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
@@ -38,6 +39,13 @@ public class ReportController {
         return transactionService.getMonthlyTransactions(userId,year,month);
     }
 
+    @GetMapping("/monthly/{userId}/summary")
+    public TransactionRollupService.MonthlySummary getMonthlySummary(@PathVariable Long userId,
+                                                                    @RequestParam int year,
+                                                                    @RequestParam int month){
+        return transactionService.getMonthlySummary(userId,year,month);
+    }
+
     @GetMapping("/dividends/{userId}")
     public List<Accrual> getUserDividends(@PathVariable Long userId) {
         // Получаем все аккаунты пользователя
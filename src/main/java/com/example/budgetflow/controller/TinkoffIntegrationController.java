@@ -1,14 +1,18 @@
 package com.example.budgetflow.controller;
 
+import com.example.budgetflow.dto.TinkoffLinkResponse;
 import com.example.budgetflow.dto.TinkoffSyncRequest;
 import com.example.budgetflow.dto.TinkoffSyncResponse;
 import com.example.budgetflow.service.TinkoffIntegrationService;
+import com.example.budgetflow.service.TinkoffSyncJobQueue;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 
 @RestController
 @RequestMapping("/api/integrations/tinkoff")
@@ -22,7 +26,36 @@ public class TinkoffIntegrationController {
             @RequestBody @Valid TinkoffSyncRequest request,
             @RequestParam Long userId) {
         TinkoffSyncResponse response = tinkoffIntegrationService.enqueueSync(request, userId);
-        return new ResponseEntity<>(response, HttpStatus.ACCEPTED);
+        HttpStatus status = "REJECTED".equals(response.status()) ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.ACCEPTED;
+        return new ResponseEntity<>(response, status);
+    }
+
+    @PostMapping("/links")
+    public ResponseEntity<TinkoffLinkResponse> linkAccount(
+            @RequestBody @Valid TinkoffSyncRequest request,
+            @RequestParam Long userId) {
+        return new ResponseEntity<>(tinkoffIntegrationService.linkAccount(request, userId), HttpStatus.CREATED);
+    }
+
+    @GetMapping("/links")
+    public ResponseEntity<List<TinkoffLinkResponse>> getLinks(@RequestParam Long userId) {
+        return ResponseEntity.ok(tinkoffIntegrationService.getLinks(userId));
+    }
+
+    @DeleteMapping("/links/{linkId}")
+    public ResponseEntity<Void> unlinkAccount(@PathVariable Long linkId) {
+        tinkoffIntegrationService.unlinkAccount(linkId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<TinkoffSyncJobQueue.SyncJobStatus> getSyncJob(@PathVariable String jobId) {
+        return ResponseEntity.ok(tinkoffIntegrationService.getSyncJob(jobId));
+    }
+
+    @GetMapping("/jobs/metrics")
+    public ResponseEntity<TinkoffSyncJobQueue.QueueMetrics> getSyncQueueMetrics() {
+        return ResponseEntity.ok(tinkoffIntegrationService.getSyncQueueMetrics());
     }
 }
 
@@ -1,23 +1,80 @@
 package com.example.budgetflow.controller;
 
+import com.example.budgetflow.dto.TransactionPage;
+import com.example.budgetflow.dto.TransactionView;
 import com.example.budgetflow.entity.Transaction;
 import com.example.budgetflow.service.TransactionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequestMapping("/api/transaction")
 @RequiredArgsConstructor
 public class TransactionController {
     private final TransactionService transactionService;
+    private final ObjectMapper objectMapper;
 
+    /**
+     * Транзакции постранично, от новых к старым; следующая страница — с cursor из ответа.
+     */
     @GetMapping("/user/{userId}")
-    public List<Transaction> getUserTransactions(@PathVariable Long userId){
-        return transactionService.getUserTransaction(userId);
+    public TransactionPage getUserTransactions(@PathVariable Long userId,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(defaultValue = "100") int size){
+        return transactionService.getUserTransactionsPage(userId, cursor, size);
+    }
+
+    /**
+     * Выгрузка всех транзакций пользователя в NDJSON (по объекту на строку) или CSV;
+     * строки пишутся в ответ по мере чтения из БД.
+     */
+    @GetMapping("/user/{userId}/export")
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable Long userId,
+                                                        @RequestParam(defaultValue = "ndjson") String format){
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if(!csv && !"ndjson".equalsIgnoreCase(format)){
+            throw new IllegalArgumentException("Неизвестный формат выгрузки: " + format);
+        }
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if(csv){
+                writer.write("id,date,amount,type,description,category_id,category\n");
+                transactionService.exportUserTransactions(userId, row -> writeCsv(writer, row));
+                writer.flush();
+            } else {
+                try(SequenceWriter json = objectMapper.writer().withRootValueSeparator("\n").writeValues(writer)){
+                    long rows = transactionService.exportUserTransactions(userId, row -> {
+                        try {
+                            json.write(row);
+                        } catch (IOException e){
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    json.flush();
+                    if(rows > 0) writer.write('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"transactions-" + userId + (csv ? ".csv" : ".ndjson") + "\"")
+                .body(body);
     }
 
     @PostMapping
@@ -40,4 +97,34 @@ public class TransactionController {
     public void delete(@PathVariable Long id){
         transactionService.deleteTransaction(id);
     }
+
+    private static void writeCsv(Writer writer, TransactionView row){
+        try {
+            writer.write(String.valueOf(row.id()));
+            writer.write(',');
+            writer.write(row.date().toString());
+            writer.write(',');
+            writer.write(BigDecimal.valueOf(row.amount()).toPlainString());
+            writer.write(',');
+            writer.write(csvField(row.type()));
+            writer.write(',');
+            writer.write(csvField(row.description()));
+            writer.write(',');
+            writer.write(String.valueOf(row.categoryId()));
+            writer.write(',');
+            writer.write(csvField(row.categoryName()));
+            writer.write('\n');
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // кавычки — только если в значении есть разделитель, кавычка или перевод строки
+    private static String csvField(String value){
+        if(value == null) return "";
+        if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0){
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
 }
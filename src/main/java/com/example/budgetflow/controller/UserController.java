@@ -24,4 +24,9 @@ public class UserController {
         return userService.getUserById(id);
     }
 
+    @PutMapping("/{id}/base-currency")
+    public User updateBaseCurrency(@PathVariable Long id, @RequestParam String currency){
+        return userService.updateBaseCurrency(id, currency);
+    }
+
 }
@@ -0,0 +1,13 @@
+package com.example.budgetflow.dto;
+
+import java.time.LocalDateTime;
+
+public record TinkoffLinkResponse(
+        Long linkId,
+        String accountId,
+        TinkoffSyncMode mode,
+        boolean enabled,
+        LocalDateTime lastSyncAt,
+        String lastSyncStatus
+) {
+}
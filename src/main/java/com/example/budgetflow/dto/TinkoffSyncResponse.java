@@ -4,6 +4,7 @@ import java.time.Instant;
 import java.util.Map;
 
 public record TinkoffSyncResponse(
+        String jobId,
         String status,
         String message,
         TinkoffSyncMode mode,
@@ -0,0 +1,12 @@
+package com.example.budgetflow.dto;
+
+import java.util.List;
+
+/**
+ * Страница транзакций от новых к старым; nextCursor передаётся в следующий запрос, null — страниц больше нет.
+ */
+public record TransactionPage(
+        List<TransactionView> items,
+        String nextCursor
+) {
+}
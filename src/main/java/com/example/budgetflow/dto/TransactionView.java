@@ -0,0 +1,17 @@
+package com.example.budgetflow.dto;
+
+import java.time.LocalDate;
+
+/**
+ * Транзакция для списков и выгрузки: поля строки и категория без загрузки сущностей.
+ */
+public record TransactionView(
+        Long id,
+        LocalDate date,
+        Double amount,
+        String type,
+        String description,
+        Long categoryId,
+        String categoryName
+) {
+}
@@ -8,7 +8,11 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "accruals")
+@Table(name = "accruals", indexes = {
+    @Index(name = "idx_accrual_external_id", columnList = "external_id")
+}, uniqueConstraints = {
+    @UniqueConstraint(name = "uk_accrual_asset_external_id", columnNames = {"assert_id", "external_id"})
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -25,4 +29,5 @@ public class Accrual {
     private LocalDate date;
     @Column(nullable = false)
     private Double amount; // сумма начисления
+    private String externalId; // id операции у брокера, если начисление загружено через API
 }
@@ -0,0 +1,43 @@
+package com.example.budgetflow.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "broker_links", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_broker_link_user_account", columnNames = {"user_id", "account_number"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BrokerLink {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(nullable = false)
+    private String accountNumber; // id счёта у брокера
+
+    @Column(nullable = false, length = 500)
+    private String token; // токен Т-Инвестиций для фоновой синхронизации
+
+    @Column(nullable = false)
+    private String mode; // "HISTORY", "DIVIDENDS", "ALL"
+
+    @Column(nullable = false)
+    private Boolean enabled;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime lastSyncAt;
+
+    private String lastSyncStatus; // "SUCCESS", "FAILED"
+}
@@ -0,0 +1,35 @@
+package com.example.budgetflow.entity;
+
+import com.example.budgetflow.service.FxRateListener;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+@Entity
+@Table(name = "fx_rates", indexes = {
+    @Index(name = "idx_fx_currency_date", columnList = "currency,date")
+})
+@EntityListeners(FxRateListener.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FxRate {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 3)
+    private String currency;
+
+    @Column(nullable = false)
+    private LocalDate date;
+
+    @Column(nullable = false, precision = 19, scale = 8)
+    private BigDecimal rate; // рублей за единицу валюты
+
+    private String source; // "CBR", "TINKOFF", "MANUAL"
+}
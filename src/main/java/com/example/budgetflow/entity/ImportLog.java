@@ -18,17 +18,17 @@ public class ImportLog {
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "user_id", nullable = false)
-    private User user;
+    @JoinColumn(name = "user_id")
+    private User user; // null у сводок фоновой синхронизации по всем пользователям
     
     @Column(nullable = false)
-    private String source; // "TINKOFF_API", "CSV", "EXCEL"
+    private String source; // "TINKOFF_API", "TINKOFF_SCHEDULER", "CSV", "EXCEL"
     
     @Column(nullable = false)
     private LocalDateTime importDate;
     
     @Column(nullable = false)
-    private String status; // "SUCCESS", "FAILED", "PARTIAL"
+    private String status; // "QUEUED", "IN_PROGRESS", "SUCCESS", "FAILED", "PARTIAL"
     
     private Integer operationsImported;
     
@@ -39,5 +39,20 @@ public class ImportLog {
     
     @Column(length = 2000)
     private String details; // JSON с деталями импорта
+
+    private String accountNumber;
+
+    @Column(length = 500)
+    private String spoolPath; // файл фонового импорта на локальном диске
+
+    private Integer rowsRead;
+
+    private Integer rowsFailed;
+
+    private Integer rowsDuplicate; // строки, пропущенные как уже импортированные
+
+    private Integer checkpointRow; // последняя строка файла, покрытая закоммиченным пакетом
+
+    private LocalDateTime updatedAt;
 }
 
@@ -1,5 +1,6 @@
 package com.example.budgetflow.entity;
 
+import com.example.budgetflow.service.MarketDataListener;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -12,6 +13,7 @@ import java.time.LocalDateTime;
 @Table(name = "market_data", indexes = {
     @Index(name = "idx_ticker_date", columnList = "ticker,date")
 })
+@EntityListeners(MarketDataListener.class)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -9,8 +9,8 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "portfolio_snapshots", indexes = {
-    @Index(name = "idx_user_date", columnList = "user_id,date")
+@Table(name = "portfolio_snapshots", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_snapshot_user_date", columnNames = {"user_id", "date"})
 })
 @Data
 @NoArgsConstructor
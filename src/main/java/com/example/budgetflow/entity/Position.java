@@ -0,0 +1,44 @@
+package com.example.budgetflow.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "positions", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_position_asset", columnNames = {"asset_id"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Position {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "asset_id", nullable = false)
+    private Asset asset;
+
+    @Column(nullable = false)
+    private Double quantity;
+
+    @Column(nullable = false)
+    private Double totalCost; // стоимость открытой позиции по средней цене, с комиссиями покупок
+
+    @Column(nullable = false)
+    private Double realizedPnl; // зафиксированный результат продаж за вычетом комиссий
+
+    @Column(nullable = false)
+    private Double fees; // все уплаченные комиссии
+
+    private Integer tradesCount;
+
+    private LocalDate lastTradeDate; // дата последней учтённой сделки
+
+    private LocalDateTime updatedAt;
+}
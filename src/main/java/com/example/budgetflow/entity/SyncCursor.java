@@ -0,0 +1,39 @@
+package com.example.budgetflow.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "sync_cursors", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_sync_cursor_account_mode", columnNames = {"account_id", "mode"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncCursor {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "account_id", nullable = false)
+    private Account account;
+
+    @Column(nullable = false)
+    private String mode; // "HISTORY", "DIVIDENDS"
+
+    private Instant lastOperationAt; // время последней загруженной операции брокера
+
+    private String lastOperationId; // id этой операции у брокера
+
+    private Long operationsTotal; // сколько операций загружено по курсору за всё время
+
+    private Integer lastRunOperations; // сколько операций принёс последний прогон
+
+    private LocalDateTime updatedAt;
+}
@@ -9,7 +9,13 @@ import java.time.LocalDate;
 
 
 @Entity
-@Table(name = "trades")
+@Table(name = "trades", indexes = {
+    @Index(name = "idx_trade_fingerprint", columnList = "fingerprint"),
+    @Index(name = "idx_trade_external_id", columnList = "external_id")
+}, uniqueConstraints = {
+    // операция брокера загружается в счёт один раз; актив принадлежит одному счёту
+    @UniqueConstraint(name = "uk_trade_asset_external_id", columnNames = {"assert_id", "external_id"})
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -27,4 +33,6 @@ public class Trade {
     private Double quantity;
     private Double price;
     private Double fee; // комиссия брокера
+    private Long fingerprint; // отпечаток содержимого для поиска дублей при повторном импорте
+    private String externalId; // id операции у брокера, если сделка загружена через API
 }
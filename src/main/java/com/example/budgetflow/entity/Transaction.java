@@ -8,7 +8,9 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "transactions")
+@Table(name = "transactions", indexes = {
+    @Index(name = "idx_transaction_user_date", columnList = "user_id,date,id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,45 @@
+package com.example.budgetflow.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * Сумма и число транзакций пользователя за месяц по категории и типу.
+ * Ведётся приращениями в транзакции изменения строк; без внешних ключей, чтобы строку
+ * можно было создать отдельной короткой транзакцией.
+ */
+@Entity
+@Table(name = "transaction_rollups", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_rollup_user_period_category_type",
+            columnNames = {"user_id", "period_start", "category_id", "type"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "period_start", nullable = false)
+    private LocalDate periodStart; // первый день месяца
+
+    @Column(name = "category_id", nullable = false)
+    private Long categoryId;
+
+    @Column(nullable = false)
+    private String type;
+
+    @Column(nullable = false)
+    private Double total;
+
+    @Column(name = "transactions_count", nullable = false)
+    private Long transactionsCount;
+}
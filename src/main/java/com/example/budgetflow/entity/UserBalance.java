@@ -0,0 +1,32 @@
+package com.example.budgetflow.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Текущие доходы и расходы пользователя по всем его транзакциям.
+ * Ведётся приращениями в транзакции изменения строк с проверкой версии; без внешнего ключа,
+ * чтобы строку можно было создать отдельной короткой транзакцией.
+ */
+@Entity
+@Table(name = "user_balances")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserBalance {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(nullable = false)
+    private Double income;
+
+    @Column(nullable = false)
+    private Double expense;
+
+    @Version
+    @Column(nullable = false)
+    private Long version; // растёт с каждым изменением, см. UserBalanceJdbcRepository.compareAndSet
+}
@@ -2,13 +2,17 @@ package com.example.budgetflow.repository;
 
 import com.example.budgetflow.entity.Account;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
 public interface AccountRepository extends JpaRepository<Account,Long> {
-    List<Account> findByUserId(Long userId);
+    // Владелец подтягивается сразу: аналитике нужна его базовая валюта
+    @Query("SELECT a FROM Account a JOIN FETCH a.user WHERE a.user.id = :userId")
+    List<Account> findByUserId(@Param("userId") Long userId);
 
     Account findByAccountNumber(String accountNumber);
     boolean existsByName(String name);
@@ -2,9 +2,12 @@ package com.example.budgetflow.repository;
 
 import com.example.budgetflow.entity.Accrual;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -13,4 +16,16 @@ public interface AccrualRepository extends JpaRepository<Accrual,Long> {
     List<Accrual> findByAssetId(Long assetId);
     List<Accrual> findByAssetIdAndType(Long assetId, String type);
     List<Accrual> findByAssetIdAndDateBetween(Long assetId, LocalDate start, LocalDate end);
+    List<Accrual> findByAssetAccountIdAndExternalIdIn(Long accountId, Collection<String> externalIds);
+
+    // Суммы начислений пользователя за период по дате — без загрузки сущностей
+    @Query("SELECT a.date AS date, a.amount AS amount FROM Accrual a WHERE a.asset.account.user.id = :userId " +
+           "AND a.date BETWEEN :start AND :end ORDER BY a.date")
+    List<DatedAmount> findAmountsByUserIdAndDateBetween(@Param("userId") Long userId,
+                                                        @Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    interface DatedAmount {
+        LocalDate getDate();
+        Double getAmount();
+    }
 }
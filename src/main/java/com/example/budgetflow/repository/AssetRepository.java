@@ -2,8 +2,12 @@ package com.example.budgetflow.repository;
 
 import com.example.budgetflow.entity.Asset;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -14,4 +18,26 @@ public interface AssetRepository extends JpaRepository<Asset,Long> {
     List<Asset> findByCurrency(String currency);
 
     Asset findByTicker(String ticker);
+
+    // Позиции всех счетов пользователя одним запросом — в том же порядке, в каком их обходит аналитика
+    @Query("SELECT a FROM Asset a WHERE a.account.user.id = :userId AND a.quantity > 0 ORDER BY a.account.id, a.id")
+    List<Asset> findHeldByUserId(@Param("userId") Long userId);
+
+    // То же для пакета пользователей; счёт подтягивается сразу, чтобы разложить позиции по владельцам
+    @Query("SELECT a FROM Asset a JOIN FETCH a.account ac WHERE ac.user.id IN :userIds AND a.quantity > 0 ORDER BY ac.id, a.id")
+    List<Asset> findHeldByUserIdIn(@Param("userIds") Collection<Long> userIds);
+
+    @Query("SELECT a FROM Asset a WHERE a.account.user.id = :userId")
+    List<Asset> findByUserId(@Param("userId") Long userId);
+
+    // Блокировка активов перед изменением их позиций; порядок по id исключает взаимные блокировки
+    @Query(value = "SELECT id FROM assets WHERE id IN (:ids) ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<Long> lockByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query(value = "SELECT id FROM assets WHERE account_id = :accountId ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<Long> lockByAccountId(@Param("accountId") Long accountId);
+
+    @Modifying
+    @Query("UPDATE Asset a SET a.quantity = :quantity WHERE a.id = :id")
+    void updateQuantity(@Param("id") Long id, @Param("quantity") Double quantity);
 }
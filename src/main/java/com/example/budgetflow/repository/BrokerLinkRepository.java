@@ -0,0 +1,29 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.entity.BrokerLink;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BrokerLinkRepository extends JpaRepository<BrokerLink, Long> {
+
+    Optional<BrokerLink> findByUserIdAndAccountNumber(Long userId, String accountNumber);
+
+    List<BrokerLink> findByUserId(Long userId);
+
+    // Постраничный обход по id: без OFFSET, каждая страница — диапазон по первичному ключу
+    List<BrokerLink> findTop1000ByEnabledTrueAndIdGreaterThanOrderByIdAsc(Long afterId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE BrokerLink l SET l.lastSyncAt = :syncedAt, l.lastSyncStatus = :status WHERE l.id = :id")
+    void updateLastSync(@Param("id") Long id, @Param("syncedAt") LocalDateTime syncedAt, @Param("status") String status);
+}
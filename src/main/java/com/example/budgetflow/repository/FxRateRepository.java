@@ -0,0 +1,7 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.entity.FxRate;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface FxRateRepository extends JpaRepository<FxRate, Long> {
+}
@@ -2,10 +2,36 @@ package com.example.budgetflow.repository;
 
 import com.example.budgetflow.entity.ImportLog;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface ImportLogRepository extends JpaRepository<ImportLog, Long> {
     List<ImportLog> findByUserIdOrderByImportDateDesc(Long userId);
-}
 
+    List<ImportLog> findBySourceAndStatusIn(String source, Collection<String> statuses);
+
+    // Прогресс фонового импорта пишется в той же транзакции, что и пакет сделок
+    @Modifying
+    @Query("UPDATE ImportLog l SET l.rowsRead = :rowsRead, l.operationsImported = :persisted, " +
+            "l.rowsFailed = :failed, l.rowsDuplicate = :duplicates, l.checkpointRow = :checkpointRow, l.updatedAt = :updatedAt WHERE l.id = :id")
+    int updateProgress(@Param("id") Long id,
+                       @Param("rowsRead") int rowsRead,
+                       @Param("persisted") int persisted,
+                       @Param("failed") int failed,
+                       @Param("duplicates") int duplicates,
+                       @Param("checkpointRow") int checkpointRow,
+                       @Param("updatedAt") LocalDateTime updatedAt);
+
+    // Статус без счётчиков: они уже записаны вместе с последним пакетом
+    @Modifying
+    @Query("UPDATE ImportLog l SET l.status = :status, l.errorMessage = :errorMessage, l.updatedAt = :updatedAt WHERE l.id = :id")
+    int updateStatus(@Param("id") Long id,
+                     @Param("status") String status,
+                     @Param("errorMessage") String errorMessage,
+                     @Param("updatedAt") LocalDateTime updatedAt);
+}
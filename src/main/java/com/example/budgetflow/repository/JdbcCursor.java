@@ -0,0 +1,46 @@
+package com.example.budgetflow.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+
+/**
+ * Потоковое чтение больших выборок: строки идут из курсора БД в обработчик порциями по FETCH_SIZE,
+ * без списка в памяти. Все проходы с fetch size идут через него.
+ *
+ * Драйвер Postgres учитывает fetch size только вне autocommit — без транзакции он читает всю
+ * выборку в память до первой строки. Поэтому запрос выполняется в транзакции только для чтения,
+ * а если у вызывающего транзакция уже открыта — в ней, и видит её незакоммиченные записи.
+ */
+@Component
+public class JdbcCursor {
+
+    public static final int FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public JdbcCursor(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public void query(String sql, RowCallbackHandler handler) {
+        query(sql, ps -> {}, handler);
+    }
+
+    public void query(String sql, PreparedStatementSetter parameters, RowCallbackHandler handler) {
+        readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setFetchSize(FETCH_SIZE);
+            parameters.setValues(ps);
+            return ps;
+        }, handler));
+    }
+}
@@ -5,16 +5,33 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface MarketDataRepository extends JpaRepository<MarketData, Long> {
     Optional<MarketData> findFirstByTickerOrderByDateDesc(String ticker);
-    
-    List<MarketData> findByTickerAndDateBetween(String ticker, LocalDateTime start, LocalDateTime end);
-    
-    @Query("SELECT md FROM MarketData md WHERE md.ticker = :ticker AND md.date <= :date ORDER BY md.date DESC")
-    Optional<MarketData> findLatestByTickerAndDate(@Param("ticker") String ticker, @Param("date") LocalDateTime date);
+
+    // Последние цены сразу по набору тикеров; коррелированный MAX идёт по индексу (ticker, date)
+    @Query("SELECT md.ticker AS ticker, md.price AS price, md.date AS date FROM MarketData md WHERE md.ticker IN :tickers " +
+           "AND md.date = (SELECT MAX(m.date) FROM MarketData m WHERE m.ticker = md.ticker) ORDER BY md.id DESC")
+    List<TickerPrice> findLatestPrices(@Param("tickers") Collection<String> tickers);
+
+    // Последние цены всех тикеров, свежие котировки первыми — для прогрева кэша цен
+    @Query("SELECT md.ticker AS ticker, md.price AS price, md.date AS date FROM MarketData md " +
+           "WHERE md.date = (SELECT MAX(m.date) FROM MarketData m WHERE m.ticker = md.ticker) ORDER BY md.date DESC, md.id DESC")
+    List<TickerPrice> findAllLatestPrices();
+
+    // Все тикеры с котировками — вселенная для матрицы корреляций
+    @Query("SELECT DISTINCT md.ticker FROM MarketData md ORDER BY md.ticker")
+    List<String> findDistinctTickers();
+
+    interface TickerPrice {
+        String getTicker();
+        BigDecimal getPrice();
+        LocalDateTime getDate();
+    }
 }
 
@@ -0,0 +1,80 @@
+package com.example.budgetflow.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пакетная запись снимков портфеля для фонового задания, минуя persistence context.
+ * Снимок ключуется парой (user_id, date): существующие строки обновляются, недостающие вставляются.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PortfolioSnapshotJdbcRepository {
+
+    private static final String UPDATE_SQL =
+            "UPDATE portfolio_snapshots SET total_value = ?, total_cost = ?, total_return = ?, sharpe_ratio = ?, currency = ? " +
+            "WHERE user_id = ? AND date = ?";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO portfolio_snapshots (user_id, date, total_value, total_cost, total_return, sharpe_ratio, currency) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * id пользователей, у которых есть хотя бы один счёт, по возрастанию.
+     */
+    public List<Long> findUserIdsWithAccounts() {
+        return jdbcTemplate.queryForList("SELECT DISTINCT user_id FROM accounts ORDER BY user_id", Long.class);
+    }
+
+    /**
+     * Upsert двумя пакетами: UPDATE по ключу, затем INSERT строк, которых не нашлось.
+     * Если тот же ключ успели вставить параллельно между пакетами, INSERT упадёт на уникальном
+     * ограничении — вызывающий повторяет пакет целиком.
+     *
+     * @return число вставленных строк
+     */
+    public int batchUpsert(List<SnapshotRow> rows, int batchSize) {
+        if (rows.isEmpty()) return 0;
+        int[][] updated = jdbcTemplate.batchUpdate(UPDATE_SQL, rows, batchSize, (ps, row) -> {
+            ps.setBigDecimal(1, row.totalValue());
+            ps.setBigDecimal(2, row.totalCost());
+            ps.setBigDecimal(3, row.totalReturn());
+            ps.setBigDecimal(4, row.sharpeRatio());
+            ps.setString(5, row.currency());
+            ps.setLong(6, row.userId());
+            ps.setDate(7, Date.valueOf(row.date()));
+        });
+
+        List<SnapshotRow> missing = new ArrayList<>();
+        int index = 0;
+        for (int[] batch : updated) {
+            for (int count : batch) {
+                if (count == 0) missing.add(rows.get(index));
+                index++;
+            }
+        }
+        if (missing.isEmpty()) return 0;
+        jdbcTemplate.batchUpdate(INSERT_SQL, missing, batchSize, (ps, row) -> {
+            ps.setLong(1, row.userId());
+            ps.setDate(2, Date.valueOf(row.date()));
+            ps.setBigDecimal(3, row.totalValue());
+            ps.setBigDecimal(4, row.totalCost());
+            ps.setBigDecimal(5, row.totalReturn());
+            ps.setBigDecimal(6, row.sharpeRatio());
+            ps.setString(7, row.currency());
+        });
+        return missing.size();
+    }
+
+    public record SnapshotRow(long userId, LocalDate date, BigDecimal totalValue, BigDecimal totalCost,
+                              BigDecimal totalReturn, BigDecimal sharpeRatio, String currency) {}
+}
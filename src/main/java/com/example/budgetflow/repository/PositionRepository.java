@@ -0,0 +1,24 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.entity.Position;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface PositionRepository extends JpaRepository<Position, Long> {
+
+    List<Position> findByAssetIdIn(Collection<Long> assetIds);
+
+    List<Position> findByAssetAccountId(Long accountId);
+
+    @Query("SELECT p FROM Position p WHERE p.asset.account.user.id = :userId")
+    List<Position> findByUserId(@Param("userId") Long userId);
+
+    @Query("SELECT p FROM Position p WHERE p.asset.account.user.id IN :userIds")
+    List<Position> findByUserIdIn(@Param("userIds") Collection<Long> userIds);
+}
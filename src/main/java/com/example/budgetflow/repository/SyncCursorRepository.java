@@ -0,0 +1,19 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.entity.SyncCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface SyncCursorRepository extends JpaRepository<SyncCursor, Long> {
+    Optional<SyncCursor> findByAccountIdAndMode(Long accountId, String mode);
+
+    @Query("SELECT c FROM SyncCursor c WHERE c.account.user.id = :userId AND c.account.accountNumber = :accountNumber")
+    List<SyncCursor> findByUserIdAndAccountNumber(@Param("userId") Long userId,
+                                                  @Param("accountNumber") String accountNumber);
+}
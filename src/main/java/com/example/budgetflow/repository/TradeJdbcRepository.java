@@ -0,0 +1,215 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.entity.Trade;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * Пакетная вставка сделок через JDBC.
+ * Trade использует GenerationType.IDENTITY, поэтому Hibernate не умеет батчить такие INSERT —
+ * для массового импорта пишем напрямую, минуя persistence context.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TradeJdbcRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO trades (assert_id, type, date, quantity, price, fee, fingerprint, external_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_SQL =
+            "UPDATE trades SET assert_id = ?, type = ?, date = ?, quantity = ?, price = ?, fee = ?, fingerprint = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final JdbcCursor jdbcCursor;
+
+    public int batchInsert(List<Trade> trades, int batchSize) {
+        if (trades.isEmpty()) return 0;
+        jdbcTemplate.batchUpdate(INSERT_SQL, trades, batchSize, (ps, trade) -> {
+            setTradeColumns(ps, trade);
+            ps.setString(8, trade.getExternalId());
+        });
+        return trades.size();
+    }
+
+    /**
+     * Перезаписывает поля уже существующих сделок (по id) — для upsert операций брокера.
+     */
+    public int batchUpdate(List<Trade> trades, int batchSize) {
+        if (trades.isEmpty()) return 0;
+        jdbcTemplate.batchUpdate(UPDATE_SQL, trades, batchSize, (ps, trade) -> {
+            setTradeColumns(ps, trade);
+            ps.setLong(8, trade.getId());
+        });
+        return trades.size();
+    }
+
+    /**
+     * id сделок счёта по id операций брокера — один запрос на пакет.
+     */
+    public Map<String, Long> findIdsByExternalIds(long accountId, Collection<String> externalIds) {
+        Map<String, Long> ids = new HashMap<>();
+        if (externalIds.isEmpty()) return ids;
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("accountId", accountId)
+                .addValue("externalIds", externalIds);
+        namedParameterJdbcTemplate.query(
+                "SELECT t.external_id, t.id FROM trades t JOIN assets a ON a.id = t.assert_id " +
+                "WHERE a.account_id = :accountId AND t.external_id IN (:externalIds)",
+                params, rs -> {
+                    ids.put(rs.getString(1), rs.getLong(2));
+                });
+        return ids;
+    }
+
+    public long countByAccountId(long accountId) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM trades t JOIN assets a ON a.id = t.assert_id WHERE a.account_id = ?",
+                Long.class, accountId);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Потоково отдаёт отпечатки сделок счёта, не собирая их в список.
+     */
+    public void forEachFingerprint(long accountId, LongConsumer consumer) {
+        jdbcCursor.query(
+                "SELECT t.fingerprint FROM trades t JOIN assets a ON a.id = t.assert_id " +
+                "WHERE a.account_id = ? AND t.fingerprint IS NOT NULL",
+                ps -> ps.setLong(1, accountId),
+                rs -> {
+                    consumer.accept(rs.getLong(1));
+                });
+    }
+
+    /**
+     * Какие из переданных отпечатков уже есть у сделок счёта — один запрос на пакет.
+     */
+    public Set<Long> findExistingFingerprints(long accountId, Collection<Long> fingerprints) {
+        Set<Long> existing = new HashSet<>();
+        if (fingerprints.isEmpty()) return existing;
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("accountId", accountId)
+                .addValue("fingerprints", fingerprints);
+        namedParameterJdbcTemplate.query(
+                "SELECT t.fingerprint FROM trades t JOIN assets a ON a.id = t.assert_id " +
+                "WHERE a.account_id = :accountId AND t.fingerprint IN (:fingerprints)",
+                params, rs -> {
+                    existing.add(rs.getLong(1));
+                });
+        return existing;
+    }
+
+    /**
+     * Сделки счёта без отпечатка (записанные до его появления).
+     */
+    public List<UnfingerprintedTrade> findWithoutFingerprint(long accountId) {
+        return jdbcTemplate.query(
+                "SELECT t.id, a.ticker, t.date, t.type, t.quantity, t.price, t.fee FROM trades t " +
+                "JOIN assets a ON a.id = t.assert_id WHERE a.account_id = ? AND t.fingerprint IS NULL",
+                (rs, rowNum) -> new UnfingerprintedTrade(
+                        rs.getLong(1), rs.getString(2), rs.getDate(3).toLocalDate(), rs.getString(4),
+                        getNullableDouble(rs, 5), getNullableDouble(rs, 6), getNullableDouble(rs, 7)),
+                accountId);
+    }
+
+    public void batchUpdateFingerprints(List<long[]> idAndFingerprint, int batchSize) {
+        jdbcTemplate.batchUpdate("UPDATE trades SET fingerprint = ? WHERE id = ?", idAndFingerprint, batchSize,
+                (ps, pair) -> {
+                    ps.setLong(1, pair[1]);
+                    ps.setLong(2, pair[0]);
+                });
+    }
+
+    /**
+     * Потоково отдаёт сделки актива в порядке учёта в позиции: по дате, затем по id.
+     */
+    public void forEachTradeOfAsset(long assetId, TradeRowConsumer consumer) {
+        streamTrades("SELECT t.assert_id, t.type, t.date, t.quantity, t.price, t.fee FROM trades t " +
+                "WHERE t.assert_id = ? ORDER BY t.date, t.id", assetId, consumer);
+    }
+
+    /**
+     * Потоково отдаёт сделки всех активов счёта, сгруппированные по активу и упорядоченные как в {@link #forEachTradeOfAsset}.
+     */
+    public void forEachTradeOfAccount(long accountId, TradeRowConsumer consumer) {
+        streamTrades("SELECT t.assert_id, t.type, t.date, t.quantity, t.price, t.fee FROM trades t " +
+                "JOIN assets a ON a.id = t.assert_id WHERE a.account_id = ? ORDER BY t.assert_id, t.date, t.id",
+                accountId, consumer);
+    }
+
+    /**
+     * Потоково отдаёт сделки всех счетов пользователя по дату включительно, по дате и id — для прохода по истории портфеля.
+     */
+    public void forEachTradeOfUser(long userId, LocalDate until, TradeRowConsumer consumer) {
+        streamTrades("SELECT t.assert_id, t.type, t.date, t.quantity, t.price, t.fee FROM trades t " +
+                "JOIN assets a ON a.id = t.assert_id JOIN accounts ac ON ac.id = a.account_id " +
+                "WHERE ac.user_id = ? AND t.date <= ? ORDER BY t.date, t.id", userId, until, consumer);
+    }
+
+    private void streamTrades(String sql, long id, TradeRowConsumer consumer) {
+        streamTrades(sql, id, null, consumer);
+    }
+
+    private void streamTrades(String sql, long id, LocalDate until, TradeRowConsumer consumer) {
+        jdbcCursor.query(sql, ps -> {
+            ps.setLong(1, id);
+            if (until != null) ps.setDate(2, Date.valueOf(until));
+        }, rs -> {
+            consumer.accept(rs.getLong(1), rs.getString(2), rs.getDate(3).toLocalDate(),
+                    rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+        });
+    }
+
+    private static void setTradeColumns(PreparedStatement ps, Trade trade) throws SQLException {
+        ps.setLong(1, trade.getAsset().getId());
+        ps.setString(2, trade.getType());
+        ps.setDate(3, Date.valueOf(trade.getDate()));
+        setNullableDouble(ps, 4, trade.getQuantity());
+        setNullableDouble(ps, 5, trade.getPrice());
+        setNullableDouble(ps, 6, trade.getFee());
+        if (trade.getFingerprint() == null) {
+            ps.setNull(7, Types.BIGINT);
+        } else {
+            ps.setLong(7, trade.getFingerprint());
+        }
+    }
+
+    private static void setNullableDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.DOUBLE);
+        } else {
+            ps.setDouble(index, value);
+        }
+    }
+
+    private static Double getNullableDouble(ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? null : value;
+    }
+
+    @FunctionalInterface
+    public interface TradeRowConsumer {
+        void accept(long assetId, String type, LocalDate date, double quantity, double price, double fee);
+    }
+
+    public record UnfingerprintedTrade(long id, String ticker, LocalDate date, String type,
+                                       Double quantity, Double price, Double fee) {}
+}
@@ -0,0 +1,37 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.dto.TransactionView;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+
+import java.util.function.Consumer;
+
+/**
+ * Потоковое чтение транзакций для выгрузки: строки идут из курсора БД прямо в потребителя,
+ * без сущностей и без списка в памяти.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransactionJdbcRepository {
+
+    private final JdbcCursor jdbcCursor;
+
+    /**
+     * Транзакции пользователя по дате и id.
+     *
+     * @return число строк
+     */
+    public long forEachTransactionOfUser(long userId, Consumer<TransactionView> consumer) {
+        long[] rows = new long[1];
+        jdbcCursor.query(
+                "SELECT t.id, t.date, t.amount, t.type, t.description, c.id, c.name FROM transactions t " +
+                "JOIN category c ON c.id = t.category_id WHERE t.user_id = ? ORDER BY t.date, t.id",
+                ps -> ps.setLong(1, userId),
+                rs -> {
+                    consumer.accept(new TransactionView(rs.getLong(1), rs.getDate(2).toLocalDate(), rs.getDouble(3),
+                            rs.getString(4), rs.getString(5), rs.getLong(6), rs.getString(7)));
+                    rows[0]++;
+                });
+        return rows[0];
+    }
+}
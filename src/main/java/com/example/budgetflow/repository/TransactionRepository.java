@@ -1,6 +1,8 @@
 package com.example.budgetflow.repository;
 
+import com.example.budgetflow.dto.TransactionView;
 import com.example.budgetflow.entity.Transaction;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -15,6 +17,20 @@ public interface TransactionRepository extends JpaRepository<Transaction,Long> {
     // Получить все транзакции пользователя
     List<Transaction> findByUserId(Long userId);
 
+    // Первая страница транзакций пользователя, от новых к старым; индекс (user_id, date, id)
+    @Query("SELECT new com.example.budgetflow.dto.TransactionView(t.id, t.date, t.amount, t.type, t.description, c.id, c.name) " +
+           "FROM Transaction t JOIN t.category c WHERE t.user.id = :userId ORDER BY t.date DESC, t.id DESC")
+    List<TransactionView> findPageByUserId(@Param("userId") Long userId, Pageable pageable);
+
+    // Следующая страница: строки строго после курсора (date, id) в том же порядке
+    @Query("SELECT new com.example.budgetflow.dto.TransactionView(t.id, t.date, t.amount, t.type, t.description, c.id, c.name) " +
+           "FROM Transaction t JOIN t.category c WHERE t.user.id = :userId " +
+           "AND (t.date < :date OR (t.date = :date AND t.id < :id)) ORDER BY t.date DESC, t.id DESC")
+    List<TransactionView> findPageByUserIdBefore(@Param("userId") Long userId,
+                                                 @Param("date") LocalDate date,
+                                                 @Param("id") Long id,
+                                                 Pageable pageable);
+
     // Получить транзакции пользователя по типу (INCOME/EXPENSE)
     List<Transaction> findByUserIdAndType(Long userId,String type);
 
@@ -28,10 +44,5 @@ public interface TransactionRepository extends JpaRepository<Transaction,Long> {
     Double sumAmountByUserIdAndType(@Param("userId") Long userId,
                                     @Param("type")String type);
 
-    // Получить транзакции пользователя за месяц
-    @Query("SELECT t FROM Transaction t WHERE t.user.id = :userId AND YEAR(t.date) = :year AND MONTH(t.date) = :month")
-    List<Transaction> findByUserIdAndYearAndMonth(@Param("userId") Long userId,
-                                                  @Param("year") int year,
-                                                  @Param("month") int month);
 
 }
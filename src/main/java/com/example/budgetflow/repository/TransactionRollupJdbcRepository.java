@@ -0,0 +1,106 @@
+package com.example.budgetflow.repository;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Приращения и пересборка месячных свёрток транзакций через JDBC.
+ *
+ * Приращение — атомарный UPDATE total = total + ? в транзакции вызывающего: строка блокируется
+ * до его коммита, параллельные изменения того же ключа выстраиваются в очередь. Если строки
+ * ключа ещё нет, она вставляется с нулями отдельной короткой транзакцией (дубликат от параллельной
+ * вставки игнорируется), и UPDATE повторяется — так вызывающая транзакция не ломается на
+ * уникальном ограничении и запрос не зависит от диалекта upsert.
+ */
+@Repository
+public class TransactionRollupJdbcRepository {
+
+    private static final String UPDATE_SQL =
+            "UPDATE transaction_rollups SET total = total + ?, transactions_count = transactions_count + ? " +
+            "WHERE user_id = ? AND period_start = ? AND category_id = ? AND type = ?";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO transaction_rollups (user_id, period_start, category_id, type, total, transactions_count) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate newTransaction;
+
+    public TransactionRollupJdbcRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public void addDelta(long userId, LocalDate periodStart, long categoryId, String type, double amount, long count) {
+        Object[] args = {amount, count, userId, Date.valueOf(periodStart), categoryId, type};
+        if (jdbcTemplate.update(UPDATE_SQL, args) > 0) return;
+        try {
+            newTransaction.executeWithoutResult(status ->
+                    jdbcTemplate.update(INSERT_SQL, userId, Date.valueOf(periodStart), categoryId, type, 0.0, 0L));
+        } catch (DataIntegrityViolationException e) {
+            // строку ключа только что вставила параллельная транзакция
+        }
+        jdbcTemplate.update(UPDATE_SQL, args);
+    }
+
+    /**
+     * Строки свёртки пользователя за месяц с названием категории.
+     */
+    public List<RollupRow> findByUserIdAndPeriod(long userId, LocalDate periodStart) {
+        return jdbcTemplate.query(
+                "SELECT r.period_start, r.category_id, c.name, r.type, r.total, r.transactions_count " +
+                "FROM transaction_rollups r LEFT JOIN category c ON c.id = r.category_id " +
+                "WHERE r.user_id = ? AND r.period_start = ? AND r.transactions_count > 0 ORDER BY r.type, r.total DESC",
+                (rs, i) -> new RollupRow(rs.getDate(1).toLocalDate(), rs.getLong(2), rs.getString(3), rs.getString(4),
+                        rs.getDouble(5), rs.getLong(6)),
+                userId, Date.valueOf(periodStart));
+    }
+
+    /**
+     * Доходы и расходы пользователя за всё время по его свёрткам.
+     */
+    public UserTotals findTotalsByUserId(long userId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(CASE WHEN type = 'INCOME' THEN total END), 0), " +
+                "COALESCE(SUM(CASE WHEN type = 'EXPENSE' THEN total END), 0) " +
+                "FROM transaction_rollups WHERE user_id = ?",
+                (rs, i) -> new UserTotals(rs.getDouble(1), rs.getDouble(2)), userId);
+    }
+
+    /**
+     * id пользователей, у которых есть транзакции или свёртки, по возрастанию.
+     */
+    public List<Long> findUserIdsForRebuild() {
+        return jdbcTemplate.queryForList(
+                "SELECT user_id FROM transactions UNION SELECT user_id FROM transaction_rollups ORDER BY 1", Long.class);
+    }
+
+    /**
+     * Заменяет свёртки пользователя переданными строками.
+     */
+    public void replaceForUser(long userId, List<RollupRow> rows, int batchSize) {
+        jdbcTemplate.update("DELETE FROM transaction_rollups WHERE user_id = ?", userId);
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows, batchSize, (ps, row) -> {
+            ps.setLong(1, userId);
+            ps.setDate(2, Date.valueOf(row.periodStart()));
+            ps.setLong(3, row.categoryId());
+            ps.setString(4, row.type());
+            ps.setDouble(5, row.total());
+            ps.setLong(6, row.transactionsCount());
+        });
+    }
+
+    public record UserTotals(double income, double expense) {}
+
+    public record RollupRow(LocalDate periodStart, long categoryId, String categoryName, String type,
+                            double total, long transactionsCount) {}
+}
@@ -0,0 +1,138 @@
+package com.example.budgetflow.repository;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Балансы пользователей через JDBC: чтение с версией, запись с проверкой версии и сверочные
+ * проходы по всем балансам и суммам транзакций.
+ */
+@Repository
+public class UserBalanceJdbcRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO user_balances (user_id, income, expense, version) VALUES (?, ?, ?, 0)";
+
+    private static final String INSERT_FROM_ROLLUPS_SQL =
+            "INSERT INTO user_balances (user_id, income, expense, version) " +
+            "SELECT ?, COALESCE(SUM(CASE WHEN type = 'INCOME' THEN total END), 0), " +
+            "COALESCE(SUM(CASE WHEN type = 'EXPENSE' THEN total END), 0), 0 " +
+            "FROM transaction_rollups WHERE user_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcCursor jdbcCursor;
+    private final TransactionTemplate newTransaction;
+
+    public UserBalanceJdbcRepository(JdbcTemplate jdbcTemplate, JdbcCursor jdbcCursor,
+                                     PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcCursor = jdbcCursor;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * @return строка баланса или null, если её ещё нет
+     */
+    public BalanceRow find(long userId) {
+        List<BalanceRow> rows = jdbcTemplate.query(
+                "SELECT user_id, income, expense, version FROM user_balances WHERE user_id = ?",
+                (rs, i) -> new BalanceRow(rs.getLong(1), rs.getDouble(2), rs.getDouble(3), rs.getLong(4)),
+                userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Записывает новые значения, только если версия строки не изменилась с чтения.
+     *
+     * @return false, если строку успели изменить
+     */
+    public boolean compareAndSet(long userId, long version, double income, double expense) {
+        return jdbcTemplate.update(
+                "UPDATE user_balances SET income = ?, expense = ?, version = version + 1 " +
+                "WHERE user_id = ? AND version = ?",
+                income, expense, userId, version) > 0;
+    }
+
+    /**
+     * Вставляет строку отдельной транзакцией, чтобы уникальный ключ не ломал транзакцию вызывающего.
+     *
+     * @return false, если строку уже вставила другая транзакция
+     */
+    public boolean insert(long userId, double income, double expense) {
+        try {
+            newTransaction.executeWithoutResult(status -> jdbcTemplate.update(INSERT_SQL, userId, income, expense));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Вставляет строку с доходами и расходами из закоммиченных месячных свёрток пользователя —
+     * одним запросом в отдельной транзакции. Приращения незакоммиченной транзакции вызывающего
+     * в свёртках не видны и добавляются к строке им самим.
+     *
+     * @return false, если строку уже вставила другая транзакция
+     */
+    public boolean insertFromRollups(long userId) {
+        try {
+            newTransaction.executeWithoutResult(status -> jdbcTemplate.update(INSERT_FROM_ROLLUPS_SQL, userId, userId));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Все строки балансов одним курсором.
+     */
+    public void forEachBalance(Consumer<BalanceRow> consumer) {
+        jdbcCursor.query("SELECT user_id, income, expense, version FROM user_balances", rs -> {
+            consumer.accept(new BalanceRow(rs.getLong(1), rs.getDouble(2), rs.getDouble(3), rs.getLong(4)));
+        });
+    }
+
+    /**
+     * Доходы и расходы каждого пользователя по транзакциям — один проход с группировкой.
+     */
+    public void forEachTransactionTotals(TotalsConsumer consumer) {
+        jdbcCursor.query(
+                "SELECT user_id, " +
+                "SUM(CASE WHEN type = 'INCOME' THEN amount ELSE 0 END), " +
+                "SUM(CASE WHEN type = 'EXPENSE' THEN amount ELSE 0 END) " +
+                "FROM transactions GROUP BY user_id",
+                rs -> {
+                    consumer.accept(rs.getLong(1), rs.getDouble(2), rs.getDouble(3));
+                });
+    }
+
+    /**
+     * Доходы и расходы по транзакциям одной категории в разрезе пользователей.
+     */
+    public void forEachCategoryTotals(long categoryId, TotalsConsumer consumer) {
+        jdbcTemplate.query(
+                "SELECT user_id, " +
+                "SUM(CASE WHEN type = 'INCOME' THEN amount ELSE 0 END), " +
+                "SUM(CASE WHEN type = 'EXPENSE' THEN amount ELSE 0 END) " +
+                "FROM transactions WHERE category_id = ? GROUP BY user_id",
+                rs -> {
+                    consumer.accept(rs.getLong(1), rs.getDouble(2), rs.getDouble(3));
+                },
+                categoryId);
+    }
+
+    public record BalanceRow(long userId, double income, double expense, long version) {}
+
+    @FunctionalInterface
+    public interface TotalsConsumer {
+        void accept(long userId, double income, double expense);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.budgetflow.repository;
+
+import com.example.budgetflow.entity.UserBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserBalanceRepository extends JpaRepository<UserBalance, Long> {
+
+    // Транзакции удаляются каскадом вместе с пользователем — баланс вместе с ними
+    @Modifying
+    @Query("DELETE FROM UserBalance b WHERE b.userId = :userId")
+    int deleteByUserId(@Param("userId") Long userId);
+}
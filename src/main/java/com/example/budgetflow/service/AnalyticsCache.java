@@ -0,0 +1,212 @@
+package com.example.budgetflow.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Кэш результата {@link PortfolioAnalyticsService#calculateAnalytics} по пользователю.
+ *
+ * Запись сбрасывается точечно: по {@link PortfolioChangedEvent} этого пользователя (после коммита)
+ * и по {@link PriceChangedEvent} тикера, который есть в его портфеле. Одновременные промахи
+ * по одному пользователю ждут одного расчёта (single-flight). Если за время расчёта поменялась
+ * какая-либо цена, результат отдаётся ожидающим, но в кэше не остаётся — тикеры портфеля
+ * до конца расчёта неизвестны.
+ *
+ * Размер и время жизни записи ограничены; при переполнении вытесняется самая старая
+ * из небольшой выборки записей.
+ */
+@Component
+public class AnalyticsCache {
+
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> usersByTicker = new ConcurrentHashMap<>();
+    private final AtomicLong priceChanges = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public AnalyticsCache(@Value("${budgetflow.analytics.cache.max-entries:10000}") int maxEntries,
+                          @Value("${budgetflow.analytics.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    public PortfolioAnalyticsService.PortfolioAnalytics get(
+            Long userId, Function<Long, PortfolioAnalyticsService.PortfolioAnalytics> loader) {
+        while (true) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                if (!entry.isExpired(System.currentTimeMillis(), ttlMillis)) {
+                    (entry.result.isDone() ? hits : coalesced).incrementAndGet();
+                    return join(entry);
+                }
+                if (remove(userId, entry)) expirations.incrementAndGet();
+            }
+
+            Entry created = new Entry();
+            if (entries.putIfAbsent(userId, created) != null) continue;
+            misses.incrementAndGet();
+            ensureCapacity();
+            return load(userId, created, loader);
+        }
+    }
+
+    public void invalidate(Long userId) {
+        Entry entry = entries.get(userId);
+        if (entry != null && remove(userId, entry)) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPortfolioChanged(PortfolioChangedEvent event) {
+        invalidate(event.userId());
+    }
+
+    @EventListener
+    public void onPriceChanged(PriceChangedEvent event) {
+        priceChanges.incrementAndGet();
+        Set<Long> users = usersByTicker.get(event.ticker());
+        if (users == null) return;
+        for (Long userId : users.toArray(Long[]::new)) {
+            invalidate(userId);
+        }
+    }
+
+    @EventListener
+    public void onFxRateChanged(FxRateChangedEvent event) {
+        // как и смена цены: расчёт, шедший во время смены курса, в кэше не останется
+        priceChanges.incrementAndGet();
+        for (Long userId : entries.keySet().toArray(Long[]::new)) {
+            invalidate(userId);
+        }
+    }
+
+    public CacheMetrics getMetrics() {
+        return new CacheMetrics(entries.size(), maxEntries, ttlMillis / 1000, hits.get(), misses.get(),
+                coalesced.get(), evictions.get(), expirations.get(), invalidations.get());
+    }
+
+    private PortfolioAnalyticsService.PortfolioAnalytics load(
+            Long userId, Entry entry, Function<Long, PortfolioAnalyticsService.PortfolioAnalytics> loader) {
+        long pricesBefore = priceChanges.get();
+        PortfolioAnalyticsService.PortfolioAnalytics analytics;
+        try {
+            analytics = loader.apply(userId);
+        } catch (RuntimeException e) {
+            entries.remove(userId, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+
+        index(userId, entry, analytics);
+        entry.loadedAt = System.currentTimeMillis();
+        entry.result.complete(analytics);
+        // запись могли сбросить, пока шёл расчёт, — тогда индекс тикеров ей больше не нужен
+        if (entries.get(userId) != entry || priceChanges.get() != pricesBefore) {
+            remove(userId, entry);
+            unindex(userId, entry);
+        }
+        return analytics;
+    }
+
+    private boolean remove(Long userId, Entry entry) {
+        if (!entries.remove(userId, entry)) return false;
+        unindex(userId, entry);
+        return true;
+    }
+
+    private synchronized void index(Long userId, Entry entry, PortfolioAnalyticsService.PortfolioAnalytics analytics) {
+        for (PortfolioAnalyticsService.AssetAnalytics asset : analytics.assets()) {
+            if (asset.ticker() != null) entry.tickers.add(asset.ticker());
+        }
+        for (String ticker : entry.tickers) {
+            usersByTicker.computeIfAbsent(ticker, t -> ConcurrentHashMap.newKeySet()).add(userId);
+        }
+        entry.indexed = true;
+    }
+
+    /**
+     * Убирает пользователя из индекса тикеров снятой записи, кроме тикеров его текущей записи.
+     * Индексация и её откат идут под одной блокировкой — они редки, а чтения кэша её не берут.
+     */
+    private synchronized void unindex(Long userId, Entry entry) {
+        if (!entry.indexed) return;
+        entry.indexed = false;
+        Entry current = entries.get(userId);
+        for (String ticker : entry.tickers) {
+            if (current != null && current.indexed && current.tickers.contains(ticker)) continue;
+            usersByTicker.computeIfPresent(ticker, (t, users) -> {
+                users.remove(userId);
+                return users.isEmpty() ? null : users;
+            });
+        }
+    }
+
+    /**
+     * Приблизительное вытеснение самой старой записи: полный обход таблицы на каждом промахе слишком дорог.
+     */
+    private void ensureCapacity() {
+        while (entries.size() > maxEntries) {
+            Long victim = null;
+            Entry victimEntry = null;
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+                Map.Entry<Long, Entry> candidate = it.next();
+                Entry entry = candidate.getValue();
+                if (!entry.result.isDone()) continue;
+                if (victimEntry == null || entry.loadedAt < victimEntry.loadedAt) {
+                    victim = candidate.getKey();
+                    victimEntry = entry;
+                }
+            }
+            if (victim == null) return;
+            if (remove(victim, victimEntry)) evictions.incrementAndGet();
+        }
+    }
+
+    private static PortfolioAnalyticsService.PortfolioAnalytics join(Entry entry) {
+        try {
+            return entry.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    public record CacheMetrics(
+            int size, int maxEntries, long ttlSeconds,
+            long hits, long misses, long coalesced, long evictions, long expirations, long invalidations
+    ) {}
+
+    private static class Entry {
+        private final CompletableFuture<PortfolioAnalyticsService.PortfolioAnalytics> result = new CompletableFuture<>();
+        private final Set<String> tickers = new HashSet<>();
+        private volatile long loadedAt;
+        private boolean indexed;
+
+        private boolean isExpired(long now, long ttlMillis) {
+            return result.isDone() && now - loadedAt >= ttlMillis;
+        }
+    }
+}
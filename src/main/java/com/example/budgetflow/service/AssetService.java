@@ -5,6 +5,7 @@ import com.example.budgetflow.entity.Asset;
 import com.example.budgetflow.repository.AssetRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -17,6 +18,7 @@ import java.util.List;
 public class AssetService {
     private final AssetRepository assetRepository;
     private final AccountService accountService;
+    private final ApplicationEventPublisher eventPublisher;
 
     public List<Asset> getAssetsByAccount(Long accountId){
         return assetRepository.findByAccountId(accountId);
@@ -36,6 +38,7 @@ public class AssetService {
         asset.setType(type);
         asset.setCurrency(currency);
         asset.setQuantity(quantity);
+        eventPublisher.publishEvent(new PortfolioChangedEvent(account.getUser().getId()));
         return assetRepository.save(asset);
     }
 
@@ -46,11 +49,14 @@ public class AssetService {
         if (type != null) asset.setType(type);
         if (currency != null) asset.setCurrency(currency);
         if (quantity != null) asset.setQuantity(quantity);
+        eventPublisher.publishEvent(new PortfolioChangedEvent(asset.getAccount().getUser().getId()));
         return assetRepository.save(asset);
     }
 
     public void deleteAccount(Long assetId){
         log.info("Удаление актива с ID: {}", assetId);
-        assetRepository.deleteById(assetId);
+        Asset asset = getAssetById(assetId);
+        assetRepository.delete(asset);
+        eventPublisher.publishEvent(new PortfolioChangedEvent(asset.getAccount().getUser().getId()));
     }
 }
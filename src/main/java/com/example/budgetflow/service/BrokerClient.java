@@ -0,0 +1,151 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.service.BrokerOperationsApi.OperationsPage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Клиент API операций брокера поверх {@link BrokerOperationsApi}:
+ * <ul>
+ *     <li>ограничивает частоту запросов отдельным ведром токенов на каждый токен брокера;</li>
+ *     <li>повторяет запросы, отклонённые по лимиту, с экспоненциальной задержкой и случайным разбросом;</li>
+ *     <li>листает историю по курсору и запрашивает следующую страницу, пока текущая обрабатывается.</li>
+ * </ul>
+ * Потокобезопасен; один экземпляр обслуживает все синхронизации.
+ */
+@Slf4j
+public class BrokerClient {
+
+    private final BrokerOperationsApi api;
+    private final Executor prefetchExecutor;
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int maxRetries;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+
+    private final Map<String, TokenBucket> bucketsByToken = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public BrokerClient(BrokerOperationsApi api, Executor prefetchExecutor, double requestsPerSecond, int burst,
+                        int maxRetries, long backoffBaseMillis, long backoffMaxMillis) {
+        this.api = api;
+        this.prefetchExecutor = prefetchExecutor;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.maxRetries = maxRetries;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+    }
+
+    /**
+     * Отдаёт все страницы операций начиная с from. Запрос следующей страницы уходит
+     * сразу после получения текущей и выполняется параллельно с onPage.
+     *
+     * @return число страниц
+     */
+    public int forEachPage(String token, String accountId, TinkoffSyncMode kind, Instant from, int limit,
+                           Consumer<OperationsPage> onPage) {
+        int[] pages = {0};
+        forEachPage(token, accountId, kind, from, null, limit, Integer.MAX_VALUE, page -> {
+            pages[0]++;
+            onPage.accept(page);
+        });
+        return pages[0];
+    }
+
+    /**
+     * Отдаёт не больше maxPages страниц начиная со страницы pageCursor (null — с первой),
+     * предзагружая следующую страницу в пределах этого числа.
+     *
+     * @return курсор первой необработанной страницы или null, если история пройдена до конца
+     */
+    public String forEachPage(String token, String accountId, TinkoffSyncMode kind, Instant from,
+                              String pageCursor, int limit, int maxPages, Consumer<OperationsPage> onPage) {
+        OperationsPage page = getOperations(token, accountId, kind, from, pageCursor, limit);
+        for (int pages = 1; ; pages++) {
+            String nextCursor = page.nextCursor();
+            boolean more = nextCursor != null && pages < maxPages;
+            CompletableFuture<OperationsPage> next = !more ? null : CompletableFuture.supplyAsync(
+                    () -> getOperations(token, accountId, kind, from, nextCursor, limit), prefetchExecutor);
+            try {
+                onPage.accept(page);
+            } catch (RuntimeException e) {
+                if (next != null) next.cancel(true);
+                throw e;
+            }
+            if (!more) return nextCursor;
+            try {
+                page = next.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+    }
+
+    /**
+     * Один запрос страницы с учётом лимита токена и повторами при троттлинге.
+     *
+     * @throws BrokerThrottledException если брокер отклонил все попытки
+     */
+    public OperationsPage getOperations(String token, String accountId, TinkoffSyncMode kind,
+                                        Instant from, String pageCursor, int limit) {
+        TokenBucket bucket = bucketsByToken.computeIfAbsent(token, t -> new TokenBucket(requestsPerSecond, burst));
+        for (int attempt = 0; ; attempt++) {
+            try {
+                bucket.acquire();
+                requests.incrementAndGet();
+                return api.getOperations(token, accountId, kind, from, pageCursor, limit);
+            } catch (BrokerThrottledException e) {
+                throttled.incrementAndGet();
+                if (attempt >= maxRetries) throw e;
+                long delay = backoffMillis(attempt, e.getRetryAfter());
+                log.warn("Брокер ограничил запросы для аккаунта {}, повтор {} через {} мс", accountId, attempt + 1, delay);
+                sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Запрос к брокеру прерван", e);
+            }
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * Full jitter: случайная задержка от 0 до base * 2^attempt (не больше max),
+     * но не меньше подсказки брокера. Разброс не даёт синхронизациям повторять запросы одновременно.
+     */
+    private long backoffMillis(int attempt, Duration retryAfter) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return retryAfter != null ? Math.max(delay, retryAfter.toMillis()) : delay;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Запрос к брокеру прерван", e);
+        }
+    }
+}
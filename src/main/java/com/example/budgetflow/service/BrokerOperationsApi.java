@@ -0,0 +1,33 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Постраничное чтение истории операций брокера.
+ * Операции отдаются начиная с момента from (включительно); порядок внутри выдачи не гарантируется.
+ */
+public interface BrokerOperationsApi {
+
+    /**
+     * @param kind       HISTORY — сделки, DIVIDENDS — начисления
+     * @param from       нижняя граница по времени операции, null — вся история
+     * @param pageCursor курсор страницы из предыдущего ответа, null — первая страница
+     */
+    OperationsPage getOperations(String token, String accountId, TinkoffSyncMode kind,
+                                 Instant from, String pageCursor, int limit);
+
+    /**
+     * Операция брокера. type: "BUY", "SELL" для сделок, "DIVIDEND", "COUPON" для начислений;
+     * для начислений заполнено amount, для сделок — quantity, price, fee.
+     */
+    record BrokerOperation(String id, Instant timestamp, String type, String ticker,
+                           double quantity, double price, double fee, double amount) {}
+
+    /**
+     * @param nextCursor курсор следующей страницы, null — страница последняя
+     */
+    record OperationsPage(List<BrokerOperation> operations, String nextCursor) {}
+}
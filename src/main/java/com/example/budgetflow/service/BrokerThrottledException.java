@@ -0,0 +1,23 @@
+package com.example.budgetflow.service;
+
+import java.time.Duration;
+
+/**
+ * Брокер отклонил запрос из-за превышения лимита (RESOURCE_EXHAUSTED / HTTP 429).
+ * retryAfter — подсказка брокера, через сколько можно повторить; null, если её нет.
+ */
+public class BrokerThrottledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public BrokerThrottledException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -2,6 +2,7 @@ package com.example.budgetflow.service;
 
 import com.example.budgetflow.entity.Category;
 import com.example.budgetflow.repository.CategoryRepository;
+import com.example.budgetflow.repository.TransactionRollupRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -17,6 +18,8 @@ import java.util.List;
 public class CategoryService {
 
     private final CategoryRepository categoryRepository;
+    private final TransactionRollupRepository transactionRollupRepository;
+    private final UserBalanceService userBalanceService;
 
     public Category createCategory(String name, String type, String icon, String color){
         log.info("Создание новой категории: {}", name);
@@ -61,6 +64,9 @@ public class CategoryService {
 
     public void deleteCategory(Long id){
         log.info("Удаление категории с ID: {}", id);
+        // транзакции категории удаляются каскадом, свёртки и суммы в балансах — здесь
+        transactionRollupRepository.deleteByCategoryId(id);
+        userBalanceService.removeCategory(id);
         categoryRepository.deleteById(id);
     }
 }
@@ -0,0 +1,409 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.repository.MarketDataRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ковариации и корреляции дневных доходностей по набору тикеров, риск портфеля поверх них.
+ *
+ * Доходности выравниваются на общий календарь {@link ReturnSeriesService}; матрица считается
+ * по центрированным рядам блоками {@link #TILE}×{@link #TILE} тикеров — каждый блок над диагональю
+ * отдельная задача fork/join, строки блока целиком помещаются в кэш процессора, а задачи пишут
+ * в непересекающиеся ячейки плоского массива n×n.
+ *
+ * Готовые матрицы кэшируются по набору тикеров и окну: одновременные запросы одной матрицы ждут
+ * одного расчёта, запись живёт ограниченное время и сбрасывается при смене цены любого её тикера.
+ * Матрицы большие, поэтому записей немного; при переполнении вытесняется самая старая из выборки.
+ */
+@Service
+@Slf4j
+public class CovarianceEngine {
+
+    static final int TILE = 64;
+    private static final int EVICTION_SAMPLE = 8;
+    private static final double DAYS_PER_YEAR = 365.0;
+
+    private final ReturnSeriesService returnSeriesService;
+    private final PortfolioAnalyticsService analyticsService;
+    private final MarketDataRepository marketDataRepository;
+    private final ForkJoinPool analyticsPool;
+    private final int lookbackDays;
+    private final int maxTickers;
+    private final int maxWindowDays;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    public CovarianceEngine(ReturnSeriesService returnSeriesService,
+                            PortfolioAnalyticsService analyticsService,
+                            MarketDataRepository marketDataRepository,
+                            ForkJoinPool analyticsPool,
+                            @Value("${budgetflow.covariance.lookback-days:365}") int lookbackDays,
+                            @Value("${budgetflow.covariance.max-tickers:5000}") int maxTickers,
+                            @Value("${budgetflow.covariance.max-window-days:3650}") int maxWindowDays,
+                            @Value("${budgetflow.covariance.cache.max-entries:32}") int maxEntries,
+                            @Value("${budgetflow.covariance.cache.ttl-seconds:900}") long ttlSeconds) {
+        this.returnSeriesService = returnSeriesService;
+        this.analyticsService = analyticsService;
+        this.marketDataRepository = marketDataRepository;
+        this.analyticsPool = analyticsPool;
+        this.lookbackDays = lookbackDays;
+        this.maxTickers = maxTickers;
+        this.maxWindowDays = maxWindowDays;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    /**
+     * Матрица по тикерам за [from, to]; тикеры в ней отсортированы.
+     *
+     * @throws IllegalArgumentException при пустом или слишком длинном периоде, слишком большом наборе тикеров
+     */
+    public CovarianceMatrix covariance(Collection<String> tickers, LocalDate from, LocalDate to) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String ticker : tickers) {
+            if (ticker != null) sorted.add(ticker);
+        }
+        if (sorted.size() > maxTickers) {
+            throw new IllegalArgumentException("Слишком много тикеров для матрицы: " + sorted.size() + " > " + maxTickers);
+        }
+        if (from == null || to == null || from.isAfter(to)) {
+            throw new IllegalArgumentException("Некорректный период: " + from + " - " + to);
+        }
+        // ряды закрытий занимают по дню периода на тикер
+        if (to.toEpochDay() - from.toEpochDay() + 1 > maxWindowDays) {
+            throw new IllegalArgumentException("Период длиннее " + maxWindowDays + " дней: " + from + " - " + to);
+        }
+        Key key = new Key(List.copyOf(sorted), from, to);
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (!entry.isExpired(System.currentTimeMillis(), ttlMillis)) return join(entry);
+                entries.remove(key, entry);
+            }
+            Entry created = new Entry();
+            if (entries.putIfAbsent(key, created) != null) continue;
+            ensureCapacity();
+            try {
+                CovarianceMatrix matrix = compute(key);
+                created.loadedAt = System.currentTimeMillis();
+                created.result.complete(matrix);
+                return matrix;
+            } catch (RuntimeException e) {
+                entries.remove(key, created);
+                created.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Матрица по всем тикерам, у которых есть котировки.
+     */
+    public CovarianceMatrix universe(LocalDate from, LocalDate to) {
+        return covariance(marketDataRepository.findDistinctTickers(), from, to);
+    }
+
+    /**
+     * Матрица по тикерам портфеля пользователя за окно lookback-days.
+     */
+    public CovarianceMatrix forPortfolio(Long userId) {
+        LocalDate today = LocalDate.now();
+        return covariance(PortfolioAnalyticsService.valueByTicker(analyticsService.getAnalytics(userId)).keySet(),
+                today.minusDays(lookbackDays), today);
+    }
+
+    /**
+     * Дневная дисперсия портфеля и вклад каждого тикера в его волатильность. Позиции без тикера
+     * или без истории цен в расчёт не входят и показываются отдельно.
+     */
+    public PortfolioRisk portfolioRisk(Long userId) {
+        PortfolioAnalyticsService.PortfolioAnalytics analytics = analyticsService.getAnalytics(userId);
+        Map<String, Double> valueByTicker = PortfolioAnalyticsService.valueByTicker(analytics);
+        LocalDate today = LocalDate.now();
+        CovarianceMatrix matrix = covariance(valueByTicker.keySet(), today.minusDays(lookbackDays), today);
+
+        List<String> covered = matrix.periods() >= 2 ? matrix.tickers() : List.of();
+        double[] values = new double[covered.size()];
+        double coveredValue = 0.0;
+        for (int a = 0; a < values.length; a++) {
+            values[a] = valueByTicker.get(covered.get(a));
+            coveredValue += values[a];
+        }
+        List<String> uncovered = new ArrayList<>(valueByTicker.keySet());
+        uncovered.removeAll(covered);
+        return riskOf(matrix, values, analytics.baseCurrency(), coveredValue, analytics.totalValue() - coveredValue,
+                uncovered);
+    }
+
+    @EventListener
+    public void onPriceChanged(PriceChangedEvent event) {
+        // тикеры ключа отсортированы
+        entries.keySet().removeIf(key -> Collections.binarySearch(key.tickers(), event.ticker()) >= 0);
+    }
+
+    /**
+     * Вклады в риск: при весах w и ковариации Σ дисперсия портфеля — wᵀΣw, предельный вклад
+     * тикера — (Σw)ᵢ/σ, вклад — wᵢ(Σw)ᵢ/σ; вклады в сумме дают σ.
+     */
+    static PortfolioRisk riskOf(CovarianceMatrix matrix, double[] values, String baseCurrency,
+                                double coveredValue, double uncoveredValue, List<String> uncovered) {
+        int n = values.length;
+        double[] weights = new double[n];
+        for (int a = 0; a < n; a++) {
+            weights[a] = coveredValue > 0 ? values[a] / coveredValue : 0.0;
+        }
+        double[] cov = matrix.covariance();
+        double[] product = new double[n];
+        double variance = 0.0;
+        for (int a = 0; a < n; a++) {
+            double sum = 0.0;
+            for (int b = 0; b < n; b++) {
+                sum += cov[a * n + b] * weights[b];
+            }
+            product[a] = sum;
+            variance += weights[a] * sum;
+        }
+        double volatility = Math.sqrt(Math.max(variance, 0.0));
+        List<AssetRisk> assets = new ArrayList<>(n);
+        for (int a = 0; a < n; a++) {
+            double marginal = volatility > 0 ? product[a] / volatility : 0.0;
+            double contribution = weights[a] * marginal;
+            assets.add(new AssetRisk(matrix.tickers().get(a), values[a], weights[a], Math.sqrt(cov[a * n + a]),
+                    marginal, contribution, volatility > 0 ? contribution / volatility : 0.0));
+        }
+        return new PortfolioRisk(baseCurrency, matrix.from(), matrix.to(), matrix.periods(), coveredValue,
+                uncoveredValue, variance, volatility, volatility * Math.sqrt(matrix.periodsPerYear()), assets,
+                uncovered);
+    }
+
+    private CovarianceMatrix compute(Key key) {
+        long started = System.currentTimeMillis();
+        ReturnSeriesService.AlignedReturns returns = returnSeriesService.dailyReturns(key.tickers(), key.from(), key.to());
+        int n = returns.tickers().size();
+        int periods = returns.periods();
+        double[] means = new double[n];
+        double[] covariance = new double[n * n];
+        if (periods >= 2) {
+            double[][] centered = center(returns.returns(), means);
+            covariance(analyticsPool, centered, covariance);
+        }
+        double span = periods > 0 ? returns.days()[periods - 1] - returns.days()[0] : 0.0;
+        double periodsPerYear = span > 0 ? (periods - 1) * DAYS_PER_YEAR / span : 0.0;
+        long millis = System.currentTimeMillis() - started;
+        if (n > TILE) {
+            log.info("Матрица ковариаций {}×{} за {} дней построена за {} мс", n, n, periods, millis);
+        }
+        return new CovarianceMatrix(returns.tickers(), key.from(), key.to(), periods, periodsPerYear, means, covariance,
+                returns.missing());
+    }
+
+    /**
+     * Средние в means, возвращает ряды за вычетом среднего.
+     */
+    static double[][] center(double[][] returns, double[] means) {
+        double[][] centered = new double[returns.length][];
+        for (int a = 0; a < returns.length; a++) {
+            double[] row = returns[a];
+            double sum = 0.0;
+            for (double r : row) sum += r;
+            double mean = sum / row.length;
+            means[a] = mean;
+            double[] shifted = new double[row.length];
+            for (int i = 0; i < row.length; i++) {
+                shifted[i] = row[i] - mean;
+            }
+            centered[a] = shifted;
+        }
+        return centered;
+    }
+
+    /**
+     * Выборочная ковариация центрированных рядов в плоский массив n×n: блоки на диагонали и под ней
+     * считаются параллельно, каждая ячейка пишется вместе с симметричной.
+     */
+    static void covariance(ForkJoinPool pool, double[][] centered, double[] covariance) {
+        int n = centered.length;
+        int blocks = (n + TILE - 1) / TILE;
+        double scale = 1.0 / (centered[0].length - 1);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> tiles = new ArrayList<>(blocks * (blocks + 1) / 2);
+                for (int bi = 0; bi < blocks; bi++) {
+                    for (int bj = 0; bj <= bi; bj++) {
+                        int rowStart = bi * TILE;
+                        int columnStart = bj * TILE;
+                        tiles.add(new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                tile(centered, covariance, scale, rowStart, columnStart);
+                            }
+                        });
+                    }
+                }
+                invokeAll(tiles);
+            }
+        });
+    }
+
+    private static void tile(double[][] centered, double[] covariance, double scale, int rowStart, int columnStart) {
+        int n = centered.length;
+        int rowEnd = Math.min(n, rowStart + TILE);
+        int columnEnd = Math.min(n, columnStart + TILE);
+        for (int i = rowStart; i < rowEnd; i++) {
+            double[] x = centered[i];
+            int last = Math.min(columnEnd, i + 1);
+            for (int j = columnStart; j < last; j++) {
+                double value = dot(x, centered[j]) * scale;
+                covariance[i * n + j] = value;
+                covariance[j * n + i] = value;
+            }
+        }
+    }
+
+    /**
+     * Скалярное произведение с четырьмя независимыми суммами — цепочка сложений не ждёт предыдущего.
+     */
+    private static double dot(double[] x, double[] y) {
+        double s0 = 0.0;
+        double s1 = 0.0;
+        double s2 = 0.0;
+        double s3 = 0.0;
+        int length = x.length;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += x[i] * y[i];
+            s1 += x[i + 1] * y[i + 1];
+            s2 += x[i + 2] * y[i + 2];
+            s3 += x[i + 3] * y[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += x[i] * y[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private void ensureCapacity() {
+        while (entries.size() > maxEntries) {
+            Key victim = null;
+            Entry victimEntry = null;
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+                Map.Entry<Key, Entry> candidate = it.next();
+                Entry entry = candidate.getValue();
+                if (!entry.result.isDone()) continue;
+                if (victimEntry == null || entry.loadedAt < victimEntry.loadedAt) {
+                    victim = candidate.getKey();
+                    victimEntry = entry;
+                }
+            }
+            if (victim == null) return;
+            entries.remove(victim, victimEntry);
+        }
+    }
+
+    private static CovarianceMatrix join(Entry entry) {
+        try {
+            return entry.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Ковариации дневных лог-доходностей: covariance — плоский массив n×n по строкам в порядке tickers,
+     * means — средние доходности; periodsPerYear — сколько дней календаря истории приходится на год.
+     * Тикеры без достаточной истории — в missing.
+     */
+    public record CovarianceMatrix(List<String> tickers, LocalDate from, LocalDate to, int periods,
+                                   double periodsPerYear, double[] means, double[] covariance, List<String> missing) {
+
+        public int size() {
+            return tickers.size();
+        }
+
+        public double[] volatilities() {
+            int n = size();
+            double[] result = new double[n];
+            for (int a = 0; a < n; a++) {
+                result[a] = Math.sqrt(covariance[a * n + a]);
+            }
+            return result;
+        }
+
+        /**
+         * Корреляции по строкам; у тикера с нулевой дисперсией корреляции нулевые, на диагонали — 1.
+         */
+        public double[][] correlation() {
+            int n = size();
+            double[] volatility = volatilities();
+            double[][] rows = new double[n][n];
+            for (int a = 0; a < n; a++) {
+                for (int b = 0; b < n; b++) {
+                    double denominator = volatility[a] * volatility[b];
+                    rows[a][b] = a == b ? 1.0 : denominator > 0 ? covariance[a * n + b] / denominator : 0.0;
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Корреляционная матрица для ответа API.
+     */
+    public record CorrelationMatrix(List<String> tickers, LocalDate from, LocalDate to, int periods,
+                                    double[] volatilities, double[][] correlation, List<String> missing) {
+
+        public static CorrelationMatrix of(CovarianceMatrix matrix) {
+            return new CorrelationMatrix(matrix.tickers(), matrix.from(), matrix.to(), matrix.periods(),
+                    matrix.volatilities(), matrix.correlation(), matrix.missing());
+        }
+    }
+
+    /**
+     * Риск портфеля по дневным доходностям; coveredValue — стоимость позиций, вошедших в расчёт,
+     * uncoveredValue — остальная часть портфеля.
+     */
+    public record PortfolioRisk(
+            String baseCurrency, LocalDate from, LocalDate to, int periods, double coveredValue, double uncoveredValue,
+            double variance, double volatility, double annualizedVolatility, List<AssetRisk> assets,
+            List<String> uncoveredTickers
+    ) {}
+
+    /**
+     * Вклад тикера: вес в покрытой части, собственная дневная волатильность, предельный вклад
+     * (рост σ портфеля на единицу веса), вклад в σ и его доля.
+     */
+    public record AssetRisk(String ticker, double value, double weight, double volatility,
+                            double marginalContribution, double riskContribution, double riskShare) {}
+
+    private record Key(List<String> tickers, LocalDate from, LocalDate to) {}
+
+    private static class Entry {
+        private final CompletableFuture<CovarianceMatrix> result = new CompletableFuture<>();
+        private volatile long loadedAt;
+
+        private boolean isExpired(long now, long ttlMillis) {
+            return result.isDone() && now - loadedAt >= ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.example.budgetflow.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Потоковый токенизатор CSV без аллокаций на строку и поле.
+ * Читает источник в собственный переиспользуемый буфер и для каждой записи хранит только
+ * смещения полей в этом буфере. Кавычки снимаются на месте: содержимое поля сдвигается внутри
+ * буфера, поэтому поле всегда непрерывно, а {@code ""} внутри кавычек превращается в одну кавычку.
+ * Перевод строки внутри кавычек считается частью поля.
+ *
+ * Смещения действительны только до следующего вызова {@link #next()}.
+ * Экземпляр не потокобезопасен; для нового файла используйте {@link #reset(Reader)}.
+ */
+public class CsvTokenizer {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final char delimiter;
+    private Reader in;
+    private char[] buf = new char[INITIAL_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private int recordStart;
+    private boolean eof;
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fieldCount;
+
+    public CsvTokenizer(Reader in) {
+        this(in, ',');
+    }
+
+    public CsvTokenizer(Reader in, char delimiter) {
+        this.in = in;
+        this.delimiter = delimiter;
+    }
+
+    public void reset(Reader in) {
+        this.in = in;
+        pos = limit = recordStart = fieldCount = 0;
+        eof = false;
+    }
+
+    /**
+     * Читает следующую запись.
+     *
+     * @return false, если источник исчерпан
+     */
+    public boolean next() throws IOException {
+        fieldCount = 0;
+        recordStart = pos;
+        int i = pos;
+        if (i >= limit) {
+            i -= fill();
+            if (i >= limit) return false;
+        }
+
+        int fieldStart = i;
+        int w = i;
+        boolean inQuotes = false;
+        while (true) {
+            if (i >= limit) {
+                if (!eof) {
+                    int shift = fill();
+                    i -= shift;
+                    w -= shift;
+                    fieldStart -= shift;
+                    continue;
+                }
+                addField(fieldStart, w);
+                pos = i;
+                return true;
+            }
+
+            char c = buf[i];
+            if (c == '"') {
+                if (inQuotes && i + 1 >= limit && !eof) {
+                    // нужна следующая литера, чтобы отличить "" от закрывающей кавычки
+                    int shift = fill();
+                    i -= shift;
+                    w -= shift;
+                    fieldStart -= shift;
+                    continue;
+                }
+                if (inQuotes && i + 1 < limit && buf[i + 1] == '"') {
+                    buf[w++] = '"';
+                    i += 2;
+                } else {
+                    inQuotes = !inQuotes;
+                    i++;
+                }
+            } else if (!inQuotes && c == delimiter) {
+                addField(fieldStart, w);
+                i++;
+                fieldStart = w = i;
+            } else if (!inQuotes && (c == '\n' || c == '\r')) {
+                addField(fieldStart, w);
+                i++;
+                if (c == '\r') {
+                    if (i >= limit && !eof) {
+                        i -= fill();
+                    }
+                    if (i < limit && buf[i] == '\n') i++;
+                }
+                pos = i;
+                return true;
+            } else {
+                buf[w++] = c;
+                i++;
+            }
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public char[] buffer() {
+        return buf;
+    }
+
+    public int fieldStart(int index) {
+        return starts[index];
+    }
+
+    public int fieldEnd(int index) {
+        return ends[index];
+    }
+
+    /** Пустая запись или запись из одних пробелов. */
+    public boolean isBlank() {
+        return fieldCount == 1 && trimStart(0) == trimEnd(0);
+    }
+
+    /** Значение поля без окружающих пробелов. */
+    public String field(int index) {
+        int start = trimStart(index);
+        return new String(buf, start, trimEnd(index) - start);
+    }
+
+    public boolean fieldEquals(int index, String value) {
+        return regionEquals(index, value, false);
+    }
+
+    public boolean fieldEqualsIgnoreCase(int index, String value) {
+        return regionEquals(index, value, true);
+    }
+
+    /** Текст записи для сообщений об ошибках (кавычки уже сняты). */
+    public String recordText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fieldCount; i++) {
+            if (i > 0) sb.append(delimiter);
+            sb.append(buf, starts[i], ends[i] - starts[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Разбирает дату в формате dd.MM.yyyy прямо из буфера.
+     *
+     * @throws IllegalArgumentException если поле не соответствует формату
+     */
+    public LocalDate parseDate(int index) {
+        int start = trimStart(index);
+        int end = trimEnd(index);
+        if (end - start != 10 || buf[start + 2] != '.' || buf[start + 5] != '.') {
+            throw new IllegalArgumentException("Некорректная дата: " + field(index));
+        }
+        int day = digits(start, 2, index);
+        int month = digits(start + 3, 2, index);
+        int year = digits(start + 6, 4, index);
+        return LocalDate.of(year, month, day);
+    }
+
+    /**
+     * Разбирает десятичное число с запятой или точкой в качестве разделителя,
+     * пропуская пробелы-разделители разрядов. Пустое или нечисловое поле даёт 0.0.
+     */
+    public double parseDecimal(int index) {
+        int start = starts[index];
+        int end = ends[index];
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean negative = false;
+        boolean seenSeparator = false;
+        boolean seenDigit = false;
+
+        for (int i = start; i < end; i++) {
+            char c = buf[i];
+            if (c >= '0' && c <= '9') {
+                if (digits >= 18) return parseDecimalSlow(start, end);
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+                if (seenSeparator) scale++;
+                seenDigit = true;
+            } else if (c == ',' || c == '.') {
+                if (seenSeparator) return 0.0;
+                seenSeparator = true;
+            } else if (isDigitGroupSeparator(c)) {
+                // разделитель разрядов или отступ
+            } else if ((c == '-' || c == '+') && !seenDigit && !seenSeparator) {
+                negative = c == '-';
+            } else {
+                return parseDecimalSlow(start, end);
+            }
+        }
+        if (!seenDigit) return 0.0;
+        if (scale >= POWERS_OF_TEN.length || mantissa >= MAX_EXACT_MANTISSA) {
+            return parseDecimalSlow(start, end);
+        }
+        // mantissa < 2^53 и 10^scale точно представимы, поэтому деление даёт корректно округлённый результат
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private double parseDecimalSlow(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = buf[i];
+            if (c == ',') {
+                sb.append('.');
+            } else if (!isDigitGroupSeparator(c)) {
+                sb.append(c);
+            }
+        }
+        try {
+            return Double.parseDouble(sb.toString());
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    private static boolean isDigitGroupSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\u00A0' || c == '\u202F';
+    }
+
+    private int digits(int from, int count, int index) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = buf[i];
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Некорректная дата: " + field(index));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private boolean regionEquals(int index, String value, boolean ignoreCase) {
+        int start = trimStart(index);
+        int end = trimEnd(index);
+        if (end - start != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char a = buf[start + i];
+            char b = value.charAt(i);
+            if (a != b && !(ignoreCase && Character.toUpperCase(a) == Character.toUpperCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int trimStart(int index) {
+        int i = starts[index];
+        int end = ends[index];
+        while (i < end && Character.isWhitespace(buf[i])) i++;
+        return i;
+    }
+
+    private int trimEnd(int index) {
+        int start = starts[index];
+        int i = ends[index];
+        while (i > start && Character.isWhitespace(buf[i - 1])) i--;
+        return i;
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * Сдвигает незавершённую запись в начало буфера (при необходимости увеличивая его)
+     * и дочитывает источник.
+     *
+     * @return величина сдвига, которую нужно вычесть из локальных индексов
+     */
+    private int fill() throws IOException {
+        int shift = recordStart;
+        int length = limit - recordStart;
+        if (shift > 0) {
+            System.arraycopy(buf, shift, buf, 0, length);
+            for (int i = 0; i < fieldCount; i++) {
+                starts[i] -= shift;
+                ends[i] -= shift;
+            }
+        } else if (length == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        recordStart = 0;
+        limit = length;
+
+        int read;
+        do {
+            read = in.read(buf, limit, buf.length - limit);
+        } while (read == 0);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return shift;
+    }
+}
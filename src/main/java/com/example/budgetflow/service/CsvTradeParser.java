@@ -0,0 +1,94 @@
+package com.example.budgetflow.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+
+/**
+ * Стадия разбора CSV-выгрузки брокера: превращает строки файла в неизменяемые записи сделок.
+ * Поля читаются через {@link CsvTokenizer} прямо из буфера; строка на каждую запись не создаётся.
+ * Ошибка в строке не останавливает разбор — она передаётся дальше как {@link ErrorRow}.
+ * Поток записей всегда завершается {@link EndOfInput} либо {@link FailedInput}.
+ */
+public class CsvTradeParser {
+
+    public sealed interface Row permits TradeRow, ErrorRow, EndOfInput, FailedInput {}
+
+    public record TradeRow(int rowNumber, LocalDate date, String type, String ticker,
+                           double quantity, double price, double fee) implements Row {}
+
+    public record ErrorRow(int rowNumber, String message) implements Row {}
+
+    public record EndOfInput(int rowsRead) implements Row {}
+
+    public record FailedInput(Exception cause) implements Row {}
+
+    @FunctionalInterface
+    public interface RowSink {
+        void accept(Row row) throws InterruptedException;
+    }
+
+    private final CsvTokenizer tokenizer = new CsvTokenizer(Reader.nullReader());
+
+    public void parse(Reader source, RowSink sink) throws InterruptedException {
+        parse(source, 0, sink);
+    }
+
+    /**
+     * Читает файл до конца (или до первой пустой строки) и отдаёт записи в sink.
+     * Блокирующий sink (например, put в ограниченную очередь) притормаживает разбор,
+     * если запись в БД не успевает.
+     *
+     * @param skipRows сколько строк данных пропустить без разбора — при возобновлении импорта с контрольной точки
+     */
+    public void parse(Reader source, int skipRows, RowSink sink) throws InterruptedException {
+        int rowsRead = 0;
+        try (source) {
+            tokenizer.reset(source);
+            // первая запись — заголовок
+            if (!tokenizer.next() || !isHeader(tokenizer.recordText())) {
+                throw new IllegalArgumentException("Неверный формат файла. Ожидается CSV с заголовками.");
+            }
+
+            while (tokenizer.next() && !tokenizer.isBlank()) {
+                rowsRead++;
+                if (rowsRead <= skipRows) continue;
+                Row row;
+                try {
+                    row = parseRecord(rowsRead);
+                } catch (Exception e) {
+                    row = new ErrorRow(rowsRead, "Строка: " + tokenizer.recordText() + " - " + e.getMessage());
+                }
+                if (row != null) {
+                    sink.accept(row);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            sink.accept(new FailedInput(e));
+            return;
+        }
+        sink.accept(new EndOfInput(rowsRead));
+    }
+
+    private static boolean isHeader(String line) {
+        return line.contains("Дата") || line.contains("Date");
+    }
+
+    /**
+     * @return запись сделки или null, если строка не описывает покупку/продажу
+     */
+    private TradeRow parseRecord(int rowNumber) {
+        CsvTokenizer t = tokenizer;
+        if (t.fieldCount() < 5) return null;
+
+        boolean buy = t.fieldEquals(1, "Покупка") || t.fieldEqualsIgnoreCase(1, "BUY");
+        boolean sell = t.fieldEquals(1, "Продажа") || t.fieldEqualsIgnoreCase(1, "SELL");
+        LocalDate date = t.parseDate(0);
+        if (!buy && !sell) return null;
+
+        double quantity = t.parseDecimal(3);
+        double price = t.parseDecimal(4);
+        double fee = t.fieldCount() > 5 ? t.parseDecimal(5) : 0.0;
+        return new TradeRow(rowNumber, date, buy ? "BUY" : "SELL", t.field(2), quantity, price, fee);
+    }
+}
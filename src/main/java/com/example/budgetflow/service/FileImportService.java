@@ -2,156 +2,353 @@ package com.example.budgetflow.service;
 
 import com.example.budgetflow.entity.*;
 import com.example.budgetflow.repository.*;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.math.BigDecimal;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class FileImportService {
 
+    private static final int MAX_REPORTED_ERRORS = 100;
+
     private final UserService userService;
     private final AccountService accountService;
     private final AssetService assetService;
-    private final TradeRepository tradeRepository;
     private final AccrualRepository accrualRepository;
     private final ImportLogRepository importLogRepository;
+    private final TradeJdbcRepository tradeJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final ExecutorService importParserExecutor;
+    private final PositionLedger positionLedger;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${budgetflow.import.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${budgetflow.import.queue-capacity:10000}")
+    private int queueCapacity;
 
-    @Transactional
     public ImportResult importOperationsFile(MultipartFile file, Long userId, String accountNumber) {
+        ImportLog logEntry = newLogEntry(userId, accountNumber, "IN_PROGRESS");
+        importLogRepository.save(logEntry);
+        try {
+            return runImport(logEntry, () -> new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8));
+        } catch (Exception ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            // синхронный импорт продолжить нельзя — файла на диске нет
+            markFailed(logEntry, ex);
+            return new ImportResult(false, 0, 0, 0, List.of(String.valueOf(ex.getMessage())));
+        }
+    }
+
+    /**
+     * Создаёт запись журнала для фонового импорта из файла, уже сохранённого на диск.
+     */
+    public ImportLog createSpooledImport(Long userId, String accountNumber, Path spoolFile) {
+        ImportLog logEntry = newLogEntry(userId, accountNumber, "QUEUED");
+        logEntry.setSpoolPath(spoolFile.toString());
+        return importLogRepository.save(logEntry);
+    }
+
+    /**
+     * Выполняет (или продолжает после рестарта) фоновый импорт. Строки до checkpointRow
+     * уже закоммичены и пропускаются без разбора, счётчики продолжаются с сохранённых значений.
+     *
+     * Если поток прерван (остановка приложения) или БД временно недоступна, задача остаётся
+     * IN_PROGRESS на последней контрольной точке, и её можно продолжить с того же файла.
+     *
+     * @return true, если задача завершена (SUCCESS, PARTIAL или FAILED) и файл больше не нужен
+     */
+    public boolean runSpooledImport(ImportLog logEntry) {
+        Path spoolFile = Path.of(logEntry.getSpoolPath());
+        logEntry.setStatus("IN_PROGRESS");
+        try {
+            updateStatus(logEntry, "IN_PROGRESS", null);
+            runImport(logEntry, () -> Files.newBufferedReader(spoolFile, StandardCharsets.UTF_8));
+            return true;
+        } catch (Exception ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // при остановке в БД не пишем: статус и контрольная точка уже закоммичены
+                log.info("Импорт jobId={} остановлен, будет продолжен с последней контрольной точки", logEntry.getId());
+                return false;
+            }
+            if (isRetryable(ex)) {
+                log.warn("Импорт jobId={} приостановлен из-за временной ошибки: {}", logEntry.getId(), ex.getMessage());
+                updateStatus(logEntry, "IN_PROGRESS", truncate(ex.getMessage(), 1000));
+                return false;
+            }
+            markFailed(logEntry, ex);
+            return true;
+        }
+    }
+
+    /**
+     * Помечает задачу проваленной, не трогая счётчики, записанные вместе с пакетами.
+     */
+    private void markFailed(ImportLog logEntry, Exception ex) {
+        log.error("Ошибка импорта файла: {}", ex.getMessage(), ex);
+        logEntry.setStatus("FAILED");
+        logEntry.setErrorMessage(truncate(ex.getMessage(), 1000));
+        updateStatus(logEntry, "FAILED", logEntry.getErrorMessage());
+    }
+
+    private void updateStatus(ImportLog logEntry, String status, String errorMessage) {
+        transactionTemplate.executeWithoutResult(tx -> importLogRepository.updateStatus(
+                logEntry.getId(), status, errorMessage, java.time.LocalDateTime.now()));
+    }
+
+    /**
+     * Ошибка, после которой импорт можно продолжить с контрольной точки: прерывание потока
+     * или временная недоступность БД.
+     */
+    private static boolean isRetryable(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof InterruptedException || e instanceof InterruptedIOException
+                    || e instanceof ClosedByInterruptException || e instanceof TransientDataAccessException
+                    || e instanceof RecoverableDataAccessException || e instanceof CannotCreateTransactionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ImportLog newLogEntry(Long userId, String accountNumber, String status) {
         ImportLog logEntry = new ImportLog();
         logEntry.setUser(userService.getUserById(userId));
         logEntry.setSource("CSV");
         logEntry.setImportDate(java.time.LocalDateTime.now());
-        logEntry.setStatus("IN_PROGRESS");
+        logEntry.setUpdatedAt(logEntry.getImportDate());
+        logEntry.setStatus(status);
+        logEntry.setAccountNumber(accountNumber);
+        return logEntry;
+    }
+
+    /**
+     * @throws Exception если импорт прерван целиком; ошибки отдельных строк и пакетов учитываются в результате
+     */
+    private ImportResult runImport(ImportLog logEntry, ReaderSource readerSource) throws Exception {
+        Long userId = logEntry.getUser().getId();
+        ImportResolutionCache resolver = new ImportResolutionCache(accountService, assetService, userId);
+        Account account = resolver.findOrCreateAccount(logEntry.getAccountNumber(), "Импортированный счёт");
+        TradeDeduplicator deduplicator = new TradeDeduplicator(tradeJdbcRepository, account.getId());
+        deduplicator.load(batchSize);
+        ImportStats stats = new ImportStats(logEntry);
+        long startedAt = System.nanoTime();
 
+        // Разбор идёт в отдельном потоке, запись — в текущем; ограниченная очередь
+        // не даёт парсеру убежать вперёд, если БД пишет медленнее, чем читается файл
+        BlockingQueue<CsvTradeParser.Row> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Reader source = readerSource.open();
+        int skipRows = stats.checkpointRow;
+        Future<?> parserTask = importParserExecutor.submit(() -> {
+            new CsvTradeParser().parse(source, skipRows, queue::put);
+            return null;
+        });
         try {
-            Account account = findOrCreateAccount(accountNumber, userId);
-            List<String> errors = new ArrayList<>();
-            int operationsCount = 0;
-            int assetsCount = 0;
-
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(file.getInputStream(), "UTF-8"))) {
-                
-                String line = reader.readLine(); // пропускаем заголовок
-                if (line == null || !line.contains("Дата") && !line.contains("Date")) {
-                    throw new IllegalArgumentException("Неверный формат файла. Ожидается CSV с заголовками.");
-                }
+            consumeRows(queue, logEntry.getId(), account, resolver, deduplicator, stats);
+        } finally {
+            parserTask.cancel(true);
+        }
 
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy");
-                line = reader.readLine();
-
-                while (line != null && !line.trim().isEmpty()) {
-                    try {
-                        String[] parts = parseCSVLine(line);
-                        if (parts.length >= 5) {
-                            LocalDate date = LocalDate.parse(parts[0].trim(), formatter);
-                            String operation = parts[1].trim();
-                            String ticker = parts[2].trim();
-                            Double quantity = parseDouble(parts[3]);
-                            Double price = parseDouble(parts[4]);
-                            Double fee = parts.length > 5 ? parseDouble(parts[5]) : 0.0;
-
-                            if ("Покупка".equals(operation) || "BUY".equalsIgnoreCase(operation) ||
-                                "Продажа".equals(operation) || "SELL".equalsIgnoreCase(operation)) {
-                                
-                                Asset asset = findOrCreateAsset(ticker, account);
-                                Trade trade = new Trade();
-                                trade.setAsset(asset);
-                                trade.setType("Покупка".equals(operation) || "BUY".equalsIgnoreCase(operation) ? "BUY" : "SELL");
-                                trade.setDate(date);
-                                trade.setQuantity(quantity);
-                                trade.setPrice(price);
-                                trade.setFee(fee);
-                                
-                                tradeRepository.save(trade);
-                                operationsCount++;
-                            }
-                        }
-                    } catch (Exception e) {
-                        errors.add("Строка: " + line + " - " + e.getMessage());
-                    }
-                    line = reader.readLine();
-                }
-            }
+        double seconds = Math.max((System.nanoTime() - startedAt) / 1_000_000_000.0, 1e-9);
+        double rowsPerSecond = (stats.rowsRead - skipRows) / seconds;
+        int operationsCount = stats.operationsCount;
+        int assetsCount = stats.touchedAssets.size();
+        log.info("Импорт CSV завершён: userId={}, строк={}, сохранено={}, дублей={}, ошибок={}, {} строк/с",
+                userId, stats.rowsRead, operationsCount, stats.duplicatesCount, stats.errorsCount,
+                Math.round(rowsPerSecond));
 
-            logEntry.setStatus(errors.isEmpty() ? "SUCCESS" : "PARTIAL");
-            logEntry.setOperationsImported(operationsCount);
-            logEntry.setAssetsImported(assetsCount);
-            logEntry.setErrorMessage(errors.isEmpty() ? null : String.join("; ", errors));
-            logEntry.setDetails(String.format("{\"operations\":%d,\"assets\":%d,\"errors\":%d}", 
-                    operationsCount, assetsCount, errors.size()));
+        logEntry.setStatus(stats.errorsCount == 0 ? "SUCCESS" : "PARTIAL");
+        logEntry.setOperationsImported(operationsCount);
+        logEntry.setAssetsImported(assetsCount);
+        logEntry.setRowsRead(stats.rowsRead);
+        logEntry.setRowsFailed(stats.errorsCount);
+        logEntry.setRowsDuplicate(stats.duplicatesCount);
+        logEntry.setCheckpointRow(stats.rowsRead);
+        logEntry.setUpdatedAt(java.time.LocalDateTime.now());
+        logEntry.setErrorMessage(stats.errorsCount == 0 ? null : truncate(String.join("; ", stats.errors), 1000));
+        logEntry.setDetails(String.format(Locale.ROOT,
+                "{\"operations\":%d,\"assets\":%d,\"errors\":%d,\"duplicates\":%d,\"rows\":%d,\"rowsPerSecond\":%.1f}",
+                operationsCount, assetsCount, stats.errorsCount, stats.duplicatesCount, stats.rowsRead, rowsPerSecond));
 
-            importLogRepository.save(logEntry);
-            
-            return new ImportResult(true, operationsCount, assetsCount, errors);
-        } catch (Exception ex) {
-            log.error("Ошибка импорта файла: {}", ex.getMessage(), ex);
-            logEntry.setStatus("FAILED");
-            logEntry.setErrorMessage(ex.getMessage());
-            importLogRepository.save(logEntry);
-            return new ImportResult(false, 0, 0, List.of(ex.getMessage()));
-        }
+        importLogRepository.save(logEntry);
+        return new ImportResult(true, operationsCount, assetsCount, stats.duplicatesCount, stats.errors);
     }
 
-    private String[] parseCSVLine(String line) {
-        List<String> result = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder current = new StringBuilder();
-        
-        for (char c : line.toCharArray()) {
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                result.add(current.toString());
-                current = new StringBuilder();
-            } else {
-                current.append(c);
+    /**
+     * Стадия записи: забирает разобранные строки из очереди пачками, копит сделки до batchSize
+     * и сохраняет их. Ошибки разбора учитываются построчно и импорт не прерывают.
+     */
+    private void consumeRows(BlockingQueue<CsvTradeParser.Row> queue, Long logId, Account account,
+                             ImportResolutionCache resolver, TradeDeduplicator deduplicator,
+                             ImportStats stats) throws Exception {
+        List<CsvTradeParser.Row> drained = new ArrayList<>(batchSize);
+        List<CsvTradeParser.TradeRow> chunk = new ArrayList<>(batchSize);
+        while (true) {
+            drained.add(queue.take());
+            queue.drainTo(drained, batchSize - 1);
+            for (CsvTradeParser.Row row : drained) {
+                if (row instanceof CsvTradeParser.TradeRow trade) {
+                    stats.lastRow = trade.rowNumber();
+                    chunk.add(trade);
+                    if (chunk.size() >= batchSize) {
+                        flushChunk(chunk, logId, account, resolver, deduplicator, stats);
+                    }
+                } else if (row instanceof CsvTradeParser.ErrorRow error) {
+                    stats.lastRow = error.rowNumber();
+                    stats.addError(error.message());
+                } else if (row instanceof CsvTradeParser.EndOfInput end) {
+                    flushChunk(chunk, logId, account, resolver, deduplicator, stats);
+                    stats.rowsRead = end.rowsRead();
+                    return;
+                } else if (row instanceof CsvTradeParser.FailedInput failed) {
+                    throw failed.cause();
+                }
             }
+            drained.clear();
         }
-        result.add(current.toString());
-        return result.toArray(new String[0]);
     }
 
-    private Double parseDouble(String str) {
-        if (str == null || str.trim().isEmpty()) return 0.0;
+    /**
+     * Сохраняет накопленный пакет в отдельной транзакции: активы резолвятся, сделки уходят
+     * одним JDBC-батчем, после чего persistence context очищается, чтобы память не росла с размером файла.
+     * В той же транзакции обновляются позиции затронутых активов и фиксируется прогресс в ImportLog —
+     * контрольная точка всегда согласована с данными.
+     */
+    private void flushChunk(List<CsvTradeParser.TradeRow> chunk, Long logId, Account account,
+                            ImportResolutionCache resolver, TradeDeduplicator deduplicator, ImportStats stats) {
+        if (chunk.isEmpty()) return;
+        Set<Long> touchedAssets = new HashSet<>();
         try {
-            return Double.parseDouble(str.replace(",", ".").replace(" ", ""));
-        } catch (NumberFormatException e) {
-            return 0.0;
+            List<Trade> inserted = transactionTemplate.execute(status -> {
+                List<Trade> trades = new ArrayList<>(chunk.size());
+                for (CsvTradeParser.TradeRow row : chunk) {
+                    Trade trade = new Trade();
+                    trade.setAsset(resolver.findOrCreateAsset(row.ticker(), account));
+                    trade.setType(row.type());
+                    trade.setDate(row.date());
+                    trade.setQuantity(row.quantity());
+                    trade.setPrice(row.price());
+                    trade.setFee(row.fee());
+                    trade.setFingerprint(TradeDeduplicator.fingerprint(account.getId(), row.ticker(), trade));
+                    trades.add(trade);
+                }
+                List<Trade> fresh = deduplicator.retainNew(trades);
+                tradeJdbcRepository.batchInsert(fresh, batchSize);
+                touchedAssets.addAll(positionLedger.applyInserted(fresh));
+                if (!fresh.isEmpty()) {
+                    eventPublisher.publishEvent(new PortfolioChangedEvent(account.getUser().getId()));
+                }
+                int duplicates = trades.size() - fresh.size();
+                importLogRepository.updateProgress(logId, stats.lastRow, stats.operationsCount + fresh.size(),
+                        stats.errorsCount, stats.duplicatesCount + duplicates, stats.lastRow,
+                        java.time.LocalDateTime.now());
+                entityManager.flush();
+                entityManager.clear();
+                return fresh;
+            });
+            deduplicator.markInserted(inserted);
+            stats.touchedAssets.addAll(touchedAssets);
+            stats.operationsCount += inserted.size();
+            stats.duplicatesCount += chunk.size() - inserted.size();
+        } catch (RuntimeException e) {
+            resolver.evictAssets(account.getId());
+            if (Thread.currentThread().isInterrupted() || isRetryable(e)) {
+                // пакет откатился вместе с контрольной точкой — его строки повторятся при продолжении
+                throw e;
+            }
+            log.warn("Пакет строк {}-{} не сохранён: {}", chunk.get(0).rowNumber(),
+                    chunk.get(chunk.size() - 1).rowNumber(), e.getMessage());
+            stats.addErrors(chunk.size(), "Строки " + chunk.get(0).rowNumber() + "-" + chunk.get(chunk.size() - 1).rowNumber()
+                    + " не сохранены - " + e.getMessage());
+        } finally {
+            chunk.clear();
         }
     }
 
-    private Account findOrCreateAccount(String accountNumber, Long userId) {
-        List<Account> accounts = accountService.getAccountsByUser(userId);
-        return accounts.stream()
-                .filter(a -> accountNumber.equals(a.getAccountNumber()))
-                .findFirst()
-                .orElseGet(() -> accountService.createAccount(
-                        userId, accountNumber, "Импортированный счёт", "INVESTMENT", "RUB"));
+    private static String truncate(String value, int maxLength) {
+        if (value == null || value.length() <= maxLength) return value;
+        return value.substring(0, maxLength);
     }
 
-    private Asset findOrCreateAsset(String ticker, Account account) {
-        List<Asset> assets = assetService.getAssetsByAccount(account.getId());
-        return assets.stream()
-                .filter(a -> ticker.equals(a.getTicker()))
-                .findFirst()
-                .orElseGet(() -> assetService.createAsset(
-                        account.getId(), ticker, ticker, "stock", "RUB", 0.0));
+    public record ImportResult(boolean success, int operationsCount, int assetsCount, int duplicatesSkipped,
+                               List<String> errors) {}
+
+    @FunctionalInterface
+    private interface ReaderSource {
+        Reader open() throws IOException;
     }
 
-    public record ImportResult(boolean success, int operationsCount, int assetsCount, List<String> errors) {}
+    /**
+     * Счётчики одного импорта. Текст ошибок храним только для первых MAX_REPORTED_ERRORS строк,
+     * остальные лишь считаем — иначе файл с битым форматом раздувает память и ImportLog.
+     */
+    private static class ImportStats {
+        private int rowsRead;
+        private int operationsCount;
+        private int errorsCount;
+        private int duplicatesCount;
+        private int lastRow;
+        private final int checkpointRow;
+        private final List<String> errors = new ArrayList<>();
+        private final Set<Long> touchedAssets = new HashSet<>();
+
+        private ImportStats(ImportLog resumeFrom) {
+            checkpointRow = valueOrZero(resumeFrom.getCheckpointRow());
+            lastRow = checkpointRow;
+            operationsCount = valueOrZero(resumeFrom.getOperationsImported());
+            errorsCount = valueOrZero(resumeFrom.getRowsFailed());
+            duplicatesCount = valueOrZero(resumeFrom.getRowsDuplicate());
+        }
+
+        private static int valueOrZero(Integer value) {
+            return value != null ? value : 0;
+        }
+
+        private void addError(String message) {
+            addErrors(1, message);
+        }
+
+        private void addErrors(int rows, String message) {
+            errorsCount += rows;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(message);
+            }
+        }
+    }
 }
 
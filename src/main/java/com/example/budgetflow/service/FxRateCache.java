@@ -0,0 +1,286 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.FxRate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Курсы валют в памяти: по каждой валюте — ряд (день, рублей за единицу) в примитивных массивах,
+ * поиск курса на дату — двоичный поиск по ряду.
+ *
+ * Все курсы хранятся к рублю; курс между двумя валютами получается через него. Таблица курсов
+ * небольшая (валюта × день), поэтому читается целиком при старте, дальше обновляется сквозной
+ * записью из {@link FxRateListener}. Ряды неизменяемы и подменяются целиком, читатели не блокируются.
+ *
+ * Для оценки портфеля {@link #rates} отдаёт множители к базовой валюте в массиве по индексу валюты:
+ * перевод суммы в цикле по позициям — одно чтение массива без выделения памяти.
+ */
+@Component
+@Slf4j
+public class FxRateCache {
+
+    public static final String PIVOT = "RUB";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+    private volatile String[] currencies = {PIVOT};
+    private volatile Series[] series = {Series.EMPTY};
+    private volatile boolean loaded;
+
+    public FxRateCache(JdbcTemplate jdbcTemplate, ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        indexes.put(PIVOT, 0);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        long started = System.currentTimeMillis();
+        ensureLoaded();
+        log.info("Курсы валют загружены: {} валют за {} мс", currencies.length - 1, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Множители перевода в базовую валюту по курсам на дату. Валюта без курса на эту дату получает NaN;
+     * если курса нет у самой базы — все валюты, кроме неё.
+     */
+    public Rates rates(String baseCurrency, LocalDate asOf) {
+        ensureLoaded();
+        String base = baseCurrency != null ? baseCurrency : PIVOT;
+        Integer baseIndex = indexes.get(base);
+        if (baseIndex == null) {
+            synchronized (this) {
+                baseIndex = indexFor(base);
+            }
+        }
+        Series[] snapshot = series;
+        String[] names = currencies;
+        long day = asOf.toEpochDay();
+        double baseRate = rateAt(snapshot, baseIndex, day);
+        double[] factors = new double[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            factors[i] = rateAt(snapshot, i, day) / baseRate;
+        }
+        // сумма в базовой валюте не пересчитывается, даже если курса самой базы нет
+        factors[baseIndex] = 1.0;
+        return new Rates(base, indexes, names, factors);
+    }
+
+    /**
+     * Рублей за единицу валюты на дату (последний курс не позже неё); NaN, если курса нет.
+     */
+    public double rateAt(String currency, LocalDate date) {
+        ensureLoaded();
+        return rateAt(series, indexes.get(currency), date.toEpochDay());
+    }
+
+    /**
+     * Сквозная запись сохранённого курса. Пока таблица ещё не прочитана, курс попадёт в кэш вместе с ней.
+     */
+    public void onSaved(FxRate fxRate) {
+        synchronized (this) {
+            if (!loaded) return;
+            int index = indexFor(fxRate.getCurrency());
+            publish(index, series[index].with(fxRate.getDate().toEpochDay(), fxRate.getRate().doubleValue()));
+        }
+        eventPublisher.publishEvent(new FxRateChangedEvent(fxRate.getCurrency()));
+    }
+
+    /**
+     * Удалённый курс нельзя просто вычеркнуть — на ту же дату мог быть другой; ряд валюты перечитывается.
+     */
+    public void onRemoved(FxRate fxRate) {
+        synchronized (this) {
+            if (!loaded) return;
+            Map<String, Series> reloaded = load(fxRate.getCurrency());
+            publish(indexFor(fxRate.getCurrency()), reloaded.getOrDefault(fxRate.getCurrency(), Series.EMPTY));
+        }
+        eventPublisher.publishEvent(new FxRateChangedEvent(fxRate.getCurrency()));
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            for (Map.Entry<String, Series> entry : load(null).entrySet()) {
+                publish(indexFor(entry.getKey()), entry.getValue());
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Ряды курсов из таблицы — всех валют или одной. Из нескольких курсов на день берётся последний записанный.
+     */
+    private Map<String, Series> load(String currency) {
+        Map<String, Series> loadedSeries = new HashMap<>();
+        String sql = "SELECT currency, date, rate FROM fx_rates" +
+                (currency != null ? " WHERE currency = ?" : "") + " ORDER BY currency, date, id";
+        Object[] args = currency != null ? new Object[]{currency} : new Object[0];
+        jdbcTemplate.query(sql, rs -> {
+            loadedSeries.merge(rs.getString(1),
+                    Series.EMPTY.with(rs.getDate(2).toLocalDate().toEpochDay(), rs.getBigDecimal(3).doubleValue()),
+                    (existing, single) -> existing.append(single.days[0], single.rates[0]));
+        }, args);
+        for (Map.Entry<String, Series> entry : loadedSeries.entrySet()) {
+            entry.setValue(entry.getValue().trim());
+        }
+        return loadedSeries;
+    }
+
+    /**
+     * Индекс валюты; новая валюта получает следующий индекс, массивы рядов растут на одну ячейку.
+     * Вызывается под блокировкой кэша.
+     */
+    private int indexFor(String currency) {
+        Integer index = indexes.get(currency);
+        if (index != null) return index;
+        int next = currencies.length;
+        String[] grownCurrencies = Arrays.copyOf(currencies, next + 1);
+        grownCurrencies[next] = currency;
+        Series[] grownSeries = Arrays.copyOf(series, next + 1);
+        grownSeries[next] = Series.EMPTY;
+        // сначала имена: читатель, увидевший новый массив рядов, увидит и имя валюты
+        currencies = grownCurrencies;
+        series = grownSeries;
+        indexes.put(currency, next);
+        return next;
+    }
+
+    /**
+     * Подменяет массив рядов копией с новым рядом валюты: читатели видят либо старый массив, либо новый.
+     * Вызывается под блокировкой кэша.
+     */
+    private void publish(int index, Series updated) {
+        Series[] copy = series.clone();
+        copy[index] = updated;
+        series = copy;
+    }
+
+    private static double rateAt(Series[] snapshot, Integer index, long day) {
+        if (index == null) return Double.NaN;
+        if (index == 0) return 1.0;
+        return index < snapshot.length ? snapshot[index].at(day) : Double.NaN;
+    }
+
+    /**
+     * Множители перевода в базовую валюту на одну дату. Индексы валют общие для всего кэша;
+     * валюта, появившаяся после снятия множителей, для них неизвестна.
+     */
+    public static final class Rates {
+        private final String baseCurrency;
+        private final Map<String, Integer> indexes;
+        private final String[] currencies;
+        private final double[] factors;
+
+        private Rates(String baseCurrency, Map<String, Integer> indexes, String[] currencies, double[] factors) {
+            this.baseCurrency = baseCurrency;
+            this.indexes = indexes;
+            this.currencies = currencies;
+            this.factors = factors;
+        }
+
+        public String baseCurrency() {
+            return baseCurrency;
+        }
+
+        /**
+         * Индекс валюты или -1, если курсов по ней нет.
+         */
+        public int indexOf(String currency) {
+            Integer index = currency != null ? indexes.get(currency) : null;
+            return index != null && index < factors.length ? index : -1;
+        }
+
+        public int size() {
+            return factors.length;
+        }
+
+        public String currencyAt(int index) {
+            return currencies[index];
+        }
+
+        /**
+         * Множитель из валюты с индексом в базовую; NaN — курса нет.
+         */
+        public double factor(int index) {
+            return index >= 0 ? factors[index] : Double.NaN;
+        }
+    }
+
+    /**
+     * Ряд курсов одной валюты, отсортированный по дню; массивы не меняются после публикации.
+     */
+    private static final class Series {
+        private static final Series EMPTY = new Series(new long[0], new double[0], 0);
+
+        private final long[] days;
+        private final double[] rates;
+        private final int size;
+
+        private Series(long[] days, double[] rates, int size) {
+            this.days = days;
+            this.rates = rates;
+            this.size = size;
+        }
+
+        double at(long day) {
+            int pos = Arrays.binarySearch(days, 0, size, day);
+            if (pos >= 0) return rates[pos];
+            int before = -pos - 2;
+            return before >= 0 ? rates[before] : Double.NaN;
+        }
+
+        /**
+         * Копия с курсом на день: существующий день перезаписывается, новый вставляется на своё место.
+         */
+        Series with(long day, double rate) {
+            int pos = Arrays.binarySearch(days, 0, size, day);
+            if (pos >= 0) {
+                double[] newRates = Arrays.copyOf(rates, size);
+                newRates[pos] = rate;
+                return new Series(Arrays.copyOf(days, size), newRates, size);
+            }
+            int insert = -pos - 1;
+            long[] newDays = new long[size + 1];
+            double[] newRates = new double[size + 1];
+            System.arraycopy(days, 0, newDays, 0, insert);
+            System.arraycopy(rates, 0, newRates, 0, insert);
+            newDays[insert] = day;
+            newRates[insert] = rate;
+            System.arraycopy(days, insert, newDays, insert + 1, size - insert);
+            System.arraycopy(rates, insert, newRates, insert + 1, size - insert);
+            return new Series(newDays, newRates, size + 1);
+        }
+
+        /**
+         * Дописывает курс при загрузке по возрастанию дня, на месте с удвоением ёмкости; ряд ещё не опубликован.
+         */
+        Series append(long day, double rate) {
+            if (size > 0 && days[size - 1] == day) {
+                rates[size - 1] = rate;
+                return this;
+            }
+            long[] newDays = size == days.length ? Arrays.copyOf(days, Math.max(16, size * 2)) : days;
+            double[] newRates = size == rates.length ? Arrays.copyOf(rates, Math.max(16, size * 2)) : rates;
+            newDays[size] = day;
+            newRates[size] = rate;
+            return new Series(newDays, newRates, size + 1);
+        }
+
+        Series trim() {
+            return size == days.length ? this : new Series(Arrays.copyOf(days, size), Arrays.copyOf(rates, size), size);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.budgetflow.service;
+
+/**
+ * Изменился ряд курса валюты. Публикуется {@link FxRateCache} уже после коммита курса.
+ */
+public record FxRateChangedEvent(String currency) {}
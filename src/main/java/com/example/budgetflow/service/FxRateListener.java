@@ -0,0 +1,30 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.FxRate;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Сквозная запись курсов в {@link FxRateCache} после коммита — так же, как {@link MarketDataListener} для котировок.
+ */
+@Component
+@RequiredArgsConstructor
+public class FxRateListener {
+
+    private final ObjectProvider<FxRateCache> fxRateCache;
+
+    @PostPersist
+    @PostUpdate
+    public void onSaved(FxRate fxRate) {
+        MarketDataListener.afterCommit(() -> fxRateCache.ifAvailable(cache -> cache.onSaved(fxRate)));
+    }
+
+    @PostRemove
+    public void onRemoved(FxRate fxRate) {
+        MarketDataListener.afterCommit(() -> fxRateCache.ifAvailable(cache -> cache.onRemoved(fxRate)));
+    }
+}
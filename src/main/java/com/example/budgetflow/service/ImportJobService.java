@@ -0,0 +1,149 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.ImportLog;
+import com.example.budgetflow.repository.ImportLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновые импорты CSV: файл сохраняется на локальный диск, запрос сразу возвращает id задачи,
+ * а обработка идёт пакетами в пуле importJobExecutor. Прогресс и контрольная точка пишутся
+ * в ImportLog после каждого пакета, поэтому после падения или остановки процесса задача продолжается
+ * с последнего закоммиченного пакета.
+ *
+ * Файл удаляется только после завершения задачи (SUCCESS, PARTIAL или неустранимая ошибка).
+ * При остановке приложения задача остаётся IN_PROGRESS и подхватывается при следующем старте;
+ * после временной ошибки БД повторяется через retry-delay-seconds, не более max-attempts раз.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ImportJobService {
+
+    private static final List<String> UNFINISHED_STATUSES = List.of("QUEUED", "IN_PROGRESS");
+
+    private final FileImportService fileImportService;
+    private final ImportLogRepository importLogRepository;
+    private final ExecutorService importJobExecutor;
+
+    @Value("${budgetflow.import.spool-dir:${java.io.tmpdir}/budgetflow-imports}")
+    private String spoolDir;
+
+    @Value("${budgetflow.import.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${budgetflow.import.retry-delay-seconds:30}")
+    private long retryDelaySeconds;
+
+    public ImportJobStatus submit(MultipartFile file, Long userId, String accountNumber) throws IOException {
+        Path dir = Path.of(spoolDir);
+        Files.createDirectories(dir);
+        Path spoolFile = dir.resolve(UUID.randomUUID() + ".csv");
+        file.transferTo(spoolFile);
+
+        ImportLog logEntry;
+        try {
+            logEntry = fileImportService.createSpooledImport(userId, accountNumber, spoolFile);
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+        log.info("Импорт поставлен в очередь: jobId={}, userId={}, файл={}", logEntry.getId(), userId, spoolFile);
+        schedule(logEntry);
+        return ImportJobStatus.of(logEntry);
+    }
+
+    public ImportJobStatus getStatus(Long jobId) {
+        return importLogRepository.findById(jobId)
+                .map(ImportJobStatus::of)
+                .orElseThrow(() -> new IllegalArgumentException("Задача импорта не найдена с ID: " + jobId));
+    }
+
+    /**
+     * После рестарта подхватывает незавершённые задачи. Синхронные импорты (без файла на диске)
+     * продолжить нельзя — они помечаются как прерванные.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedJobs() {
+        for (ImportLog logEntry : importLogRepository.findBySourceAndStatusIn("CSV", UNFINISHED_STATUSES)) {
+            if (logEntry.getSpoolPath() != null && Files.exists(Path.of(logEntry.getSpoolPath()))) {
+                log.info("Возобновление импорта: jobId={}, с строки {}", logEntry.getId(), logEntry.getCheckpointRow());
+                schedule(logEntry);
+            } else {
+                logEntry.setStatus("FAILED");
+                logEntry.setErrorMessage("Импорт прерван перезапуском приложения");
+                logEntry.setUpdatedAt(LocalDateTime.now());
+                importLogRepository.save(logEntry);
+            }
+        }
+    }
+
+    private void schedule(ImportLog logEntry) {
+        importJobExecutor.execute(() -> run(logEntry.getId(), 1));
+    }
+
+    private void run(Long jobId, int attempt) {
+        // после прошлой попытки счётчики и контрольная точка в БД новее, чем в памяти
+        ImportLog logEntry = importLogRepository.findById(jobId).orElse(null);
+        if (logEntry == null) return;
+        if (fileImportService.runSpooledImport(logEntry)) {
+            deleteSpoolFile(logEntry);
+        } else if (Thread.currentThread().isInterrupted()) {
+            log.info("Импорт jobId={} продолжится после перезапуска", jobId);
+        } else if (attempt < maxAttempts) {
+            log.info("Повтор импорта jobId={} через {} с, попытка {}", jobId, retryDelaySeconds, attempt + 1);
+            CompletableFuture.runAsync(() -> run(jobId, attempt + 1),
+                    CompletableFuture.delayedExecutor(retryDelaySeconds, TimeUnit.SECONDS, importJobExecutor));
+        } else {
+            log.warn("Импорт jobId={} не завершён за {} попыток", jobId, maxAttempts);
+            importLogRepository.findById(jobId).ifPresent(failed -> {
+                failed.setStatus("FAILED");
+                failed.setUpdatedAt(LocalDateTime.now());
+                importLogRepository.save(failed);
+            });
+            deleteSpoolFile(logEntry);
+        }
+    }
+
+    private void deleteSpoolFile(ImportLog logEntry) {
+        try {
+            Files.deleteIfExists(Path.of(logEntry.getSpoolPath()));
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл импорта {}: {}", logEntry.getSpoolPath(), e.getMessage());
+        }
+    }
+
+    public record ImportJobStatus(
+            Long jobId, String status, int rowsRead, int rowsPersisted, int rowsFailed, int rowsDuplicate,
+            int checkpointRow, LocalDateTime startedAt, LocalDateTime updatedAt, String errorMessage
+    ) {
+        static ImportJobStatus of(ImportLog logEntry) {
+            return new ImportJobStatus(
+                    logEntry.getId(), logEntry.getStatus(),
+                    valueOrZero(logEntry.getRowsRead()), valueOrZero(logEntry.getOperationsImported()),
+                    valueOrZero(logEntry.getRowsFailed()), valueOrZero(logEntry.getRowsDuplicate()),
+                    valueOrZero(logEntry.getCheckpointRow()),
+                    logEntry.getImportDate(), logEntry.getUpdatedAt(), logEntry.getErrorMessage()
+            );
+        }
+
+        private static int valueOrZero(Integer value) {
+            return value != null ? value : 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Account;
+import com.example.budgetflow.entity.Asset;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Кэш разрешения счетов и тикеров на время одного импорта/синхронизации.
+ * Счета пользователя и активы каждого счёта загружаются одним запросом при первом обращении,
+ * дальше поиск — один hash lookup; созданные по ходу импорта записи сразу попадают в индекс.
+ * Не потокобезопасен: создаётся на каждый импорт и живёт в одном потоке.
+ */
+public class ImportResolutionCache {
+
+    private final AccountService accountService;
+    private final AssetService assetService;
+    private final Long userId;
+
+    private Map<String, Account> accountsByNumber;
+    private final Map<Long, Map<String, Asset>> assetsByAccount = new HashMap<>();
+    private int createdAssets;
+
+    public ImportResolutionCache(AccountService accountService, AssetService assetService, Long userId) {
+        this.accountService = accountService;
+        this.assetService = assetService;
+        this.userId = userId;
+    }
+
+    public Account findOrCreateAccount(String accountNumber, String defaultName) {
+        if (accountsByNumber == null) {
+            accountsByNumber = new HashMap<>();
+            for (Account account : accountService.getAccountsByUser(userId)) {
+                accountsByNumber.put(account.getAccountNumber(), account);
+            }
+        }
+        return accountsByNumber.computeIfAbsent(accountNumber, number -> accountService.createAccount(
+                userId, number, defaultName, "INVESTMENT", "RUB"));
+    }
+
+    public Asset findOrCreateAsset(String ticker, Account account) {
+        Map<String, Asset> byTicker = assetsByAccount.computeIfAbsent(account.getId(), this::loadAssets);
+        Asset asset = byTicker.get(ticker);
+        if (asset == null) {
+            asset = assetService.createAsset(account.getId(), ticker, ticker, "stock", "RUB", 0.0);
+            byTicker.put(ticker, asset);
+            createdAssets++;
+        }
+        return asset;
+    }
+
+    /**
+     * Сбрасывает индекс активов счёта — нужно после отката транзакции,
+     * в которой могли быть созданы активы, чтобы не ссылаться на несуществующие id.
+     */
+    public void evictAssets(Long accountId) {
+        assetsByAccount.remove(accountId);
+    }
+
+    public int getCreatedAssets() {
+        return createdAssets;
+    }
+
+    private Map<String, Asset> loadAssets(Long accountId) {
+        Map<String, Asset> byTicker = new HashMap<>();
+        for (Asset asset : assetService.getAssetsByAccount(accountId)) {
+            byTicker.putIfAbsent(asset.getTicker(), asset);
+        }
+        return byTicker;
+    }
+}
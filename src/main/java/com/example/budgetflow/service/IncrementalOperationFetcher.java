@@ -0,0 +1,106 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.service.BrokerOperationsApi.BrokerOperation;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Догрузка операций брокера после водяного знака — времени и id последней уже загруженной операции.
+ * У брокера запрашивается только хвост истории начиная с этого времени, поэтому стоимость ежедневной
+ * синхронизации пропорциональна новой активности, а не всей истории счёта.
+ *
+ * Граница включительная: операции с тем же временем, что у знака, приходят повторно, и запись
+ * должна быть идемпотентной (upsert по id брокера). Сама операция знака отбрасывается здесь.
+ * Новый знак возвращается только после последней страницы — его сохраняют после записи всех страниц,
+ * тогда обрыв посередине просто повторит ту же выборку.
+ */
+public class IncrementalOperationFetcher {
+
+    private final BrokerClient client;
+    private final int pageSize;
+
+    public IncrementalOperationFetcher(BrokerClient client, int pageSize) {
+        this.client = client;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param since  знак предыдущей синхронизации, null — загрузить всю историю
+     * @param onPage получает новые операции очередной страницы (может быть пустой список)
+     */
+    public FetchResult fetchSince(String token, String accountId, TinkoffSyncMode kind,
+                                  Watermark since, Consumer<List<BrokerOperation>> onPage) {
+        FetchState state = new FetchState(since);
+        fetchSlice(token, accountId, kind, state, Integer.MAX_VALUE, onPage);
+        return state.result();
+    }
+
+    /**
+     * Продолжает выборку state, обрабатывая не больше maxPages страниц.
+     * Позволяет чередовать длинную историю одного счёта с другими счетами.
+     *
+     * @return true, если история пройдена до конца и state.result() содержит итоговый знак
+     */
+    public boolean fetchSlice(String token, String accountId, TinkoffSyncMode kind, FetchState state,
+                              int maxPages, Consumer<List<BrokerOperation>> onPage) {
+        Watermark since = state.since;
+        Instant from = since != null ? since.operationAt() : null;
+        state.pageCursor = client.forEachPage(token, accountId, kind, from, state.pageCursor, pageSize, maxPages, page -> {
+            List<BrokerOperation> delta = new ArrayList<>(page.operations().size());
+            for (BrokerOperation operation : page.operations()) {
+                if (since != null && since.covers(operation)) continue;
+                delta.add(operation);
+                if (state.mark == null || state.mark.isBefore(operation)) {
+                    state.mark = new Watermark(operation.timestamp(), operation.id());
+                }
+            }
+            onPage.accept(delta);
+            state.operations += delta.size();
+            state.pages++;
+        });
+        return state.pageCursor == null;
+    }
+
+    /**
+     * Прогресс выборки между порциями: курсор страницы брокера и знак по уже обработанным страницам.
+     */
+    public static final class FetchState {
+        private final Watermark since;
+        private Watermark mark;
+        private String pageCursor;
+        private int operations;
+        private int pages;
+
+        public FetchState(Watermark since) {
+            this.since = since;
+            this.mark = since;
+        }
+
+        public int pages() {
+            return pages;
+        }
+
+        public FetchResult result() {
+            return new FetchResult(operations, pages, mark);
+        }
+    }
+
+    public record Watermark(Instant operationAt, String operationId) {
+
+        /** Операция уже учтена этим знаком: она раньше него или это сама операция знака. */
+        boolean covers(BrokerOperation operation) {
+            return operation.timestamp().isBefore(operationAt) || operation.id().equals(operationId);
+        }
+
+        boolean isBefore(BrokerOperation operation) {
+            int cmp = operationAt.compareTo(operation.timestamp());
+            return cmp < 0 || (cmp == 0 && operationId.compareTo(operation.id()) < 0);
+        }
+    }
+
+    public record FetchResult(int operations, int pages, Watermark watermark) {}
+}
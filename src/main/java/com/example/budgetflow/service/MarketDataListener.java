@@ -0,0 +1,55 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.MarketData;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Сквозная запись котировок в {@link PriceCache} и {@link PriceHistoryService}: любая сохранённая
+ * или удалённая MarketData попадает туда после коммита, так что откаченная транзакция их не портит.
+ * Получатели берутся лениво: Hibernate создаёт слушатель вместе с EntityManagerFactory,
+ * а им для работы нужны репозитории поверх этой фабрики.
+ */
+@Component
+@RequiredArgsConstructor
+public class MarketDataListener {
+
+    private final ObjectProvider<PriceCache> priceCache;
+    private final ObjectProvider<PriceHistoryService> priceHistory;
+
+    @PostPersist
+    @PostUpdate
+    public void onSaved(MarketData marketData) {
+        afterCommit(() -> {
+            priceCache.ifAvailable(cache -> cache.onSaved(marketData));
+            priceHistory.ifAvailable(history -> history.onSaved(marketData));
+        });
+    }
+
+    @PostRemove
+    public void onRemoved(MarketData marketData) {
+        afterCommit(() -> {
+            priceCache.ifAvailable(cache -> cache.evict(marketData.getTicker()));
+            priceHistory.ifAvailable(history -> history.onRemoved(marketData));
+        });
+    }
+
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.budgetflow.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Монте-Карло стоимости портфеля: коррелированные дневные лог-доходности активов по многомерному
+ * нормальному закону (средние и множитель Холецкого ковариации), стоимость пути — сумма позиций
+ * плюс неизменная часть.
+ *
+ * Пути разбиты на порции по {@link #CHUNK_PATHS}; порции считаются задачами fork/join, каждая
+ * со своим {@link SplittableRandom}. Генераторы порций заранее отщепляются от корневого по порядку
+ * номеров, так что при том же seed результат не зависит от числа потоков и от того, какой поток
+ * взял порцию. Внутри порции — только примитивные массивы, выделенные один раз на порцию; стоимость
+ * пишется в общий массив контрольной точки в диапазон путей порции, без синхронизации.
+ */
+final class MonteCarloSimulator {
+
+    static final int CHUNK_PATHS = 1024;
+
+    private MonteCarloSimulator() {
+    }
+
+    /**
+     * @param drift      средняя лог-доходность актива за шаг
+     * @param cholesky   нижнетреугольный множитель ковариации n×n по строкам
+     * @param values     текущая стоимость позиций
+     * @param fixedValue часть портфеля, которая не моделируется
+     * @param checkpoints возрастающие номера шагов, на которых снимаются перцентили; последний — горизонт
+     * @param percentiles перцентили в процентах
+     */
+    static Bands simulate(ForkJoinPool pool, double[] drift, double[] cholesky, double[] values, double fixedValue,
+                          int paths, int[] checkpoints, double[] percentiles, long seed) {
+        int chunks = (paths + CHUNK_PATHS - 1) / CHUNK_PATHS;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            randoms[c] = root.split();
+        }
+        double[][] outcomes = new double[checkpoints.length][paths];
+        Paths task = new Paths(drift, cholesky, values, fixedValue, paths, checkpoints, randoms, outcomes, 0, chunks);
+        pool.invoke(task);
+
+        double[][] bands = new double[checkpoints.length][];
+        double[] means = new double[checkpoints.length];
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> sorts = new ArrayList<>();
+                for (int k = 0; k < checkpoints.length; k++) {
+                    int point = k;
+                    sorts.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            double[] sorted = outcomes[point];
+                            Arrays.sort(sorted);
+                            bands[point] = quantiles(sorted, percentiles);
+                            double sum = 0.0;
+                            for (double v : sorted) sum += v;
+                            means[point] = sum / sorted.length;
+                        }
+                    });
+                }
+                invokeAll(sorts);
+            }
+        });
+        return new Bands(checkpoints, means, bands);
+    }
+
+    /**
+     * Перцентили отсортированной выборки с линейной интерполяцией между соседними значениями.
+     */
+    static double[] quantiles(double[] sorted, double[] percentiles) {
+        double[] result = new double[percentiles.length];
+        int last = sorted.length - 1;
+        for (int i = 0; i < percentiles.length; i++) {
+            double position = percentiles[i] / 100.0 * last;
+            int lower = (int) Math.floor(position);
+            int upper = Math.min(last, lower + 1);
+            double fraction = position - lower;
+            result[i] = sorted[lower] + (sorted[upper] - sorted[lower]) * fraction;
+        }
+        return result;
+    }
+
+    /**
+     * Разложение Холецкого симметричной матрицы n×n по строкам; null — матрица не положительно определена.
+     */
+    static double[] cholesky(double[] matrix, int n) {
+        double[] l = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = matrix[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= l[i * n + k] * l[j * n + k];
+                }
+                if (i == j) {
+                    if (!(sum > 0)) return null;
+                    l[i * n + i] = Math.sqrt(sum);
+                } else {
+                    l[i * n + j] = sum / l[j * n + j];
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Перцентили стоимости по контрольным точкам: bands[k][p] — перцентиль p на шаге checkpoints[k].
+     */
+    record Bands(int[] checkpoints, double[] means, double[][] bands) {}
+
+    /**
+     * Диапазон порций [from, to): делится пополам, пока не останется одна.
+     */
+    private static final class Paths extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] drift;
+        private final double[] cholesky;
+        private final double[] values;
+        private final double fixedValue;
+        private final int paths;
+        private final int[] checkpoints;
+        private final SplittableRandom[] randoms;
+        private final double[][] outcomes;
+        private final int from;
+        private final int to;
+
+        private Paths(double[] drift, double[] cholesky, double[] values, double fixedValue, int paths,
+                      int[] checkpoints, SplittableRandom[] randoms, double[][] outcomes, int from, int to) {
+            this.drift = drift;
+            this.cholesky = cholesky;
+            this.values = values;
+            this.fixedValue = fixedValue;
+            this.paths = paths;
+            this.checkpoints = checkpoints;
+            this.randoms = randoms;
+            this.outcomes = outcomes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(split(from, middle), split(middle, to));
+                return;
+            }
+            simulateChunk(from);
+        }
+
+        private Paths split(int splitFrom, int splitTo) {
+            return new Paths(drift, cholesky, values, fixedValue, paths, checkpoints, randoms, outcomes,
+                    splitFrom, splitTo);
+        }
+
+        /**
+         * Порция идёт шагами сразу по всем своим путям: во внутренних циклах — номер пути по подряд
+         * лежащим массивам, такие циклы JIT векторизует. Ударные значения шага берутся из генератора
+         * порции в фиксированном порядке (актив, затем путь).
+         */
+        private void simulateChunk(int chunk) {
+            SplittableRandom random = randoms[chunk];
+            int n = drift.length;
+            int horizon = checkpoints[checkpoints.length - 1];
+            int first = chunk * CHUNK_PATHS;
+            int size = Math.min(paths, first + CHUNK_PATHS) - first;
+            double[][] logs = new double[n][size];
+            double[][] shocks = new double[n][size];
+            double[] value = new double[size];
+            int point = 0;
+            for (int step = 1; step <= horizon; step++) {
+                for (int b = 0; b < n; b++) {
+                    double[] shock = shocks[b];
+                    for (int p = 0; p < size; p++) {
+                        shock[p] = random.nextGaussian();
+                    }
+                }
+                for (int a = 0; a < n; a++) {
+                    double[] log = logs[a];
+                    double mean = drift[a];
+                    for (int p = 0; p < size; p++) {
+                        log[p] += mean;
+                    }
+                    int row = a * n;
+                    for (int b = 0; b <= a; b++) {
+                        double weight = cholesky[row + b];
+                        if (weight == 0.0) continue;
+                        double[] shock = shocks[b];
+                        for (int p = 0; p < size; p++) {
+                            log[p] += weight * shock[p];
+                        }
+                    }
+                }
+                if (step == checkpoints[point]) {
+                    Arrays.fill(value, fixedValue);
+                    for (int a = 0; a < n; a++) {
+                        double[] log = logs[a];
+                        double position = values[a];
+                        for (int p = 0; p < size; p++) {
+                            value[p] += position * Math.exp(log[p]);
+                        }
+                    }
+                    System.arraycopy(value, 0, outcomes[point++], first, size);
+                }
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.example.budgetflow.entity.*;
 import com.example.budgetflow.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -12,7 +13,6 @@ import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -21,58 +21,124 @@ public class PortfolioAnalyticsService {
 
     private final AccountService accountService;
     private final AssetService assetService;
-    private final TradeRepository tradeRepository;
     private final AccrualRepository accrualRepository;
     private final PortfolioSnapshotRepository snapshotRepository;
-    private final MarketDataRepository marketDataRepository;
+    private final PriceCache priceCache;
+    private final AnalyticsCache analyticsCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final AssetRepository assetRepository;
+    private final PositionRepository positionRepository;
+    private final RiskMetricsService riskMetricsService;
+    private final FxRateCache fxRateCache;
+
+    /**
+     * Аналитика портфеля из {@link AnalyticsCache}; при промахе считается через {@link #calculateAnalytics}.
+     */
+    public PortfolioAnalytics getAnalytics(Long userId) {
+        return analyticsCache.get(userId, this::calculateAnalytics);
+    }
 
     public PortfolioAnalytics calculateAnalytics(Long userId) {
         List<Account> accounts = accountService.getAccountsByUser(userId);
         if (accounts.isEmpty()) {
-            return new PortfolioAnalytics(0.0, 0.0, 0.0, 0.0, Map.of(), Map.of(), List.of());
+            String baseCurrency = baseCurrency(userService.getUserById(userId));
+            return new PortfolioAnalytics(0.0, 0.0, 0.0, 0.0, Map.of(), Map.of(), List.of(), baseCurrency, Set.of());
         }
 
+        // Позиции и учёт по ним — двумя запросами на всего пользователя, цены и курсы — из общих кэшей
+        List<Asset> assets = assetRepository.findHeldByUserId(userId);
+        Map<Long, Double> averageCosts = averageCosts(positionRepository.findByUserId(userId));
+        Map<String, BigDecimal> latestPrices = findLatestPrices(assets);
+        FxRateCache.Rates rates = fxRateCache.rates(baseCurrency(accounts.get(0).getUser()), LocalDate.now());
+
+        return valuate(assets, averageCosts, latestPrices, riskMetricsService.getMetrics(userId).sharpeRatio(), rates);
+    }
+
+    /**
+     * Оценка открытых позиций пользователя в базовой валюте по уже загруженным ценам, средней цене
+     * из учёта и курсам. Общая для аналитики одного пользователя и пакетных снимков {@link PortfolioSnapshotJob}.
+     *
+     * Цена и средняя цена актива — в его валюте; перевод — умножение на множитель из массива курсов
+     * по индексу валюты, разбивка по валютам копится в массиве по тому же индексу. Валюта без курса
+     * считается один к одному и попадает в unconvertedCurrencies.
+     */
+    PortfolioAnalytics valuate(List<Asset> assets, Map<Long, Double> averageCosts,
+                               Map<String, BigDecimal> latestPrices, double sharpeRatio, FxRateCache.Rates rates) {
         double totalValue = 0.0;
         double totalCost = 0.0;
         Map<String, Double> byType = new HashMap<>();
         Map<String, Double> byCurrency = new HashMap<>();
+        double[] valueByCurrency = new double[rates.size()];
+        boolean[] heldCurrencies = new boolean[rates.size()];
+        Set<String> unconverted = new TreeSet<>();
         List<AssetAnalytics> assetDetails = new ArrayList<>();
+        int baseIndex = rates.indexOf(rates.baseCurrency());
+
+        for (Asset asset : assets) {
+            double quantity = asset.getQuantity();
+
+            // Получаем текущую цену или используем среднюю цену покупки
+            Double averageCost = averageCosts.get(asset.getId());
+            double assetCost = averageCost != null ? averageCost : 0.0;
+            BigDecimal price = latestPrices.get(asset.getTicker());
+            double currentPrice = price != null ? price.doubleValue() : assetCost;
+
+            // валюта не указана — считаем её базовой
+            int currency = asset.getCurrency() != null ? rates.indexOf(asset.getCurrency()) : baseIndex;
+            double fx = rates.factor(currency);
+            if (Double.isNaN(fx)) {
+                fx = 1.0;
+                unconverted.add(asset.getCurrency());
+            }
+            double assetValue = quantity * currentPrice * fx;
+            assetCost *= fx;
 
-        for (Account account : accounts) {
-            List<Asset> assets = assetService.getAssetsByAccount(account.getId());
-            
-            for (Asset asset : assets) {
-                double quantity = asset.getQuantity() != null ? asset.getQuantity() : 0.0;
-                if (quantity <= 0) continue;
-
-                // Получаем текущую цену или используем среднюю цену покупки
-                double currentPrice = getCurrentPrice(asset);
-                double assetValue = quantity * currentPrice;
-                double assetCost = calculateAverageCost(asset);
-
-                totalValue += assetValue;
-                totalCost += assetCost;
+            totalValue += assetValue;
+            totalCost += assetCost;
 
-                byType.merge(asset.getType(), assetValue, Double::sum);
+            byType.merge(asset.getType(), assetValue, Double::sum);
+            if (currency >= 0) {
+                valueByCurrency[currency] += assetValue;
+                heldCurrencies[currency] = true;
+            } else {
                 byCurrency.merge(asset.getCurrency(), assetValue, Double::sum);
-
-                double returnPct = assetCost > 0 ? ((assetValue - assetCost) / assetCost) * 100 : 0.0;
-                assetDetails.add(new AssetAnalytics(
-                        asset.getId(), asset.getName(), asset.getTicker(),
-                        asset.getType(), quantity, currentPrice, assetValue, assetCost, returnPct
-                ));
             }
+
+            double returnPct = assetCost > 0 ? ((assetValue - assetCost) / assetCost) * 100 : 0.0;
+            assetDetails.add(new AssetAnalytics(
+                    asset.getId(), asset.getName(), asset.getTicker(),
+                    asset.getType(), quantity, currentPrice, assetValue, assetCost, returnPct
+            ));
+        }
+        for (int i = 0; i < heldCurrencies.length; i++) {
+            if (heldCurrencies[i]) byCurrency.put(rates.currencyAt(i), valueByCurrency[i]);
         }
 
         double totalReturn = totalCost > 0 ? ((totalValue - totalCost) / totalCost) * 100 : 0.0;
-        double sharpeRatio = calculateSharpeRatio(userId);
 
         return new PortfolioAnalytics(
                 totalValue, totalCost, totalReturn, sharpeRatio,
-                byType, byCurrency, assetDetails
+                byType, byCurrency, assetDetails, rates.baseCurrency(), unconverted
         );
     }
 
+    /**
+     * Стоимость позиций с тикером по тикерам, в порядке активов; позиции без тикера и без стоимости не входят.
+     */
+    static Map<String, Double> valueByTicker(PortfolioAnalytics analytics) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (AssetAnalytics asset : analytics.assets()) {
+            if (asset.ticker() != null && asset.value() > 0) {
+                values.merge(asset.ticker(), asset.value(), Double::sum);
+            }
+        }
+        return values;
+    }
+
+    static String baseCurrency(User user) {
+        return user.getBaseCurrency() != null ? user.getBaseCurrency() : FxRateCache.PIVOT;
+    }
+
     public DividendCalendar getDividendCalendar(Long userId, int monthsAhead) {
         List<Account> accounts = accountService.getAccountsByUser(userId);
         List<DividendEvent> events = new ArrayList<>();
@@ -99,7 +165,7 @@ public class PortfolioAnalyticsService {
     }
 
     public RebalanceRecommendation calculateRebalance(Long userId, Map<String, Double> targetAllocation) {
-        PortfolioAnalytics analytics = calculateAnalytics(userId);
+        PortfolioAnalytics analytics = getAnalytics(userId);
         Map<String, Double> current = analytics.byType();
         Map<String, Double> recommendations = new HashMap<>();
         double totalValue = analytics.totalValue();
@@ -116,72 +182,63 @@ public class PortfolioAnalyticsService {
 
     @Transactional
     public void createSnapshot(Long userId) {
-        PortfolioAnalytics analytics = calculateAnalytics(userId);
+        PortfolioAnalytics analytics = getAnalytics(userId);
         
-        PortfolioSnapshot snapshot = new PortfolioSnapshot();
-        snapshot.setUser(userService.getUserById(userId));
-        snapshot.setDate(LocalDate.now());
+        LocalDate today = LocalDate.now();
+
+        // снимок за день один: повторный запрос перезаписывает его
+        PortfolioSnapshot snapshot = snapshotRepository.findByUserIdAndDate(userId, today).orElseGet(() -> {
+            PortfolioSnapshot created = new PortfolioSnapshot();
+            created.setUser(userService.getUserById(userId));
+            created.setDate(today);
+            return created;
+        });
         snapshot.setTotalValue(BigDecimal.valueOf(analytics.totalValue()).setScale(2, RoundingMode.HALF_UP));
         snapshot.setTotalCost(BigDecimal.valueOf(analytics.totalCost()).setScale(2, RoundingMode.HALF_UP));
         snapshot.setTotalReturn(BigDecimal.valueOf(analytics.totalReturn()).setScale(4, RoundingMode.HALF_UP));
         snapshot.setSharpeRatio(BigDecimal.valueOf(analytics.sharpeRatio()).setScale(4, RoundingMode.HALF_UP));
-        snapshot.setCurrency("RUB");
+        snapshot.setCurrency(analytics.baseCurrency());
         
         snapshotRepository.save(snapshot);
+        // от снимков зависит коэффициент Шарпа
+        eventPublisher.publishEvent(new SnapshotCreatedEvent(userId, snapshot.getDate(), snapshot.getTotalValue().doubleValue()));
+        eventPublisher.publishEvent(new PortfolioChangedEvent(userId));
     }
 
-    private double getCurrentPrice(Asset asset) {
-        return marketDataRepository.findFirstByTickerOrderByDateDesc(asset.getTicker())
-                .map(md -> md.getPrice().doubleValue())
-                .orElse(calculateAverageCost(asset));
-    }
-
-    private double calculateAverageCost(Asset asset) {
-        List<Trade> buys = tradeRepository.findByAssetIdAndType(asset.getId(), "BUY");
-        if (buys.isEmpty()) return 0.0;
-
-        double totalCost = 0.0;
-        double totalQuantity = 0.0;
-
-        for (Trade trade : buys) {
-            double qty = trade.getQuantity() != null ? trade.getQuantity() : 0.0;
-            double price = trade.getPrice() != null ? trade.getPrice() : 0.0;
-            double fee = trade.getFee() != null ? trade.getFee() : 0.0;
-            
-            totalCost += (qty * price + fee);
-            totalQuantity += qty;
+    Map<String, BigDecimal> findLatestPrices(List<Asset> assets) {
+        Set<String> tickers = new HashSet<>();
+        for (Asset asset : assets) {
+            if (asset.getTicker() != null) tickers.add(asset.getTicker());
         }
-
-        return totalQuantity > 0 ? totalCost / totalQuantity : 0.0;
+        return priceCache.getLatestPrices(tickers);
     }
 
-    private double calculateSharpeRatio(Long userId) {
-        List<PortfolioSnapshot> snapshots = snapshotRepository.findByUserIdAndDateAfter(
-                userId, LocalDate.now().minusMonths(12));
-        
-        if (snapshots.size() < 2) return 0.0;
-
-        List<Double> returns = snapshots.stream()
-                .map(s -> s.getTotalReturn().doubleValue())
-                .collect(Collectors.toList());
-
-        double avgReturn = returns.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-        double variance = returns.stream()
-                .mapToDouble(r -> Math.pow(r - avgReturn, 2))
-                .average().orElse(0.0);
-        double stdDev = Math.sqrt(variance);
-
-        return stdDev > 0 ? avgReturn / stdDev : 0.0;
+    /**
+     * Средняя цена открытой позиции из учёта {@link PositionLedger}; у актива без сделок её нет.
+     */
+    static Map<Long, Double> averageCosts(List<Position> positions) {
+        Map<Long, Double> averageCosts = new HashMap<>();
+        for (Position position : positions) {
+            double quantity = position.getQuantity();
+            averageCosts.put(position.getAsset().getId(), quantity > 0 ? position.getTotalCost() / quantity : 0.0);
+        }
+        return averageCosts;
     }
 
     private final UserService userService;
 
+    /**
+     * Суммы — в базовой валюте пользователя; byCurrency — стоимость позиций в каждой валюте, переведённая в базовую.
+     */
     public record PortfolioAnalytics(
             double totalValue, double totalCost, double totalReturn, double sharpeRatio,
             Map<String, Double> byType, Map<String, Double> byCurrency,
-            List<AssetAnalytics> assets
+            List<AssetAnalytics> assets, String baseCurrency, Set<String> unconvertedCurrencies
     ) {}
 
+    /**
+     * Цена — в валюте актива, стоимость и средняя цена — в базовой валюте.
+     */
     public record AssetAnalytics(
             Long id, String name, String ticker, String type,
             double quantity, double currentPrice, double value, double cost, double returnPct
@@ -0,0 +1,7 @@
+package com.example.budgetflow.service;
+
+/**
+ * У пользователя изменились сделки, активы, начисления, снимки портфеля или базовая валюта —
+ * закэшированная аналитика по нему больше не актуальна.
+ */
+public record PortfolioChangedEvent(Long userId) {}
@@ -0,0 +1,173 @@
+package com.example.budgetflow.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Прогноз стоимости портфеля методом Монте-Карло.
+ *
+ * Позиции берутся из аналитики портфеля (стоимость в базовой валюте), средние и ковариация дневных
+ * лог-доходностей тикеров за lookback-days — из {@link CovarianceEngine}, пути строит
+ * {@link MonteCarloSimulator}. Шаг пути — торговый день календаря истории. Позиции без тикера
+ * или без достаточной истории цен, а также курсы валют в прогнозе не меняются.
+ */
+@Service
+@Slf4j
+public class PortfolioSimulationService {
+
+    // добавка к диагонали ковариации, если она вырождена (например, у двух активов одинаковые ряды)
+    private static final double JITTER = 1e-10;
+    private static final int JITTER_ATTEMPTS = 6;
+
+    private final PortfolioAnalyticsService analyticsService;
+    private final CovarianceEngine covarianceEngine;
+    private final ForkJoinPool analyticsPool;
+    private final int maxPaths;
+    private final int maxHorizonDays;
+    private final int lookbackDays;
+    private final long maxOutcomes;
+
+    public PortfolioSimulationService(PortfolioAnalyticsService analyticsService,
+                                      CovarianceEngine covarianceEngine,
+                                      ForkJoinPool analyticsPool,
+                                      @Value("${budgetflow.simulation.max-paths:200000}") int maxPaths,
+                                      @Value("${budgetflow.simulation.max-horizon-days:2520}") int maxHorizonDays,
+                                      @Value("${budgetflow.simulation.lookback-days:365}") int lookbackDays,
+                                      @Value("${budgetflow.simulation.max-outcomes:10000000}") long maxOutcomes) {
+        this.analyticsService = analyticsService;
+        this.covarianceEngine = covarianceEngine;
+        this.analyticsPool = analyticsPool;
+        this.maxPaths = maxPaths;
+        this.maxHorizonDays = maxHorizonDays;
+        this.lookbackDays = lookbackDays;
+        this.maxOutcomes = maxOutcomes;
+    }
+
+    /**
+     * @param bandStepDays шаг контрольных точек в торговых днях; горизонт всегда последняя точка
+     * @param seed         зерно генератора; null — случайное, использованное зерно возвращается в ответе
+     * @throws IllegalArgumentException при параметрах вне пределов
+     */
+    public SimulationResult simulate(Long userId, int paths, int horizonDays, int bandStepDays,
+                                     double[] percentiles, Long seed) {
+        validate(paths, horizonDays, bandStepDays, percentiles);
+        long started = System.currentTimeMillis();
+        long usedSeed = seed != null ? seed : ThreadLocalRandom.current().nextLong();
+        PortfolioAnalyticsService.PortfolioAnalytics analytics = analyticsService.getAnalytics(userId);
+
+        Map<String, Double> valueByTicker = PortfolioAnalyticsService.valueByTicker(analytics);
+        LocalDate today = LocalDate.now();
+        CovarianceEngine.CovarianceMatrix matrix =
+                covarianceEngine.covariance(valueByTicker.keySet(), today.minusDays(lookbackDays), today);
+        List<String> simulated = matrix.periods() >= 2 ? matrix.tickers() : List.of();
+        List<String> fixedTickers = new ArrayList<>(valueByTicker.keySet());
+        fixedTickers.removeAll(simulated);
+
+        int n = simulated.size();
+        double[] values = new double[n];
+        double fixedValue = analytics.totalValue();
+        for (int a = 0; a < n; a++) {
+            values[a] = valueByTicker.get(simulated.get(a));
+            fixedValue -= values[a];
+        }
+        double[] drift = n > 0 ? matrix.means() : new double[0];
+        double[] cholesky = factor(n > 0 ? matrix.covariance() : new double[0], n);
+
+        int[] checkpoints = checkpoints(horizonDays, bandStepDays);
+        MonteCarloSimulator.Bands bands = MonteCarloSimulator.simulate(analyticsPool, drift, cholesky, values,
+                fixedValue, paths, checkpoints, percentiles, usedSeed);
+
+        List<BandPoint> points = new ArrayList<>(checkpoints.length);
+        for (int k = 0; k < checkpoints.length; k++) {
+            points.add(new BandPoint(checkpoints[k], bands.means()[k], bands.bands()[k]));
+        }
+        long millis = System.currentTimeMillis() - started;
+        log.info("Симуляция портфеля пользователя {}: {} путей × {} шагов × {} активов за {} мс",
+                userId, paths, horizonDays, n, millis);
+        return new SimulationResult(analytics.baseCurrency(), analytics.totalValue(), fixedValue, paths, horizonDays,
+                usedSeed, matrix.periods(), simulated, fixedTickers, percentiles, points, millis);
+    }
+
+    private void validate(int paths, int horizonDays, int bandStepDays, double[] percentiles) {
+        if (paths < 1 || paths > maxPaths) {
+            throw new IllegalArgumentException("Число путей должно быть от 1 до " + maxPaths);
+        }
+        if (horizonDays < 1 || horizonDays > maxHorizonDays) {
+            throw new IllegalArgumentException("Горизонт должен быть от 1 до " + maxHorizonDays + " торговых дней");
+        }
+        if (bandStepDays < 1) {
+            throw new IllegalArgumentException("Шаг контрольных точек должен быть не меньше дня");
+        }
+        // значения всех путей хранятся в каждой контрольной точке до подсчёта перцентилей
+        long checkpoints = ((long) horizonDays + bandStepDays - 1) / bandStepDays;
+        if (checkpoints * paths > maxOutcomes) {
+            throw new IllegalArgumentException("Слишком много значений: " + paths + " путей × " + checkpoints
+                    + " контрольных точек, допустимо не более " + maxOutcomes + "; увеличьте шаг точек или уменьшите число путей");
+        }
+        if (percentiles == null || percentiles.length == 0) {
+            throw new IllegalArgumentException("Не заданы перцентили");
+        }
+        for (double p : percentiles) {
+            if (!(p >= 0 && p <= 100)) {
+                throw new IllegalArgumentException("Перцентиль вне диапазона 0-100: " + p);
+            }
+        }
+    }
+
+    static int[] checkpoints(int horizonDays, int bandStepDays) {
+        int count = (horizonDays + bandStepDays - 1) / bandStepDays;
+        int[] steps = new int[count];
+        for (int k = 0; k < count; k++) {
+            steps[k] = Math.min(horizonDays, (k + 1) * bandStepDays);
+        }
+        return steps;
+    }
+
+    /**
+     * Множитель Холецкого; вырожденная ковариация (нулевая дисперсия, линейно зависимые ряды)
+     * раскладывается с нарастающей добавкой к диагонали.
+     */
+    private static double[] factor(double[] covariance, int n) {
+        double[] cholesky = MonteCarloSimulator.cholesky(covariance, n);
+        double maxVariance = 0.0;
+        for (int a = 0; a < n; a++) {
+            maxVariance = Math.max(maxVariance, covariance[a * n + a]);
+        }
+        double jitter = JITTER * Math.max(maxVariance, 1e-12);
+        for (int attempt = 0; cholesky == null && attempt < JITTER_ATTEMPTS; attempt++) {
+            double[] adjusted = covariance.clone();
+            for (int a = 0; a < n; a++) {
+                adjusted[a * n + a] += jitter;
+            }
+            cholesky = MonteCarloSimulator.cholesky(adjusted, n);
+            jitter *= 100;
+        }
+        if (cholesky == null) {
+            throw new IllegalStateException("Не удалось разложить ковариацию доходностей");
+        }
+        return cholesky;
+    }
+
+    /**
+     * Стоимость портфеля на шаге day: среднее по путям и значения перцентилей в порядке запроса.
+     */
+    public record BandPoint(int day, double mean, double[] values) {}
+
+    /**
+     * startValue — текущая стоимость портфеля, fixedValue — её часть, которая в прогнозе не меняется;
+     * historyDays — число дневных доходностей, по которым оценены параметры.
+     */
+    public record SimulationResult(
+            String baseCurrency, double startValue, double fixedValue, int paths, int horizonDays, long seed,
+            int historyDays, List<String> simulatedTickers, List<String> fixedTickers, double[] percentiles,
+            List<BandPoint> bands, long millis
+    ) {}
+}
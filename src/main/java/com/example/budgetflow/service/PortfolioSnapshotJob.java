@@ -0,0 +1,285 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Asset;
+import com.example.budgetflow.entity.ImportLog;
+import com.example.budgetflow.entity.User;
+import com.example.budgetflow.repository.AssetRepository;
+import com.example.budgetflow.repository.ImportLogRepository;
+import com.example.budgetflow.repository.PortfolioSnapshotJdbcRepository;
+import com.example.budgetflow.repository.PositionRepository;
+import com.example.budgetflow.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ночные снимки портфелей всех пользователей со счетами.
+ *
+ * Пользователи делятся на порции по id; порции раздаются пулу воркеров, каждая считается и пишется
+ * в своей транзакции: пользователи, позиции, учёт и риск-метрики порции — по запросу на порцию,
+ * цены и курсы — из {@link PriceCache} и {@link FxRateCache}, снимки — пакетным upsert по (user_id, date),
+ * так что повторный запуск за тот же день перезаписывает строки. Оценка та же, что у {@link PortfolioAnalyticsService#calculateAnalytics}.
+ *
+ * Прогон ограничен окном: порции, не начатые до его конца, пропускаются и попадают в сводку.
+ * Ход прогона доступен через {@link #getProgress()}, итоги с перцентилями длительности порций
+ * пишутся в журнал импорта, как у {@link TinkoffSyncScheduler}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PortfolioSnapshotJob {
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private final PortfolioSnapshotJdbcRepository snapshotJdbcRepository;
+    private final AssetRepository assetRepository;
+    private final PositionRepository positionRepository;
+    private final UserRepository userRepository;
+    private final ImportLogRepository importLogRepository;
+    private final PortfolioAnalyticsService analyticsService;
+    private final RiskMetricsService riskMetricsService;
+    private final FxRateCache fxRateCache;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${budgetflow.snapshots.schedule.threads:4}")
+    private int threads;
+
+    @Value("${budgetflow.snapshots.schedule.partition-size:500}")
+    private int partitionSize;
+
+    @Value("${budgetflow.snapshots.schedule.max-minutes:120}")
+    private long maxMinutes;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile RunState current;
+
+    @Scheduled(cron = "${budgetflow.snapshots.schedule.cron:0 30 4 * * *}")
+    public void runScheduled() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Предыдущий прогон снимков портфелей ещё идёт, запуск пропущен");
+            return;
+        }
+        try {
+            runAll(LocalDate.now());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    RunSummary runAll(LocalDate date) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        List<Long> userIds = snapshotJdbcRepository.findUserIdsWithAccounts();
+        List<List<Long>> partitions = new ArrayList<>();
+        for (int from = 0; from < userIds.size(); from += partitionSize) {
+            partitions.add(userIds.subList(from, Math.min(from + partitionSize, userIds.size())));
+        }
+        log.info("Снимки портфелей за {}: {} пользователей, {} порций, {} потоков",
+                date, userIds.size(), partitions.size(), threads);
+
+        RunState state = new RunState(startedAt, userIds.size(), partitions.size());
+        current = state;
+        long deadline = state.startedNanos + TimeUnit.MINUTES.toNanos(maxMinutes);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("portfolio-snapshot-"));
+        try {
+            for (List<Long> partition : partitions) {
+                workers.execute(() -> runPartition(partition, date, state, deadline));
+            }
+            state.remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Прогон снимков прерван, не завершено порций: {}", state.remaining.getCount());
+        } finally {
+            workers.shutdownNow();
+        }
+
+        RunSummary summary = state.summarize();
+        saveSummary(summary, state);
+        log.info("Снимки портфелей записаны: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Ход текущего или последнего прогона; пусто, если прогонов ещё не было.
+     */
+    public Progress getProgress() {
+        RunState state = current;
+        if (state == null) return null;
+        return new Progress(running.get(), state.startedAt, state.users, state.usersDone.get(), state.usersFailed.get(),
+                state.usersSkipped.get(), TimeUnit.NANOSECONDS.toMillis(
+                        (state.finishedNanos > 0 ? state.finishedNanos : System.nanoTime()) - state.startedNanos));
+    }
+
+    private void runPartition(List<Long> userIds, LocalDate date, RunState state, long deadline) {
+        try {
+            if (System.nanoTime() > deadline) {
+                state.usersSkipped.addAndGet(userIds.size());
+                return;
+            }
+            long started = System.nanoTime();
+            int inserted;
+            try {
+                inserted = snapshotPartition(userIds, date);
+            } catch (DataIntegrityViolationException e) {
+                // снимок того же дня вставили параллельно между пакетами upsert — второй проход его обновит
+                inserted = snapshotPartition(userIds, date);
+            }
+            state.partitionNanos.add(System.nanoTime() - started);
+            state.inserted.addAndGet(inserted);
+            state.usersDone.addAndGet(userIds.size());
+        } catch (RuntimeException e) {
+            log.error("Ошибка снимков порции пользователей {}..{}: {}",
+                    userIds.get(0), userIds.get(userIds.size() - 1), e.getMessage(), e);
+            if (state.reportedErrors.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+                state.errors.add(userIds.get(0) + ".." + userIds.get(userIds.size() - 1) + ": " + e.getMessage());
+            }
+            state.usersFailed.addAndGet(userIds.size());
+        } finally {
+            state.remaining.countDown();
+        }
+    }
+
+    /**
+     * Снимки порции пользователей в одной транзакции. Риск-метрики и аналитика получают события
+     * после коммита, как при ручном снимке.
+     *
+     * @return число вставленных (а не перезаписанных) снимков
+     */
+    int snapshotPartition(List<Long> userIds, LocalDate date) {
+        Integer inserted = transactionTemplate.execute(status -> {
+            Map<Long, List<Asset>> assetsByUser = new HashMap<>();
+            List<Asset> assets = assetRepository.findHeldByUserIdIn(userIds);
+            for (Asset asset : assets) {
+                assetsByUser.computeIfAbsent(asset.getAccount().getUser().getId(), id -> new ArrayList<>()).add(asset);
+            }
+            Map<Long, Double> averageCosts = PortfolioAnalyticsService.averageCosts(positionRepository.findByUserIdIn(userIds));
+            Map<String, BigDecimal> latestPrices = analyticsService.findLatestPrices(assets);
+            Map<Long, RiskMetricsService.RiskMetrics> risk = riskMetricsService.getMetrics(userIds);
+            Map<Long, String> baseCurrencies = new HashMap<>();
+            for (User user : userRepository.findAllById(userIds)) {
+                baseCurrencies.put(user.getId(), PortfolioAnalyticsService.baseCurrency(user));
+            }
+            Map<String, FxRateCache.Rates> ratesByBase = new HashMap<>();
+
+            List<PortfolioSnapshotJdbcRepository.SnapshotRow> rows = new ArrayList<>(userIds.size());
+            for (Long userId : userIds) {
+                String baseCurrency = baseCurrencies.getOrDefault(userId, FxRateCache.PIVOT);
+                FxRateCache.Rates rates = ratesByBase.computeIfAbsent(baseCurrency, base -> fxRateCache.rates(base, date));
+                PortfolioAnalyticsService.PortfolioAnalytics analytics = analyticsService.valuate(
+                        assetsByUser.getOrDefault(userId, List.of()), averageCosts, latestPrices,
+                        risk.get(userId).sharpeRatio(), rates);
+                rows.add(new PortfolioSnapshotJdbcRepository.SnapshotRow(userId, date,
+                        scale(analytics.totalValue(), 2), scale(analytics.totalCost(), 2),
+                        scale(analytics.totalReturn(), 4), scale(analytics.sharpeRatio(), 4), analytics.baseCurrency()));
+            }
+            int count = snapshotJdbcRepository.batchUpsert(rows, partitionSize);
+
+            for (PortfolioSnapshotJdbcRepository.SnapshotRow row : rows) {
+                eventPublisher.publishEvent(new SnapshotCreatedEvent(row.userId(), date, row.totalValue().doubleValue()));
+                eventPublisher.publishEvent(new PortfolioChangedEvent(row.userId()));
+            }
+            return count;
+        });
+        return inserted != null ? inserted : 0;
+    }
+
+    private static BigDecimal scale(double value, int scale) {
+        return BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP);
+    }
+
+    private void saveSummary(RunSummary summary, RunState state) {
+        ImportLog logEntry = new ImportLog();
+        logEntry.setSource("SNAPSHOT_SCHEDULER");
+        logEntry.setImportDate(state.startedAt);
+        logEntry.setUpdatedAt(LocalDateTime.now());
+        logEntry.setStatus(summary.usersFailed() == 0 && summary.usersSkipped() == 0 ? "SUCCESS"
+                : summary.usersDone() > 0 ? "PARTIAL" : "FAILED");
+        logEntry.setOperationsImported(summary.usersDone());
+        logEntry.setAssetsImported(0);
+        if (!state.errors.isEmpty()) {
+            String errors = String.join("; ", state.errors);
+            logEntry.setErrorMessage(errors.length() > 1000 ? errors.substring(0, 1000) : errors);
+        }
+        logEntry.setDetails(String.format(Locale.ROOT,
+                "{\"users\":%d,\"done\":%d,\"failed\":%d,\"skipped\":%d,\"inserted\":%d,\"partitions\":%d," +
+                "\"partitionMs\":{\"p50\":%d,\"p90\":%d,\"p99\":%d,\"max\":%d},\"runMs\":%d}",
+                summary.users(), summary.usersDone(), summary.usersFailed(), summary.usersSkipped(), summary.inserted(),
+                summary.partitions(), summary.p50Millis(), summary.p90Millis(), summary.p99Millis(), summary.maxMillis(),
+                summary.runMillis()));
+        importLogRepository.save(logEntry);
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * @param p50Millis перцентили времени расчёта и записи одной порции
+     */
+    public record RunSummary(int users, int usersDone, int usersFailed, int usersSkipped, long inserted, int partitions,
+                             long p50Millis, long p90Millis, long p99Millis, long maxMillis, long runMillis) {}
+
+    public record Progress(boolean running, LocalDateTime startedAt, int users, int usersDone, int usersFailed,
+                           int usersSkipped, long elapsedMillis) {}
+
+    private static class RunState {
+        private final LocalDateTime startedAt;
+        private final long startedNanos = System.nanoTime();
+        private volatile long finishedNanos;
+        private final int users;
+        private final int partitions;
+        private final CountDownLatch remaining;
+        private final AtomicInteger usersDone = new AtomicInteger();
+        private final AtomicInteger usersFailed = new AtomicInteger();
+        private final AtomicInteger usersSkipped = new AtomicInteger();
+        private final AtomicLong inserted = new AtomicLong();
+        private final Queue<Long> partitionNanos = new ConcurrentLinkedQueue<>();
+        private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger reportedErrors = new AtomicInteger();
+
+        private RunState(LocalDateTime startedAt, int users, int partitions) {
+            this.startedAt = startedAt;
+            this.users = users;
+            this.partitions = partitions;
+            this.remaining = new CountDownLatch(partitions);
+        }
+
+        private RunSummary summarize() {
+            finishedNanos = System.nanoTime();
+            long[] durations = partitionNanos.stream().mapToLong(TimeUnit.NANOSECONDS::toMillis).toArray();
+            Arrays.sort(durations);
+            return new RunSummary(users, usersDone.get(), usersFailed.get(), usersSkipped.get(), inserted.get(),
+                    partitions, percentile(durations, 50), percentile(durations, 90), percentile(durations, 99),
+                    durations.length > 0 ? durations[durations.length - 1] : 0,
+                    TimeUnit.NANOSECONDS.toMillis(finishedNanos - startedNanos));
+        }
+    }
+}
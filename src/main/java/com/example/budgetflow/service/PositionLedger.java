@@ -0,0 +1,275 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Account;
+import com.example.budgetflow.entity.Position;
+import com.example.budgetflow.entity.Trade;
+import com.example.budgetflow.repository.AccountRepository;
+import com.example.budgetflow.repository.AssetRepository;
+import com.example.budgetflow.repository.PositionRepository;
+import com.example.budgetflow.repository.TradeJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Учёт позиций по активам: количество, стоимость по средней цене, реализованный результат и комиссии.
+ * Позиция обновляется в той же транзакции, что и сделки, поэтому аналитике не нужно агрегировать историю.
+ *
+ * Сделки учитываются в порядке (дата, id). Вставка с датой не раньше последней учтённой сделки
+ * применяется к позиции напрямую; сделка «в прошлое», изменение или удаление сделки, а также
+ * актив без позиции (история до появления учёта) пересчитываются по сделкам этого актива.
+ * Количество позиции дублируется в Asset.quantity.
+ *
+ * Перед чтением позиций строки их активов блокируются (по возрастанию id): пакет импорта и страница
+ * синхронизации по одному активу выполняются по очереди, не затирают друг другу позицию и не
+ * создают её дважды — строка актива есть и тогда, когда позиции ещё нет.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PositionLedger {
+
+    private static final double EPSILON = 1e-9;
+
+    private final PositionRepository positionRepository;
+    private final AssetRepository assetRepository;
+    private final AccountRepository accountRepository;
+    private final TradeJdbcRepository tradeJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${budgetflow.positions.rebuild-threads:4}")
+    private int rebuildThreads;
+
+    /**
+     * Учитывает только что вставленные сделки. У каждой сделки должен быть актив с id.
+     *
+     * @return id затронутых активов
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Set<Long> applyInserted(List<Trade> trades) {
+        Map<Long, List<Trade>> byAsset = new LinkedHashMap<>();
+        for (Trade trade : trades) {
+            byAsset.computeIfAbsent(trade.getAsset().getId(), id -> new ArrayList<>()).add(trade);
+        }
+        if (byAsset.isEmpty()) return Set.of();
+
+        assetRepository.lockByIdIn(byAsset.keySet());
+        Map<Long, Position> positions = new HashMap<>();
+        for (Position position : positionRepository.findByAssetIdIn(byAsset.keySet())) {
+            positions.put(position.getAsset().getId(), position);
+        }
+
+        List<Position> changed = new ArrayList<>();
+        for (Map.Entry<Long, List<Trade>> entry : byAsset.entrySet()) {
+            Long assetId = entry.getKey();
+            List<Trade> assetTrades = entry.getValue();
+            // сортировка устойчивая: сделки одной даты остаются в порядке вставки, то есть в порядке id
+            assetTrades.sort(Comparator.comparing(Trade::getDate));
+            Position position = positions.get(assetId);
+            if (position == null || position.getLastTradeDate() == null
+                    || assetTrades.get(0).getDate().isBefore(position.getLastTradeDate())) {
+                changed.add(rebuild(assetId, position));
+                continue;
+            }
+            Accumulator acc = Accumulator.of(position);
+            for (Trade trade : assetTrades) {
+                acc.apply(trade.getType(), trade.getDate(), value(trade.getQuantity()), value(trade.getPrice()),
+                        value(trade.getFee()));
+            }
+            acc.writeTo(position);
+            changed.add(position);
+        }
+        save(changed);
+        return byAsset.keySet();
+    }
+
+    /**
+     * Пересчитывает позиции активов после изменения или удаления их сделок.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void applyChanged(Collection<Long> assetIds) {
+        if (assetIds.isEmpty()) return;
+        assetRepository.lockByIdIn(assetIds);
+        Map<Long, Position> positions = new HashMap<>();
+        for (Position position : positionRepository.findByAssetIdIn(assetIds)) {
+            positions.put(position.getAsset().getId(), position);
+        }
+        List<Position> changed = new ArrayList<>();
+        for (Long assetId : new LinkedHashSet<>(assetIds)) {
+            changed.add(rebuild(assetId, positions.get(assetId)));
+        }
+        save(changed);
+    }
+
+    /**
+     * Сверяет учёт всех счетов со сделками: пересчитывает позиции параллельно, по транзакции на счёт.
+     * Позиции активов без сделок удаляются.
+     */
+    public RebuildSummary rebuildAll() {
+        long started = System.nanoTime();
+        List<Long> accountIds = accountRepository.findAll().stream().map(Account::getId).toList();
+        AtomicInteger positionsCount = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        log.info("Пересчёт позиций: {} счетов, {} потоков", accountIds.size(), rebuildThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(rebuildThreads,
+                new CustomizableThreadFactory("position-rebuild-"));
+        try {
+            List<Future<?>> futures = new ArrayList<>(accountIds.size());
+            for (Long accountId : accountIds) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        positionsCount.addAndGet(transactionTemplate.execute(status -> rebuildAccount(accountId)));
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        log.error("Не удалось пересчитать позиции счёта {}: {}", accountId, e.getMessage(), e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Пересчёт позиций прерван", e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IllegalStateException("Ошибка пересчёта позиций", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        RebuildSummary summary = new RebuildSummary(accountIds.size(), positionsCount.get(), failed.get(),
+                (System.nanoTime() - started) / 1_000_000);
+        log.info("Пересчёт позиций завершён: {}", summary);
+        return summary;
+    }
+
+    private int rebuildAccount(Long accountId) {
+        assetRepository.lockByAccountId(accountId);
+        Map<Long, Position> positions = new HashMap<>();
+        for (Position position : positionRepository.findByAssetAccountId(accountId)) {
+            positions.put(position.getAsset().getId(), position);
+        }
+        Map<Long, Accumulator> accumulators = new LinkedHashMap<>();
+        tradeJdbcRepository.forEachTradeOfAccount(accountId, (assetId, type, date, qty, price, fee) ->
+                accumulators.computeIfAbsent(assetId, id -> new Accumulator()).apply(type, date, qty, price, fee));
+
+        List<Position> changed = new ArrayList<>(accumulators.size());
+        accumulators.forEach((assetId, acc) -> {
+            Position position = positions.remove(assetId);
+            if (position == null) position = newPosition(assetId);
+            acc.writeTo(position);
+            changed.add(position);
+        });
+        save(changed);
+        positionRepository.deleteAll(positions.values());
+        return changed.size();
+    }
+
+    private Position rebuild(Long assetId, Position existing) {
+        Accumulator acc = new Accumulator();
+        tradeJdbcRepository.forEachTradeOfAsset(assetId, (id, type, date, qty, price, fee) ->
+                acc.apply(type, date, qty, price, fee));
+        Position position = existing != null ? existing : newPosition(assetId);
+        acc.writeTo(position);
+        return position;
+    }
+
+    private Position newPosition(Long assetId) {
+        Position position = new Position();
+        position.setAsset(assetRepository.getReferenceById(assetId));
+        return position;
+    }
+
+    private void save(List<Position> positions) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Position position : positions) {
+            position.setUpdatedAt(now);
+            assetRepository.updateQuantity(position.getAsset().getId(), position.getQuantity());
+        }
+        positionRepository.saveAll(positions);
+    }
+
+    private static double value(Double value) {
+        return value != null ? value : 0.0;
+    }
+
+    public record RebuildSummary(int accounts, int positions, int failedAccounts, long millis) {}
+
+    /**
+     * Состояние позиции при проходе по сделкам. Продажа списывает стоимость по текущей средней цене
+     * и не меняет её; результат продажи — выручка минус комиссия минус списанная стоимость.
+     * Тот же расчёт использует {@link ValueCurveService} при проходе по истории и {@link TaxLots}
+     * в режиме средней цены.
+     */
+    static class Accumulator {
+        private double quantity;
+        private double totalCost;
+        private double realizedPnl;
+        private double fees;
+        private int trades;
+        private LocalDate lastTradeDate;
+
+        static Accumulator of(Position position) {
+            Accumulator acc = new Accumulator();
+            acc.quantity = position.getQuantity();
+            acc.totalCost = position.getTotalCost();
+            acc.realizedPnl = position.getRealizedPnl();
+            acc.fees = position.getFees();
+            acc.trades = position.getTradesCount() != null ? position.getTradesCount() : 0;
+            acc.lastTradeDate = position.getLastTradeDate();
+            return acc;
+        }
+
+        void apply(String type, LocalDate date, double qty, double price, double fee) {
+            if ("BUY".equals(type)) {
+                quantity += qty;
+                totalCost += qty * price + fee;
+            } else if ("SELL".equals(type)) {
+                double averageCost = quantity > EPSILON ? totalCost / quantity : 0.0;
+                double soldCost = averageCost * Math.min(qty, Math.max(quantity, 0.0));
+                realizedPnl += qty * price - fee - soldCost;
+                totalCost -= soldCost;
+                quantity -= qty;
+                if (quantity <= EPSILON) totalCost = 0.0;
+            }
+            fees += fee;
+            trades++;
+            lastTradeDate = date;
+        }
+
+        double quantity() {
+            return Math.abs(quantity) <= EPSILON ? 0.0 : quantity;
+        }
+
+        double totalCost() {
+            return totalCost;
+        }
+
+        double realizedPnl() {
+            return realizedPnl;
+        }
+
+        void writeTo(Position position) {
+            position.setQuantity(Math.abs(quantity) <= EPSILON ? 0.0 : quantity);
+            position.setTotalCost(totalCost);
+            position.setRealizedPnl(realizedPnl);
+            position.setFees(fees);
+            position.setTradesCount(trades);
+            position.setLastTradeDate(lastTradeDate);
+        }
+    }
+}
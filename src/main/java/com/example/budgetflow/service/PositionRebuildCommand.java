@@ -0,0 +1,23 @@
+package com.example.budgetflow.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Сверка учёта позиций со сделками при запуске с аргументом {@code --rebuild-positions}.
+ */
+@Component
+@RequiredArgsConstructor
+public class PositionRebuildCommand implements ApplicationRunner {
+
+    private final PositionLedger positionLedger;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (args.containsOption("rebuild-positions")) {
+            positionLedger.rebuildAll();
+        }
+    }
+}
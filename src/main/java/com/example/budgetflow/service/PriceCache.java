@@ -0,0 +1,192 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.MarketData;
+import com.example.budgetflow.repository.MarketDataRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий для всех запросов кэш последней цены по тикеру.
+ *
+ * Прогревается при старте, дальше обновляется сквозной записью: {@link MarketDataListener}
+ * передаёт сюда каждую сохранённую котировку после коммита. Тикер без котировок тоже кэшируется
+ * (как отсутствующая цена), чтобы не ходить за ним в БД на каждом запросе. Поиск по тикеру —
+ * одна проба хэш-таблицы; в БД идём только за тикерами, которых в кэше нет, одним запросом на пакет.
+ *
+ * Размер ограничен: при переполнении вытесняется самая старая котировка из небольшой выборки записей.
+ */
+@Component
+@Slf4j
+public class PriceCache {
+
+    private static final Quote MISSING = new Quote(null, null);
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final MarketDataRepository marketDataRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int maxEntries;
+    private final long staleAfterHours;
+    private final Map<String, Quote> quotes = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong writeThroughs = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PriceCache(MarketDataRepository marketDataRepository, ApplicationEventPublisher eventPublisher,
+                      @Value("${budgetflow.prices.cache.max-entries:100000}") int maxEntries,
+                      @Value("${budgetflow.prices.cache.stale-after-hours:24}") long staleAfterHours) {
+        this.marketDataRepository = marketDataRepository;
+        this.eventPublisher = eventPublisher;
+        this.maxEntries = maxEntries;
+        this.staleAfterHours = staleAfterHours;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        long started = System.currentTimeMillis();
+        int loaded = 0;
+        for (MarketDataRepository.TickerPrice row : marketDataRepository.findAllLatestPrices()) {
+            if (quotes.size() >= maxEntries) break;
+            // при нескольких котировках на одно время первой идёт последняя записанная
+            if (quotes.putIfAbsent(row.getTicker(), new Quote(row.getPrice(), row.getDate())) == null) {
+                loaded++;
+            }
+        }
+        log.info("Кэш цен прогрет: {} тикеров за {} мс", loaded, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Последние цены по набору тикеров; тикеров без котировок в результате нет.
+     */
+    public Map<String, BigDecimal> getLatestPrices(Collection<String> tickers) {
+        Map<String, BigDecimal> prices = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        int found = 0;
+        for (String ticker : tickers) {
+            if (ticker == null) continue;
+            Quote quote = quotes.get(ticker);
+            if (quote == null) {
+                missing.add(ticker);
+                continue;
+            }
+            found++;
+            if (quote != MISSING) prices.put(ticker, quote.price());
+        }
+        hits.addAndGet(found);
+        if (missing.isEmpty()) return prices;
+
+        misses.addAndGet(missing.size());
+        loads.incrementAndGet();
+        Map<String, Quote> loaded = new HashMap<>();
+        for (MarketDataRepository.TickerPrice row : marketDataRepository.findLatestPrices(missing)) {
+            // при нескольких котировках на одно время берём последнюю записанную
+            loaded.putIfAbsent(row.getTicker(), new Quote(row.getPrice(), row.getDate()));
+        }
+        for (String ticker : missing) {
+            Quote quote = loaded.getOrDefault(ticker, MISSING);
+            // пока шёл запрос, сквозная запись могла положить более свежую котировку
+            Quote current = store(ticker, quote);
+            if (current != MISSING) prices.put(ticker, current.price());
+        }
+        return prices;
+    }
+
+    /**
+     * Сквозная запись сохранённой котировки: заменяет закэшированную, если она не новее.
+     * Если последняя цена тикера изменилась, публикует {@link PriceChangedEvent}.
+     */
+    public void onSaved(MarketData marketData) {
+        writeThroughs.incrementAndGet();
+        Quote quote = new Quote(marketData.getPrice(), marketData.getDate());
+        if (store(marketData.getTicker(), quote) == quote) {
+            eventPublisher.publishEvent(new PriceChangedEvent(marketData.getTicker()));
+        }
+    }
+
+    /**
+     * Забывает тикер — следующий запрос перечитает его последнюю цену из БД.
+     */
+    public void evict(String ticker) {
+        quotes.remove(ticker);
+        eventPublisher.publishEvent(new PriceChangedEvent(ticker));
+    }
+
+    public CacheMetrics getMetrics() {
+        LocalDateTime staleBefore = LocalDateTime.now().minusHours(staleAfterHours);
+        int stale = 0;
+        int withoutPrice = 0;
+        LocalDateTime oldest = null;
+        for (Quote quote : quotes.values()) {
+            if (quote == MISSING) {
+                withoutPrice++;
+                continue;
+            }
+            if (quote.date().isBefore(staleBefore)) stale++;
+            if (oldest == null || quote.date().isBefore(oldest)) oldest = quote.date();
+        }
+        return new CacheMetrics(quotes.size(), maxEntries, hits.get(), misses.get(), loads.get(),
+                writeThroughs.get(), evictions.get(), stale, withoutPrice, staleAfterHours, oldest);
+    }
+
+    private Quote store(String ticker, Quote quote) {
+        if (!quotes.containsKey(ticker) && quotes.size() >= maxEntries) {
+            evictOne();
+        }
+        return quotes.merge(ticker, quote, (cached, fresh) -> isNewer(fresh, cached) ? fresh : cached);
+    }
+
+    private static boolean isNewer(Quote fresh, Quote cached) {
+        if (cached == MISSING) return true;
+        if (fresh == MISSING) return false;
+        return !fresh.date().isBefore(cached.date());
+    }
+
+    /**
+     * Приблизительный LRU по времени котировки: из нескольких первых записей вытесняем
+     * тикер без цены или с самой старой котировкой — полный обход таблицы на вставке слишком дорог.
+     */
+    private void evictOne() {
+        String victim = null;
+        LocalDateTime victimDate = null;
+        Iterator<Map.Entry<String, Quote>> it = quotes.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+            Map.Entry<String, Quote> entry = it.next();
+            Quote quote = entry.getValue();
+            if (quote == MISSING) {
+                victim = entry.getKey();
+                break;
+            }
+            if (victimDate == null || quote.date().isBefore(victimDate)) {
+                victim = entry.getKey();
+                victimDate = quote.date();
+            }
+        }
+        if (victim != null && quotes.remove(victim) != null) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    public record Quote(BigDecimal price, LocalDateTime date) {}
+
+    public record CacheMetrics(
+            int size, int maxEntries, long hits, long misses, long loads, long writeThroughs, long evictions,
+            int staleEntries, int entriesWithoutPrice, long staleAfterHours, LocalDateTime oldestQuoteAt
+    ) {}
+}
@@ -0,0 +1,6 @@
+package com.example.budgetflow.service;
+
+/**
+ * Изменилась последняя цена тикера. Публикуется {@link PriceCache} уже после коммита котировки.
+ */
+public record PriceChangedEvent(String ticker) {}
@@ -0,0 +1,23 @@
+package com.example.budgetflow.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Полная пересборка рядов истории цен из market_data при запуске с аргументом {@code --rebuild-price-history}.
+ */
+@Component
+@RequiredArgsConstructor
+public class PriceHistoryRebuildCommand implements ApplicationRunner {
+
+    private final PriceHistoryService priceHistoryService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (args.containsOption("rebuild-price-history")) {
+            priceHistoryService.rebuildAll();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.MarketData;
+import com.example.budgetflow.repository.JdbcCursor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * История цен для графиков и оценки на дату поверх {@link PriceHistoryStore}.
+ * Ряд тикера строится из market_data при первом обращении и дальше пополняется сквозной записью
+ * из {@link MarketDataListener}; котировка «в прошлое» или удаление пересобирают ряд из таблицы.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PriceHistoryService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcCursor jdbcCursor;
+    private final PriceHistoryStore store;
+
+    /**
+     * Последняя цена тикера не позже указанного момента.
+     */
+    public Optional<PriceHistoryStore.PricePoint> getPriceAt(String ticker, LocalDateTime date) {
+        ensureLoaded(ticker);
+        return store.latestAtOrBefore(ticker, date);
+    }
+
+    /**
+     * Точки ряда за период [from, to] в колоночном виде.
+     */
+    public PriceHistory getHistory(String ticker, LocalDateTime from, LocalDateTime to) {
+        ensureLoaded(ticker);
+        Columns columns = new Columns();
+        store.scan(ticker, from, to, columns::add);
+        return columns.toHistory(ticker);
+    }
+
+    /**
+     * Курсор по ряду тикера начиная с последней точки не позже from.
+     */
+    public PriceHistoryStore.Cursor openCursor(String ticker, LocalDateTime from) {
+        ensureLoaded(ticker);
+        return store.cursor(ticker, from);
+    }
+
+    /**
+     * Перестраивает ряд тикера из market_data; котировки читаются курсором порциями, а не всем рядом сразу.
+     *
+     * @return число точек
+     */
+    public int loadTicker(String ticker) {
+        return store.rebuild(ticker, writer -> jdbcCursor.query(
+                "SELECT date, price, volume FROM market_data WHERE ticker = ? ORDER BY date, id",
+                ps -> ps.setString(1, ticker),
+                rs -> {
+                    writer.append(rs.getTimestamp(1).toLocalDateTime(), rs.getBigDecimal(2), rs.getBigDecimal(3));
+                }));
+    }
+
+    /**
+     * Пересобирает ряды всех тикеров из market_data — по запросу на тикер по индексу (ticker, date).
+     */
+    public RebuildSummary rebuildAll() {
+        long started = System.currentTimeMillis();
+        List<String> tickers = jdbcTemplate.queryForList("SELECT DISTINCT ticker FROM market_data", String.class);
+        long points = 0;
+        int failed = 0;
+        for (String ticker : tickers) {
+            try {
+                points += loadTicker(ticker);
+            } catch (RuntimeException e) {
+                failed++;
+                log.error("Не удалось построить историю цен {}: {}", ticker, e.getMessage(), e);
+            }
+        }
+        RebuildSummary summary = new RebuildSummary(tickers.size(), points, failed, System.currentTimeMillis() - started);
+        log.info("История цен построена: {} тикеров, {} точек, ошибок {}, {} мс",
+                summary.tickers(), summary.points(), summary.failedTickers(), summary.millis());
+        return summary;
+    }
+
+    /**
+     * Сквозная запись сохранённой котировки. Ряды, которых ещё нет, не создаются —
+     * они построятся из таблицы при первом обращении.
+     */
+    public void onSaved(MarketData marketData) {
+        String ticker = marketData.getTicker();
+        if (!store.contains(ticker)) return;
+        if (!store.append(ticker, marketData.getDate(), marketData.getPrice(), marketData.getVolume())) {
+            loadTicker(ticker);
+        }
+    }
+
+    public void onRemoved(MarketData marketData) {
+        if (store.contains(marketData.getTicker())) {
+            loadTicker(marketData.getTicker());
+        }
+    }
+
+    private void ensureLoaded(String ticker) {
+        if (!store.contains(ticker)) {
+            loadTicker(ticker);
+        }
+    }
+
+    /**
+     * Накопитель колонок ответа: точки из отображённого ряда пишутся сразу в примитивные массивы.
+     */
+    private static final class Columns {
+        private long[] times = new long[64];
+        private double[] prices = new double[64];
+        private double[] volumes = new double[64];
+        private int size;
+
+        void add(long time, long price, long volume) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                prices = Arrays.copyOf(prices, size * 2);
+                volumes = Arrays.copyOf(volumes, size * 2);
+            }
+            times[size] = time;
+            prices[size] = PriceHistoryStore.scaledToDouble(price);
+            volumes[size] = PriceHistoryStore.scaledToDouble(volume);
+            size++;
+        }
+
+        PriceHistory toHistory(String ticker) {
+            return new PriceHistory(ticker, Arrays.copyOf(times, size), Arrays.copyOf(prices, size),
+                    Arrays.copyOf(volumes, size));
+        }
+    }
+
+    /**
+     * Ряд в колонках: время в мс эпохи (LocalDateTime котировки как UTC), цены и объёмы; NaN — нет значения.
+     */
+    public record PriceHistory(String ticker, long[] times, double[] prices, double[] volumes) {}
+
+    public record RebuildSummary(int tickers, long points, int failedTickers, long millis) {}
+}
@@ -0,0 +1,404 @@
+package com.example.budgetflow.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранилище истории цен: по файлу на тикер, внутри — три колонки long одинаковой ёмкости
+ * (время в мс, цена и объём в десятитысячных), файл отображён в память.
+ *
+ * Формат файла: заголовок {@value #HEADER_SIZE} байт (сигнатура, версия, число точек, ёмкость),
+ * затем колонки времени, цен и объёмов по {@code capacity} значений. Точки только дописываются
+ * и идут по неубыванию времени, поэтому поиск по времени — двоичный, а диапазон читается прямо
+ * из отображённого буфера без копирования. Когда ёмкость кончается, колонки переписываются
+ * в файл вдвое большей ёмкости, который атомарно подменяет старый.
+ *
+ * Запись по тикеру идёт под его блокировкой; читатели блокировок не берут: сначала читается
+ * опубликованное число точек, затем отображение, в котором эти точки уже есть.
+ * Время — LocalDateTime котировки, закодированное как UTC без пересчёта поясов.
+ * Источник истины — таблица market_data; файлы пересобираются из неё {@link PriceHistoryService}.
+ */
+@Component
+public class PriceHistoryStore {
+
+    public static final int PRICE_SCALE = 4;
+
+    private static final int MAGIC = 0x50525331;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    /** Один MappedByteBuffer адресует не больше 2 ГБ — это около 89 млн точек на тикер. */
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / (3 * Long.BYTES);
+    private static final long NULL_VALUE = Long.MIN_VALUE;
+    private static final String EXTENSION = ".series";
+    private static final double SCALE_FACTOR = Math.pow(10, PRICE_SCALE);
+
+    private final Path dir;
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public PriceHistoryStore(@Value("${budgetflow.prices.history.dir:${java.io.tmpdir}/budgetflow-prices}") String dir) {
+        this.dir = Path.of(dir);
+        try {
+            Files.createDirectories(this.dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать каталог истории цен: " + dir, e);
+        }
+    }
+
+    public boolean contains(String ticker) {
+        return series.containsKey(ticker) || Files.exists(file(ticker));
+    }
+
+    public int size(String ticker) {
+        Series s = open(ticker);
+        return s != null ? s.count : 0;
+    }
+
+    /**
+     * Дописывает точку в конец ряда, создавая его при необходимости.
+     *
+     * @return false, если точка старше последней в ряду — такой ряд нужно пересобрать
+     */
+    public boolean append(String ticker, LocalDateTime date, BigDecimal price, BigDecimal volume) {
+        synchronized (lock(ticker)) {
+            Series s = open(ticker);
+            if (s == null) {
+                s = Series.create(file(ticker), INITIAL_CAPACITY);
+                series.put(ticker, s);
+            }
+            long time = toEpochMillis(date);
+            if (s.count > 0 && time < s.time(s.mapping, s.count - 1)) {
+                return false;
+            }
+            s.append(time, toScaled(price), toScaled(volume));
+            return true;
+        }
+    }
+
+    /**
+     * Пересобирает ряд тикера целиком: точки пишутся во временный файл, который затем атомарно
+     * заменяет текущий. Читатели до замены видят старый ряд. Точки должны идти по неубыванию времени.
+     *
+     * @return число точек в новом ряду
+     */
+    public int rebuild(String ticker, SeriesSource source) {
+        synchronized (lock(ticker)) {
+            Path target = file(ticker);
+            Path tmp = target.resolveSibling(target.getFileName() + ".rebuild");
+            Series fresh = Series.create(tmp, INITIAL_CAPACITY);
+            long[] last = {Long.MIN_VALUE};
+            source.writeTo((date, price, volume) -> {
+                long time = toEpochMillis(date);
+                if (time < last[0]) {
+                    throw new IllegalArgumentException("Точки ряда " + ticker + " идут не по времени");
+                }
+                last[0] = time;
+                fresh.append(time, toScaled(price), toScaled(volume));
+            });
+            fresh.moveTo(target);
+            series.put(ticker, fresh);
+            return fresh.count;
+        }
+    }
+
+    /**
+     * Последняя точка не позже указанного времени — двоичный поиск, O(log n).
+     */
+    public Optional<PricePoint> latestAtOrBefore(String ticker, LocalDateTime date) {
+        Series s = open(ticker);
+        if (s == null) return Optional.empty();
+        int count = s.count;
+        Mapping m = s.mapping;
+        int index = upperBound(s, m, count, toEpochMillis(date)) - 1;
+        return index >= 0 ? Optional.of(s.point(m, index)) : Optional.empty();
+    }
+
+    /**
+     * Точки ряда в диапазоне [from, to]: границы ищутся двоичным поиском, значения читаются
+     * прямо из отображённого файла и отдаются потребителю без промежуточных объектов.
+     *
+     * @return число переданных точек
+     */
+    public int scan(String ticker, LocalDateTime from, LocalDateTime to, PointConsumer consumer) {
+        Series s = open(ticker);
+        if (s == null) return 0;
+        int count = s.count;
+        Mapping m = s.mapping;
+        int start = lowerBound(s, m, count, toEpochMillis(from));
+        int end = upperBound(s, m, count, toEpochMillis(to));
+        for (int i = start; i < end; i++) {
+            consumer.accept(s.time(m, i), s.price(m, i), s.volume(m, i));
+        }
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * Курсор для прохода по ряду вперёд: первой идёт последняя точка не позже from (если есть),
+     * затем все последующие. Видит точки, записанные до его создания.
+     */
+    public Cursor cursor(String ticker, LocalDateTime from) {
+        Series s = open(ticker);
+        if (s == null) return new Cursor(null, null, 0, 0);
+        int count = s.count;
+        Mapping m = s.mapping;
+        return new Cursor(s, m, count, Math.max(0, upperBound(s, m, count, toEpochMillis(from)) - 1));
+    }
+
+    public static BigDecimal fromScaled(long value) {
+        return value == NULL_VALUE ? null : BigDecimal.valueOf(value, PRICE_SCALE);
+    }
+
+    /** Масштабированное значение как double; отсутствие значения — NaN. */
+    public static double scaledToDouble(long value) {
+        return value == NULL_VALUE ? Double.NaN : value / SCALE_FACTOR;
+    }
+
+    public static LocalDateTime fromEpochMillis(long time) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(time, 1000), Math.floorMod(time, 1000) * 1_000_000,
+                ZoneOffset.UTC);
+    }
+
+    static long toEpochMillis(LocalDateTime date) {
+        return date.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static long toScaled(BigDecimal value) {
+        return value == null ? NULL_VALUE : value.setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    private static int lowerBound(Series s, Mapping m, int count, long time) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (s.time(m, mid) < time) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int upperBound(Series s, Mapping m, int count, long time) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (s.time(m, mid) <= time) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private Series open(String ticker) {
+        Series s = series.get(ticker);
+        if (s != null) return s;
+        Path file = file(ticker);
+        if (!Files.exists(file)) return null;
+        synchronized (lock(ticker)) {
+            return series.computeIfAbsent(ticker, t -> Series.open(file));
+        }
+    }
+
+    private Object lock(String ticker) {
+        return locks.computeIfAbsent(ticker, t -> new Object());
+    }
+
+    /**
+     * Имя файла из тикера: латиница, цифры, точка и дефис как есть, остальное — кодом символа.
+     */
+    private Path file(String ticker) {
+        StringBuilder name = new StringBuilder(ticker.length() + EXTENSION.length());
+        for (int i = 0; i < ticker.length(); i++) {
+            char c = ticker.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-') {
+                name.append(c);
+            } else {
+                name.append('_').append(Integer.toHexString(c)).append('_');
+            }
+        }
+        return dir.resolve(name.append(EXTENSION).toString());
+    }
+
+    @FunctionalInterface
+    public interface SeriesSource {
+        void writeTo(SeriesWriter writer);
+    }
+
+    @FunctionalInterface
+    public interface SeriesWriter {
+        void append(LocalDateTime date, BigDecimal price, BigDecimal volume);
+    }
+
+    /**
+     * Точка ряда в исходном представлении: время в мс, цена и объём в десятитысячных
+     * ({@link #fromScaled} переводит их обратно, {@code Long.MIN_VALUE} означает отсутствие значения).
+     */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long epochMillis, long scaledPrice, long scaledVolume);
+    }
+
+    public record PricePoint(LocalDateTime date, BigDecimal price, BigDecimal volume) {}
+
+    public static final class Cursor {
+        private final Series series;
+        private final Mapping mapping;
+        private final int count;
+        private int index;
+
+        private Cursor(Series series, Mapping mapping, int count, int index) {
+            this.series = series;
+            this.mapping = mapping;
+            this.count = count;
+            this.index = index;
+        }
+
+        public boolean hasNext() {
+            return index < count;
+        }
+
+        /** Время текущей точки в мс; {@link #hasNext()} должен быть true. */
+        public long time() {
+            return series.time(mapping, index);
+        }
+
+        /** Цена текущей точки в десятитысячных, {@code Long.MIN_VALUE} — цены нет. */
+        public long price() {
+            return series.price(mapping, index);
+        }
+
+        public void next() {
+            index++;
+        }
+    }
+
+    private record Mapping(MappedByteBuffer buffer, int capacity) {
+
+        private int columnOffset(int column, int index) {
+            return HEADER_SIZE + (column * capacity + index) * Long.BYTES;
+        }
+    }
+
+    private static final class Series {
+        private Path file;
+        private volatile Mapping mapping;
+        private volatile int count;
+
+        private Series(Path file, Mapping mapping, int count) {
+            this.file = file;
+            this.mapping = mapping;
+            this.count = count;
+        }
+
+        static Series create(Path file, int capacity) {
+            Mapping mapping = map(file, capacity);
+            MappedByteBuffer buffer = mapping.buffer();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(COUNT_OFFSET, 0);
+            buffer.putLong(CAPACITY_OFFSET, capacity);
+            return new Series(file, mapping, 0);
+        }
+
+        static Series open(Path file) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IllegalStateException("Файл истории цен повреждён: " + file);
+                }
+                int capacity = (int) buffer.getLong(CAPACITY_OFFSET);
+                return new Series(file, new Mapping(buffer, capacity), (int) buffer.getLong(COUNT_OFFSET));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть файл истории цен: " + file, e);
+            }
+        }
+
+        long time(Mapping m, int index) {
+            return m.buffer().getLong(m.columnOffset(0, index));
+        }
+
+        long price(Mapping m, int index) {
+            return m.buffer().getLong(m.columnOffset(1, index));
+        }
+
+        long volume(Mapping m, int index) {
+            return m.buffer().getLong(m.columnOffset(2, index));
+        }
+
+        PricePoint point(Mapping m, int index) {
+            return new PricePoint(fromEpochMillis(time(m, index)), fromScaled(price(m, index)), fromScaled(volume(m, index)));
+        }
+
+        /** Вызывается под блокировкой тикера. */
+        void append(long time, long price, long volume) {
+            int index = count;
+            if (index == mapping.capacity()) {
+                grow();
+            }
+            Mapping m = mapping;
+            m.buffer().putLong(m.columnOffset(1, index), price);
+            m.buffer().putLong(m.columnOffset(2, index), volume);
+            m.buffer().putLong(m.columnOffset(0, index), time);
+            // число точек в заголовке пишется последним: оборванная запись не попадёт в ряд
+            m.buffer().putLong(COUNT_OFFSET, index + 1);
+            count = index + 1;
+        }
+
+        void moveTo(Path target) {
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось заменить файл истории цен: " + target, e);
+            }
+            file = target;
+        }
+
+        private void grow() {
+            Mapping old = mapping;
+            if (old.capacity() >= MAX_CAPACITY) {
+                throw new IllegalStateException("Ряд " + file + " достиг предельной ёмкости " + MAX_CAPACITY);
+            }
+            int capacity = (int) Math.min((long) old.capacity() * 2, MAX_CAPACITY);
+            Path tmp = file.resolveSibling(file.getFileName() + ".grow");
+            Mapping grown = map(tmp, capacity);
+            MappedByteBuffer buffer = grown.buffer();
+            buffer.put(0, old.buffer(), 0, HEADER_SIZE);
+            buffer.putLong(CAPACITY_OFFSET, capacity);
+            for (int column = 0; column < 3; column++) {
+                buffer.put(grown.columnOffset(column, 0), old.buffer(), old.columnOffset(column, 0), count * Long.BYTES);
+            }
+            Path target = file;
+            file = tmp;
+            moveTo(target);
+            // читатели, уже взявшие старое отображение, дочитают его: удалённый файл живёт, пока отображён
+            mapping = grown;
+        }
+
+        /** Создаёт (или обнуляет) файл заданной ёмкости и отображает его целиком. */
+        private static Mapping map(Path file, int capacity) {
+            long size = HEADER_SIZE + 3L * capacity * Long.BYTES;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                return new Mapping(channel.map(FileChannel.MapMode.READ_WRITE, 0, size), capacity);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось отобразить файл истории цен: " + file, e);
+            }
+        }
+    }
+}
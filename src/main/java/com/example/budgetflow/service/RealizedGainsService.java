@@ -0,0 +1,111 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Asset;
+import com.example.budgetflow.repository.AssetRepository;
+import com.example.budgetflow.repository.TradeJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Реализованный результат продаж за год по налоговым лотам ({@link TaxLots}).
+ *
+ * Сделки всех счетов пользователя читаются одним потоком по (дата, id) до конца года, лоты ведутся
+ * по каждому активу. Записи продаж за год отдаются потребителю по мере прохода; в памяти — только
+ * открытые лоты и итоги по валютам, поэтому объём истории на память не влияет.
+ */
+@Service
+@RequiredArgsConstructor
+public class RealizedGainsService {
+
+    private static final int MIN_YEAR = 1900;
+    private static final int MAX_YEAR = 9999;
+
+    private final AssetRepository assetRepository;
+    private final TradeJdbcRepository tradeJdbcRepository;
+
+    /**
+     * @return итоги по валютам активов
+     * @throws IllegalArgumentException если не задан метод или год вне допустимого диапазона
+     */
+    public Summary streamRealizedGains(Long userId, int year, TaxLots.Method method, GainRecordSink sink) {
+        validate(year, method);
+        long started = System.currentTimeMillis();
+        Map<Long, Asset> assets = new HashMap<>();
+        for (Asset asset : assetRepository.findByUserId(userId)) {
+            assets.put(asset.getId(), asset);
+        }
+        LocalDate yearStart = LocalDate.of(year, 1, 1);
+        LocalDate yearEnd = LocalDate.of(year, 12, 31);
+        Map<Long, TaxLots> lots = new HashMap<>();
+        Map<String, Totals> totals = new TreeMap<>();
+        long[] trades = new long[1];
+
+        tradeJdbcRepository.forEachTradeOfUser(userId, yearEnd, (assetId, type, date, quantity, price, fee) -> {
+            trades[0]++;
+            Asset asset = assets.get(assetId);
+            TaxLots assetLots = lots.computeIfAbsent(assetId, id -> new TaxLots(method));
+            assetLots.apply(type, date, quantity, price, fee, (sold, acquired, matched, proceeds, cost) -> {
+                if (sold.isBefore(yearStart)) return;
+                String currency = asset != null ? asset.getCurrency() : null;
+                RealizedGain gain = new RealizedGain(sold, acquired, assetId,
+                        asset != null ? asset.getTicker() : null, currency, matched, proceeds, cost, proceeds - cost,
+                        acquired != null ? ChronoUnit.DAYS.between(acquired, sold) : null);
+                totals.computeIfAbsent(currency != null ? currency : "", c -> new Totals()).add(gain);
+                sink.accept(gain);
+            });
+        });
+
+        Map<String, CurrencyTotals> byCurrency = new TreeMap<>();
+        totals.forEach((currency, t) -> byCurrency.put(currency,
+                new CurrencyTotals(t.records, t.proceeds, t.cost, t.proceeds - t.cost)));
+        return new Summary(year, method, trades[0], byCurrency, System.currentTimeMillis() - started);
+    }
+
+    public static void validate(int year, TaxLots.Method method) {
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            throw new IllegalArgumentException("Некорректный год: " + year);
+        }
+        if (method == null) {
+            throw new IllegalArgumentException("Не задан метод учёта лотов");
+        }
+    }
+
+    @FunctionalInterface
+    public interface GainRecordSink {
+        void accept(RealizedGain gain);
+    }
+
+    /**
+     * Закрытие одного лота продажей; суммы — в валюте актива. Для метода средней цены и продажи
+     * без открытого лота acquired и holdingDays не заполнены.
+     */
+    public record RealizedGain(LocalDate sold, LocalDate acquired, long assetId, String ticker, String currency,
+                               double quantity, double proceeds, double cost, double gain, Long holdingDays) {}
+
+    public record CurrencyTotals(long records, double proceeds, double cost, double gain) {}
+
+    /**
+     * Итоги года: trades — прочитано сделок (с начала истории), byCurrency — суммы записей года
+     * по валютам активов (пустой ключ — валюта не указана).
+     */
+    public record Summary(int year, TaxLots.Method method, long trades, Map<String, CurrencyTotals> byCurrency,
+                          long millis) {}
+
+    private static final class Totals {
+        private long records;
+        private double proceeds;
+        private double cost;
+
+        void add(RealizedGain gain) {
+            records++;
+            proceeds += gain.proceeds();
+            cost += gain.cost();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.budgetflow.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Дневные доходности тикеров, выровненные на общий календарь, для оценки рисков и симуляций.
+ *
+ * Цена закрытия дня — последняя котировка за день из {@link PriceHistoryService}; календарь —
+ * дни, в которые котировался хотя бы один из вошедших в расчёт тикеров. В день без собственной котировки тикер
+ * держит предыдущую цену (нулевая доходность), поэтому ряды всех тикеров одной длины и идут
+ * день в день. Доходности — логарифмические, в примитивных массивах по тикеру.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReturnSeriesService {
+
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    private final PriceHistoryService priceHistoryService;
+
+    /**
+     * Доходности за [from, to]. Окно начинается с первого дня, когда цена есть у всех тикеров;
+     * тикер без котировок или с историей короче половины календаря в расчёт не входит
+     * и возвращается в списке пропущенных, чтобы не укорачивать окно остальным.
+     *
+     * @throws IllegalArgumentException при пустом или слишком длинном периоде
+     */
+    public AlignedReturns dailyReturns(Collection<String> tickers, LocalDate from, LocalDate to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            throw new IllegalArgumentException("Некорректный период: " + from + " - " + to);
+        }
+        long fromDay = from.toEpochDay();
+        long spanDays = to.toEpochDay() - fromDay + 1;
+        if (spanDays > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Слишком длинный период: " + from + " - " + to);
+        }
+        int span = (int) spanDays;
+        List<String> names = new ArrayList<>();
+        List<double[]> closes = new ArrayList<>();
+        List<BitSet> quotedDays = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        BitSet quoted = new BitSet(span);
+        for (String ticker : new LinkedHashSet<>(tickers)) {
+            if (ticker == null) continue;
+            BitSet days = new BitSet(span);
+            double[] close = dailyCloses(ticker, fromDay, span, days);
+            if (close == null) {
+                missing.add(ticker);
+            } else {
+                names.add(ticker);
+                closes.add(close);
+                quotedDays.add(days);
+                quoted.or(days);
+            }
+        }
+
+        // короткие истории отсеиваются по календарю всех тикеров с котировками
+        int[] calendar = calendar(quoted);
+        List<String> kept = new ArrayList<>();
+        List<double[]> keptCloses = new ArrayList<>();
+        BitSet keptQuoted = new BitSet(span);
+        for (int t = 0; t < names.size(); t++) {
+            if (firstPriced(closes.get(t), calendar) > calendar.length / 2) {
+                missing.add(names.get(t));
+                continue;
+            }
+            kept.add(names.get(t));
+            keptCloses.add(closes.get(t));
+            keptQuoted.or(quotedDays.get(t));
+        }
+
+        // календарь расчёта — только дни котировок оставшихся тикеров, иначе дни отсеянных
+        // добавили бы всем нулевые доходности; окно — с первого дня, когда цена есть у всех
+        calendar = calendar(keptQuoted);
+        int days = calendar.length;
+        int start = 0;
+        for (double[] close : keptCloses) {
+            start = Math.max(start, firstPriced(close, calendar));
+        }
+
+        int periods = Math.max(0, days - start - 1);
+        long[] returnDays = new long[periods];
+        for (int i = 0; i < periods; i++) {
+            returnDays[i] = fromDay + calendar[start + i + 1];
+        }
+        double[][] returns = new double[kept.size()][periods];
+        for (int t = 0; t < kept.size(); t++) {
+            double[] close = keptCloses.get(t);
+            double[] row = returns[t];
+            for (int i = 0; i < periods; i++) {
+                row[i] = Math.log(close[calendar[start + i + 1]] / close[calendar[start + i]]);
+            }
+        }
+        return new AlignedReturns(kept, returnDays, returns, missing);
+    }
+
+    private static int[] calendar(BitSet quoted) {
+        int[] calendar = new int[quoted.cardinality()];
+        int days = 0;
+        for (int d = quoted.nextSetBit(0); d >= 0; d = quoted.nextSetBit(d + 1)) {
+            calendar[days++] = d;
+        }
+        return calendar;
+    }
+
+    private static int firstPriced(double[] close, int[] calendar) {
+        int first = 0;
+        while (first < calendar.length && Double.isNaN(close[calendar[first]])) first++;
+        return first;
+    }
+
+    /**
+     * Закрытия тикера по дням периода с переносом последней цены вперёд; перед периодом берётся
+     * последняя котировка до него. Дни собственных котировок отмечаются в quoted.
+     * null — котировок за период нет.
+     */
+    private double[] dailyCloses(String ticker, long fromDay, int span, BitSet quoted) {
+        double[] close = new double[span];
+        Arrays.fill(close, Double.NaN);
+        double carried = Double.NaN;
+        boolean any = false;
+        PriceHistoryStore.Cursor cursor = priceHistoryService.openCursor(ticker, LocalDate.ofEpochDay(fromDay).atStartOfDay());
+        for (; cursor.hasNext(); cursor.next()) {
+            long day = Math.floorDiv(cursor.time(), DAY_MILLIS) - fromDay;
+            if (day >= span) break;
+            long price = cursor.price();
+            if (price == Long.MIN_VALUE || price <= 0) continue;
+            double value = PriceHistoryStore.scaledToDouble(price);
+            if (day < 0) {
+                carried = value;
+            } else {
+                close[(int) day] = value;
+                quoted.set((int) day);
+                any = true;
+            }
+        }
+        if (!any) return null;
+        for (int d = 0; d < span; d++) {
+            if (Double.isNaN(close[d])) {
+                close[d] = carried;
+            } else {
+                carried = close[d];
+            }
+        }
+        return close;
+    }
+
+    /**
+     * Доходности на общем календаре: returns[t][i] — лог-доходность тикера tickers[t] за день days[i]
+     * (от предыдущего дня календаря); days — дни эпохи.
+     */
+    public record AlignedReturns(List<String> tickers, long[] days, double[][] returns, List<String> missing) {
+
+        public int periods() {
+            return days.length;
+        }
+    }
+}
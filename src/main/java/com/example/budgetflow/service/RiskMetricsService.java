@@ -0,0 +1,454 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.repository.JdbcCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Риск-метрики портфеля по снимкам за скользящее окно: средняя доходность, волатильность,
+ * коэффициенты Шарпа и Сортино, максимальная просадка.
+ *
+ * Доходность периода — изменение стоимости между соседними снимками окна; из нескольких снимков
+ * за день учитывается последний. По каждому пользователю в памяти держатся точки окна
+ * и накопленные статистики: среднее и сумма квадратов отклонений ведутся алгоритмом Уэлфорда
+ * (с обратным шагом при выходе точки из окна), просадка — от текущего пика. Новый снимок
+ * добавляется после коммита за O(1), чтение метрик — O(1); только когда из окна выходят старые
+ * точки, просадка пересчитывается проходом по окну.
+ *
+ * Состояние строится из portfolio_snapshots одним запросом при первом обращении к пользователю.
+ * Число пользователей в памяти ограничено; вытесненные строятся заново при следующем обращении.
+ */
+@Service
+@Slf4j
+public class RiskMetricsService {
+
+    private static final int EVICTION_SAMPLE = 8;
+    private static final double DAYS_PER_YEAR = 365.0;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final JdbcCursor jdbcCursor;
+    private final int windowMonths;
+    private final double riskFreeRate;
+    private final int maxUsers;
+    private final int rebuildBatchSize;
+    private final Map<Long, UserRisk> states = new ConcurrentHashMap<>();
+
+    public RiskMetricsService(JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                              JdbcCursor jdbcCursor,
+                              @Value("${budgetflow.risk.window-months:12}") int windowMonths,
+                              @Value("${budgetflow.risk.risk-free-rate:0}") double riskFreeRate,
+                              @Value("${budgetflow.risk.max-users:100000}") int maxUsers,
+                              @Value("${budgetflow.risk.rebuild-batch-size:1000}") int rebuildBatchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.jdbcCursor = jdbcCursor;
+        this.windowMonths = windowMonths;
+        this.riskFreeRate = riskFreeRate / 100.0;
+        this.maxUsers = maxUsers;
+        this.rebuildBatchSize = rebuildBatchSize;
+    }
+
+    public RiskMetrics getMetrics(Long userId) {
+        UserRisk state = loadedState(userId);
+        synchronized (state) {
+            state.evictBefore(windowStart());
+            return state.toMetrics(riskFreeRate);
+        }
+    }
+
+    /**
+     * Метрики пакета пользователей; недостающие состояния строятся одним запросом на весь пакет.
+     */
+    public Map<Long, RiskMetrics> getMetrics(Collection<Long> userIds) {
+        Map<Long, UserRisk> userStates = loadedStates(userIds);
+        long windowStart = windowStart();
+        Map<Long, RiskMetrics> metrics = new HashMap<>();
+        for (Map.Entry<Long, UserRisk> entry : userStates.entrySet()) {
+            UserRisk state = entry.getValue();
+            synchronized (state) {
+                state.evictBefore(windowStart);
+                metrics.put(entry.getKey(), state.toMetrics(riskFreeRate));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Выполняется раньше сброса {@link AnalyticsCache}, чтобы пересчитанная аналитика уже видела новый снимок.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onSnapshotCreated(SnapshotCreatedEvent event) {
+        record(event.userId(), event.date(), event.totalValue());
+    }
+
+    /**
+     * Добавляет снимок в состояние пользователя, если оно уже построено; иначе он попадёт туда из таблицы.
+     */
+    public void record(Long userId, LocalDate date, double totalValue) {
+        UserRisk state = states.get(userId);
+        if (state == null) return;
+        synchronized (state) {
+            if (!state.loaded) {
+                // состояние строится пакетным запросом без блокировки — точка применится после него
+                state.pending.add(new SnapshotCreatedEvent(userId, date, totalValue));
+                return;
+            }
+            if (!state.add(date.toEpochDay(), totalValue)) {
+                // снимок задним числом — порядок окна нарушен, строим заново при следующем чтении
+                states.remove(userId, state);
+                return;
+            }
+            state.evictBefore(windowStart());
+        }
+    }
+
+    /**
+     * Сбрасывает состояния и заново строит их из portfolio_snapshots для всех пользователей со снимками в окне —
+     * пакетами по rebuild-batch-size пользователей в порядке id, один запрос на пакет.
+     */
+    public RebuildSummary rebuildAll() {
+        long started = System.currentTimeMillis();
+        states.clear();
+        List<Long> userIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT user_id FROM portfolio_snapshots WHERE date >= ? ORDER BY user_id", Long.class,
+                windowStartDate());
+        for (int from = 0; from < userIds.size(); from += rebuildBatchSize) {
+            loadedStates(userIds.subList(from, Math.min(userIds.size(), from + rebuildBatchSize)));
+        }
+        RebuildSummary summary = new RebuildSummary(userIds.size(), System.currentTimeMillis() - started);
+        log.info("Риск-метрики построены: {} пользователей, {} мс", summary.users(), summary.millis());
+        return summary;
+    }
+
+    private Map<Long, UserRisk> loadedStates(Collection<Long> userIds) {
+        Map<Long, UserRisk> userStates = new HashMap<>();
+        Map<Long, UserRisk> unloaded = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Long userId : userIds) {
+            UserRisk state = states.computeIfAbsent(userId, id -> new UserRisk());
+            state.touchedAt = now;
+            userStates.put(userId, state);
+            if (!state.loaded) unloaded.put(userId, state);
+        }
+        if (!unloaded.isEmpty()) {
+            loadAll(unloaded);
+            ensureCapacity();
+        }
+        return userStates;
+    }
+
+    private UserRisk loadedState(Long userId) {
+        UserRisk state = states.computeIfAbsent(userId, id -> new UserRisk());
+        state.touchedAt = System.currentTimeMillis();
+        synchronized (state) {
+            if (!state.loaded) {
+                load(userId, state);
+                state.loaded = true;
+                state.replayPending();
+                ensureCapacity();
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Снимок, записанный во время загрузки, придёт ещё и событием — повтор за ту же дату только заменит точку.
+     */
+    private void load(Long userId, UserRisk state) {
+        jdbcCursor.query(
+                "SELECT date, total_value FROM portfolio_snapshots WHERE user_id = ? AND date >= ? ORDER BY date, id",
+                ps -> {
+                    ps.setLong(1, userId);
+                    ps.setObject(2, windowStartDate());
+                },
+                rs -> {
+                    BigDecimal value = rs.getBigDecimal(2);
+                    if (value != null) {
+                        state.add(rs.getDate(1).toLocalDate().toEpochDay(), value.doubleValue());
+                    }
+                });
+    }
+
+    /**
+     * Точки строятся во временных состояниях без блокировок и переносятся в общие, если те ещё не построены
+     * другим путём; снимки, пришедшие событием за время запроса, доигрываются поверх.
+     */
+    private void loadAll(Map<Long, UserRisk> unloaded) {
+        Map<Long, UserRisk> built = new HashMap<>();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userIds", unloaded.keySet())
+                .addValue("from", windowStartDate());
+        namedParameterJdbcTemplate.query(
+                "SELECT user_id, date, total_value FROM portfolio_snapshots " +
+                "WHERE user_id IN (:userIds) AND date >= :from ORDER BY user_id, date, id",
+                params, rs -> {
+                    BigDecimal value = rs.getBigDecimal(3);
+                    if (value != null) {
+                        built.computeIfAbsent(rs.getLong(1), id -> new UserRisk())
+                                .add(rs.getDate(2).toLocalDate().toEpochDay(), value.doubleValue());
+                    }
+                });
+
+        for (Map.Entry<Long, UserRisk> entry : unloaded.entrySet()) {
+            UserRisk state = entry.getValue();
+            synchronized (state) {
+                if (state.loaded) continue;
+                UserRisk source = built.get(entry.getKey());
+                if (source != null) state.adopt(source);
+                state.loaded = true;
+                state.replayPending();
+            }
+        }
+    }
+
+    private LocalDate windowStartDate() {
+        return LocalDate.now().minusMonths(windowMonths);
+    }
+
+    private long windowStart() {
+        return windowStartDate().toEpochDay();
+    }
+
+    /**
+     * Приблизительное вытеснение давно не читанного пользователя, как в {@link AnalyticsCache}.
+     */
+    private void ensureCapacity() {
+        while (states.size() > maxUsers) {
+            Long victim = null;
+            UserRisk victimState = null;
+            Iterator<Map.Entry<Long, UserRisk>> it = states.entrySet().iterator();
+            for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+                Map.Entry<Long, UserRisk> candidate = it.next();
+                UserRisk state = candidate.getValue();
+                if (!state.loaded) continue;
+                if (victimState == null || state.touchedAt < victimState.touchedAt) {
+                    victim = candidate.getKey();
+                    victimState = state;
+                }
+            }
+            if (victim == null) return;
+            states.remove(victim, victimState);
+        }
+    }
+
+    /**
+     * Метрики окна. Доходности — доли за период между снимками; волатильность — выборочное
+     * стандартное отклонение доходностей периода. Годовые величины пересчитываются по средней
+     * частоте снимков в окне; Сортино считается по отрицательным доходностям относительно нуля.
+     * Просадка — наибольшее падение стоимости от пика внутри окна, в долях.
+     */
+    public record RiskMetrics(
+            LocalDate from, LocalDate to, int periods,
+            double meanReturn, double volatility, double annualizedVolatility,
+            double sharpeRatio, double sortinoRatio, double maxDrawdown
+    ) {}
+
+    public record RebuildSummary(int users, long millis) {}
+
+    /**
+     * Точки окна пользователя в кольцевом буфере и статистики по доходностям между ними.
+     * Доходность хранится при точке, к которой она ведёт; у первой точки окна её нет (NaN).
+     */
+    static final class UserRisk {
+        private long[] days = new long[16];
+        private double[] values = new double[16];
+        private double[] returns = new double[16];
+        private int head;
+        private int size;
+
+        private int count;
+        private double mean;
+        private double m2;
+        private double downsideSquares;
+
+        private double peak;
+        private double maxDrawdown;
+
+        private boolean loaded;
+        private volatile long touchedAt;
+        private final List<SnapshotCreatedEvent> pending = new ArrayList<>();
+
+        /**
+         * @return false, если точка раньше последней в окне
+         */
+        boolean add(long day, double value) {
+            boolean replaced = false;
+            if (size > 0) {
+                long last = days[index(size - 1)];
+                if (day < last) return false;
+                if (day == last) {
+                    removeReturn(returns[index(size - 1)]);
+                    size--;
+                    replaced = true;
+                }
+            }
+            if (size == days.length) grow();
+
+            double periodReturn = Double.NaN;
+            if (size > 0) {
+                double previous = values[index(size - 1)];
+                if (previous > 0) periodReturn = value / previous - 1;
+            }
+            int slot = index(size++);
+            days[slot] = day;
+            values[slot] = value;
+            returns[slot] = periodReturn;
+            addReturn(periodReturn);
+
+            if (replaced) {
+                recomputeDrawdown();
+            } else {
+                trackDrawdown(value);
+            }
+            return true;
+        }
+
+        /**
+         * Убирает точки раньше указанного дня; доходность новой первой точки вела из-за окна и тоже уходит.
+         */
+        void evictBefore(long day) {
+            boolean evicted = false;
+            while (size > 0 && days[head] < day) {
+                removeReturn(returns[head]);
+                head = (head + 1) % days.length;
+                size--;
+                evicted = true;
+            }
+            if (!evicted) return;
+            if (size > 0) {
+                removeReturn(returns[head]);
+                returns[head] = Double.NaN;
+            }
+            recomputeDrawdown();
+        }
+
+        /**
+         * Забирает точки и статистики состояния, построенного отдельно.
+         */
+        void adopt(UserRisk other) {
+            days = other.days;
+            values = other.values;
+            returns = other.returns;
+            head = other.head;
+            size = other.size;
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+            downsideSquares = other.downsideSquares;
+            peak = other.peak;
+            maxDrawdown = other.maxDrawdown;
+        }
+
+        /**
+         * Снимок за уже загруженную дату только заменит точку, поэтому повтор безопасен.
+         */
+        void replayPending() {
+            for (SnapshotCreatedEvent event : pending) {
+                add(event.date().toEpochDay(), event.totalValue());
+            }
+            pending.clear();
+        }
+
+        RiskMetrics toMetrics(double annualRiskFreeRate) {
+            if (size == 0) {
+                return new RiskMetrics(null, null, 0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+            }
+            long first = days[head];
+            long last = days[index(size - 1)];
+            double volatility = count > 1 ? Math.sqrt(m2 / (count - 1)) : 0.0;
+            double downside = count > 0 ? Math.sqrt(downsideSquares / count) : 0.0;
+            double periodsPerYear = last > first ? count * DAYS_PER_YEAR / (last - first) : 0.0;
+            double excess = periodsPerYear > 0 ? mean - annualRiskFreeRate / periodsPerYear : 0.0;
+            double annualization = Math.sqrt(periodsPerYear);
+
+            return new RiskMetrics(
+                    LocalDate.ofEpochDay(first), LocalDate.ofEpochDay(last), count,
+                    mean, volatility, volatility * annualization,
+                    volatility > 0 ? excess / volatility * annualization : 0.0,
+                    downside > 0 ? excess / downside * annualization : 0.0,
+                    maxDrawdown
+            );
+        }
+
+        private void addReturn(double r) {
+            if (Double.isNaN(r)) return;
+            count++;
+            double delta = r - mean;
+            mean += delta / count;
+            m2 += delta * (r - mean);
+            if (r < 0) downsideSquares += r * r;
+        }
+
+        private void removeReturn(double r) {
+            if (Double.isNaN(r)) return;
+            if (count == 1) {
+                count = 0;
+                mean = 0.0;
+                m2 = 0.0;
+                downsideSquares = 0.0;
+                return;
+            }
+            double delta = r - mean;
+            mean -= delta / (count - 1);
+            m2 = Math.max(0.0, m2 - delta * (r - mean));
+            count--;
+            if (r < 0) downsideSquares = Math.max(0.0, downsideSquares - r * r);
+        }
+
+        private void trackDrawdown(double value) {
+            if (value > peak) {
+                peak = value;
+            } else if (peak > 0) {
+                maxDrawdown = Math.max(maxDrawdown, 1 - value / peak);
+            }
+        }
+
+        private void recomputeDrawdown() {
+            peak = 0.0;
+            maxDrawdown = 0.0;
+            for (int i = 0; i < size; i++) {
+                trackDrawdown(values[index(i)]);
+            }
+        }
+
+        private int index(int offset) {
+            return (head + offset) % days.length;
+        }
+
+        private void grow() {
+            int capacity = days.length * 2;
+            long[] newDays = new long[capacity];
+            double[] newValues = new double[capacity];
+            double[] newReturns = new double[capacity];
+            for (int i = 0; i < size; i++) {
+                int slot = index(i);
+                newDays[i] = days[slot];
+                newValues[i] = values[slot];
+                newReturns[i] = returns[slot];
+            }
+            days = newDays;
+            values = newValues;
+            returns = newReturns;
+            head = 0;
+        }
+    }
+}
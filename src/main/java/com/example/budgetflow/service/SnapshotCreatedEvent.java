@@ -0,0 +1,8 @@
+package com.example.budgetflow.service;
+
+import java.time.LocalDate;
+
+/**
+ * Сохранён снимок портфеля: стоимость на дату, как она записана в portfolio_snapshots.
+ */
+public record SnapshotCreatedEvent(Long userId, LocalDate date, double totalValue) {}
@@ -0,0 +1,136 @@
+package com.example.budgetflow.service;
+
+import java.time.LocalDate;
+
+/**
+ * Открытые лоты одного актива и сопоставление продаж с покупками.
+ *
+ * FIFO: покупка открывает лот (количество, цена единицы с комиссией покупки, день), продажа
+ * закрывает лоты с самого старого; на каждый затронутый лот выдаётся своя запись результата,
+ * комиссия продажи делится между ними пропорционально количеству. Лоты лежат в кольцевом буфере
+ * на примитивных массивах, который растёт удвоением.
+ *
+ * AVERAGE: расчёт по средней цене тем же {@link PositionLedger.Accumulator}, что и учёт позиций,
+ * поэтому сумма результатов совпадает с realizedPnl позиции; на продажу — одна запись без даты покупки.
+ *
+ * Продажа сверх открытого количества (история сделок неполная) отдаётся записью с нулевой
+ * стоимостью и без даты покупки.
+ */
+public final class TaxLots {
+
+    private static final double EPSILON = 1e-9;
+
+    public enum Method { FIFO, AVERAGE }
+
+    private final Method method;
+    private final PositionLedger.Accumulator average;
+    private double[] quantities = new double[8];
+    private double[] unitCosts = new double[8];
+    private long[] days = new long[8];
+    private int head;
+    private int size;
+
+    TaxLots(Method method) {
+        this.method = method;
+        this.average = method == Method.AVERAGE ? new PositionLedger.Accumulator() : null;
+    }
+
+    /**
+     * Учитывает сделку; для продажи выдаёт записи результата в sink.
+     */
+    void apply(String type, LocalDate date, double quantity, double price, double fee, GainSink sink) {
+        if (average != null) {
+            applyAverage(type, date, quantity, price, fee, sink);
+        } else if ("BUY".equals(type)) {
+            if (quantity > EPSILON) push(quantity, (quantity * price + fee) / quantity, date.toEpochDay());
+        } else if ("SELL".equals(type)) {
+            sell(date, quantity, price, fee, sink);
+        }
+    }
+
+    int openLots() {
+        return method == Method.AVERAGE ? (average.quantity() > 0 ? 1 : 0) : size;
+    }
+
+    double openQuantity() {
+        if (average != null) return average.quantity();
+        double total = 0.0;
+        for (int i = 0; i < size; i++) {
+            total += quantities[(head + i) & (quantities.length - 1)];
+        }
+        return total;
+    }
+
+    private void applyAverage(String type, LocalDate date, double quantity, double price, double fee, GainSink sink) {
+        double before = average.realizedPnl();
+        average.apply(type, date, quantity, price, fee);
+        if ("SELL".equals(type)) {
+            double proceeds = quantity * price - fee;
+            double gain = average.realizedPnl() - before;
+            sink.accept(date, null, quantity, proceeds, proceeds - gain);
+        }
+    }
+
+    private void sell(LocalDate date, double quantity, double price, double fee, GainSink sink) {
+        if (quantity <= EPSILON) return;
+        double remaining = quantity;
+        while (remaining > EPSILON && size > 0) {
+            int slot = head;
+            double lot = quantities[slot];
+            double matched = Math.min(lot, remaining);
+            double proceeds = matched * price - fee * matched / quantity;
+            sink.accept(date, LocalDate.ofEpochDay(days[slot]), matched, proceeds, matched * unitCosts[slot]);
+            remaining -= matched;
+            if (lot - matched <= EPSILON) {
+                head = (head + 1) & (quantities.length - 1);
+                size--;
+            } else {
+                quantities[slot] = lot - matched;
+            }
+        }
+        if (remaining > EPSILON) {
+            sink.accept(date, null, remaining, remaining * price - fee * remaining / quantity, 0.0);
+        }
+    }
+
+    private void push(double quantity, double unitCost, long day) {
+        if (size == quantities.length) grow();
+        int slot = (head + size) & (quantities.length - 1);
+        quantities[slot] = quantity;
+        unitCosts[slot] = unitCost;
+        days[slot] = day;
+        size++;
+    }
+
+    /**
+     * Удваивает буфер, раскладывая лоты подряд с нуля; ёмкость остаётся степенью двойки.
+     */
+    private void grow() {
+        int capacity = quantities.length * 2;
+        quantities = unwrap(quantities, capacity);
+        unitCosts = unwrap(unitCosts, capacity);
+        long[] grownDays = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            grownDays[i] = days[(head + i) & (days.length - 1)];
+        }
+        days = grownDays;
+        head = 0;
+    }
+
+    private double[] unwrap(double[] values, int capacity) {
+        double[] grown = new double[capacity];
+        int tail = Math.min(size, values.length - head);
+        System.arraycopy(values, head, grown, 0, tail);
+        System.arraycopy(values, 0, grown, tail, size - tail);
+        return grown;
+    }
+
+    /**
+     * Результат продажи по лоту: proceeds — выручка за вычетом доли комиссии продажи,
+     * cost — стоимость покупки с комиссией; acquired — null, если лот не определён.
+     */
+    @FunctionalInterface
+    interface GainSink {
+        void accept(LocalDate sold, LocalDate acquired, double quantity, double proceeds, double cost);
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.budgetflow.service;
 
+import com.example.budgetflow.dto.TinkoffLinkResponse;
 import com.example.budgetflow.dto.TinkoffSyncMode;
 import com.example.budgetflow.dto.TinkoffSyncRequest;
 import com.example.budgetflow.dto.TinkoffSyncResponse;
@@ -7,50 +8,121 @@ import com.example.budgetflow.entity.*;
 import com.example.budgetflow.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class TinkoffIntegrationService {
 
+    private static final String TINKOFF_ACCOUNT_NAME = "Т-Инвестиции";
+    private static final ZoneId BROKER_ZONE = ZoneId.of("Europe/Moscow");
+
     private final UserService userService;
     private final AccountService accountService;
     private final AssetService assetService;
     private final TradeRepository tradeRepository;
     private final AccrualRepository accrualRepository;
     private final ImportLogRepository importLogRepository;
+    private final TinkoffSyncJobQueue syncJobQueue;
+    private final TransactionTemplate transactionTemplate;
+    private final TradeJdbcRepository tradeJdbcRepository;
+    private final SyncCursorRepository syncCursorRepository;
+    private final BrokerLinkRepository brokerLinkRepository;
+    private final PositionLedger positionLedger;
+    private final ApplicationEventPublisher eventPublisher;
+    private final BrokerClient brokerClient;
+
+    @Value("${budgetflow.tinkoff.sync.page-size:1000}")
+    private int pageSize;
 
     public TinkoffSyncResponse enqueueSync(TinkoffSyncRequest request, Long userId) {
         log.info("Получен запрос синхронизации Т-Инвестиций: userId={}, mode={}, accountId={}",
                 userId, request.mode(), request.accountId());
-        
-        CompletableFuture.runAsync(() -> performSync(request, userId));
 
         Map<String, Object> summary = new HashMap<>();
         summary.put("accountId", request.accountId());
         summary.put("mode", request.mode().name());
-        summary.put("estimatedOps", estimateOperations(request.mode()));
+        summary.put("estimatedOps", estimateOperations(userId,
+                request.accountId() != null ? request.accountId() : "default", request.mode()));
+
+        TinkoffSyncJobQueue.SyncJobStatus job;
+        try {
+            job = syncJobQueue.submit(userId, request, queued -> performSync(queued, userId));
+        } catch (IllegalStateException e) {
+            return new TinkoffSyncResponse(null, "REJECTED", e.getMessage(), request.mode(), Instant.now(), summary);
+        }
 
+        summary.put("coalescedRequests", job.coalescedRequests());
         return new TinkoffSyncResponse(
+                job.jobId(),
                 "QUEUED",
-                "Синхронизация поставлена в очередь",
+                job.coalescedRequests() > 0
+                        ? "Синхронизация уже в очереди, запрос объединён с ней"
+                        : "Синхронизация поставлена в очередь",
                 request.mode(),
-                Instant.now(),
+                job.queuedAt(),
                 summary
         );
     }
 
-    @Transactional
-    private void performSync(TinkoffSyncRequest request, Long userId) {
+    /**
+     * Привязывает счёт к фоновой синхронизации; повторная привязка того же счёта обновляет токен и режим.
+     */
+    public TinkoffLinkResponse linkAccount(TinkoffSyncRequest request, Long userId) {
+        String accountId = request.accountId() != null ? request.accountId() : "default";
+        BrokerLink link = brokerLinkRepository.findByUserIdAndAccountNumber(userId, accountId)
+                .orElseGet(() -> {
+                    BrokerLink created = new BrokerLink();
+                    created.setUser(userService.getUserById(userId));
+                    created.setAccountNumber(accountId);
+                    created.setCreatedAt(LocalDateTime.now());
+                    return created;
+                });
+        link.setToken(request.token());
+        link.setMode(request.mode().name());
+        link.setEnabled(true);
+        return toLinkResponse(brokerLinkRepository.save(link));
+    }
+
+    public List<TinkoffLinkResponse> getLinks(Long userId) {
+        return brokerLinkRepository.findByUserId(userId).stream().map(this::toLinkResponse).toList();
+    }
+
+    public void unlinkAccount(Long linkId) {
+        if (!brokerLinkRepository.existsById(linkId)) {
+            throw new IllegalArgumentException("Привязка не найдена: " + linkId);
+        }
+        brokerLinkRepository.deleteById(linkId);
+    }
+
+    public TinkoffSyncJobQueue.SyncJobStatus getSyncJob(String jobId) {
+        return syncJobQueue.getStatus(jobId);
+    }
+
+    public TinkoffSyncJobQueue.QueueMetrics getSyncQueueMetrics() {
+        return syncJobQueue.getMetrics();
+    }
+
+    /**
+     * Выполняется в потоке очереди синхронизации. Операции пишутся постранично в своих транзакциях,
+     * запись в журнал — отдельно, чтобы ошибка импорта не откатывала сам журнал.
+     */
+    private TinkoffSyncJobQueue.SyncOutcome performSync(TinkoffSyncRequest request, Long userId) {
         ImportLog logEntry = new ImportLog();
         logEntry.setUser(userService.getUserById(userId));
         logEntry.setSource("TINKOFF_API");
@@ -59,27 +131,9 @@ public class TinkoffIntegrationService {
         
         try {
             String accountId = request.accountId() != null ? request.accountId() : "default";
-            
-            int opsCount = 0;
-            int assetsCount = 0;
-
-            // TODO: Заменить на реальный вызов Tinkoff Invest API
-            // Для работы требуется:
-            // 1. Получить токен из request.token()
-            // 2. Инициализировать InvestApi
-            // 3. Вызвать соответствующие методы API в зависимости от режима
-            
-            if (request.mode() == TinkoffSyncMode.HISTORY || request.mode() == TinkoffSyncMode.ALL) {
-                opsCount += importOperationsMock(accountId, userId);
-            }
-            
-            if (request.mode() == TinkoffSyncMode.POSITIONS || request.mode() == TinkoffSyncMode.ALL) {
-                assetsCount += importPositionsMock(accountId, userId);
-            }
-            
-            if (request.mode() == TinkoffSyncMode.DIVIDENDS || request.mode() == TinkoffSyncMode.ALL) {
-                opsCount += importDividendsMock(accountId, userId);
-            }
+            TinkoffSyncJobQueue.SyncOutcome outcome = importAll(request, accountId, userId);
+            int opsCount = outcome.operations();
+            int assetsCount = outcome.assets();
 
             logEntry.setStatus("SUCCESS");
             logEntry.setOperationsImported(opsCount);
@@ -89,66 +143,237 @@ public class TinkoffIntegrationService {
             
             log.info("Синхронизация Т-Инвестиций завершена: userId={}, operations={}, assets={}", 
                     userId, opsCount, assetsCount);
-        } catch (Exception ex) {
+            return outcome;
+        } catch (RuntimeException ex) {
             log.error("Ошибка интеграции с Т-Инвестициями: {}", ex.getMessage(), ex);
             logEntry.setStatus("FAILED");
             logEntry.setErrorMessage(ex.getMessage());
+            throw ex;
         } finally {
             importLogRepository.save(logEntry);
         }
     }
 
-    private int importOperationsMock(String accountId, Long userId) {
-        try {
-            Account account = findOrCreateAccount(accountId, userId);
-            // В реальной реализации здесь будет вызов API
-            log.info("Импорт операций для аккаунта {}", accountId);
-            return 0; // Заглушка
-        } catch (Exception e) {
-            log.error("Ошибка импорта операций: {}", e.getMessage(), e);
-            return 0;
+    private TinkoffLinkResponse toLinkResponse(BrokerLink link) {
+        return new TinkoffLinkResponse(link.getId(), link.getAccountNumber(), TinkoffSyncMode.valueOf(link.getMode()),
+                link.getEnabled(), link.getLastSyncAt(), link.getLastSyncStatus());
+    }
+
+    private TinkoffSyncJobQueue.SyncOutcome importAll(TinkoffSyncRequest request, String accountId, Long userId) {
+        ImportResolutionCache resolver = new ImportResolutionCache(accountService, assetService, userId);
+        int opsCount = 0;
+        int assetsCount = 0;
+
+        OperationSync operations = new OperationSync(request.token(), accountId, request.mode(), resolver);
+        operations.advance(Integer.MAX_VALUE);
+        opsCount += operations.getOperations();
+
+        if (request.mode() == TinkoffSyncMode.POSITIONS || request.mode() == TinkoffSyncMode.ALL) {
+            assetsCount += importPositionsMock(accountId, resolver);
         }
+
+        return new TinkoffSyncJobQueue.SyncOutcome(opsCount, assetsCount + resolver.getCreatedAssets());
     }
 
-    private int importPositionsMock(String accountId, Long userId) {
-        try {
-            Account account = findOrCreateAccount(accountId, userId);
-            // В реальной реализации здесь будет вызов API
-            log.info("Импорт позиций для аккаунта {}", accountId);
-            return 0; // Заглушка
-        } catch (Exception e) {
-            log.error("Ошибка импорта позиций: {}", e.getMessage(), e);
-            return 0;
+    /**
+     * Синхронизация операций привязанного счёта для планировщика; выполняется порциями через advance.
+     */
+    public OperationSync openOperationSync(Long userId, String token, String accountId, TinkoffSyncMode mode) {
+        return new OperationSync(token, accountId, mode,
+                new ImportResolutionCache(accountService, assetService, userId));
+    }
+
+    /**
+     * Догрузка сделок (HISTORY) и начислений (DIVIDENDS) счёта после сохранённых курсоров.
+     * Каждая страница пишется в своей транзакции; курсор режима сдвигается только после его последней страницы.
+     * Работу можно делать порциями по несколько страниц — тогда между порциями выборка помнит
+     * позицию в истории брокера. Не потокобезопасна: порции одного счёта выполняются последовательно.
+     */
+    public class OperationSync {
+        private final String token;
+        private final String accountId;
+        private final ImportResolutionCache resolver;
+        private final Deque<TinkoffSyncMode> pendingKinds = new ArrayDeque<>();
+        private final IncrementalOperationFetcher fetcher = new IncrementalOperationFetcher(brokerClient, pageSize);
+
+        private Account account;
+        private TinkoffSyncMode kind;
+        private SyncCursor cursor;
+        private IncrementalOperationFetcher.FetchState state;
+        private int operations;
+
+        private OperationSync(String token, String accountId, TinkoffSyncMode mode, ImportResolutionCache resolver) {
+            this.token = token;
+            this.accountId = accountId;
+            this.resolver = resolver;
+            if (mode == TinkoffSyncMode.HISTORY || mode == TinkoffSyncMode.ALL) {
+                pendingKinds.add(TinkoffSyncMode.HISTORY);
+            }
+            if (mode == TinkoffSyncMode.DIVIDENDS || mode == TinkoffSyncMode.ALL) {
+                pendingKinds.add(TinkoffSyncMode.DIVIDENDS);
+            }
+        }
+
+        /**
+         * Обрабатывает не больше maxPages страниц брокера.
+         *
+         * @return true, если синхронизация счёта завершена
+         */
+        public boolean advance(int maxPages) {
+            int budget = maxPages;
+            while (budget > 0 && (state != null || !pendingKinds.isEmpty())) {
+                if (state == null) {
+                    open(pendingKinds.poll());
+                }
+                int pagesBefore = state.pages();
+                boolean done = fetcher.fetchSlice(token, accountId, kind, state, budget, this::write);
+                budget -= state.pages() - pagesBefore;
+                if (done) {
+                    complete();
+                }
+            }
+            return state == null && pendingKinds.isEmpty();
+        }
+
+        public int getOperations() {
+            return operations;
+        }
+
+        private void open(TinkoffSyncMode nextKind) {
+            if (account == null) {
+                account = resolver.findOrCreateAccount(accountId, TINKOFF_ACCOUNT_NAME);
+            }
+            kind = nextKind;
+            cursor = syncCursorRepository.findByAccountIdAndMode(account.getId(), kind.name())
+                    .orElseGet(() -> {
+                        SyncCursor created = new SyncCursor();
+                        created.setAccount(account);
+                        created.setMode(nextKind.name());
+                        created.setOperationsTotal(0L);
+                        return created;
+                    });
+            IncrementalOperationFetcher.Watermark since = cursor.getLastOperationAt() != null
+                    ? new IncrementalOperationFetcher.Watermark(cursor.getLastOperationAt(), cursor.getLastOperationId())
+                    : null;
+            state = new IncrementalOperationFetcher.FetchState(since);
+            log.info("Импорт {} для аккаунта {} {}", kind, accountId,
+                    since != null ? "начиная с " + since.operationAt() : "с начала истории");
+        }
+
+        private void write(List<BrokerOperationsApi.BrokerOperation> page) {
+            if (page.isEmpty()) return;
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    if (kind == TinkoffSyncMode.HISTORY) {
+                        upsertTrades(page, account, resolver);
+                    } else {
+                        upsertAccruals(page, account, resolver);
+                    }
+                    eventPublisher.publishEvent(new PortfolioChangedEvent(account.getUser().getId()));
+                });
+            } catch (RuntimeException e) {
+                resolver.evictAssets(account.getId());
+                throw e;
+            }
+        }
+
+        private void complete() {
+            IncrementalOperationFetcher.FetchResult result = state.result();
+            if (result.watermark() != null) {
+                cursor.setLastOperationAt(result.watermark().operationAt());
+                cursor.setLastOperationId(result.watermark().operationId());
+            }
+            cursor.setOperationsTotal(cursor.getOperationsTotal() + result.operations());
+            cursor.setLastRunOperations(result.operations());
+            cursor.setUpdatedAt(LocalDateTime.now());
+            syncCursorRepository.save(cursor);
+            operations += result.operations();
+            state = null;
+
+            log.info("Импорт {} для аккаунта {}: новых операций {}, страниц {}",
+                    kind, accountId, result.operations(), result.pages());
         }
     }
 
-    private int importDividendsMock(String accountId, Long userId) {
+    private void upsertTrades(List<BrokerOperationsApi.BrokerOperation> operations, Account account,
+                              ImportResolutionCache resolver) {
+        Map<String, Long> existingIds = tradeJdbcRepository.findIdsByExternalIds(account.getId(),
+                operations.stream().map(BrokerOperationsApi.BrokerOperation::id).toList());
+        List<Trade> inserts = new ArrayList<>();
+        List<Trade> updates = new ArrayList<>();
+        for (BrokerOperationsApi.BrokerOperation operation : operations) {
+            Trade trade = new Trade();
+            trade.setId(existingIds.get(operation.id()));
+            trade.setAsset(resolver.findOrCreateAsset(operation.ticker(), account));
+            trade.setType(operation.type());
+            trade.setDate(LocalDate.ofInstant(operation.timestamp(), BROKER_ZONE));
+            trade.setQuantity(operation.quantity());
+            trade.setPrice(operation.price());
+            trade.setFee(operation.fee());
+            trade.setExternalId(operation.id());
+            trade.setFingerprint(TradeDeduplicator.fingerprint(account.getId(), operation.ticker(), trade));
+            (trade.getId() != null ? updates : inserts).add(trade);
+        }
+        tradeJdbcRepository.batchInsert(inserts, pageSize);
+        tradeJdbcRepository.batchUpdate(updates, pageSize);
+        positionLedger.applyInserted(inserts);
+        // у обновлённой сделки могли измениться дата, количество или цена — пересчитываем позиции целиком
+        positionLedger.applyChanged(updates.stream().map(trade -> trade.getAsset().getId()).toList());
+    }
+
+    private void upsertAccruals(List<BrokerOperationsApi.BrokerOperation> operations, Account account,
+                                ImportResolutionCache resolver) {
+        Map<String, Accrual> existing = new HashMap<>();
+        for (Accrual accrual : accrualRepository.findByAssetAccountIdAndExternalIdIn(account.getId(),
+                operations.stream().map(BrokerOperationsApi.BrokerOperation::id).toList())) {
+            existing.put(accrual.getExternalId(), accrual);
+        }
+        List<Accrual> accruals = new ArrayList<>(operations.size());
+        for (BrokerOperationsApi.BrokerOperation operation : operations) {
+            Accrual accrual = existing.getOrDefault(operation.id(), new Accrual());
+            accrual.setAsset(resolver.findOrCreateAsset(operation.ticker(), account));
+            accrual.setType(operation.type());
+            accrual.setDate(LocalDate.ofInstant(operation.timestamp(), BROKER_ZONE));
+            accrual.setAmount(operation.amount());
+            accrual.setExternalId(operation.id());
+            accruals.add(accrual);
+        }
+        accrualRepository.saveAll(accruals);
+    }
+
+    private int importPositionsMock(String accountId, ImportResolutionCache resolver) {
         try {
-            Account account = findOrCreateAccount(accountId, userId);
+            Account account = resolver.findOrCreateAccount(accountId, TINKOFF_ACCOUNT_NAME);
             // В реальной реализации здесь будет вызов API
-            log.info("Импорт дивидендов для аккаунта {}", accountId);
+            log.info("Импорт позиций для аккаунта {}", accountId);
             return 0; // Заглушка
         } catch (Exception e) {
-            log.error("Ошибка импорта дивидендов: {}", e.getMessage(), e);
+            log.error("Ошибка импорта позиций: {}", e.getMessage(), e);
             return 0;
         }
     }
 
-    private Account findOrCreateAccount(String tinkoffAccountId, Long userId) {
-        List<Account> accounts = accountService.getAccountsByUser(userId);
-        return accounts.stream()
-                .filter(a -> tinkoffAccountId.equals(a.getAccountNumber()))
-                .findFirst()
-                .orElseGet(() -> accountService.createAccount(
-                        userId, tinkoffAccountId, "Т-Инвестиции", "INVESTMENT", "RUB"));
-    }
-
-    private int estimateOperations(TinkoffSyncMode mode) {
-        return switch (mode) {
-            case HISTORY -> 250;
-            case POSITIONS -> 25;
-            case DIVIDENDS -> 40;
-            case ALL -> 315;
-        };
+    /**
+     * Оценка числа операций синхронизации по курсорам счёта: сколько операций принёс последний прогон
+     * каждого режима. Позиции операций не загружают.
+     *
+     * @return null, если какой-то из режимов по счёту ещё не синхронизировался — объём истории неизвестен
+     */
+    Integer estimateOperations(Long userId, String accountId, TinkoffSyncMode mode) {
+        if (mode == TinkoffSyncMode.POSITIONS) return 0;
+        Map<String, Integer> lastRuns = new HashMap<>();
+        for (SyncCursor cursor : syncCursorRepository.findByUserIdAndAccountNumber(userId, accountId)) {
+            if (cursor.getLastRunOperations() != null) {
+                lastRuns.put(cursor.getMode(), cursor.getLastRunOperations());
+            }
+        }
+        int estimate = 0;
+        for (TinkoffSyncMode kind : List.of(TinkoffSyncMode.HISTORY, TinkoffSyncMode.DIVIDENDS)) {
+            if (mode != kind && mode != TinkoffSyncMode.ALL) continue;
+            Integer lastRun = lastRuns.get(kind.name());
+            if (lastRun == null) return null;
+            estimate += lastRun;
+        }
+        return estimate;
     }
 }
@@ -0,0 +1,24 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Заглушка API операций Т-Инвестиций до подключения InvestApi: история всегда пустая.
+ * С InvestApi страницы будет отдавать OperationsService.getOperationByCursor.
+ */
+@Component
+@Slf4j
+public class TinkoffOperationsApiStub implements BrokerOperationsApi {
+
+    @Override
+    public OperationsPage getOperations(String token, String accountId, TinkoffSyncMode kind,
+                                        Instant from, String pageCursor, int limit) {
+        log.info("Запрос операций {} для аккаунта {} начиная с {}", kind, accountId, from);
+        return new OperationsPage(List.of(), null);
+    }
+}
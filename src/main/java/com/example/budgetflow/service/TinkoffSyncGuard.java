@@ -0,0 +1,70 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Синхронизации Т-Инвестиций, которые выполняются сейчас, — общий учёт для очереди ручных запросов
+ * ({@link TinkoffSyncJobQueue}) и фонового планировщика ({@link TinkoffSyncScheduler}).
+ *
+ * Две синхронизации одного счёта с пересекающимися режимами (одинаковыми или одна из них ALL)
+ * двигают одни курсоры и пишут одни сделки, поэтому одновременно не выполняются: вторая получает
+ * отказ. Планировщик такой счёт пропускает до следующего прогона, а ручная задача ждёт освобождения
+ * счёта — см. {@link #tryAcquireOrWait}.
+ */
+@Component
+public class TinkoffSyncGuard {
+
+    private static final String DEFAULT_ACCOUNT = "default";
+
+    private final Map<AccountKey, List<TinkoffSyncMode>> running = new HashMap<>();
+    private final Map<AccountKey, List<Runnable>> waiting = new HashMap<>();
+
+    /**
+     * @return false, если по счёту уже идёт синхронизация с пересекающимся режимом
+     */
+    public synchronized boolean tryAcquire(Long userId, String accountId, TinkoffSyncMode mode) {
+        AccountKey key = new AccountKey(userId, accountId != null ? accountId : DEFAULT_ACCOUNT);
+        List<TinkoffSyncMode> modes = running.computeIfAbsent(key, k -> new ArrayList<>(2));
+        for (TinkoffSyncMode other : modes) {
+            if (other == mode || other == TinkoffSyncMode.ALL || mode == TinkoffSyncMode.ALL) return false;
+        }
+        modes.add(mode);
+        return true;
+    }
+
+    /**
+     * Как {@link #tryAcquire}, но при отказе запоминает onRelease и вызывает его при ближайшем
+     * освобождении счёта. Проверка и постановка в ожидание атомарны, поэтому освобождение
+     * между ними не теряется. onRelease счёт не захватывает — ему нужно снова вызвать этот метод.
+     *
+     * @return true, если счёт захвачен сразу
+     */
+    public synchronized boolean tryAcquireOrWait(Long userId, String accountId, TinkoffSyncMode mode, Runnable onRelease) {
+        if (tryAcquire(userId, accountId, mode)) return true;
+        AccountKey key = new AccountKey(userId, accountId != null ? accountId : DEFAULT_ACCOUNT);
+        waiting.computeIfAbsent(key, k -> new ArrayList<>(1)).add(onRelease);
+        return false;
+    }
+
+    public void release(Long userId, String accountId, TinkoffSyncMode mode) {
+        AccountKey key = new AccountKey(userId, accountId != null ? accountId : DEFAULT_ACCOUNT);
+        List<Runnable> waiters;
+        synchronized (this) {
+            List<TinkoffSyncMode> modes = running.get(key);
+            if (modes == null) return;
+            modes.remove(mode);
+            if (modes.isEmpty()) running.remove(key);
+            waiters = waiting.remove(key);
+        }
+        // вне блокировки: ожидающий сразу пробует захватить счёт снова
+        if (waiters != null) waiters.forEach(Runnable::run);
+    }
+
+    private record AccountKey(Long userId, String accountId) {}
+}
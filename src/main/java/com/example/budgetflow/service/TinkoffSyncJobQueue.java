@@ -0,0 +1,214 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.dto.TinkoffSyncRequest;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Очередь задач синхронизации Т-Инвестиций с собственным ограниченным пулом потоков.
+ * Повторные запросы на тот же (пользователь, счёт, режим), пока задача ещё ждёт в очереди,
+ * схлопываются в неё; при запуске задача выполняется с последним полученным запросом.
+ * Для запросов статуса хранится ограниченное число последних завершённых задач.
+ *
+ * Задача, чей счёт к моменту запуска уже синхронизируется (предыдущей задачей или фоновым
+ * планировщиком, см. {@link TinkoffSyncGuard}), остаётся в статусе QUEUED и не занимает поток:
+ * она снова ставится в пул, когда счёт освобождается. Пока задача ждёт, новые запросы
+ * на тот же ключ по-прежнему схлопываются в неё.
+ */
+@Component
+@Slf4j
+public class TinkoffSyncJobQueue {
+
+    private final ThreadPoolExecutor executor;
+    private final TinkoffSyncGuard syncGuard;
+    private final Map<SyncKey, SyncJob> pendingByKey = new ConcurrentHashMap<>();
+    private final Map<String, SyncJob> jobsById = new ConcurrentHashMap<>();
+    private final Queue<String> finishedJobIds = new ConcurrentLinkedQueue<>();
+    private final int retainedFinishedJobs;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public TinkoffSyncJobQueue(TinkoffSyncGuard syncGuard,
+                               @Value("${budgetflow.tinkoff.sync.threads:4}") int threads,
+                               @Value("${budgetflow.tinkoff.sync.queue-capacity:1000}") int queueCapacity,
+                               @Value("${budgetflow.tinkoff.sync.retained-jobs:10000}") int retainedFinishedJobs) {
+        this.syncGuard = syncGuard;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("tinkoff-sync-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.retainedFinishedJobs = retainedFinishedJobs;
+    }
+
+    /**
+     * Ставит синхронизацию в очередь или присоединяет запрос к уже ожидающей задаче.
+     *
+     * @throws IllegalStateException если очередь переполнена
+     */
+    public SyncJobStatus submit(Long userId, TinkoffSyncRequest request, Function<TinkoffSyncRequest, SyncOutcome> work) {
+        SyncKey key = new SyncKey(userId, request.accountId(), request.mode());
+        boolean[] created = {false};
+        SyncJob job = pendingByKey.compute(key, (k, existing) -> {
+            if (existing != null) {
+                existing.request = request;
+                existing.coalescedRequests.incrementAndGet();
+                return existing;
+            }
+            created[0] = true;
+            return new SyncJob(UUID.randomUUID().toString(), k, request);
+        });
+
+        if (!created[0]) {
+            coalesced.incrementAndGet();
+            log.info("Запрос синхронизации объединён с задачей {}: userId={}, mode={}", job.id, userId, request.mode());
+            return job.toStatus();
+        }
+
+        jobsById.put(job.id, job);
+        try {
+            executor.execute(() -> run(job, work));
+            submitted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            pendingByKey.remove(key, job);
+            jobsById.remove(job.id);
+            rejected.incrementAndGet();
+            throw new IllegalStateException("Очередь синхронизации переполнена, повторите позже");
+        }
+        return job.toStatus();
+    }
+
+    public SyncJobStatus getStatus(String jobId) {
+        SyncJob job = jobsById.get(jobId);
+        if (job == null) {
+            throw new IllegalArgumentException("Задача синхронизации не найдена: " + jobId);
+        }
+        return job.toStatus();
+    }
+
+    public QueueMetrics getMetrics() {
+        return new QueueMetrics(executor.getQueue().size(), waiting.get(), inFlight.get(), executor.getMaximumPoolSize(),
+                submitted.get(), coalesced.get(), rejected.get(), succeeded.get(), failed.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(SyncJob job, Function<TinkoffSyncRequest, SyncOutcome> work) {
+        SyncKey key = job.key;
+        if (!syncGuard.tryAcquireOrWait(key.userId(), key.accountId(), key.mode(), () -> resume(job, work))) {
+            log.info("Задача синхронизации {} ждёт: счёт {} уже синхронизируется", job.id, key.accountId());
+            waiting.incrementAndGet();
+            return;
+        }
+        // с этого момента новые запросы создают новую задачу — данные у брокера могли измениться
+        pendingByKey.remove(key, job);
+        job.startedAt = Instant.now();
+        job.status = "RUNNING";
+        inFlight.incrementAndGet();
+        try {
+            job.outcome = work.apply(job.request);
+            job.status = "SUCCESS";
+            succeeded.incrementAndGet();
+        } catch (Exception e) {
+            log.error("Задача синхронизации {} завершилась ошибкой: {}", job.id, e.getMessage(), e);
+            job.error = e.getMessage();
+            job.status = "FAILED";
+            failed.incrementAndGet();
+        } finally {
+            syncGuard.release(key.userId(), key.accountId(), key.mode());
+            job.finishedAt = Instant.now();
+            inFlight.decrementAndGet();
+            retire(job.id);
+        }
+    }
+
+    /**
+     * Возвращает ожидавшую задачу в пул после освобождения счёта; вызывается в потоке, освободившем счёт.
+     */
+    private void resume(SyncJob job, Function<TinkoffSyncRequest, SyncOutcome> work) {
+        waiting.decrementAndGet();
+        try {
+            executor.execute(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            pendingByKey.remove(job.key, job);
+            log.warn("Задача синхронизации {} не возвращена в очередь: пул переполнен или остановлен", job.id);
+            job.error = "Очередь синхронизации переполнена, повторите позже";
+            job.status = "FAILED";
+            job.finishedAt = Instant.now();
+            rejected.incrementAndGet();
+            retire(job.id);
+        }
+    }
+
+    private void retire(String jobId) {
+        finishedJobIds.add(jobId);
+        while (finishedJobIds.size() > retainedFinishedJobs) {
+            String evicted = finishedJobIds.poll();
+            if (evicted != null) jobsById.remove(evicted);
+        }
+    }
+
+    public record SyncKey(Long userId, String accountId, TinkoffSyncMode mode) {}
+
+    public record SyncOutcome(int operations, int assets) {}
+
+    public record SyncJobStatus(
+            String jobId, String status, Long userId, String accountId, TinkoffSyncMode mode,
+            Instant queuedAt, Instant startedAt, Instant finishedAt, int coalescedRequests,
+            SyncOutcome outcome, String error
+    ) {}
+
+    public record QueueMetrics(
+            int queueDepth, int waiting, int inFlight, int workers,
+            long submitted, long coalesced, long rejected, long succeeded, long failed
+    ) {}
+
+    private static class SyncJob {
+        private final String id;
+        private final SyncKey key;
+        private final Instant queuedAt = Instant.now();
+        private final AtomicInteger coalescedRequests = new AtomicInteger();
+        private volatile TinkoffSyncRequest request;
+        private volatile String status = "QUEUED";
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile SyncOutcome outcome;
+        private volatile String error;
+
+        private SyncJob(String id, SyncKey key, TinkoffSyncRequest request) {
+            this.id = id;
+            this.key = key;
+            this.request = request;
+        }
+
+        private SyncJobStatus toStatus() {
+            return new SyncJobStatus(id, status, key.userId(), key.accountId(), key.mode(),
+                    queuedAt, startedAt, finishedAt, coalescedRequests.get(), outcome, error);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.entity.BrokerLink;
+import com.example.budgetflow.entity.ImportLog;
+import com.example.budgetflow.repository.BrokerLinkRepository;
+import com.example.budgetflow.repository.ImportLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Периодическая синхронизация всех привязанных счетов Т-Инвестиций.
+ *
+ * Счета раздаются пулу воркеров порциями по несколько страниц истории: недоделанный счёт
+ * после своей порции встаёт в конец очереди, поэтому огромная история одного счёта
+ * не задерживает остальные (round-robin). Первая порция каждого счёта стартует со случайной
+ * задержкой в пределах окна, чтобы не бить в API брокера всеми счетами одновременно.
+ * По итогам прогона в журнал импорта пишется сводка: сколько счетов обработано и перцентили длительности.
+ *
+ * Счёт, который в момент его первой порции синхронизируется ручной задачей ({@link TinkoffSyncGuard}),
+ * в этом прогоне пропускается и попадает в сводку как skipped.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TinkoffSyncScheduler {
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private final BrokerLinkRepository brokerLinkRepository;
+    private final ImportLogRepository importLogRepository;
+    private final TinkoffIntegrationService tinkoffIntegrationService;
+    private final TinkoffSyncGuard syncGuard;
+
+    @Value("${budgetflow.tinkoff.schedule.threads:8}")
+    private int threads;
+
+    @Value("${budgetflow.tinkoff.schedule.pages-per-slice:5}")
+    private int pagesPerSlice;
+
+    @Value("${budgetflow.tinkoff.schedule.start-spread-seconds:600}")
+    private long startSpreadSeconds;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Scheduled(cron = "${budgetflow.tinkoff.schedule.cron:0 0 3 * * *}")
+    public void runScheduled() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Предыдущая фоновая синхронизация ещё идёт, запуск пропущен");
+            return;
+        }
+        try {
+            runAll();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    RunSummary runAll() {
+        long runStarted = System.nanoTime();
+        LocalDateTime startedAt = LocalDateTime.now();
+        List<AccountRun> runs = loadRuns();
+        log.info("Фоновая синхронизация Т-Инвестиций: {} счетов, {} потоков", runs.size(), threads);
+
+        RunState state = new RunState(runs.size());
+        ScheduledThreadPoolExecutor workers = new ScheduledThreadPoolExecutor(threads,
+                new CustomizableThreadFactory("tinkoff-scheduled-sync-"));
+        try {
+            long spreadMillis = TimeUnit.SECONDS.toMillis(startSpreadSeconds);
+            for (AccountRun run : runs) {
+                run.state = state;
+                run.workers = workers;
+                long delay = spreadMillis > 0 ? ThreadLocalRandom.current().nextLong(spreadMillis) : 0;
+                workers.schedule(run, delay, TimeUnit.MILLISECONDS);
+            }
+            state.remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Фоновая синхронизация прервана, не завершено счетов: {}", state.remaining.getCount());
+        } finally {
+            workers.shutdownNow();
+            runs.forEach(AccountRun::releaseGuard);
+        }
+
+        RunSummary summary = summarize(runs, state, System.nanoTime() - runStarted);
+        saveSummary(summary, state, startedAt);
+        log.info("Фоновая синхронизация завершена: {}", summary);
+        return summary;
+    }
+
+    private List<AccountRun> loadRuns() {
+        List<AccountRun> runs = new ArrayList<>();
+        long afterId = 0;
+        List<BrokerLink> page;
+        do {
+            page = brokerLinkRepository.findTop1000ByEnabledTrueAndIdGreaterThanOrderByIdAsc(afterId);
+            for (BrokerLink link : page) {
+                runs.add(new AccountRun(link.getId(), link.getUser().getId(), link.getToken(),
+                        link.getAccountNumber(), TinkoffSyncMode.valueOf(link.getMode())));
+                afterId = link.getId();
+            }
+        } while (!page.isEmpty());
+        return runs;
+    }
+
+    private RunSummary summarize(List<AccountRun> runs, RunState state, long runNanos) {
+        long[] durations = runs.stream()
+                .filter(run -> run.finished)
+                .mapToLong(run -> TimeUnit.NANOSECONDS.toMillis(run.activeNanos))
+                .toArray();
+        Arrays.sort(durations);
+        return new RunSummary(runs.size(), state.succeeded.get(), state.failed.get(), state.skipped.get(),
+                state.operations.get(),
+                state.slices.get(), percentile(durations, 50), percentile(durations, 90), percentile(durations, 99),
+                durations.length > 0 ? durations[durations.length - 1] : 0, TimeUnit.NANOSECONDS.toMillis(runNanos));
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private void saveSummary(RunSummary summary, RunState state, LocalDateTime startedAt) {
+        ImportLog logEntry = new ImportLog();
+        logEntry.setSource("TINKOFF_SCHEDULER");
+        logEntry.setImportDate(startedAt);
+        logEntry.setUpdatedAt(LocalDateTime.now());
+        logEntry.setStatus(summary.failed() == 0 ? "SUCCESS"
+                : summary.succeeded() > 0 ? "PARTIAL" : "FAILED");
+        logEntry.setOperationsImported((int) Math.min(Integer.MAX_VALUE, summary.operations()));
+        logEntry.setAssetsImported(0);
+        if (!state.errors.isEmpty()) {
+            String errors = String.join("; ", state.errors);
+            logEntry.setErrorMessage(errors.length() > 1000 ? errors.substring(0, 1000) : errors);
+        }
+        logEntry.setDetails(String.format(Locale.ROOT,
+                "{\"accounts\":%d,\"succeeded\":%d,\"failed\":%d,\"skipped\":%d,\"operations\":%d,\"slices\":%d," +
+                "\"durationMs\":{\"p50\":%d,\"p90\":%d,\"p99\":%d,\"max\":%d},\"runMs\":%d}",
+                summary.accounts(), summary.succeeded(), summary.failed(), summary.skipped(), summary.operations(),
+                summary.slices(),
+                summary.p50Millis(), summary.p90Millis(), summary.p99Millis(), summary.maxMillis(), summary.runMillis()));
+        importLogRepository.save(logEntry);
+    }
+
+    /**
+     * @param p50Millis перцентили времени, которое воркеры потратили на счёт (без ожидания в очереди)
+     */
+    public record RunSummary(int accounts, int succeeded, int failed, int skipped, long operations, long slices,
+                             long p50Millis, long p90Millis, long p99Millis, long maxMillis, long runMillis) {}
+
+    private static class RunState {
+        private final CountDownLatch remaining;
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong operations = new AtomicLong();
+        private final AtomicLong slices = new AtomicLong();
+        private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger reportedErrors = new AtomicInteger();
+
+        private RunState(int accounts) {
+            this.remaining = new CountDownLatch(accounts);
+        }
+    }
+
+    /**
+     * Синхронизация одного счёта. Каждый запуск — одна порция; незавершённый счёт
+     * ставит себя обратно в очередь пула без задержки, то есть за всеми уже ожидающими.
+     * Порции одного счёта никогда не выполняются параллельно.
+     */
+    private class AccountRun implements Runnable {
+        private final Long linkId;
+        private final Long userId;
+        private final String token;
+        private final String accountNumber;
+        private final TinkoffSyncMode mode;
+
+        private RunState state;
+        private ScheduledThreadPoolExecutor workers;
+        private TinkoffIntegrationService.OperationSync sync;
+        private long activeNanos;
+        private volatile boolean finished;
+        private final AtomicBoolean holdsGuard = new AtomicBoolean();
+
+        private AccountRun(Long linkId, Long userId, String token, String accountNumber, TinkoffSyncMode mode) {
+            this.linkId = linkId;
+            this.userId = userId;
+            this.token = token;
+            this.accountNumber = accountNumber;
+            this.mode = mode;
+        }
+
+        @Override
+        public void run() {
+            if (sync == null) {
+                if (!syncGuard.tryAcquire(userId, accountNumber, mode)) {
+                    log.info("Счёт {} (userId={}) уже синхронизируется, в этом прогоне пропущен", accountNumber, userId);
+                    state.skipped.incrementAndGet();
+                    state.remaining.countDown();
+                    return;
+                }
+                holdsGuard.set(true);
+            }
+            long started = System.nanoTime();
+            boolean done;
+            String status = "SUCCESS";
+            try {
+                if (sync == null) {
+                    sync = tinkoffIntegrationService.openOperationSync(userId, token, accountNumber, mode);
+                }
+                done = sync.advance(pagesPerSlice);
+            } catch (RuntimeException e) {
+                log.error("Ошибка фоновой синхронизации счёта {} (userId={}): {}", accountNumber, userId, e.getMessage(), e);
+                if (state.reportedErrors.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+                    state.errors.add(accountNumber + ": " + e.getMessage());
+                }
+                status = "FAILED";
+                done = true;
+            } finally {
+                activeNanos += System.nanoTime() - started;
+                state.slices.incrementAndGet();
+            }
+
+            if (!done) {
+                workers.execute(this);
+                return;
+            }
+            releaseGuard();
+            try {
+                brokerLinkRepository.updateLastSync(linkId, LocalDateTime.now(), status);
+            } catch (RuntimeException e) {
+                log.warn("Не удалось обновить статус привязки {}: {}", linkId, e.getMessage());
+            }
+            if ("SUCCESS".equals(status)) {
+                state.succeeded.incrementAndGet();
+                state.operations.addAndGet(sync.getOperations());
+            } else {
+                state.failed.incrementAndGet();
+            }
+            finished = true;
+            state.remaining.countDown();
+        }
+
+        private void releaseGuard() {
+            if (holdsGuard.compareAndSet(true, false)) {
+                syncGuard.release(userId, accountNumber, mode);
+            }
+        }
+    }
+}
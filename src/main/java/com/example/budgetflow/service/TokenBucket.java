@@ -0,0 +1,40 @@
+package com.example.budgetflow.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничитель частоты запросов «ведро токенов»: до capacity запросов подряд,
+ * дальше — не чаще permitsPerSecond. Токен резервируется сразу, а ожидание идёт вне блокировки,
+ * поэтому конкурирующие потоки получают разрешения в порядке вызова acquire.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double permitsPerNano;
+    private double available;
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Некорректные параметры ограничителя: " + permitsPerSecond + "/с, " + capacity);
+        }
+        this.capacity = capacity;
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.available = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - lastRefillNanos) * permitsPerNano);
+            lastRefillNanos = now;
+            available -= 1;
+            waitNanos = available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
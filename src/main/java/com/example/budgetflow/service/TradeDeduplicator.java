@@ -0,0 +1,92 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Trade;
+import com.example.budgetflow.repository.TradeJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Поиск дублей при импорте в пределах одного счёта.
+ * Отпечатки уже сохранённых сделок один раз загружаются в фильтр Блума; для пакета новых строк
+ * в БД уходит не более одного запроса — только по тем отпечаткам, которые фильтр считает знакомыми.
+ * Создаётся на каждый импорт, не потокобезопасен.
+ */
+@Slf4j
+public class TradeDeduplicator {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long MIN_EXPECTED_NEW_TRADES = 100_000;
+
+    private final TradeJdbcRepository tradeJdbcRepository;
+    private final long accountId;
+    private final long minExpectedNewTrades;
+    private BloomFilter filter;
+
+    public TradeDeduplicator(TradeJdbcRepository tradeJdbcRepository, long accountId) {
+        this(tradeJdbcRepository, accountId, MIN_EXPECTED_NEW_TRADES);
+    }
+
+    TradeDeduplicator(TradeJdbcRepository tradeJdbcRepository, long accountId, long minExpectedNewTrades) {
+        this.tradeJdbcRepository = tradeJdbcRepository;
+        this.accountId = accountId;
+        this.minExpectedNewTrades = minExpectedNewTrades;
+    }
+
+    public static long fingerprint(long accountId, String ticker, Trade trade) {
+        return TradeFingerprint.compute(accountId, ticker, trade.getDate(), trade.getType(),
+                trade.getQuantity(), trade.getPrice(), trade.getFee());
+    }
+
+    /**
+     * Досчитывает отпечатки старым сделкам счёта и строит фильтр по всем сохранённым отпечаткам.
+     */
+    public void load(int batchSize) {
+        List<long[]> backfill = new ArrayList<>();
+        for (TradeJdbcRepository.UnfingerprintedTrade trade : tradeJdbcRepository.findWithoutFingerprint(accountId)) {
+            backfill.add(new long[]{trade.id(), TradeFingerprint.compute(accountId, trade.ticker(), trade.date(),
+                    trade.type(), trade.quantity(), trade.price(), trade.fee())});
+        }
+        if (!backfill.isEmpty()) {
+            log.info("Заполнение отпечатков для {} сделок счёта {}", backfill.size(), accountId);
+            tradeJdbcRepository.batchUpdateFingerprints(backfill, batchSize);
+        }
+
+        long existing = tradeJdbcRepository.countByAccountId(accountId);
+        filter = new BloomFilter(existing + Math.max(existing, minExpectedNewTrades), FALSE_POSITIVE_RATE);
+        tradeJdbcRepository.forEachFingerprint(accountId, filter::put);
+    }
+
+    /**
+     * Оставляет в пакете только сделки, которых ещё нет ни в БД, ни раньше в этом же пакете.
+     * Сделкам должен быть уже проставлен отпечаток.
+     */
+    public List<Trade> retainNew(List<Trade> trades) {
+        List<Long> candidates = new ArrayList<>();
+        for (Trade trade : trades) {
+            if (filter.mightContain(trade.getFingerprint())) {
+                candidates.add(trade.getFingerprint());
+            }
+        }
+        Set<Long> existing = tradeJdbcRepository.findExistingFingerprints(accountId, candidates);
+
+        List<Trade> fresh = new ArrayList<>(trades.size());
+        Set<Long> seenInChunk = new HashSet<>();
+        for (Trade trade : trades) {
+            Long fingerprint = trade.getFingerprint();
+            if (!existing.contains(fingerprint) && seenInChunk.add(fingerprint)) {
+                fresh.add(trade);
+            }
+        }
+        return fresh;
+    }
+
+    public void markInserted(List<Trade> trades) {
+        for (Trade trade : trades) {
+            filter.put(trade.getFingerprint());
+        }
+    }
+}
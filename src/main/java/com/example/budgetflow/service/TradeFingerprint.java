@@ -0,0 +1,55 @@
+package com.example.budgetflow.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Стабильный отпечаток сделки: первые 8 байт SHA-256 от (счёт, тикер, дата, тип, количество, цена, комиссия).
+ * Одинаковые строки из пересекающихся выгрузок брокера дают одинаковый отпечаток,
+ * поэтому повторный импорт не создаёт дублей. Две полностью идентичные сделки в один день
+ * тоже считаются одной — отличить их по содержимому выгрузки невозможно.
+ * Тикер и тип сравниваются без учёта регистра и окружающих пробелов.
+ */
+public final class TradeFingerprint {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private TradeFingerprint() {
+    }
+
+    public static long compute(long accountId, String ticker, LocalDate date, String type,
+                               Double quantity, Double price, Double fee) {
+        MessageDigest digest = SHA_256.get();
+        ByteBuffer buffer = ByteBuffer.allocate(48);
+        buffer.putLong(accountId)
+                .putLong(date.toEpochDay())
+                .putLong(canonicalBits(quantity))
+                .putLong(canonicalBits(price))
+                .putLong(canonicalBits(fee));
+        digest.update(buffer.array(), 0, buffer.position());
+        digest.update(canonical(type).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(canonical(ticker).getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static String canonical(String value) {
+        return value.strip().toUpperCase(Locale.ROOT);
+    }
+
+    // null и -0.0 приводим к 0.0, чтобы отпечаток не зависел от способа записи нуля
+    private static long canonicalBits(Double value) {
+        double v = value != null ? value : 0.0;
+        return Double.doubleToLongBits(v == 0.0 ? 0.0 : v);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.budgetflow.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Пересборка месячных свёрток транзакций при запуске с аргументом {@code --rebuild-rollups}.
+ */
+@Component
+@RequiredArgsConstructor
+public class TransactionRollupRebuildCommand implements ApplicationRunner {
+
+    private final TransactionRollupService transactionRollupService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (args.containsOption("rebuild-rollups")) {
+            transactionRollupService.rebuildAll();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.repository.TransactionJdbcRepository;
+import com.example.budgetflow.repository.TransactionRollupJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Месячные свёртки транзакций: пользователь × месяц × категория × тип → сумма и число строк.
+ *
+ * {@link TransactionService} меняет свёртку в той же транзакции, что и строку: создание добавляет
+ * сумму к ключу, удаление вычитает, изменение вычитает из старого ключа и добавляет к новому.
+ * Месячная сводка читается из свёрток — их строк на порядки меньше, чем транзакций.
+ *
+ * Пересборка из транзакций (запуск с аргументом --rebuild-rollups) идёт параллельно, по транзакции
+ * на пользователя. Изменения транзакций пользователя во время его пересборки могут потеряться —
+ * команда рассчитана на тихое время, как и сверка позиций.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TransactionRollupService {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final TransactionRollupJdbcRepository rollupJdbcRepository;
+    private final TransactionJdbcRepository transactionJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${budgetflow.rollups.rebuild-threads:4}")
+    private int rebuildThreads;
+
+    /**
+     * Добавляет к свёртке сумму одной транзакции (sign = 1) или вычитает её (sign = -1).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(Long userId, LocalDate date, Long categoryId, String type, double amount, int sign) {
+        rollupJdbcRepository.addDelta(userId, periodStart(date), categoryId, type, sign * amount, sign);
+    }
+
+    /**
+     * Сводка за месяц: доходы, расходы и суммы по категориям.
+     */
+    public MonthlySummary getMonthlySummary(Long userId, int year, int month) {
+        LocalDate periodStart = LocalDate.of(year, month, 1);
+        double income = 0.0;
+        double expense = 0.0;
+        List<CategoryTotal> categories = new ArrayList<>();
+        for (TransactionRollupJdbcRepository.RollupRow row : rollupJdbcRepository.findByUserIdAndPeriod(userId, periodStart)) {
+            if ("INCOME".equals(row.type())) income += row.total();
+            if ("EXPENSE".equals(row.type())) expense += row.total();
+            categories.add(new CategoryTotal(row.categoryId(), row.categoryName(), row.type(), row.total(),
+                    row.transactionsCount()));
+        }
+        return new MonthlySummary(year, month, income, expense, income - expense, categories);
+    }
+
+    /**
+     * Пересобирает свёртки всех пользователей из транзакций.
+     */
+    public RebuildSummary rebuildAll() {
+        long started = System.nanoTime();
+        List<Long> userIds = rollupJdbcRepository.findUserIdsForRebuild();
+        AtomicInteger rows = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        log.info("Пересборка свёрток транзакций: {} пользователей, {} потоков", userIds.size(), rebuildThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(rebuildThreads,
+                new CustomizableThreadFactory("rollup-rebuild-"));
+        try {
+            List<Future<?>> futures = new ArrayList<>(userIds.size());
+            for (Long userId : userIds) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        rows.addAndGet(transactionTemplate.execute(status -> rebuildUser(userId)));
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        log.error("Не удалось пересобрать свёртки пользователя {}: {}", userId, e.getMessage(), e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Пересборка свёрток прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка пересборки свёрток", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        RebuildSummary summary = new RebuildSummary(userIds.size(), rows.get(), failed.get(),
+                (System.nanoTime() - started) / 1_000_000);
+        log.info("Пересборка свёрток транзакций завершена: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Свёртки пользователя одним проходом по его транзакциям.
+     *
+     * @return число строк свёртки
+     */
+    int rebuildUser(Long userId) {
+        Map<Key, double[]> totals = new HashMap<>();
+        transactionJdbcRepository.forEachTransactionOfUser(userId, row -> {
+            double[] total = totals.computeIfAbsent(
+                    new Key(periodStart(row.date()), row.categoryId(), row.type()), k -> new double[2]);
+            total[0] += row.amount();
+            total[1]++;
+        });
+        List<TransactionRollupJdbcRepository.RollupRow> rows = new ArrayList<>(totals.size());
+        totals.forEach((key, total) -> rows.add(new TransactionRollupJdbcRepository.RollupRow(
+                key.periodStart(), key.categoryId(), null, key.type(), total[0], (long) total[1])));
+        rollupJdbcRepository.replaceForUser(userId, rows, BATCH_SIZE);
+        return rows.size();
+    }
+
+    static LocalDate periodStart(LocalDate date) {
+        return date.withDayOfMonth(1);
+    }
+
+    private record Key(LocalDate periodStart, long categoryId, String type) {}
+
+    public record CategoryTotal(Long categoryId, String categoryName, String type, double total, long count) {}
+
+    public record MonthlySummary(int year, int month, double income, double expense, double balance,
+                                 List<CategoryTotal> categories) {}
+
+    public record RebuildSummary(int users, int rollups, int failedUsers, long millis) {}
+}
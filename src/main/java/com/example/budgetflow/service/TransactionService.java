@@ -1,19 +1,26 @@
 package com.example.budgetflow.service;
 
+import com.example.budgetflow.dto.TransactionPage;
+import com.example.budgetflow.dto.TransactionView;
 import com.example.budgetflow.entity.Category;
 import com.example.budgetflow.entity.Transaction;
 import com.example.budgetflow.entity.User;
 import com.example.budgetflow.repository.CategoryRepository;
+import com.example.budgetflow.repository.TransactionJdbcRepository;
 import com.example.budgetflow.repository.TransactionRepository;
 import com.example.budgetflow.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
@@ -24,6 +31,12 @@ public class TransactionService {
     private final TransactionRepository transactionRepository;
     private final UserService userService;
     private final CategoryService categoryService;
+    private final TransactionJdbcRepository transactionJdbcRepository;
+    private final TransactionRollupService transactionRollupService;
+    private final UserBalanceService userBalanceService;
+
+    @Value("${budgetflow.transactions.page.max-size:500}")
+    private int maxPageSize;
 
     public Transaction createTransaction(Long userId, Long categoryId,
                                          Double amount, String type,
@@ -34,7 +47,7 @@ public class TransactionService {
             throw  new IllegalArgumentException("Сумма должна быть положительной");
         }
 
-        User user = userService.getUserId(userId);
+        User user = userService.getUserById(userId);
         Category category = categoryService.getCategoryById(categoryId);
 
         Transaction transaction = new Transaction();
@@ -45,11 +58,56 @@ public class TransactionService {
         transaction.setDescription(description);
         transaction.setDate(date);
 
-        return transactionRepository.save(transaction);
+        Transaction saved = transactionRepository.save(transaction);
+        transactionRollupService.apply(userId, date, categoryId, type, amount, 1);
+        userBalanceService.apply(userId, type, amount, 1);
+        return saved;
     }
 
-    public List<Transaction> getUserTransaction(Long userId){
-        return transactionRepository.findByUserId(userId);
+    /**
+     * Страница транзакций от новых к старым по ключу (date, id): следующая страница начинается
+     * строго после последней строки предыдущей, без OFFSET. Размер страницы ограничен max-size.
+     *
+     * @param cursor nextCursor предыдущей страницы или null для первой
+     * @throws IllegalArgumentException при некорректном курсоре или размере страницы
+     */
+    @Transactional(readOnly = true)
+    public TransactionPage getUserTransactionsPage(Long userId, String cursor, int size){
+        if(size < 1){
+            throw new IllegalArgumentException("Размер страницы должен быть положительным");
+        }
+        int pageSize = Math.min(size, maxPageSize);
+        // на строку больше — чтобы понять, есть ли следующая страница
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+        List<TransactionView> rows;
+        if(cursor == null || cursor.isEmpty()){
+            rows = transactionRepository.findPageByUserId(userId, limit);
+        } else {
+            int separator = cursor.indexOf(':');
+            try {
+                rows = transactionRepository.findPageByUserIdBefore(userId,
+                        LocalDate.parse(cursor.substring(0, Math.max(separator, 0))),
+                        Long.parseLong(cursor.substring(separator + 1)), limit);
+            } catch (DateTimeParseException | NumberFormatException e){
+                throw new IllegalArgumentException("Некорректный курсор страницы: " + cursor);
+            }
+        }
+        if(rows.size() <= pageSize){
+            return new TransactionPage(rows, null);
+        }
+        List<TransactionView> items = rows.subList(0, pageSize);
+        TransactionView last = items.get(pageSize - 1);
+        return new TransactionPage(items, last.date() + ":" + last.id());
+    }
+
+    /**
+     * Все транзакции пользователя по дате и id потоком из курсора БД.
+     *
+     * @return число строк
+     */
+    @Transactional(readOnly = true)
+    public long exportUserTransactions(Long userId, Consumer<TransactionView> consumer){
+        return transactionJdbcRepository.forEachTransactionOfUser(userId, consumer);
     }
 
     public List<Transaction> getUserTransactionsByType(Long userId,String type){
@@ -62,21 +120,30 @@ public class TransactionService {
 
     public List<Transaction> getMonthlyTransactions(Long userId,int year,int month){
         log.info("Получение транзакций за {}/{} для пользователя {}", month, year, userId);
-        return transactionRepository.findByUserIdAndYearAndMonth(userId,year,month);
+        // диапазон дат вместо YEAR()/MONTH() — запрос идёт по индексу (user_id, date, id)
+        LocalDate start = LocalDate.of(year, month, 1);
+        return transactionRepository.findByUserIdAndDateBetween(userId, start, start.plusMonths(1).minusDays(1));
+    }
+
+    @Transactional(readOnly = true)
+    public TransactionRollupService.MonthlySummary getMonthlySummary(Long userId,int year,int month){
+        return transactionRollupService.getMonthlySummary(userId, year, month);
     }
 
+    @Transactional(readOnly = true)
     public Double getTotalIncome(Long userId){
-        Double total = transactionRepository.sumAmountByUserIdAndType(userId,"INCOME");
-        return total != null ? total : 0.0;
+        return userBalanceService.getBalance(userId).income();
     }
 
+    @Transactional(readOnly = true)
     public Double getTotalExpense(Long userId){
-        Double total = transactionRepository.sumAmountByUserIdAndType(userId,"EXPENSE");
-        return total != null ? total : 0.0;
+        return userBalanceService.getBalance(userId).expense();
     }
 
+    // Одно чтение строки баланса по ключу вместо сумм по всем транзакциям
+    @Transactional(readOnly = true)
     public Double getUserBalance(Long userId){
-        return getTotalIncome(userId) - getTotalExpense(userId);
+        return userBalanceService.getBalance(userId).net();
     }
 
     public Transaction updateTransaction(Long transactionId,Long categoryId,
@@ -89,17 +156,30 @@ public class TransactionService {
 
         Category category = categoryService.getCategoryById(categoryId);
 
+        // свёртка: сумма уходит со старого ключа (месяц, категория, тип) и приходит на новый
+        Long userId = transaction.getUser().getId();
+        transactionRollupService.apply(userId, transaction.getDate(),
+                transaction.getCategory().getId(), transaction.getType(), transaction.getAmount(), -1);
+        userBalanceService.replace(userId, transaction.getType(), transaction.getAmount(), type, amount);
+
         transaction.setCategory(category);
         transaction.setAmount(amount);
         transaction.setType(type);
         transaction.setDescription(description);
         transaction.setDate(date);
 
-        return transactionRepository.save(transaction);
+        Transaction saved = transactionRepository.save(transaction);
+        transactionRollupService.apply(userId, date, categoryId, type, amount, 1);
+        return saved;
     }
 
     public void deleteTransaction(Long transactionId){
         log.info("Удаление транзакции с ID: {}", transactionId);
-        transactionRepository.deleteById(transactionId);
+        transactionRepository.findById(transactionId).ifPresent(transaction -> {
+            transactionRollupService.apply(transaction.getUser().getId(), transaction.getDate(),
+                    transaction.getCategory().getId(), transaction.getType(), transaction.getAmount(), -1);
+            userBalanceService.apply(transaction.getUser().getId(), transaction.getType(), transaction.getAmount(), -1);
+            transactionRepository.delete(transaction);
+        });
     }
 }
@@ -0,0 +1,187 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.repository.TransactionRollupJdbcRepository;
+import com.example.budgetflow.repository.UserBalanceJdbcRepository;
+import com.example.budgetflow.repository.UserBalanceRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Текущий баланс пользователя: доходы и расходы по всем транзакциям одной строкой user_balances.
+ *
+ * {@link TransactionService} меняет строку в той же транзакции, что и транзакцию пользователя:
+ * читает значения с версией и пишет новые с условием на версию. Если строку успела изменить
+ * параллельная запись, чтение и запись повторяются с её результатом — приращения не теряются,
+ * а вызывающая транзакция не откатывается. Недостающая строка создаётся с суммами из месячных
+ * свёрток, а не с нулями, — у пользователя уже может быть история. Баланс для отчёта — чтение строки по ключу; пока строки
+ * нет (пользователь без изменений транзакций с её появления, до первой сверки), баланс считается
+ * по месячным свёрткам.
+ *
+ * Сверка ({@link #verifyAll}) пересчитывает суммы по транзакциям всех пользователей одним
+ * запросом с группировкой и сравнивает с балансами. Балансы читаются раньше сумм, поэтому
+ * исправление с условием на прочитанную версию не затирает записи, прошедшие во время сверки:
+ * такие пользователи пропускаются до следующего прогона.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserBalanceService {
+
+    // расхождение меньше половины копейки — погрешность сложения double
+    private static final double TOLERANCE = 0.005;
+    private static final int MAX_REPORTED_DRIFTS = 20;
+
+    private final UserBalanceRepository userBalanceRepository;
+    private final UserBalanceJdbcRepository userBalanceJdbcRepository;
+    private final TransactionRollupJdbcRepository rollupJdbcRepository;
+
+    @Value("${budgetflow.balances.max-attempts:10}")
+    private int maxAttempts;
+
+    /**
+     * Добавляет транзакцию к балансу (sign = 1) или вычитает её (sign = -1); типы, кроме
+     * INCOME и EXPENSE, баланс не меняют.
+     *
+     * @throws OptimisticLockingFailureException если строку не удалось записать за max-attempts попыток
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(Long userId, String type, double amount, int sign) {
+        double income = "INCOME".equals(type) ? sign * amount : 0.0;
+        double expense = "EXPENSE".equals(type) ? sign * amount : 0.0;
+        if (income != 0.0 || expense != 0.0) {
+            applyDelta(userId, income, expense);
+        }
+    }
+
+    /**
+     * Переносит транзакцию со старых типа и суммы на новые одной записью строки.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void replace(Long userId, String oldType, double oldAmount, String newType, double newAmount) {
+        double income = ("INCOME".equals(newType) ? newAmount : 0.0) - ("INCOME".equals(oldType) ? oldAmount : 0.0);
+        double expense = ("EXPENSE".equals(newType) ? newAmount : 0.0) - ("EXPENSE".equals(oldType) ? oldAmount : 0.0);
+        if (income != 0.0 || expense != 0.0) {
+            applyDelta(userId, income, expense);
+        }
+    }
+
+    /**
+     * Вычитает из балансов транзакции категории перед её удалением (транзакции удаляются каскадом).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void removeCategory(Long categoryId) {
+        Map<Long, double[]> deltas = new HashMap<>();
+        userBalanceJdbcRepository.forEachCategoryTotals(categoryId, (userId, income, expense) ->
+                deltas.put(userId, new double[]{-income, -expense}));
+        deltas.forEach((userId, delta) -> applyDelta(userId, delta[0], delta[1]));
+    }
+
+    private void applyDelta(long userId, double income, double expense) {
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            UserBalanceJdbcRepository.BalanceRow row = userBalanceJdbcRepository.find(userId);
+            if (row == null) {
+                // строку с уже закоммиченными суммами вставляет отдельная транзакция,
+                // приращение — эта, на следующей попытке
+                userBalanceJdbcRepository.insertFromRollups(userId);
+                continue;
+            }
+            if (userBalanceJdbcRepository.compareAndSet(userId, row.version(),
+                    row.income() + income, row.expense() + expense)) {
+                return;
+            }
+            log.debug("Баланс пользователя {} изменён параллельно, попытка {}", userId, attempt);
+        }
+        throw new OptimisticLockingFailureException("Не удалось обновить баланс пользователя " + userId
+                + " за " + maxAttempts + " попыток");
+    }
+
+    public Balance getBalance(Long userId) {
+        return userBalanceRepository.findById(userId)
+                .map(b -> new Balance(b.getIncome(), b.getExpense(), b.getIncome() - b.getExpense()))
+                .orElseGet(() -> {
+                    TransactionRollupJdbcRepository.UserTotals totals = rollupJdbcRepository.findTotalsByUserId(userId);
+                    return new Balance(totals.income(), totals.expense(), totals.income() - totals.expense());
+                });
+    }
+
+    /**
+     * Сверяет балансы всех пользователей с суммами их транзакций.
+     *
+     * @param repair исправить расхождения и создать недостающие строки
+     */
+    public VerificationReport verifyAll(boolean repair) {
+        long started = System.nanoTime();
+        Map<Long, UserBalanceJdbcRepository.BalanceRow> balances = new HashMap<>();
+        Map<Long, double[]> actual = new HashMap<>();
+        userBalanceJdbcRepository.forEachBalance(row -> balances.put(row.userId(), row));
+        userBalanceJdbcRepository.forEachTransactionTotals((userId, income, expense) ->
+                actual.put(userId, new double[]{income, expense}));
+
+        List<Drift> drifts = new ArrayList<>();
+        int missing = 0;
+        int repaired = 0;
+        int skipped = 0;
+        for (Map.Entry<Long, double[]> entry : actual.entrySet()) {
+            if (balances.containsKey(entry.getKey())) continue;
+            double[] totals = entry.getValue();
+            if (Math.abs(totals[0]) < TOLERANCE && Math.abs(totals[1]) < TOLERANCE) continue;
+            missing++;
+            report(drifts, new Drift(entry.getKey(), null, null, totals[0], totals[1]));
+            if (!repair) continue;
+            // строку успела создать запись транзакции — её приращения уже в ней
+            if (userBalanceJdbcRepository.insert(entry.getKey(), totals[0], totals[1])) repaired++;
+            else skipped++;
+        }
+        int drifted = 0;
+        for (UserBalanceJdbcRepository.BalanceRow row : balances.values()) {
+            double[] totals = actual.getOrDefault(row.userId(), new double[2]);
+            if (Math.abs(row.income() - totals[0]) < TOLERANCE && Math.abs(row.expense() - totals[1]) < TOLERANCE) {
+                continue;
+            }
+            drifted++;
+            report(drifts, new Drift(row.userId(), row.income(), row.expense(), totals[0], totals[1]));
+            if (!repair) continue;
+            if (userBalanceJdbcRepository.compareAndSet(row.userId(), row.version(), totals[0], totals[1])) repaired++;
+            else skipped++;
+        }
+
+        VerificationReport report = new VerificationReport(balances.size(), actual.size(), drifted, missing,
+                repaired, skipped, drifts, (System.nanoTime() - started) / 1_000_000);
+        if (drifted + missing > 0) {
+            log.warn("Сверка балансов: расхождений {}, нет строки {}, исправлено {}, пропущено {}; примеры: {}",
+                    drifted, missing, repaired, skipped, drifts);
+        } else {
+            log.info("Сверка балансов: {} балансов совпадают с транзакциями, {} мс", balances.size(), report.millis());
+        }
+        return report;
+    }
+
+    private static void report(List<Drift> drifts, Drift drift) {
+        if (drifts.size() < MAX_REPORTED_DRIFTS) drifts.add(drift);
+    }
+
+    public record Balance(double income, double expense, double net) {}
+
+    /**
+     * Расхождение баланса с транзакциями; stored* — null, если строки баланса нет.
+     */
+    public record Drift(long userId, Double storedIncome, Double storedExpense, double actualIncome,
+                        double actualExpense) {}
+
+    /**
+     * Итоги сверки: drifts — первые расхождения, skipped — пользователи, чей баланс менялся
+     * во время сверки и не исправлялся.
+     */
+    public record VerificationReport(int balances, int usersWithTransactions, int drifted, int missing,
+                                     int repaired, int skipped, List<Drift> drifts, long millis) {}
+}
@@ -0,0 +1,52 @@
+package com.example.budgetflow.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ночная сверка балансов пользователей с транзакциями; при запуске с аргументом
+ * {@code --verify-balances} — сразу после старта (так же заполняются балансы после миграции).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UserBalanceVerificationJob implements ApplicationRunner {
+
+    private final UserBalanceService userBalanceService;
+
+    @Value("${budgetflow.balances.verify.repair:true}")
+    private boolean repair;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Scheduled(cron = "${budgetflow.balances.verify.cron:0 0 5 * * *}")
+    public void runScheduled() {
+        verify();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (args.containsOption("verify-balances")) {
+            verify();
+        }
+    }
+
+    private void verify() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Предыдущая сверка балансов ещё идёт, запуск пропущен");
+            return;
+        }
+        try {
+            userBalanceService.verifyAll(repair);
+        } finally {
+            running.set(false);
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package com.example.budgetflow.service;
 
 import com.example.budgetflow.entity.User;
+import com.example.budgetflow.repository.TransactionRollupRepository;
+import com.example.budgetflow.repository.UserBalanceRepository;
 import com.example.budgetflow.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Currency;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 @Service
@@ -18,7 +23,10 @@ import java.util.Optional;
 public class UserService {
 
     private final UserRepository userRepository;
+    private final TransactionRollupRepository transactionRollupRepository;
+    private final UserBalanceRepository userBalanceRepository;
     private final PasswordEncoder passwordEncoder;
+    private final ApplicationEventPublisher eventPublisher;
 
     public User registerUser(String username,String email,String password){
         log.info("Регистрация нового пользователя: {}", username);
@@ -52,8 +60,24 @@ public class UserService {
                 orElseThrow(()-> new IllegalArgumentException("Пользователь не найден с ID: " + id));
     }
 
+    // Валюта, в которой оцениваются портфель и снимки пользователя
+    public User updateBaseCurrency(Long id, String currency){
+        String code = currency.trim().toUpperCase(Locale.ROOT);
+        try {
+            Currency.getInstance(code);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Неизвестная валюта: " + currency);
+        }
+        User user = getUserById(id);
+        user.setBaseCurrency(code);
+        eventPublisher.publishEvent(new PortfolioChangedEvent(id));
+        return userRepository.save(user);
+    }
+
     public void deleteUser(Long id){
         log.info("Удаление пользователя с ID: {}", id);
+        transactionRollupRepository.deleteByUserId(id);
+        userBalanceRepository.deleteByUserId(id);
         userRepository.deleteById(id);
     }
 }
@@ -0,0 +1,192 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Asset;
+import com.example.budgetflow.repository.AccrualRepository;
+import com.example.budgetflow.repository.AssetRepository;
+import com.example.budgetflow.repository.TradeJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Стоимость портфеля во времени за один проход по истории.
+ *
+ * Сделки пользователя (потоком по дате), начисления и ряды цен из {@link PriceHistoryService}
+ * сливаются в порядке времени; позиции ведутся тем же расчётом по средней цене, что и в
+ * {@link PositionLedger}. Суммарные стоимость и вложения поддерживаются приращениями при каждой
+ * сделке и смене цены, поэтому точка кривой выдаётся за O(1), а весь проход — O(сделок + точек цен)
+ * (плюс логарифм числа тикеров на слияние рядов). Результат отдаётся потребителю по точке, без списков.
+ *
+ * Пока по тикеру нет котировки, позиция оценивается по средней цене покупки, как в аналитике портфеля.
+ */
+@Service
+@RequiredArgsConstructor
+public class ValueCurveService {
+
+    private final AssetRepository assetRepository;
+    private final AccrualRepository accrualRepository;
+    private final TradeJdbcRepository tradeJdbcRepository;
+    private final PriceHistoryService priceHistoryService;
+
+    /**
+     * Выдаёт точки с from по to включительно с шагом intervalDays; последней всегда идёт to.
+     *
+     * @return число выданных точек
+     * @throws IllegalArgumentException при пустом диапазоне или шаге меньше дня
+     */
+    public int streamValueCurve(Long userId, LocalDate from, LocalDate to, int intervalDays, PointSink sink) {
+        validate(from, to, intervalDays);
+        Sweep sweep = new Sweep(from, to, intervalDays, sink);
+        for (Asset asset : assetRepository.findByUserId(userId)) {
+            sweep.addHolding(asset);
+        }
+        sweep.openPriceSeries();
+        sweep.accruals = accrualRepository.findAmountsByUserIdAndDateBetween(userId, from, to);
+
+        tradeJdbcRepository.forEachTradeOfUser(userId, to, sweep::applyTrade);
+        sweep.emitBefore(to.plusDays(1));
+        return sweep.emitted;
+    }
+
+    public static void validate(LocalDate from, LocalDate to, int intervalDays) {
+        if (from == null || to == null || from.isAfter(to)) {
+            throw new IllegalArgumentException("Некорректный период: " + from + " - " + to);
+        }
+        if (intervalDays < 1) {
+            throw new IllegalArgumentException("Шаг кривой должен быть не меньше дня");
+        }
+    }
+
+    @FunctionalInterface
+    public interface PointSink {
+        void accept(ValuePoint point);
+    }
+
+    /**
+     * Точка кривой: стоимость открытых позиций на конец дня, их стоимость покупки по средней цене
+     * и сумма начислений, полученных с начала периода.
+     */
+    public record ValuePoint(LocalDate date, double value, double cost, double income) {}
+
+    private static final class Holding {
+        private final PositionLedger.Accumulator position = new PositionLedger.Accumulator();
+        private double price = Double.NaN;
+        private double value;
+        private double cost;
+    }
+
+    private record SeriesCursor(String ticker, PriceHistoryStore.Cursor cursor) {}
+
+    private final class Sweep {
+        private final LocalDate from;
+        private final LocalDate to;
+        private final int intervalDays;
+        private final PointSink sink;
+        private final Map<Long, Holding> holdings = new HashMap<>();
+        private final Map<String, List<Holding>> holdingsByTicker = new HashMap<>();
+        private final PriorityQueue<SeriesCursor> prices =
+                new PriorityQueue<>(Comparator.comparingLong(c -> c.cursor().time()));
+        private List<AccrualRepository.DatedAmount> accruals = List.of();
+        private int accrualIndex;
+
+        private LocalDate nextPoint;
+        private double totalValue;
+        private double totalCost;
+        private double income;
+        private int emitted;
+
+        private Sweep(LocalDate from, LocalDate to, int intervalDays, PointSink sink) {
+            this.from = from;
+            this.to = to;
+            this.intervalDays = intervalDays;
+            this.sink = sink;
+            this.nextPoint = from;
+        }
+
+        void addHolding(Asset asset) {
+            Holding holding = new Holding();
+            holdings.put(asset.getId(), holding);
+            if (asset.getTicker() != null) {
+                holdingsByTicker.computeIfAbsent(asset.getTicker(), t -> new ArrayList<>()).add(holding);
+            }
+        }
+
+        void openPriceSeries() {
+            LocalDateTime start = from.atStartOfDay();
+            for (String ticker : holdingsByTicker.keySet()) {
+                PriceHistoryStore.Cursor cursor = priceHistoryService.openCursor(ticker, start);
+                if (cursor.hasNext()) prices.add(new SeriesCursor(ticker, cursor));
+            }
+        }
+
+        void applyTrade(long assetId, String type, LocalDate date, double qty, double price, double fee) {
+            Holding holding = holdings.get(assetId);
+            if (holding == null) return;
+            emitBefore(date);
+            holding.position.apply(type, date, qty, price, fee);
+            revalue(holding);
+        }
+
+        /**
+         * Выдаёт все точки кривой до указанного дня (не включая): цены и начисления доводятся до конца дня точки.
+         */
+        void emitBefore(LocalDate day) {
+            while (nextPoint != null && nextPoint.isBefore(day)) {
+                advancePrices(PriceHistoryStore.toEpochMillis(nextPoint.plusDays(1).atStartOfDay()) - 1);
+                advanceAccruals(nextPoint);
+                sink.accept(new ValuePoint(nextPoint, totalValue, totalCost, income));
+                emitted++;
+                if (nextPoint.equals(to)) {
+                    nextPoint = null;
+                } else {
+                    LocalDate next = nextPoint.plusDays(intervalDays);
+                    nextPoint = next.isAfter(to) ? to : next;
+                }
+            }
+        }
+
+        private void advancePrices(long untilMillis) {
+            while (!prices.isEmpty() && prices.peek().cursor().time() <= untilMillis) {
+                SeriesCursor series = prices.poll();
+                PriceHistoryStore.Cursor cursor = series.cursor();
+                long scaled = cursor.price();
+                cursor.next();
+                if (cursor.hasNext()) prices.add(series);
+                double price = PriceHistoryStore.scaledToDouble(scaled);
+                if (Double.isNaN(price)) continue;
+                for (Holding holding : holdingsByTicker.get(series.ticker())) {
+                    holding.price = price;
+                    revalue(holding);
+                }
+            }
+        }
+
+        private void advanceAccruals(LocalDate day) {
+            while (accrualIndex < accruals.size() && !accruals.get(accrualIndex).getDate().isAfter(day)) {
+                Double amount = accruals.get(accrualIndex++).getAmount();
+                if (amount != null) income += amount;
+            }
+        }
+
+        private void revalue(Holding holding) {
+            double quantity = holding.position.quantity();
+            double cost = holding.position.totalCost();
+            double value = 0.0;
+            if (quantity > 0) {
+                value = Double.isNaN(holding.price) ? cost : quantity * holding.price;
+            }
+            totalValue += value - holding.value;
+            totalCost += cost - holding.cost;
+            holding.value = value;
+            holding.cost = cost;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyticsCacheTest {
+
+    @Test
+    void concurrentMissesShareOneComputation() throws Exception {
+        AnalyticsCache cache = new AnalyticsCache(100, 300);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<PortfolioAnalyticsService.PortfolioAnalytics>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get(1L, userId -> {
+                    computations.incrementAndGet();
+                    await(release);
+                    return analytics("SBER");
+                })));
+            }
+            while (cache.getMetrics().coalesced() < 7) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<PortfolioAnalyticsService.PortfolioAnalytics> result : results) {
+                assertEquals(analytics("SBER"), result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, computations.get());
+        assertEquals(1, cache.getMetrics().misses());
+        assertEquals(7, cache.getMetrics().coalesced());
+    }
+
+    @Test
+    void invalidatesOnlyUsersHoldingChangedTicker() {
+        AnalyticsCache cache = new AnalyticsCache(100, 300);
+        AtomicInteger computations = new AtomicInteger();
+        cache.get(1L, userId -> counted(computations, "SBER"));
+        cache.get(2L, userId -> counted(computations, "GAZP"));
+
+        cache.onPriceChanged(new PriceChangedEvent("GAZP"));
+        cache.get(1L, userId -> counted(computations, "SBER"));
+        cache.get(2L, userId -> counted(computations, "GAZP"));
+        assertEquals(3, computations.get());
+
+        cache.onPortfolioChanged(new PortfolioChangedEvent(1L));
+        cache.get(1L, userId -> counted(computations, "SBER"));
+        assertEquals(4, computations.get());
+        assertEquals(2, cache.getMetrics().invalidations());
+        assertEquals(1, cache.getMetrics().hits());
+    }
+
+    @Test
+    void failedComputationIsNotCached() {
+        AnalyticsCache cache = new AnalyticsCache(100, 300);
+        assertThrows(IllegalStateException.class, () -> cache.get(1L, userId -> {
+            throw new IllegalStateException("БД недоступна");
+        }));
+        assertEquals(analytics("SBER"), cache.get(1L, userId -> analytics("SBER")));
+    }
+
+    @Test
+    void sizeAndTtlAreBounded() {
+        AnalyticsCache bounded = new AnalyticsCache(10, 300);
+        for (long userId = 0; userId < 50; userId++) {
+            bounded.get(userId, id -> analytics("SBER"));
+        }
+        assertTrue(bounded.getMetrics().size() <= 10);
+        assertEquals(40, bounded.getMetrics().evictions());
+
+        AnalyticsCache expiring = new AnalyticsCache(10, 0);
+        AtomicInteger computations = new AtomicInteger();
+        expiring.get(1L, id -> counted(computations, "SBER"));
+        expiring.get(1L, id -> counted(computations, "SBER"));
+        assertEquals(2, computations.get());
+        assertEquals(1, expiring.getMetrics().expirations());
+    }
+
+    private static PortfolioAnalyticsService.PortfolioAnalytics counted(AtomicInteger computations, String ticker) {
+        computations.incrementAndGet();
+        return analytics(ticker);
+    }
+
+    private static PortfolioAnalyticsService.PortfolioAnalytics analytics(String ticker) {
+        return new PortfolioAnalyticsService.PortfolioAnalytics(100.0, 90.0, 11.1, 0.0, Map.of("stock", 100.0),
+                Map.of("RUB", 100.0), List.of(new PortfolioAnalyticsService.AssetAnalytics(
+                        1L, ticker, ticker, "stock", 1.0, 100.0, 100.0, 90.0, 11.1)), "RUB", Set.of());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
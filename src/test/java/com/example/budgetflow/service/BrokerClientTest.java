@@ -0,0 +1,115 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.service.BrokerOperationsApi.BrokerOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BrokerClientTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T10:00:00Z");
+
+    private final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    @Test
+    void staysWithinServerRateLimit() {
+        FakeBrokerServer server = new FakeBrokerServer(60, 0);
+        BrokerClient client = new BrokerClient(server, prefetchExecutor, 50, 5, 0, 1, 1);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < 80; i++) {
+            client.getOperations("token", "acc", TinkoffSyncMode.HISTORY, null, null, 10);
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+
+        assertEquals(0, server.throttled.get());
+        // 5 запросов из запаса, остальные 75 — не чаще 50 в секунду
+        assertTrue(elapsedMillis >= 1400, "слишком быстро: " + elapsedMillis + " мс");
+        assertTrue(elapsedMillis < 3000, "слишком медленно: " + elapsedMillis + " мс");
+    }
+
+    @Test
+    void tokensAreLimitedIndependently() {
+        FakeBrokerServer server = new FakeBrokerServer();
+        BrokerClient client = new BrokerClient(server, prefetchExecutor, 1, 3, 0, 1, 1);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            client.getOperations("token-a", "acc", TinkoffSyncMode.HISTORY, null, null, 10);
+            client.getOperations("token-b", "acc", TinkoffSyncMode.HISTORY, null, null, 10);
+        }
+        assertTrue((System.nanoTime() - started) / 1_000_000 < 500);
+    }
+
+    @Test
+    void retriesThrottledRequests() {
+        FakeBrokerServer server = new FakeBrokerServer();
+        server.add(trade("a", START));
+        BrokerClient client = new BrokerClient(server, prefetchExecutor, 1_000, 10, 5, 1, 10);
+        server.throttleNext(3);
+
+        var page = client.getOperations("token", "acc", TinkoffSyncMode.HISTORY, null, null, 10);
+
+        assertEquals(1, page.operations().size());
+        assertEquals(3, client.getThrottled());
+        assertEquals(4, server.requests.get());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        FakeBrokerServer server = new FakeBrokerServer();
+        BrokerClient client = new BrokerClient(server, prefetchExecutor, 1_000, 10, 2, 1, 10);
+        server.throttleNext(10);
+
+        assertThrows(BrokerThrottledException.class,
+                () -> client.getOperations("token", "acc", TinkoffSyncMode.HISTORY, null, null, 10));
+        assertEquals(3, server.requests.get());
+    }
+
+    @Test
+    void prefetchesNextPageWhileCurrentIsProcessed() {
+        FakeBrokerServer server = new FakeBrokerServer(Integer.MAX_VALUE, 100);
+        for (int i = 0; i < 50; i++) {
+            server.add(trade("op-" + i, START.plusSeconds(i)));
+        }
+        BrokerClient client = new BrokerClient(server, prefetchExecutor, 1_000, 10, 0, 1, 1);
+
+        int[] operations = {0};
+        long started = System.nanoTime();
+        int pages = client.forEachPage("token", "acc", TinkoffSyncMode.HISTORY, null, 10, page -> {
+            operations[0] += page.operations().size();
+            sleep(100);
+        });
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+
+        assertEquals(5, pages);
+        assertEquals(50, operations[0]);
+        // последовательно было бы 5 * (100 + 100) мс; с предзагрузкой ~100 + 5 * 100
+        assertTrue(elapsedMillis < 850, "страницы не перекрываются: " + elapsedMillis + " мс");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BrokerOperation trade(String id, Instant at) {
+        return new BrokerOperation(id, at, "BUY", "SBER", 10, 250.5, 1.0, 0);
+    }
+}
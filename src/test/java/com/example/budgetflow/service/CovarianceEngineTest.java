@@ -0,0 +1,97 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CovarianceEngineTest {
+
+    @Test
+    void tiledCovarianceMatchesDirectCalculation() {
+        // число тикеров не кратно размеру блока, последний блок неполный
+        int n = CovarianceEngine.TILE * 2 + 23;
+        int periods = 250;
+        Random random = new Random(5);
+        double[][] returns = new double[n][periods];
+        for (int i = 0; i < periods; i++) {
+            double market = random.nextGaussian() * 0.01;
+            for (int a = 0; a < n; a++) {
+                returns[a][i] = 0.0002 + market * (a % 5) / 4.0 + random.nextGaussian() * 0.005;
+            }
+        }
+
+        double[] means = new double[n];
+        double[] covariance = new double[n * n];
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            CovarianceEngine.covariance(pool, CovarianceEngine.center(returns, means), covariance);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int a = 0; a < n; a++) {
+            double mean = 0.0;
+            for (double r : returns[a]) mean += r / periods;
+            assertEquals(mean, means[a], 1e-15);
+            for (int b = 0; b < n; b++) {
+                assertEquals(direct(returns[a], returns[b]), covariance[a * n + b], 1e-15);
+            }
+        }
+    }
+
+    @Test
+    void riskContributionsAddUpToPortfolioVolatility() {
+        double[] covariance = {
+                0.0004, 0.0001, 0.0000,
+                0.0001, 0.0009, -0.0002,
+                0.0000, -0.0002, 0.0001
+        };
+        CovarianceEngine.CovarianceMatrix matrix = new CovarianceEngine.CovarianceMatrix(
+                List.of("AAA", "BBB", "CCC"), LocalDate.of(2024, 1, 1), LocalDate.of(2024, 12, 31), 250, 252.0,
+                new double[3], covariance, List.of());
+
+        CovarianceEngine.PortfolioRisk risk = CovarianceEngine.riskOf(matrix, new double[]{500, 300, 200}, "RUB",
+                1000, 50, new ArrayList<>());
+
+        double[] w = {0.5, 0.3, 0.2};
+        double variance = 0.0;
+        for (int a = 0; a < 3; a++) {
+            for (int b = 0; b < 3; b++) {
+                variance += w[a] * w[b] * covariance[a * 3 + b];
+            }
+        }
+        assertEquals(variance, risk.variance(), 1e-15);
+        assertEquals(Math.sqrt(variance) * Math.sqrt(252), risk.annualizedVolatility(), 1e-12);
+        double total = 0.0;
+        double shares = 0.0;
+        for (CovarianceEngine.AssetRisk asset : risk.assets()) {
+            total += asset.riskContribution();
+            shares += asset.riskShare();
+        }
+        assertEquals(risk.volatility(), total, 1e-15);
+        assertEquals(1.0, shares, 1e-12);
+        // (Σw) для BBB: 0.5·0.0001 + 0.3·0.0009 − 0.2·0.0002
+        assertEquals((0.00005 + 0.00027 - 0.00004) / risk.volatility(), risk.assets().get(1).marginalContribution(), 1e-12);
+    }
+
+    private static double direct(double[] x, double[] y) {
+        int n = x.length;
+        double mx = 0.0;
+        double my = 0.0;
+        for (int i = 0; i < n; i++) {
+            mx += x[i] / n;
+            my += y[i] / n;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += (x[i] - mx) * (y[i] - my);
+        }
+        return sum / (n - 1);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvTokenizerTest {
+
+    // размеры порций чтения: 1 — каждая литера приходит отдельным дочитыванием буфера
+    private static final int[] CHUNKS = {1, 2, 3, 7, Integer.MAX_VALUE};
+
+    @Test
+    void quotedDelimitersAndEmbeddedNewlines() throws IOException {
+        String csv = "a,\"b,c\",\"d\ne\"\r\n\"x\"\"y\",z\n\"\",\"\"\"\"\n";
+        for (int chunk : CHUNKS) {
+            assertEquals(List.of(List.of("a", "b,c", "d\ne"), List.of("x\"y", "z"), List.of("", "\"")),
+                    records(new ChunkedReader(csv, chunk)), "порция " + chunk);
+        }
+    }
+
+    @Test
+    void escapedQuoteSplitAcrossRefill() throws IOException {
+        // "" разрезано дочитыванием: вторая кавычка приходит в следующей порции
+        assertEquals(List.of(List.of("a\"b", "c")), records(new ChunkedReader("\"a\"", "\"b\",c\n")));
+        // закрывающая кавычка в конце порции, разделитель — в следующей
+        assertEquals(List.of(List.of("a", "b")), records(new ChunkedReader("\"a\"", ",b\n")));
+        // закрывающая кавычка — последняя литера файла
+        assertEquals(List.of(List.of("a", "b\"")), records(new ChunkedReader("a,\"b\"\"", "\"")));
+    }
+
+    @Test
+    void crlfSplitAcrossRefill() throws IOException {
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d")),
+                records(new ChunkedReader("a,b\r", "\nc,d\r", "\n")));
+        // одиночный \r тоже завершает запись
+        assertEquals(List.of(List.of("a"), List.of("b")), records(new ChunkedReader("a\r", "b\r")));
+    }
+
+    @Test
+    void recordLongerThanBuffer() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; value.length() < 200_000; i++) {
+            value.append(i % 100 == 0 ? "\"" : i % 37 == 0 ? "," : i % 53 == 0 ? "\n" : String.valueOf(i % 10));
+        }
+        String quoted = "\"" + value.toString().replace("\"", "\"\"") + "\"";
+        String csv = "head,er\n" + quoted + ",tail\r\nnext,row\n";
+        for (int chunk : new int[]{4096, 65_535, Integer.MAX_VALUE}) {
+            List<List<String>> records = records(new ChunkedReader(csv, chunk));
+            assertEquals(3, records.size(), "порция " + chunk);
+            assertEquals(value.toString(), records.get(1).get(0), "порция " + chunk);
+            assertEquals("tail", records.get(1).get(1));
+            assertEquals(List.of("next", "row"), records.get(2));
+        }
+    }
+
+    @Test
+    void parsesDatesInDayMonthYearFormat() throws IOException {
+        assertEquals(LocalDate.of(2024, 3, 5), tokenizer(" 05.03.2024 ").parseDate(0));
+        assertEquals(LocalDate.of(2024, 12, 31), tokenizer("\"31.12.2024\"").parseDate(0));
+
+        for (String invalid : new String[]{"5.3.2024", "2024-03-05", "05/03/2024", "0a.03.2024", "05.03.24", ""}) {
+            assertThrows(IllegalArgumentException.class, () -> tokenizer(invalid).parseDate(0), invalid);
+        }
+        assertThrows(DateTimeException.class, () -> tokenizer("31.02.2024").parseDate(0));
+        assertThrows(DateTimeException.class, () -> tokenizer("01.13.2024").parseDate(0));
+    }
+
+    @Test
+    void parsesDecimalsWithCommaAndGroupSeparators() throws IOException {
+        assertEquals(1234.56, decimal("1 234,56"), 0.0);
+        assertEquals(1234.5, decimal("1 234.5"), 0.0);
+        assertEquals(1234567.25, decimal("1 234 567,25"), 0.0);
+        assertEquals(-0.5, decimal("-0,5"), 0.0);
+        assertEquals(42.0, decimal(" +42 "), 0.0);
+        assertEquals(0.1, decimal("0.1"), 0.0);
+        assertEquals(Double.parseDouble("123456.789"), decimal("123456,789"), 0.0);
+        assertEquals(1e-22, decimal("0,0000000000000000000001"), 0.0);
+        // пустое и нечисловое поле дают 0
+        assertEquals(0.0, decimal(""), 0.0);
+        assertEquals(0.0, decimal("1,2,3"), 0.0);
+        assertEquals(0.0, decimal("abc"), 0.0);
+
+        CsvTokenizer semicolon = new CsvTokenizer(new StringReader("\"1 234,5\";7,25\n"), ';');
+        semicolon.next();
+        assertEquals(1234.5, semicolon.parseDecimal(0), 0.0);
+        assertEquals(7.25, semicolon.parseDecimal(1), 0.0);
+    }
+
+    @Test
+    void longDecimalsTakeSlowPath() throws IOException {
+        // больше 18 значащих цифр, мантисса не меньше 2^53, масштаб вне таблицы степеней, экспонента
+        for (String value : new String[]{"1234567890123456789,5", "12345678901234567890", "9007199254740993",
+                "0,12345678901234567", "1,00000000000000000000000001", "1e3", "-2,5E-3"}) {
+            assertEquals(Double.parseDouble(value.replace(',', '.')), decimal(value), 0.0, value);
+        }
+        assertEquals(Double.parseDouble("1234567890123456789"), decimal("1 234 567 890 123 456 789"), 0.0);
+    }
+
+    private static double decimal(String field) throws IOException {
+        return tokenizer("\"" + field + "\"").parseDecimal(0);
+    }
+
+    private static CsvTokenizer tokenizer(String record) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(record + "\n"));
+        tokenizer.next();
+        return tokenizer;
+    }
+
+    private static List<List<String>> records(Reader reader) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(reader);
+        List<List<String>> records = new ArrayList<>();
+        while (tokenizer.next()) {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < tokenizer.fieldCount(); i++) {
+                fields.add(new String(tokenizer.buffer(), tokenizer.fieldStart(i),
+                        tokenizer.fieldEnd(i) - tokenizer.fieldStart(i)));
+            }
+            records.add(fields);
+        }
+        return records;
+    }
+
+    /**
+     * Отдаёт текст заданными порциями: каждый вызов read возвращает не больше одной порции.
+     */
+    static final class ChunkedReader extends Reader {
+        private final List<String> chunks = new ArrayList<>();
+        private int chunk;
+        private int offset;
+
+        ChunkedReader(String... chunks) {
+            this.chunks.addAll(List.of(chunks));
+        }
+
+        ChunkedReader(String text, int chunkSize) {
+            int size = Math.min(chunkSize, text.length());
+            for (int i = 0; i < text.length(); i += size) {
+                chunks.add(text.substring(i, Math.min(text.length(), i + size)));
+            }
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (chunk >= chunks.size()) return -1;
+            if (len == 0) return 0;
+            String current = chunks.get(chunk);
+            int n = Math.min(len, current.length() - offset);
+            current.getChars(offset, offset + n, cbuf, off);
+            offset += n;
+            if (offset == current.length()) {
+                chunk++;
+                offset = 0;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
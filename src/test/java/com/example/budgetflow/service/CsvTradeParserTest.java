@@ -0,0 +1,67 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvTradeParserTest {
+
+    private static final String FILE = "Дата,Тип,Тикер,Количество,Цена,Комиссия\r\n"
+            + "01.03.2024,Покупка,SBER,\"1 000\",\"250,5\",\"12,75\"\r\n"
+            + "02.03.2024,Дивиденд,SBER,0,0,0\r\n"
+            + "2024-03-03,Продажа,SBER,1,1,0\r\n"
+            + "04.03.2024,sell,\"GAZ,P\",10,\"1 234,5\"\r\n"
+            + "\r\n"
+            + "05.03.2024,Покупка,LKOH,1,1,0\r\n";
+
+    @Test
+    void parsesTradesAndReportsBadRowsWithoutStopping() throws InterruptedException {
+        // разбор не зависит от того, какими порциями приходит файл
+        for (int chunk : new int[]{1, 5, Integer.MAX_VALUE}) {
+            List<CsvTradeParser.Row> rows = parse(new CsvTokenizerTest.ChunkedReader(FILE, chunk), 0);
+
+            assertEquals(4, rows.size(), "порция " + chunk);
+            assertEquals(new CsvTradeParser.TradeRow(1, LocalDate.of(2024, 3, 1), "BUY", "SBER", 1000, 250.5, 12.75),
+                    rows.get(0));
+            // строка дивиденда не сделка и пропускается, строка с датой не в формате dd.MM.yyyy — ошибка
+            CsvTradeParser.ErrorRow error = assertInstanceOf(CsvTradeParser.ErrorRow.class, rows.get(1));
+            assertEquals(3, error.rowNumber());
+            assertTrue(error.message().contains("2024-03-03"), error.message());
+            assertEquals(new CsvTradeParser.TradeRow(4, LocalDate.of(2024, 3, 4), "SELL", "GAZ,P", 10, 1234.5, 0.0),
+                    rows.get(2));
+            // пустая строка завершает разбор
+            assertEquals(new CsvTradeParser.EndOfInput(4), rows.get(3));
+        }
+    }
+
+    @Test
+    void skipsRowsBeforeCheckpoint() throws InterruptedException {
+        List<CsvTradeParser.Row> rows = parse(new StringReader(FILE), 3);
+
+        assertEquals(List.of(new CsvTradeParser.TradeRow(4, LocalDate.of(2024, 3, 4), "SELL", "GAZ,P", 10, 1234.5, 0.0),
+                new CsvTradeParser.EndOfInput(4)), rows);
+    }
+
+    @Test
+    void fileWithoutHeaderFails() throws InterruptedException {
+        List<CsvTradeParser.Row> rows = parse(new StringReader("01.03.2024,Покупка,SBER,1,1,0\n"), 0);
+
+        assertEquals(1, rows.size());
+        CsvTradeParser.FailedInput failed = assertInstanceOf(CsvTradeParser.FailedInput.class, rows.get(0));
+        assertInstanceOf(IllegalArgumentException.class, failed.cause());
+    }
+
+    private static List<CsvTradeParser.Row> parse(Reader source, int skipRows) throws InterruptedException {
+        List<CsvTradeParser.Row> rows = new ArrayList<>();
+        new CsvTradeParser().parse(source, skipRows, rows::add);
+        return rows;
+    }
+}
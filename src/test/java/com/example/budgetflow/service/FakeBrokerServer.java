@@ -0,0 +1,100 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.service.BrokerOperationsApi.BrokerOperation;
+import com.example.budgetflow.service.BrokerOperationsApi.OperationsPage;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Брокер в памяти процесса для офлайн-тестов: отдаёт историю операций страницами
+ * с фильтром по времени (новые сверху, как getOperationByCursor), держит собственный лимит
+ * запросов на токен в скользящем окне в 1 секунду и может имитировать задержку ответа.
+ */
+class FakeBrokerServer implements BrokerOperationsApi {
+
+    private final List<BrokerOperation> history = new ArrayList<>();
+    private final Map<String, Deque<Long>> acceptedByToken = new HashMap<>();
+    private final int requestsPerSecond;
+    private final long latencyMillis;
+    private final AtomicInteger forcedThrottles = new AtomicInteger();
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger throttled = new AtomicInteger();
+    final AtomicInteger operationsServed = new AtomicInteger();
+
+    FakeBrokerServer() {
+        this(Integer.MAX_VALUE, 0);
+    }
+
+    FakeBrokerServer(int requestsPerSecond, long latencyMillis) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.latencyMillis = latencyMillis;
+    }
+
+    synchronized void add(BrokerOperation operation) {
+        history.add(operation);
+    }
+
+    /** Следующие count запросов будут отклонены независимо от частоты. */
+    void throttleNext(int count) {
+        forcedThrottles.set(count);
+    }
+
+    void resetCounters() {
+        requests.set(0);
+        throttled.set(0);
+        operationsServed.set(0);
+    }
+
+    @Override
+    public OperationsPage getOperations(String token, String accountId, TinkoffSyncMode kind,
+                                        Instant from, String pageCursor, int limit) {
+        requests.incrementAndGet();
+        if (forcedThrottles.getAndUpdate(n -> Math.max(0, n - 1)) > 0 || !admit(token)) {
+            throttled.incrementAndGet();
+            throw new BrokerThrottledException("RESOURCE_EXHAUSTED", Duration.ZERO);
+        }
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        List<BrokerOperation> matching;
+        synchronized (this) {
+            matching = history.stream()
+                    .filter(op -> from == null || !op.timestamp().isBefore(from))
+                    .sorted(Comparator.comparing(BrokerOperation::timestamp).reversed())
+                    .toList();
+        }
+        int offset = pageCursor != null ? Integer.parseInt(pageCursor) : 0;
+        int end = Math.min(offset + limit, matching.size());
+        operationsServed.addAndGet(end - offset);
+        return new OperationsPage(matching.subList(offset, end), end < matching.size() ? String.valueOf(end) : null);
+    }
+
+    private synchronized boolean admit(String token) {
+        long now = System.nanoTime();
+        Deque<Long> window = acceptedByToken.computeIfAbsent(token, t -> new ArrayDeque<>());
+        while (!window.isEmpty() && now - window.peekFirst() >= TimeUnit.SECONDS.toNanos(1)) {
+            window.pollFirst();
+        }
+        if (window.size() >= requestsPerSecond) return false;
+        window.addLast(now);
+        return true;
+    }
+}
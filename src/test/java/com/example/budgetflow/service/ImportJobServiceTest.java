@@ -0,0 +1,143 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.ImportLog;
+import com.example.budgetflow.repository.ImportLogRepository;
+import com.example.budgetflow.repository.JdbcCursor;
+import com.example.budgetflow.repository.TradeJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.event.EventListener;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// пакеты коммитятся по-настоящему, как в фоновой задаче, — без транзакции теста
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "budgetflow.import.batch-size=10",
+        "budgetflow.import.spool-dir=${java.io.tmpdir}/budgetflow-import-job-test"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ImportJobService.class, FileImportService.class, UserService.class, AccountService.class,
+        AssetService.class, TradeJdbcRepository.class, JdbcCursor.class, PositionLedger.class,
+        TestFixtures.class, ImportJobServiceTest.Beans.class})
+class ImportJobServiceTest {
+
+    private static final int ROWS = 100;
+
+    @Autowired private ImportJobService importJobService;
+    @Autowired private ImportLogRepository importLogRepository;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private InterruptAfterChunks interrupter;
+    @Autowired private ExecutorService importJobExecutor;
+
+    @Autowired private FileImportService fileImportService;
+
+    @Test
+    void interruptedJobKeepsFileAndResumesFromCheckpoint() throws Exception {
+        Long userId = fixtures.user("importer").getId();
+
+        // воркер прерывается посреди файла — как при shutdownNow пула во время остановки
+        interrupter.arm(2);
+        ImportJobService.ImportJobStatus submitted = importJobService.submit(csv(), userId, "ACC-1");
+        ImportLog stopped = awaitJobs(submitted.jobId());
+
+        assertEquals("IN_PROGRESS", stopped.getStatus());
+        int checkpoint = stopped.getCheckpointRow();
+        assertTrue(checkpoint > 0 && checkpoint < ROWS, "контрольная точка: " + checkpoint);
+        assertEquals(checkpoint, fixtures.trades(userId));
+        assertTrue(Files.exists(Path.of(stopped.getSpoolPath())));
+
+        importJobService.resumeUnfinishedJobs();
+        ImportLog finished = awaitJobs(submitted.jobId());
+
+        assertEquals("SUCCESS", finished.getStatus());
+        assertEquals(ROWS, fixtures.trades(userId));
+        assertEquals(ROWS, finished.getOperationsImported());
+        // строки до контрольной точки пропущены без разбора, а не отсеяны как дубли
+        assertEquals(0, finished.getRowsDuplicate());
+        assertFalse(Files.exists(Path.of(finished.getSpoolPath())));
+    }
+
+    @Test
+    void reimportCountsEveryRowAsDuplicate() {
+        Long userId = fixtures.user("reimporter").getId();
+
+        FileImportService.ImportResult first = fileImportService.importOperationsFile(csv(), userId, "ACC-2");
+        FileImportService.ImportResult second = fileImportService.importOperationsFile(csv(), userId, "ACC-2");
+
+        assertTrue(first.success());
+        assertEquals(ROWS, first.operationsCount());
+        assertEquals(0, first.duplicatesSkipped());
+        assertTrue(second.success());
+        assertEquals(0, second.operationsCount());
+        assertEquals(ROWS, second.duplicatesSkipped());
+        assertEquals(ROWS, fixtures.trades(userId));
+    }
+
+    /**
+     * Пул задач однопоточный: пустая задача выполнится только после текущей.
+     */
+    private ImportLog awaitJobs(Long jobId) throws Exception {
+        importJobExecutor.submit(() -> { }).get(30, TimeUnit.SECONDS);
+        return importLogRepository.findById(jobId).orElseThrow();
+    }
+
+    private static MockMultipartFile csv() {
+        StringBuilder csv = new StringBuilder("Дата,Тип,Тикер,Количество,Цена,Комиссия\n");
+        for (int i = 0; i < ROWS; i++) {
+            csv.append(String.format("%02d.03.2024,%s,T%d,%d,%d.5,1\n",
+                    1 + i % 28, i % 5 == 4 ? "Продажа" : "Покупка", i % 3, 1 + i % 7, 100 + i));
+        }
+        return new MockMultipartFile("file", "trades.csv", "text/csv", csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Прерывает поток импорта на n-м событии изменения портфеля (создание актива или пакет сделок).
+     */
+    static class InterruptAfterChunks {
+        private final AtomicInteger remaining = new AtomicInteger(-1);
+
+        void arm(int chunks) {
+            remaining.set(chunks);
+        }
+
+        @EventListener
+        public void onChunk(PortfolioChangedEvent event) {
+            if (remaining.get() > 0 && remaining.decrementAndGet() == 0) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @TestConfiguration
+    static class Beans {
+        @Bean(destroyMethod = "shutdownNow")
+        ExecutorService importParserExecutor() {
+            return Executors.newFixedThreadPool(2);
+        }
+
+        @Bean(destroyMethod = "shutdownNow")
+        ExecutorService importJobExecutor() {
+            return Executors.newFixedThreadPool(1);
+        }
+
+        @Bean
+        InterruptAfterChunks interruptAfterChunks() {
+            return new InterruptAfterChunks();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.service.BrokerOperationsApi.BrokerOperation;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalOperationFetcherTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T10:00:00Z");
+
+    @Test
+    void secondSyncFetchesOnlyNewOperations() {
+        FakeBrokerServer broker = new FakeBrokerServer();
+        for (int i = 0; i < 1000; i++) {
+            broker.add(trade("op-" + i, START.plusSeconds(60L * i)));
+        }
+        IncrementalOperationFetcher fetcher = new IncrementalOperationFetcher(client(broker), 100);
+
+        List<BrokerOperation> imported = new ArrayList<>();
+        IncrementalOperationFetcher.FetchResult full =
+                fetcher.fetchSince("token", "acc", TinkoffSyncMode.HISTORY, null, imported::addAll);
+        assertEquals(1000, full.operations());
+        assertEquals(10, full.pages());
+        assertEquals("op-999", full.watermark().operationId());
+
+        for (int i = 1000; i < 1005; i++) {
+            broker.add(trade("op-" + i, START.plusSeconds(60L * i)));
+        }
+        broker.resetCounters();
+        imported.clear();
+
+        IncrementalOperationFetcher.FetchResult delta =
+                fetcher.fetchSince("token", "acc", TinkoffSyncMode.HISTORY, full.watermark(), imported::addAll);
+        assertEquals(5, delta.operations());
+        assertEquals(5, imported.size());
+        assertEquals(1, broker.requests.get());
+        // граница включительная: операция знака приходит повторно, но отбрасывается
+        assertEquals(6, broker.operationsServed.get());
+        assertEquals("op-1004", delta.watermark().operationId());
+    }
+
+    @Test
+    void operationsSharingWatermarkTimestampAreRedelivered() {
+        FakeBrokerServer broker = new FakeBrokerServer();
+        broker.add(trade("a", START));
+        IncrementalOperationFetcher fetcher = new IncrementalOperationFetcher(client(broker), 10);
+        IncrementalOperationFetcher.FetchResult first =
+                fetcher.fetchSince("token", "acc", TinkoffSyncMode.HISTORY, null, page -> {});
+
+        broker.add(trade("b", START));
+        List<BrokerOperation> imported = new ArrayList<>();
+        IncrementalOperationFetcher.FetchResult second =
+                fetcher.fetchSince("token", "acc", TinkoffSyncMode.HISTORY, first.watermark(), imported::addAll);
+
+        assertEquals(1, second.operations());
+        assertEquals("b", imported.get(0).id());
+        assertEquals("b", second.watermark().operationId());
+    }
+
+    @Test
+    void emptyDeltaKeepsWatermark() {
+        FakeBrokerServer broker = new FakeBrokerServer();
+        broker.add(trade("a", START));
+        IncrementalOperationFetcher fetcher = new IncrementalOperationFetcher(client(broker), 10);
+        IncrementalOperationFetcher.Watermark mark =
+                fetcher.fetchSince("token", "acc", TinkoffSyncMode.HISTORY, null, page -> {}).watermark();
+
+        IncrementalOperationFetcher.FetchResult again =
+                fetcher.fetchSince("token", "acc", TinkoffSyncMode.HISTORY, mark, page -> assertTrue(page.isEmpty()));
+        assertEquals(0, again.operations());
+        assertEquals(mark, again.watermark());
+    }
+
+    private static BrokerClient client(FakeBrokerServer broker) {
+        return new BrokerClient(broker, Runnable::run, 1_000_000, 1_000, 0, 1, 1);
+    }
+
+    private static BrokerOperation trade(String id, Instant at) {
+        return new BrokerOperation(id, at, "BUY", "SBER", 10, 250.5, 1.0, 0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Замер целевого размера симуляции: 100 000 путей × 252 шага × 50 активов на 8 потоках.
+ * В обычный прогон не входит (тег benchmark исключён в pom), запуск:
+ * mvn test -Dtest=MonteCarloSimulatorBenchmarkTest -DexcludedGroups=
+ * Время печатается в вывод теста и попадает в system-out отчёта surefire.
+ */
+@Tag("benchmark")
+class MonteCarloSimulatorBenchmarkTest {
+
+    private static final int ASSETS = 50;
+    private static final int PATHS = 100_000;
+    private static final int HORIZON = 252;
+    private static final int THREADS = 8;
+    private static final double[] PERCENTILES = {5, 50, 95};
+
+    @Test
+    void targetShapeOnEightThreads() {
+        // одинаковая волатильность 1.5% в день и попарная корреляция 0.3
+        double variance = 0.015 * 0.015;
+        double[] covariance = new double[ASSETS * ASSETS];
+        for (int i = 0; i < ASSETS; i++) {
+            for (int j = 0; j < ASSETS; j++) {
+                covariance[i * ASSETS + j] = i == j ? variance : 0.3 * variance;
+            }
+        }
+        double[] cholesky = MonteCarloSimulator.cholesky(covariance, ASSETS);
+        assertNotNull(cholesky);
+        double[] drift = new double[ASSETS];
+        double[] values = new double[ASSETS];
+        for (int i = 0; i < ASSETS; i++) {
+            drift[i] = 0.0003;
+            values[i] = 10_000.0;
+        }
+        int[] checkpoints = PortfolioSimulationService.checkpoints(HORIZON, 21);
+
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            // прогрев JIT на десятой части путей
+            MonteCarloSimulator.simulate(pool, drift, cholesky, values, 0.0, PATHS / 10, checkpoints, PERCENTILES, 1L);
+
+            long started = System.nanoTime();
+            MonteCarloSimulator.Bands bands = MonteCarloSimulator.simulate(pool, drift, cholesky, values, 0.0,
+                    PATHS, checkpoints, PERCENTILES, 42L);
+            long millis = (System.nanoTime() - started) / 1_000_000;
+
+            System.out.printf("Монте-Карло %d путей × %d шагов × %d активов, %d потоков: %d мс (%d путе-шагов/с)%n",
+                    PATHS, HORIZON, ASSETS, THREADS, millis, (long) PATHS * HORIZON * 1000 / Math.max(millis, 1));
+
+            assertEquals(checkpoints.length, bands.bands().length);
+            double[] atHorizon = bands.bands()[checkpoints.length - 1];
+            assertTrue(atHorizon[0] < atHorizon[1] && atHorizon[1] < atHorizon[2]);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
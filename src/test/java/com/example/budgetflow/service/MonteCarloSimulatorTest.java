@@ -0,0 +1,77 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MonteCarloSimulatorTest {
+
+    private static final double[] PERCENTILES = {5, 50, 95};
+
+    @Test
+    void sameSeedGivesSameBandsRegardlessOfThreads() {
+        double[] covariance = {
+                0.00010, 0.00006, 0.00002,
+                0.00006, 0.00020, 0.00004,
+                0.00002, 0.00004, 0.00015
+        };
+        double[] cholesky = MonteCarloSimulator.cholesky(covariance, 3);
+        double[] drift = {0.0003, 0.0005, 0.0001};
+        double[] values = {1000.0, 2500.0, 700.0};
+        int[] checkpoints = PortfolioSimulationService.checkpoints(60, 21);
+        int paths = MonteCarloSimulator.CHUNK_PATHS * 5 + 17;
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            MonteCarloSimulator.Bands first = MonteCarloSimulator.simulate(single, drift, cholesky, values, 300.0,
+                    paths, checkpoints, PERCENTILES, 42L);
+            MonteCarloSimulator.Bands second = MonteCarloSimulator.simulate(several, drift, cholesky, values, 300.0,
+                    paths, checkpoints, PERCENTILES, 42L);
+
+            assertArrayEquals(new int[]{21, 42, 60}, first.checkpoints());
+            assertArrayEquals(first.means(), second.means());
+            for (int k = 0; k < checkpoints.length; k++) {
+                assertArrayEquals(first.bands()[k], second.bands()[k]);
+            }
+        } finally {
+            single.shutdownNow();
+            several.shutdownNow();
+        }
+    }
+
+    @Test
+    void singleAssetFollowsLogNormalQuantiles() {
+        double mu = 0.0004;
+        double sigma = 0.01;
+        int horizon = 252;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MonteCarloSimulator.Bands bands = MonteCarloSimulator.simulate(pool, new double[]{mu}, new double[]{sigma},
+                    new double[]{1000.0}, 0.0, 40_000, new int[]{horizon}, PERCENTILES, 7L);
+
+            double spread = 1.6448536 * sigma * Math.sqrt(horizon);
+            double[] atHorizon = bands.bands()[0];
+            assertEquals(1000.0 * Math.exp(mu * horizon - spread), atHorizon[0], 1000.0 * 0.01);
+            assertEquals(1000.0 * Math.exp(mu * horizon), atHorizon[1], 1000.0 * 0.01);
+            assertEquals(1000.0 * Math.exp(mu * horizon + spread), atHorizon[2], 1000.0 * 0.015);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void choleskyReconstructsMatrixAndRejectsIndefinite() {
+        double[] matrix = {4, 2, 2, 3};
+        double[] l = MonteCarloSimulator.cholesky(matrix, 2);
+
+        assertEquals(4, l[0] * l[0], 1e-12);
+        assertEquals(2, l[2] * l[0], 1e-12);
+        assertEquals(3, l[2] * l[2] + l[3] * l[3], 1e-12);
+        assertNull(MonteCarloSimulator.cholesky(new double[]{1, 2, 2, 1}, 2));
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.*;
+import com.example.budgetflow.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@Import({PortfolioAnalyticsService.class, AccountService.class, AssetService.class, UserService.class,
+        TradeJdbcRepository.class, PositionLedger.class, PriceCache.class, AnalyticsCache.class, RiskMetricsService.class,
+        FxRateCache.class, JdbcCursor.class, TestFixtures.class, PortfolioAnalyticsServiceTest.StatementCounting.class})
+class PortfolioAnalyticsServiceTest {
+
+    private static final AtomicInteger STATEMENTS = new AtomicInteger();
+
+    @Autowired private PortfolioAnalyticsService analyticsService;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private UserRepository userRepository;
+    @Autowired private AccountRepository accountRepository;
+    @Autowired private AssetRepository assetRepository;
+    @Autowired private TradeRepository tradeRepository;
+    @Autowired private MarketDataRepository marketDataRepository;
+    @Autowired private PositionLedger positionLedger;
+    @Autowired private FxRateRepository fxRateRepository;
+    @Autowired private FxRateCache fxRateCache;
+    @Autowired private EntityManager entityManager;
+
+    @Test
+    void matchesPerAssetValuation() {
+        Long userId = createPortfolio("u1", 2, 15);
+
+        PortfolioAnalyticsService.PortfolioAnalytics analytics = analyticsService.calculateAnalytics(userId);
+
+        PortfolioAnalyticsService.PortfolioAnalytics expected = perAssetValuation(userId);
+        assertEquals(expected.assets(), analytics.assets());
+        assertEquals(expected.totalValue(), analytics.totalValue());
+        assertEquals(expected.totalCost(), analytics.totalCost());
+        assertEquals(expected.totalReturn(), analytics.totalReturn());
+        assertEquals(expected.byType(), analytics.byType());
+        assertEquals(expected.byCurrency(), analytics.byCurrency());
+        // курсов в базе нет — долларовые позиции посчитаны один к одному и помечены
+        assertEquals(Set.of("USD"), analytics.unconvertedCurrencies());
+    }
+
+    @Test
+    void valuesPortfolioInBaseCurrency() {
+        Long userId = createPortfolio("fx", 1, 12);
+        PortfolioAnalyticsService.PortfolioAnalytics inRubles = perAssetValuation(userId);
+        saveRate("USD", LocalDate.now().minusDays(10), 80.0);
+        saveRate("USD", LocalDate.now().minusDays(1), 90.0);
+        saveRate("USD", LocalDate.now().plusDays(1), 95.0);
+        User user = userRepository.findById(userId).orElseThrow();
+        user.setBaseCurrency("USD");
+        userRepository.save(user);
+        entityManager.flush();
+        entityManager.clear();
+
+        PortfolioAnalyticsService.PortfolioAnalytics analytics = analyticsService.calculateAnalytics(userId);
+
+        assertEquals("USD", analytics.baseCurrency());
+        assertEquals(Set.of(), analytics.unconvertedCurrencies());
+        double expectedTotal = 0.0;
+        for (int i = 0; i < inRubles.assets().size(); i++) {
+            PortfolioAnalyticsService.AssetAnalytics asset = inRubles.assets().get(i);
+            double factor = asset.name().endsWith("_0") || asset.name().endsWith("_4") || asset.name().endsWith("_8")
+                    ? 1.0 : 1 / 90.0;
+            assertEquals(asset.value() * factor, analytics.assets().get(i).value(), 1e-9);
+            expectedTotal += asset.value() * factor;
+        }
+        assertEquals(expectedTotal, analytics.totalValue(), 1e-9);
+        assertEquals(inRubles.byCurrency().get("RUB") / 90.0, analytics.byCurrency().get("RUB"), 1e-9);
+        assertEquals(inRubles.byCurrency().get("USD"), analytics.byCurrency().get("USD"), 1e-9);
+    }
+
+    @Test
+    void statementCountDoesNotDependOnPositionCount() {
+        Long small = createPortfolio("small", 1, 3);
+        Long large = createPortfolio("large", 3, 100);
+
+        int smallStatements = countStatements(small);
+        int largeStatements = countStatements(large);
+
+        assertEquals(smallStatements, largeStatements);
+        // счета, активы, учёт позиций, цены, снимки для коэффициента Шарпа
+        assertEquals(5, largeStatements);
+    }
+
+    @Test
+    void repeatedValuationTakesPricesFromCache() {
+        Long userId = createPortfolio("cached", 2, 20);
+
+        PortfolioAnalyticsService.PortfolioAnalytics first = analyticsService.calculateAnalytics(userId);
+        int statements = countStatements(userId);
+
+        // цены, в том числе отсутствие котировок, и риск-метрики по снимкам уже в памяти — остаются счета, активы и учёт
+        assertEquals(3, statements);
+        assertEquals(first, analyticsService.calculateAnalytics(userId));
+    }
+
+    private int countStatements(Long userId) {
+        entityManager.flush();
+        entityManager.clear();
+        // курсы валют читаются один раз при старте приложения
+        fxRateCache.rates(FxRateCache.PIVOT, LocalDate.now());
+        STATEMENTS.set(0);
+        analyticsService.calculateAnalytics(userId);
+        return STATEMENTS.get();
+    }
+
+    private Long createPortfolio(String name, int accounts, int assetsPerAccount) {
+        User user = fixtures.user(name);
+
+        Random random = new Random(name.hashCode());
+        List<Long> assetIds = new ArrayList<>();
+        for (int a = 0; a < accounts; a++) {
+            Account account = fixtures.account(user, "Брокерский " + a, name + "-" + a);
+
+            for (int i = 0; i < assetsPerAccount; i++) {
+                String ticker = name.toUpperCase() + a + "_" + i;
+                Asset asset = fixtures.asset(account, ticker, i % 3 == 0 ? "bond" : "stock",
+                        i % 4 == 0 ? "USD" : "RUB", 0.0);
+                assetIds.add(asset.getId());
+
+                // у каждой пятой позиции продано всё купленное — в оценку она не попадает
+                boolean closed = i % 5 == 4;
+                for (int t = 0; t < (closed ? 2 : 1 + random.nextInt(4)); t++) {
+                    Trade trade = new Trade();
+                    trade.setAsset(asset);
+                    trade.setType(t == 3 || (closed && t == 1) ? "SELL" : "BUY");
+                    trade.setDate(LocalDate.of(2024, 1, 1).plusDays(t));
+                    trade.setQuantity(closed ? Double.valueOf(5.0) : t == 2 ? null : t == 3 ? Double.valueOf(0.5) : Double.valueOf(1 + random.nextInt(50)));
+                    trade.setPrice(random.nextDouble() * 1000);
+                    trade.setFee(t == 1 ? null : random.nextDouble());
+                    tradeRepository.save(trade);
+                }
+
+                // у каждой третьей позиции котировок нет — оценка по средней цене покупки
+                if (i % 3 != 2) {
+                    for (int d = 0; d < 3; d++) {
+                        MarketData md = new MarketData();
+                        md.setTicker(ticker);
+                        md.setDate(LocalDateTime.of(2024, 6, 1, 10, 0).plusDays(d));
+                        md.setPrice(BigDecimal.valueOf(random.nextInt(100_000), 2));
+                        marketDataRepository.save(md);
+                    }
+                }
+            }
+        }
+        entityManager.flush();
+        positionLedger.applyChanged(assetIds);
+        entityManager.flush();
+        entityManager.clear();
+        return user.getId();
+    }
+
+    /**
+     * Эталон: цена и сделки запрашиваются по каждой позиции, средняя цена — проходом по сделкам.
+     */
+    private PortfolioAnalyticsService.PortfolioAnalytics perAssetValuation(Long userId) {
+        double totalValue = 0.0;
+        double totalCost = 0.0;
+        Map<String, Double> byType = new HashMap<>();
+        Map<String, Double> byCurrency = new HashMap<>();
+        List<PortfolioAnalyticsService.AssetAnalytics> details = new ArrayList<>();
+        List<Account> accounts = new ArrayList<>(accountRepository.findByUserId(userId));
+        accounts.sort(Comparator.comparing(Account::getId));
+        for (Account account : accounts) {
+            List<Asset> assets = new ArrayList<>(assetRepository.findByAccountId(account.getId()));
+            assets.sort(Comparator.comparing(Asset::getId));
+            for (Asset asset : assets) {
+                double quantity = asset.getQuantity() != null ? asset.getQuantity() : 0.0;
+                if (quantity <= 0) continue;
+                double assetCost = averageCost(asset);
+                double currentPrice = marketDataRepository.findFirstByTickerOrderByDateDesc(asset.getTicker())
+                        .map(md -> md.getPrice().doubleValue())
+                        .orElse(assetCost);
+                double assetValue = quantity * currentPrice;
+                totalValue += assetValue;
+                totalCost += assetCost;
+                byType.merge(asset.getType(), assetValue, Double::sum);
+                byCurrency.merge(asset.getCurrency(), assetValue, Double::sum);
+                double returnPct = assetCost > 0 ? ((assetValue - assetCost) / assetCost) * 100 : 0.0;
+                details.add(new PortfolioAnalyticsService.AssetAnalytics(asset.getId(), asset.getName(),
+                        asset.getTicker(), asset.getType(), quantity, currentPrice, assetValue, assetCost, returnPct));
+            }
+        }
+        double totalReturn = totalCost > 0 ? ((totalValue - totalCost) / totalCost) * 100 : 0.0;
+        return new PortfolioAnalyticsService.PortfolioAnalytics(totalValue, totalCost, totalReturn, 0.0,
+                byType, byCurrency, details, "RUB", Set.of());
+    }
+
+    private void saveRate(String currency, LocalDate date, double rate) {
+        FxRate fxRate = new FxRate();
+        fxRate.setCurrency(currency);
+        fxRate.setDate(date);
+        fxRate.setRate(BigDecimal.valueOf(rate));
+        // транзакция теста не коммитится, поэтому сквозную запись после коммита делаем сами
+        fxRateCache.onSaved(fxRateRepository.save(fxRate));
+    }
+
+    private double averageCost(Asset asset) {
+        List<Trade> trades = new ArrayList<>(tradeRepository.findByAssetId(asset.getId()));
+        trades.sort(Comparator.comparing(Trade::getDate).thenComparing(Trade::getId));
+        double totalCost = 0.0;
+        double totalQuantity = 0.0;
+        for (Trade trade : trades) {
+            double qty = trade.getQuantity() != null ? trade.getQuantity() : 0.0;
+            double price = trade.getPrice() != null ? trade.getPrice() : 0.0;
+            double fee = trade.getFee() != null ? trade.getFee() : 0.0;
+            if (trade.getType().equals("BUY")) {
+                totalCost += (qty * price + fee);
+                totalQuantity += qty;
+            } else {
+                totalCost -= totalCost / totalQuantity * qty;
+                totalQuantity -= qty;
+            }
+        }
+        assertEquals(totalQuantity, asset.getQuantity(), 1e-9);
+        return totalQuantity > 0 ? totalCost / totalQuantity : 0.0;
+    }
+
+    /**
+     * Считает SQL-запросы, подготовленные через DataSource, — и от Hibernate, и от JdbcTemplate.
+     */
+    @TestConfiguration
+    static class StatementCounting {
+
+        @Bean
+        static BeanPostProcessor statementCountingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource dataSource)) return bean;
+                    return Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                            (proxy, method, args) -> {
+                                Object result = invoke(dataSource, method, args);
+                                return result instanceof Connection connection ? countingConnection(connection) : result;
+                            });
+                }
+            };
+        }
+
+        private static Connection countingConnection(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        String name = method.getName();
+                        if (name.equals("prepareStatement") || name.equals("createStatement") || name.equals("prepareCall")) {
+                            STATEMENTS.incrementAndGet();
+                        }
+                        return invoke(connection, method, args);
+                    });
+        }
+
+        private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
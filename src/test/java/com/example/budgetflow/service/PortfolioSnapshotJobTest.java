@@ -0,0 +1,83 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.*;
+import com.example.budgetflow.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@Import({PortfolioSnapshotJob.class, PortfolioSnapshotJdbcRepository.class, PortfolioAnalyticsService.class,
+        AccountService.class, AssetService.class, UserService.class, PriceCache.class, AnalyticsCache.class,
+        RiskMetricsService.class, FxRateCache.class, JdbcCursor.class, TestFixtures.class})
+class PortfolioSnapshotJobTest {
+
+    @Autowired private PortfolioSnapshotJob job;
+    @Autowired private PortfolioAnalyticsService analyticsService;
+    @Autowired private PortfolioSnapshotRepository snapshotRepository;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private PositionRepository positionRepository;
+    @Autowired private MarketDataRepository marketDataRepository;
+    @Autowired private EntityManager entityManager;
+
+    @Test
+    void snapshotsMatchAnalyticsAndRerunOverwritesRows() {
+        List<Long> userIds = new ArrayList<>();
+        for (int u = 0; u < 5; u++) {
+            userIds.add(createPortfolio("snap" + u, u));
+        }
+        LocalDate today = LocalDate.now();
+
+        assertEquals(5, job.snapshotPartition(userIds, today));
+        assertEquals(0, job.snapshotPartition(userIds, today));
+        entityManager.clear();
+
+        for (Long userId : userIds) {
+            PortfolioSnapshot snapshot = snapshotRepository.findByUserIdAndDate(userId, today).orElseThrow();
+            PortfolioAnalyticsService.PortfolioAnalytics analytics = analyticsService.calculateAnalytics(userId);
+            assertEquals(analytics.totalValue(), snapshot.getTotalValue().doubleValue(), 0.005);
+            assertEquals(analytics.totalCost(), snapshot.getTotalCost().doubleValue(), 0.005);
+            assertEquals(analytics.totalReturn(), snapshot.getTotalReturn().doubleValue(), 0.00005);
+            assertEquals(1, snapshotRepository.findByUserIdOrderByDateDesc(userId).size());
+        }
+    }
+
+    private Long createPortfolio(String name, int assets) {
+        User user = fixtures.user(name);
+        Account account = fixtures.account(user, "Брокерский", name);
+
+        for (int i = 0; i < assets; i++) {
+            String ticker = name.toUpperCase() + "_" + i;
+            Asset asset = fixtures.asset(account, ticker, "stock", "RUB", 10.0 + i);
+
+            Position position = new Position();
+            position.setAsset(asset);
+            position.setQuantity(asset.getQuantity());
+            position.setTotalCost(asset.getQuantity() * (100 + i));
+            position.setRealizedPnl(0.0);
+            position.setFees(0.0);
+            positionRepository.save(position);
+
+            // у нечётных активов котировок нет — оценка по средней цене
+            if (i % 2 == 0) {
+                MarketData md = new MarketData();
+                md.setTicker(ticker);
+                md.setDate(LocalDateTime.of(2024, 6, 1, 10, 0));
+                md.setPrice(BigDecimal.valueOf(110 + i * 3));
+                marketDataRepository.save(md);
+            }
+        }
+        entityManager.flush();
+        return user.getId();
+    }
+}
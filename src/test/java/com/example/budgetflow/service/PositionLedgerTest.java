@@ -0,0 +1,152 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.*;
+import com.example.budgetflow.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@Import({PositionLedger.class, TradeJdbcRepository.class, JdbcCursor.class, TestFixtures.class})
+class PositionLedgerTest {
+
+    @Autowired private PositionLedger positionLedger;
+    @Autowired private TradeJdbcRepository tradeJdbcRepository;
+    @Autowired private PositionRepository positionRepository;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private AssetRepository assetRepository;
+    @Autowired private EntityManager entityManager;
+    @Autowired private TransactionTemplate transactionTemplate;
+
+    @Test
+    void appliesTradesIncrementallyWithAverageCost() {
+        Asset asset = fixtures.sberOfNewUser("ledger");
+        insert(trade(asset, "BUY", 1, 10, 100, 1), trade(asset, "BUY", 2, 10, 120, 1));
+        insert(trade(asset, "SELL", 3, 5, 130, 1));
+
+        Position position = position(asset);
+        assertEquals(15.0, position.getQuantity(), 1e-9);
+        assertEquals(1651.5, position.getTotalCost(), 1e-9);
+        assertEquals(98.5, position.getRealizedPnl(), 1e-9);
+        assertEquals(3.0, position.getFees(), 1e-9);
+        assertEquals(3, position.getTradesCount());
+        assertEquals(15.0, assetRepository.findById(asset.getId()).orElseThrow().getQuantity(), 1e-9);
+    }
+
+    @Test
+    void backdatedTradeIsReplayedInDateOrder() {
+        Asset asset = fixtures.sberOfNewUser("ledger");
+        insert(trade(asset, "BUY", 2, 10, 100, 1), trade(asset, "BUY", 3, 10, 120, 1),
+                trade(asset, "SELL", 4, 5, 130, 1));
+        insert(trade(asset, "BUY", 1, 5, 90, 0));
+
+        Position position = position(asset);
+        assertEquals(20.0, position.getQuantity(), 1e-9);
+        assertEquals(2121.6, position.getTotalCost(), 1e-9);
+        assertEquals(118.6, position.getRealizedPnl(), 1e-9);
+        assertEquals(LocalDate.of(2024, 1, 4), position.getLastTradeDate());
+        assertEquals(20.0, assetRepository.findById(asset.getId()).orElseThrow().getQuantity(), 1e-9);
+    }
+
+    @Test
+    void incrementalLedgerMatchesRebuild() {
+        Asset asset = fixtures.sberOfNewUser("ledger");
+        for (int day = 1; day <= 30; day++) {
+            insert(trade(asset, day % 4 == 0 ? "SELL" : "BUY", day, day % 4 == 0 ? 3 : 2, 100 + day * 1.5, 0.3));
+        }
+        Position incremental = position(asset);
+        double quantity = incremental.getQuantity();
+        double totalCost = incremental.getTotalCost();
+        double realized = incremental.getRealizedPnl();
+
+        positionLedger.applyChanged(List.of(asset.getId()));
+        Position rebuilt = position(asset);
+        assertEquals(quantity, rebuilt.getQuantity(), 1e-9);
+        assertEquals(totalCost, rebuilt.getTotalCost(), 1e-9);
+        assertEquals(realized, rebuilt.getRealizedPnl(), 1e-9);
+    }
+
+    // два писателя в своих транзакциях — как пакет импорта и синхронизация с брокером
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void concurrentWritersDoNotLoseTradesOfNewPosition() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            Asset asset = fixtures.sberOfNewUser("ledger");
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                List<Future<?>> writers = new ArrayList<>();
+                for (int writer = 0; writer < 2; writer++) {
+                    int firstDay = 1 + writer * 10;
+                    writers.add(executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                        List<Trade> batch = new ArrayList<>();
+                        for (int day = firstDay; day < firstDay + 5; day++) {
+                            batch.add(trade(asset, "BUY", day, 2, 100 + day, 0.5));
+                        }
+                        tradeJdbcRepository.batchInsert(batch, 100);
+                        await(barrier);
+                        positionLedger.applyInserted(batch);
+                    })));
+                }
+                for (Future<?> writer : writers) {
+                    writer.get(30, TimeUnit.SECONDS);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            Position position = position(asset);
+            assertEquals(20.0, position.getQuantity(), 1e-9);
+            assertEquals(10, position.getTradesCount());
+            assertEquals(5.0, position.getFees(), 1e-9);
+            assertEquals(20.0, assetRepository.findById(asset.getId()).orElseThrow().getQuantity(), 1e-9);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void insert(Trade... trades) {
+        List<Trade> batch = List.of(trades);
+        tradeJdbcRepository.batchInsert(batch, 100);
+        positionLedger.applyInserted(new ArrayList<>(batch));
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private Position position(Asset asset) {
+        return positionRepository.findByAssetIdIn(List.of(asset.getId())).get(0);
+    }
+
+    private static Trade trade(Asset asset, String type, int day, double quantity, double price, double fee) {
+        Trade trade = new Trade();
+        trade.setAsset(asset);
+        trade.setType(type);
+        trade.setDate(LocalDate.of(2024, 1, day));
+        trade.setQuantity(quantity);
+        trade.setPrice(price);
+        trade.setFee(fee);
+        return trade;
+    }
+}
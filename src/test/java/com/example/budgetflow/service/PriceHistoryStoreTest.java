@@ -0,0 +1,98 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceHistoryStoreTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 10, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendsAcrossGrowthAndFindsLatestAtOrBefore() {
+        PriceHistoryStore store = new PriceHistoryStore(dir.toString());
+        // больше начальной ёмкости — ряд несколько раз переписывается в файл большего размера
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(store.append("SBER", START.plusMinutes(i * 2L), price(i), null));
+        }
+
+        assertEquals(5000, store.size("SBER"));
+        PriceHistoryStore.PricePoint exact = store.latestAtOrBefore("SBER", START.plusMinutes(200)).orElseThrow();
+        assertEquals(START.plusMinutes(200), exact.date());
+        assertEquals(price(100), exact.price());
+        assertNull(exact.volume());
+        // между точками — предыдущая
+        assertEquals(price(100), store.latestAtOrBefore("SBER", START.plusMinutes(201)).orElseThrow().price());
+        assertTrue(store.latestAtOrBefore("SBER", START.minusSeconds(1)).isEmpty());
+        assertEquals(price(4999), store.latestAtOrBefore("SBER", START.plusYears(1)).orElseThrow().price());
+        assertTrue(store.latestAtOrBefore("GAZP", START).isEmpty());
+    }
+
+    @Test
+    void scansInclusiveRangeFromMappedFile() {
+        PriceHistoryStore store = new PriceHistoryStore(dir.toString());
+        for (int i = 0; i < 100; i++) {
+            store.append("SBER", START.plusDays(i), price(i), BigDecimal.valueOf(i * 10));
+        }
+
+        List<Long> prices = new ArrayList<>();
+        int count = store.scan("SBER", START.plusDays(10), START.plusDays(19), (time, price, volume) -> {
+            assertEquals(PriceHistoryStore.toScaled(BigDecimal.valueOf((prices.size() + 10) * 10)), volume);
+            prices.add(price);
+        });
+
+        assertEquals(10, count);
+        assertEquals(PriceHistoryStore.toScaled(price(10)), prices.get(0));
+        assertEquals(PriceHistoryStore.toScaled(price(19)), prices.get(9));
+        assertEquals(0, store.scan("SBER", START.plusYears(1), START.plusYears(2), (t, p, v) -> fail()));
+    }
+
+    @Test
+    void rejectsOutOfOrderAppendAndRebuildsAtomically() {
+        PriceHistoryStore store = new PriceHistoryStore(dir.toString());
+        store.append("SBER", START.plusDays(1), price(1), null);
+        assertFalse(store.append("SBER", START, price(0), null));
+        assertEquals(1, store.size("SBER"));
+
+        int points = store.rebuild("SBER", writer -> {
+            writer.append(START, price(0), null);
+            writer.append(START.plusDays(1), price(1), null);
+            // две котировки на одно время: на дату берётся записанная последней
+            writer.append(START.plusDays(1), price(2), null);
+        });
+
+        assertEquals(3, points);
+        assertEquals(price(0), store.latestAtOrBefore("SBER", START.plusHours(1)).orElseThrow().price());
+        assertEquals(price(2), store.latestAtOrBefore("SBER", START.plusDays(1)).orElseThrow().price());
+    }
+
+    @Test
+    void reopensPersistedSeries() {
+        PriceHistoryStore store = new PriceHistoryStore(dir.toString());
+        for (int i = 0; i < 2000; i++) {
+            store.append("BRK/B", START.plusHours(i), price(i), null);
+        }
+
+        PriceHistoryStore reopened = new PriceHistoryStore(dir.toString());
+        assertTrue(reopened.contains("BRK/B"));
+        assertEquals(2000, reopened.size("BRK/B"));
+        assertEquals(price(1234), reopened.latestAtOrBefore("BRK/B", START.plusHours(1234).plusMinutes(30))
+                .orElseThrow().price());
+        assertTrue(reopened.append("BRK/B", START.plusHours(2000), price(2000), null));
+        assertEquals(2001, reopened.size("BRK/B"));
+    }
+
+    private static BigDecimal price(int i) {
+        return BigDecimal.valueOf(10_000 + i * 7L, 2).setScale(PriceHistoryStore.PRICE_SCALE);
+    }
+}
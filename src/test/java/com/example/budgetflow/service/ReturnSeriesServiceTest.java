@@ -0,0 +1,67 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.MarketData;
+import com.example.budgetflow.repository.JdbcCursor;
+import com.example.budgetflow.repository.MarketDataRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest(properties = {"spring.jpa.show-sql=false",
+        "budgetflow.prices.history.dir=${java.io.tmpdir}/budgetflow-returns-test-${random.uuid}"})
+@Import({ReturnSeriesService.class, PriceHistoryService.class, PriceHistoryStore.class, JdbcCursor.class})
+class ReturnSeriesServiceTest {
+
+    private static final LocalDate FROM = LocalDate.of(2024, 1, 1);
+    private static final LocalDate TO = LocalDate.of(2024, 1, 31);
+
+    @Autowired private ReturnSeriesService returnSeriesService;
+    @Autowired private MarketDataRepository marketDataRepository;
+    @Autowired private EntityManager entityManager;
+
+    @Test
+    void droppedTickerDoesNotAddDaysToCalendar() {
+        // KEEP котируется по чётным дням, SHORT — каждый день, но только со второй половины месяца
+        for (int day = 2; day <= 30; day += 2) {
+            quote("KEEP", day, 100 + day);
+        }
+        for (int day = 24; day <= 31; day++) {
+            quote("SHORT", day, 50 + day);
+        }
+        entityManager.flush();
+
+        ReturnSeriesService.AlignedReturns returns =
+                returnSeriesService.dailyReturns(List.of("KEEP", "SHORT", "NONE"), FROM, TO);
+
+        assertEquals(List.of("KEEP"), returns.tickers());
+        assertEquals(List.of("NONE", "SHORT"), returns.missing().stream().sorted().toList());
+        assertEquals(14, returns.periods());
+        for (int i = 0; i < returns.periods(); i++) {
+            int day = 4 + 2 * i;
+            assertEquals(FROM.withDayOfMonth(day).toEpochDay(), returns.days()[i]);
+            assertEquals(Math.log((100.0 + day) / (98.0 + day)), returns.returns()[0][i], 1e-12);
+        }
+    }
+
+    @Test
+    void rejectsEmptyPeriod() {
+        assertThrows(IllegalArgumentException.class, () -> returnSeriesService.dailyReturns(List.of("KEEP"), TO, FROM));
+    }
+
+    private void quote(String ticker, int day, double price) {
+        MarketData quote = new MarketData();
+        quote.setTicker(ticker);
+        quote.setDate(FROM.withDayOfMonth(day).atTime(18, 0));
+        quote.setPrice(BigDecimal.valueOf(price));
+        marketDataRepository.save(quote);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RiskMetricsServiceTest {
+
+    private static final double EPS = 1e-9;
+
+    @Test
+    void slidingWindowMatchesTwoPassCalculation() {
+        Random random = new Random(17);
+        RiskMetricsService.UserRisk state = new RiskMetricsService.UserRisk();
+        List<Long> days = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        double value = 1000.0;
+        long day = 20_000;
+        int window = 60;
+
+        for (int i = 0; i < 400; i++) {
+            day += 1 + random.nextInt(3);
+            value *= 1 + (random.nextDouble() - 0.48) * 0.1;
+            state.add(day, value);
+            days.add(day);
+            values.add(value);
+            // иногда второй снимок за тот же день заменяет первый
+            if (random.nextInt(10) == 0) {
+                value *= 1.01;
+                state.add(day, value);
+                values.set(values.size() - 1, value);
+            }
+            state.evictBefore(day - window);
+
+            RiskMetricsService.RiskMetrics actual = state.toMetrics(5.0 / 100);
+            RiskMetricsService.RiskMetrics expected = twoPass(days, values, day - window, 5.0 / 100);
+            assertEquals(expected.periods(), actual.periods());
+            assertEquals(expected.from(), actual.from());
+            assertEquals(expected.meanReturn(), actual.meanReturn(), EPS);
+            assertEquals(expected.volatility(), actual.volatility(), EPS);
+            assertEquals(expected.sharpeRatio(), actual.sharpeRatio(), 1e-6);
+            assertEquals(expected.sortinoRatio(), actual.sortinoRatio(), 1e-6);
+            assertEquals(expected.maxDrawdown(), actual.maxDrawdown(), EPS);
+        }
+    }
+
+    @Test
+    void periodReturnsComeFromValueChanges() {
+        RiskMetricsService.UserRisk state = new RiskMetricsService.UserRisk();
+        state.add(100, 1000.0);
+        state.add(101, 1100.0);
+        state.add(102, 990.0);
+        state.add(103, 1188.0);
+
+        RiskMetricsService.RiskMetrics metrics = state.toMetrics(0.0);
+
+        // +10%, -10%, +20%
+        assertEquals(3, metrics.periods());
+        assertEquals(0.2 / 3, metrics.meanReturn(), EPS);
+        assertEquals(0.1, metrics.maxDrawdown(), EPS);
+    }
+
+    @Test
+    void rejectsBackdatedSnapshot() {
+        RiskMetricsService.UserRisk state = new RiskMetricsService.UserRisk();
+        state.add(100, 1000.0);
+
+        assertFalse(state.add(99, 900.0));
+    }
+
+    /**
+     * Эталон: доходности между соседними точками окна, выборочное отклонение и просадка двумя проходами.
+     */
+    private static RiskMetricsService.RiskMetrics twoPass(List<Long> days, List<Double> values,
+                                                          long windowStart, double riskFreeRate) {
+        List<Double> window = new ArrayList<>();
+        long first = -1;
+        long last = -1;
+        for (int i = 0; i < days.size(); i++) {
+            if (days.get(i) < windowStart) continue;
+            if (first < 0) first = days.get(i);
+            last = days.get(i);
+            window.add(values.get(i));
+        }
+        List<Double> returns = new ArrayList<>();
+        for (int i = 1; i < window.size(); i++) {
+            returns.add(window.get(i) / window.get(i - 1) - 1);
+        }
+        int n = returns.size();
+        double mean = returns.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+        double squares = returns.stream().mapToDouble(r -> (r - mean) * (r - mean)).sum();
+        double volatility = n > 1 ? Math.sqrt(squares / (n - 1)) : 0.0;
+        double downside = n > 0 ? Math.sqrt(returns.stream().mapToDouble(r -> r < 0 ? r * r : 0.0).sum() / n) : 0.0;
+        double periodsPerYear = last > first ? n * 365.0 / (last - first) : 0.0;
+        double excess = periodsPerYear > 0 ? mean - riskFreeRate / periodsPerYear : 0.0;
+
+        double peak = 0.0;
+        double drawdown = 0.0;
+        for (double v : window) {
+            peak = Math.max(peak, v);
+            drawdown = Math.max(drawdown, 1 - v / peak);
+        }
+        return new RiskMetricsService.RiskMetrics(
+                LocalDate.ofEpochDay(first), LocalDate.ofEpochDay(last), n,
+                mean, volatility, volatility * Math.sqrt(periodsPerYear),
+                volatility > 0 ? excess / volatility * Math.sqrt(periodsPerYear) : 0.0,
+                downside > 0 ? excess / downside * Math.sqrt(periodsPerYear) : 0.0,
+                drawdown);
+    }
+}
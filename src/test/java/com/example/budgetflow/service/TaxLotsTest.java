@@ -0,0 +1,104 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TaxLotsTest {
+
+    private static final double EPS = 1e-9;
+    private static final LocalDate D1 = LocalDate.of(2023, 1, 10);
+    private static final LocalDate D2 = LocalDate.of(2023, 6, 1);
+    private static final LocalDate D3 = LocalDate.of(2024, 2, 1);
+
+    @Test
+    void fifoClosesOldestLotsFirstAndSplitsSaleFee() {
+        TaxLots lots = new TaxLots(TaxLots.Method.FIFO);
+        List<Object[]> gains = new ArrayList<>();
+        TaxLots.GainSink sink = (sold, acquired, quantity, proceeds, cost) ->
+                gains.add(new Object[]{acquired, quantity, proceeds, cost});
+
+        lots.apply("BUY", D1, 10, 100, 10, sink);
+        lots.apply("BUY", D2, 5, 120, 0, sink);
+        lots.apply("SELL", D3, 12, 130, 12, sink);
+
+        assertEquals(2, gains.size());
+        assertEquals(D1, gains.get(0)[0]);
+        assertEquals(10.0, (double) gains.get(0)[1], EPS);
+        assertEquals(1290.0, (double) gains.get(0)[2], EPS);
+        assertEquals(1010.0, (double) gains.get(0)[3], EPS);
+        assertEquals(D2, gains.get(1)[0]);
+        assertEquals(258.0, (double) gains.get(1)[2], EPS);
+        assertEquals(240.0, (double) gains.get(1)[3], EPS);
+        assertEquals(3.0, lots.openQuantity(), EPS);
+
+        // продажа сверх открытого: остаток лота и запись без покупки
+        gains.clear();
+        lots.apply("SELL", D3, 10, 100, 0, sink);
+        assertEquals(2, gains.size());
+        assertEquals(3.0, (double) gains.get(0)[1], EPS);
+        assertNull(gains.get(1)[0]);
+        assertEquals(7.0, (double) gains.get(1)[1], EPS);
+        assertEquals(0.0, (double) gains.get(1)[3], EPS);
+        assertEquals(0, lots.openLots());
+    }
+
+    @Test
+    void lotBufferKeepsOrderWhenGrowingAfterWrapAround() {
+        TaxLots lots = new TaxLots(TaxLots.Method.FIFO);
+        List<LocalDate> acquired = new ArrayList<>();
+        double[] cost = new double[1];
+        TaxLots.GainSink sink = (sold, lotDate, quantity, proceeds, lotCost) -> {
+            acquired.add(lotDate);
+            cost[0] += lotCost;
+        };
+
+        for (int i = 0; i < 6; i++) {
+            lots.apply("BUY", D1.plusDays(i), 1, 10 + i, 0, sink);
+        }
+        lots.apply("SELL", D3, 4, 50, 0, sink);
+        for (int i = 6; i < 40; i++) {
+            lots.apply("BUY", D1.plusDays(i), 1, 10 + i, 0, sink);
+        }
+        assertEquals(36, lots.openLots());
+
+        acquired.clear();
+        cost[0] = 0.0;
+        lots.apply("SELL", D3, 36, 50, 0, sink);
+        for (int i = 0; i < 36; i++) {
+            assertEquals(D1.plusDays(i + 4), acquired.get(i));
+        }
+        // цены покупок 14..49
+        assertEquals((14 + 49) * 36 / 2.0, cost[0], EPS);
+    }
+
+    @Test
+    void averageModeMatchesPositionLedger() {
+        TaxLots lots = new TaxLots(TaxLots.Method.AVERAGE);
+        PositionLedger.Accumulator ledger = new PositionLedger.Accumulator();
+        Random random = new Random(11);
+        double[] realized = new double[1];
+        LocalDate date = D1;
+        for (int i = 0; i < 500; i++) {
+            date = date.plusDays(random.nextInt(3));
+            String type = random.nextInt(3) == 0 ? "SELL" : "BUY";
+            double quantity = 1 + random.nextInt(20);
+            double price = 50 + random.nextDouble() * 100;
+            double fee = random.nextDouble();
+            lots.apply(type, date, quantity, price, fee, (sold, acquired, q, proceeds, cost) -> {
+                assertNull(acquired);
+                realized[0] += proceeds - cost;
+            });
+            ledger.apply(type, date, quantity, price, fee);
+        }
+
+        assertEquals(ledger.realizedPnl(), realized[0], 1e-6);
+        assertEquals(ledger.quantity(), lots.openQuantity(), EPS);
+    }
+}
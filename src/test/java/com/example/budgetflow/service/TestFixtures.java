@@ -0,0 +1,94 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.Account;
+import com.example.budgetflow.entity.Asset;
+import com.example.budgetflow.entity.User;
+import com.example.budgetflow.repository.AccountRepository;
+import com.example.budgetflow.repository.AssetRepository;
+import com.example.budgetflow.repository.UserRepository;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Общие данные тестов с БД: пользователь, брокерский счёт и актив с типовыми полями.
+ * Подключается через @Import и заодно даёт PasswordEncoder, без которого не создаётся {@link UserService}.
+ */
+@TestConfiguration
+class TestFixtures {
+
+    private final UserRepository userRepository;
+    private final AccountRepository accountRepository;
+    private final AssetRepository assetRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    TestFixtures(UserRepository userRepository, AccountRepository accountRepository, AssetRepository assetRepository,
+                 JdbcTemplate jdbcTemplate) {
+        this.userRepository = userRepository;
+        this.accountRepository = accountRepository;
+        this.assetRepository = assetRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Bean
+    PasswordEncoder passwordEncoder() {
+        return new BCryptPasswordEncoder();
+    }
+
+    User user(String name) {
+        User user = new User();
+        user.setUsername(name);
+        user.setEmail(name + "@example.com");
+        user.setPassword("secret");
+        return userRepository.save(user);
+    }
+
+    /**
+     * Рублёвый инвестиционный счёт.
+     */
+    Account account(User user, String name, String accountNumber) {
+        Account account = new Account();
+        account.setUser(user);
+        account.setName(name);
+        account.setType("INVESTMENT");
+        account.setCurrency("RUB");
+        account.setAccountNumber(accountNumber);
+        return accountRepository.save(account);
+    }
+
+    /**
+     * Рублёвая акция без позиции.
+     */
+    Asset asset(Account account, String ticker) {
+        return asset(account, ticker, "stock", "RUB", 0.0);
+    }
+
+    Asset asset(Account account, String ticker, String type, String currency, double quantity) {
+        Asset asset = new Asset();
+        asset.setAccount(account);
+        asset.setName(ticker);
+        asset.setTicker(ticker);
+        asset.setType(type);
+        asset.setCurrency(currency);
+        asset.setQuantity(quantity);
+        return assetRepository.save(asset);
+    }
+
+    /**
+     * Актив SBER на отдельном счёте нового пользователя; имя пользователя уникально для каждого вызова.
+     */
+    Asset sberOfNewUser(String prefix) {
+        User user = user(prefix + System.nanoTime());
+        return asset(account(user, "Брокерский", user.getUsername()), "SBER");
+    }
+
+    /**
+     * Число сделок на всех счетах пользователя.
+     */
+    int trades(Long userId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM trades t JOIN assets a ON a.id = t.assert_id " +
+                "JOIN accounts c ON c.id = a.account_id WHERE c.user_id = ?", Integer.class, userId);
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TinkoffSyncMode;
+import com.example.budgetflow.dto.TinkoffSyncRequest;
+import com.example.budgetflow.entity.BrokerLink;
+import com.example.budgetflow.entity.ImportLog;
+import com.example.budgetflow.entity.User;
+import com.example.budgetflow.repository.BrokerLinkRepository;
+import com.example.budgetflow.repository.ImportLogRepository;
+import com.example.budgetflow.repository.JdbcCursor;
+import com.example.budgetflow.repository.TradeJdbcRepository;
+import com.example.budgetflow.service.BrokerOperationsApi.BrokerOperation;
+import com.example.budgetflow.service.BrokerOperationsApi.OperationsPage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// страницы синхронизации коммитятся по-настоящему, как в фоновом прогоне, — без транзакции теста
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "budgetflow.tinkoff.sync.page-size=10",
+        "budgetflow.tinkoff.schedule.threads=1", "budgetflow.tinkoff.schedule.pages-per-slice=2",
+        "budgetflow.tinkoff.schedule.start-spread-seconds=0"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({TinkoffSyncScheduler.class, TinkoffSyncGuard.class, TinkoffSyncJobQueue.class,
+        TinkoffIntegrationService.class, UserService.class, AccountService.class, AssetService.class,
+        TradeJdbcRepository.class, JdbcCursor.class, PositionLedger.class, TestFixtures.class,
+        TinkoffSyncSchedulerTest.Beans.class})
+class TinkoffSyncSchedulerTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T10:00:00Z");
+    private static final String TOKEN = "t.scheduler-test-token-0001";
+
+    @Autowired private TinkoffSyncScheduler scheduler;
+    @Autowired private TinkoffSyncGuard syncGuard;
+    @Autowired private TinkoffSyncJobQueue syncJobQueue;
+    @Autowired private TinkoffIntegrationService integrationService;
+    @Autowired private AccountBroker broker;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private BrokerLinkRepository brokerLinkRepository;
+    @Autowired private ImportLogRepository importLogRepository;
+
+    @Test
+    void slicesAccountsRoundRobinAndWritesSummary() {
+        User user = fixtures.user("scheduled");
+        broker.history("big", 100);
+        broker.history("small", 5);
+        broker.history("mid", 25);
+        for (String account : List.of("big", "small", "mid", "broken", "busy")) {
+            link(user, account);
+        }
+        // счёт busy в это время синхронизируется ручной задачей
+        assertTrue(syncGuard.tryAcquire(user.getId(), "busy", TinkoffSyncMode.ALL));
+
+        TinkoffSyncScheduler.RunSummary summary;
+        try {
+            summary = scheduler.runAll();
+        } finally {
+            syncGuard.release(user.getId(), "busy", TinkoffSyncMode.ALL);
+        }
+
+        // по две страницы за порцию: длинная история big не задерживает small и mid
+        assertEquals(List.of("big×2", "small×1", "mid×2", "broken×1", "big×2", "mid×1", "big×6"), broker.requestRuns());
+        assertEquals(5, summary.accounts());
+        assertEquals(3, summary.succeeded());
+        assertEquals(1, summary.failed());
+        assertEquals(1, summary.skipped());
+        assertEquals(130, summary.operations());
+        assertEquals(9, summary.slices());
+        assertEquals(130, fixtures.trades(user.getId()));
+
+        ImportLog logEntry = importLogRepository.findBySourceAndStatusIn("TINKOFF_SCHEDULER", List.of("PARTIAL")).get(0);
+        assertEquals(130, logEntry.getOperationsImported());
+        assertTrue(logEntry.getDetails().contains("\"accounts\":5,\"succeeded\":3,\"failed\":1,\"skipped\":1"),
+                logEntry.getDetails());
+        assertTrue(logEntry.getErrorMessage().startsWith("broken: "), logEntry.getErrorMessage());
+        assertEquals("FAILED", link(user, "broken").getLastSyncStatus());
+        assertNull(link(user, "busy").getLastSyncStatus());
+
+        // оценка следующей синхронизации — по последнему прогону курсора; дивиденды и счёт busy ещё не загружались
+        assertEquals(100, integrationService.estimateOperations(user.getId(), "big", TinkoffSyncMode.HISTORY));
+        assertNull(integrationService.estimateOperations(user.getId(), "big", TinkoffSyncMode.ALL));
+        assertNull(integrationService.estimateOperations(user.getId(), "busy", TinkoffSyncMode.HISTORY));
+        assertEquals(0, integrationService.estimateOperations(user.getId(), "busy", TinkoffSyncMode.POSITIONS));
+
+        // guard освобождён: следующая синхронизация счёта не блокируется
+        assertTrue(syncGuard.tryAcquire(user.getId(), "big", TinkoffSyncMode.HISTORY));
+        syncGuard.release(user.getId(), "big", TinkoffSyncMode.HISTORY);
+    }
+
+    @Test
+    void manualSyncWaitsWhileSchedulerHoldsAccount() throws InterruptedException {
+        User user = fixtures.user("manual");
+        AtomicInteger runs = new AtomicInteger();
+        List<String> accepted = new ArrayList<>();
+        Function<TinkoffSyncRequest, TinkoffSyncJobQueue.SyncOutcome> work = r -> {
+            runs.incrementAndGet();
+            accepted.add(r.token());
+            return new TinkoffSyncJobQueue.SyncOutcome(0, 0);
+        };
+
+        // планировщик синхронизирует счёт в режиме ALL — пересекается с HISTORY
+        assertTrue(syncGuard.tryAcquire(user.getId(), "acc", TinkoffSyncMode.ALL));
+        String jobId;
+        try {
+            jobId = syncJobQueue.submit(user.getId(),
+                    new TinkoffSyncRequest(TOKEN, "acc", TinkoffSyncMode.HISTORY), work).jobId();
+            awaitWaiting(1);
+            assertEquals("QUEUED", syncJobQueue.getStatus(jobId).status());
+            // ожидающая задача принимает новые запросы на тот же ключ
+            TinkoffSyncJobQueue.SyncJobStatus joined = syncJobQueue.submit(user.getId(),
+                    new TinkoffSyncRequest(TOKEN + "-new", "acc", TinkoffSyncMode.HISTORY), work);
+            assertEquals(jobId, joined.jobId());
+            assertEquals(0, runs.get());
+        } finally {
+            syncGuard.release(user.getId(), "acc", TinkoffSyncMode.ALL);
+        }
+
+        TinkoffSyncJobQueue.SyncJobStatus done = await(jobId);
+        assertEquals("SUCCESS", done.status());
+        assertEquals(1, done.coalescedRequests());
+        assertEquals(List.of(TOKEN + "-new"), accepted);
+        assertEquals(0, syncJobQueue.getMetrics().waiting());
+        assertTrue(syncGuard.tryAcquire(user.getId(), "acc", TinkoffSyncMode.ALL));
+        syncGuard.release(user.getId(), "acc", TinkoffSyncMode.ALL);
+    }
+
+    private void awaitWaiting(int jobs) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (syncJobQueue.getMetrics().waiting() == jobs) return;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Задачи не встали в ожидание счёта");
+    }
+
+    private TinkoffSyncJobQueue.SyncJobStatus await(String jobId) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            TinkoffSyncJobQueue.SyncJobStatus status = syncJobQueue.getStatus(jobId);
+            if (status.finishedAt() != null) return status;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Задача " + jobId + " не завершилась");
+    }
+
+    private BrokerLink link(User user, String account) {
+        return brokerLinkRepository.findByUserIdAndAccountNumber(user.getId(), account).orElseGet(() -> {
+            BrokerLink link = new BrokerLink();
+            link.setUser(user);
+            link.setAccountNumber(account);
+            link.setToken(TOKEN);
+            link.setMode(TinkoffSyncMode.HISTORY.name());
+            link.setEnabled(true);
+            link.setCreatedAt(LocalDateTime.now());
+            return brokerLinkRepository.save(link);
+        });
+    }
+
+    /**
+     * Брокер с отдельной историей на каждый счёт; запоминает, к какому счёту шёл каждый запрос.
+     * Счёт broken всегда отвечает ошибкой.
+     */
+    static class AccountBroker implements BrokerOperationsApi {
+        private final Map<String, FakeBrokerServer> accounts = new ConcurrentHashMap<>();
+        private final List<String> requests = new ArrayList<>();
+
+        void history(String accountId, int operations) {
+            FakeBrokerServer server = new FakeBrokerServer();
+            for (int i = 0; i < operations; i++) {
+                server.add(new BrokerOperation(accountId + "-" + i, START.plusSeconds(3600L * i), "BUY", "SBER",
+                        1, 100 + i, 0.5, 0));
+            }
+            accounts.put(accountId, server);
+        }
+
+        @Override
+        public OperationsPage getOperations(String token, String accountId, TinkoffSyncMode kind,
+                                            Instant from, String pageCursor, int limit) {
+            synchronized (requests) {
+                requests.add(accountId);
+            }
+            if (accountId.equals("broken")) {
+                throw new IllegalStateException("счёт закрыт у брокера");
+            }
+            FakeBrokerServer server = accounts.get(accountId);
+            return server != null ? server.getOperations(token, accountId, kind, from, pageCursor, limit)
+                    : new OperationsPage(List.of(), null);
+        }
+
+        /** Запросы подряд к одному счёту, свёрнутые в «счёт×число». */
+        List<String> requestRuns() {
+            List<String> runs = new ArrayList<>();
+            synchronized (requests) {
+                for (int i = 0; i < requests.size(); ) {
+                    int j = i;
+                    while (j < requests.size() && requests.get(j).equals(requests.get(i))) j++;
+                    runs.add(requests.get(i) + "×" + (j - i));
+                    i = j;
+                }
+            }
+            return runs;
+        }
+    }
+
+    @TestConfiguration
+    static class Beans {
+        @Bean
+        AccountBroker accountBroker() {
+            return new AccountBroker();
+        }
+
+        @Bean
+        BrokerClient brokerClient(AccountBroker accountBroker) {
+            return new BrokerClient(accountBroker, Runnable::run, 1_000_000, 1_000, 0, 1, 1);
+        }
+    }
+}
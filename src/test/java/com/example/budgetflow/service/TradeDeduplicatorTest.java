@@ -0,0 +1,70 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.*;
+import com.example.budgetflow.repository.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@Import({TradeJdbcRepository.class, JdbcCursor.class, TestFixtures.class})
+class TradeDeduplicatorTest {
+
+    private static final int EXISTING = 50;
+
+    @Autowired private TradeJdbcRepository tradeJdbcRepository;
+    @Autowired private TestFixtures fixtures;
+
+    @Test
+    void bloomFalsePositiveFallsBackToIndex() {
+        Asset asset = fixtures.sberOfNewUser("dedup");
+        long accountId = asset.getAccount().getId();
+        List<Trade> existing = new ArrayList<>();
+        for (int i = 0; i < EXISTING; i++) {
+            existing.add(trade(asset, accountId, i, 100.0 + i));
+        }
+        tradeJdbcRepository.batchInsert(existing, 100);
+
+        // без запаса на новые сделки фильтр рассчитан на 2 × EXISTING; повторяем его, чтобы найти
+        // новую сделку, которую фильтр ошибочно считает знакомой
+        BloomFilter replica = new BloomFilter(2L * EXISTING, 0.01);
+        existing.forEach(t -> replica.put(t.getFingerprint()));
+        Trade falsePositive = null;
+        for (int i = 0; falsePositive == null; i++) {
+            Trade candidate = trade(asset, accountId, 1000 + i, 1.0 + i / 100.0);
+            if (replica.mightContain(candidate.getFingerprint())) falsePositive = candidate;
+        }
+
+        TradeDeduplicator deduplicator = new TradeDeduplicator(tradeJdbcRepository, accountId, 0);
+        deduplicator.load(100);
+        Trade duplicate = trade(asset, accountId, 3, 103.0);
+        Trade fresh = trade(asset, accountId, 500, 42.0);
+        List<Trade> kept = deduplicator.retainNew(List.of(duplicate, falsePositive, fresh, falsePositive));
+
+        assertEquals(2, kept.size());
+        assertSame(falsePositive, kept.get(0));
+        assertSame(fresh, kept.get(1));
+        assertTrue(tradeJdbcRepository.findExistingFingerprints(accountId, List.of(falsePositive.getFingerprint())).isEmpty());
+    }
+
+    private Trade trade(Asset asset, long accountId, int day, double price) {
+        Trade trade = new Trade();
+        trade.setAsset(asset);
+        trade.setType("BUY");
+        trade.setDate(LocalDate.of(2020, 1, 1).plusDays(day));
+        trade.setQuantity(1.0);
+        trade.setPrice(price);
+        trade.setFee(0.0);
+        trade.setFingerprint(TradeDeduplicator.fingerprint(accountId, asset.getTicker(), trade));
+        return trade;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.budgetflow.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class TradeFingerprintTest {
+
+    private static final LocalDate DATE = LocalDate.of(2024, 3, 15);
+
+    @Test
+    void sameTradeWrittenDifferentlyGivesSameFingerprint() {
+        long reference = TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, 250.5, 0.0);
+
+        assertEquals(reference, TradeFingerprint.compute(7, " sber ", DATE, "buy", 10.0, 250.5, 0.0));
+        assertEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, 250.5, -0.0));
+        assertEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, 250.5, null));
+        // 250,5 из CSV и 250.50 из API — одно и то же double
+        assertEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, Double.valueOf("250.50"), 0.0));
+    }
+
+    @Test
+    void anyFieldChangesFingerprint() {
+        long reference = TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, 250.5, 1.0);
+
+        assertNotEquals(reference, TradeFingerprint.compute(8, "SBER", DATE, "BUY", 10.0, 250.5, 1.0));
+        assertNotEquals(reference, TradeFingerprint.compute(7, "SBERP", DATE, "BUY", 10.0, 250.5, 1.0));
+        assertNotEquals(reference, TradeFingerprint.compute(7, "SBER", DATE.plusDays(1), "BUY", 10.0, 250.5, 1.0));
+        assertNotEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "SELL", 10.0, 250.5, 1.0));
+        assertNotEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "BUY", 11.0, 250.5, 1.0));
+        assertNotEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, 250.6, 1.0));
+        assertNotEquals(reference, TradeFingerprint.compute(7, "SBER", DATE, "BUY", 10.0, 250.5, 1.5));
+        // разделитель между типом и тикером: BUY+XSBER и BUYX+SBER не совпадают
+        assertNotEquals(TradeFingerprint.compute(7, "XSBER", DATE, "BUY", 1.0, 1.0, 0.0),
+                TradeFingerprint.compute(7, "SBER", DATE, "BUYX", 1.0, 1.0, 0.0));
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.dto.TransactionPage;
+import com.example.budgetflow.dto.TransactionView;
+import com.example.budgetflow.entity.Category;
+import com.example.budgetflow.entity.Transaction;
+import com.example.budgetflow.entity.User;
+import com.example.budgetflow.repository.CategoryRepository;
+import com.example.budgetflow.repository.JdbcCursor;
+import com.example.budgetflow.repository.TransactionJdbcRepository;
+import com.example.budgetflow.repository.TransactionRepository;
+import com.example.budgetflow.repository.TransactionRollupJdbcRepository;
+import com.example.budgetflow.repository.UserBalanceJdbcRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "budgetflow.transactions.page.max-size=10"})
+@Import({TransactionService.class, TransactionJdbcRepository.class, JdbcCursor.class, TransactionRollupService.class,
+        TransactionRollupJdbcRepository.class, UserBalanceService.class, UserBalanceJdbcRepository.class,
+        UserService.class, CategoryService.class, TestFixtures.class})
+class TransactionServiceTest {
+
+    @Autowired private TransactionService transactionService;
+    @Autowired private TransactionRepository transactionRepository;
+    @Autowired private TransactionRollupService transactionRollupService;
+    @Autowired private UserBalanceService userBalanceService;
+    @Autowired private UserBalanceJdbcRepository userBalanceJdbcRepository;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private CategoryRepository categoryRepository;
+    @Autowired private EntityManager entityManager;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    @Test
+    void keysetPagesCoverAllRowsNewestFirst() {
+        Long userId = createHistory("pager", 25);
+        createHistory("other", 3);
+
+        List<TransactionView> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            // запрошено больше предела — размер страницы ограничен max-size
+            TransactionPage page = transactionService.getUserTransactionsPage(userId, cursor, 50);
+            seen.addAll(page.items());
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, seen.size());
+        for (int i = 1; i < seen.size(); i++) {
+            TransactionView previous = seen.get(i - 1);
+            TransactionView current = seen.get(i);
+            int byDate = current.date().compareTo(previous.date());
+            assertTrue(byDate < 0 || (byDate == 0 && current.id() < previous.id()));
+        }
+        assertEquals("Еда", seen.get(0).categoryName());
+    }
+
+    @Test
+    void exportStreamsRowsInDateOrder() {
+        Long userId = createHistory("export", 12);
+        List<TransactionView> rows = new ArrayList<>();
+
+        long count = transactionService.exportUserTransactions(userId, rows::add);
+
+        assertEquals(12, count);
+        assertEquals(12, rows.size());
+        for (int i = 1; i < rows.size(); i++) {
+            assertFalse(rows.get(i).date().isBefore(rows.get(i - 1).date()));
+        }
+    }
+
+    @Test
+    void rejectsMalformedCursor() {
+        Long userId = createHistory("broken", 1);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> transactionService.getUserTransactionsPage(userId, "not-a-cursor", 10));
+        assertNull(transactionService.getUserTransactionsPage(userId, null, 10).nextCursor());
+    }
+
+    @Test
+    void rollupsFollowCreateUpdateDeleteAndMatchRebuild() {
+        Long userId = createHistory("rollup", 0);
+        Long food = categoryRepository.findAll().stream().filter(c -> c.getName().equals("Еда")).findFirst()
+                .orElseThrow().getId();
+        Category salary = new Category();
+        salary.setName("Зарплата");
+        salary.setType("INCOME");
+        Long salaryId = categoryRepository.save(salary).getId();
+
+        transactionService.createTransaction(userId, salaryId, 1000.0, "INCOME", "аванс", LocalDate.of(2024, 3, 5));
+        Transaction lunch = transactionService.createTransaction(userId, food, 40.0, "EXPENSE", "обед",
+                LocalDate.of(2024, 3, 31));
+        Transaction dinner = transactionService.createTransaction(userId, food, 60.0, "EXPENSE", "ужин",
+                LocalDate.of(2024, 3, 10));
+        // перенос в апрель с новой суммой — март теряет 40, апрель получает 45
+        transactionService.updateTransaction(lunch.getId(), food, 45.0, "EXPENSE", "обед", LocalDate.of(2024, 4, 1));
+        transactionService.deleteTransaction(dinner.getId());
+        entityManager.flush();
+
+        assertEquals(1000.0, transactionService.getTotalIncome(userId), 1e-9);
+        assertEquals(45.0, transactionService.getTotalExpense(userId), 1e-9);
+        TransactionRollupService.MonthlySummary march = transactionService.getMonthlySummary(userId, 2024, 3);
+        assertEquals(1000.0, march.balance(), 1e-9);
+        assertEquals(1, march.categories().size());
+        TransactionRollupService.MonthlySummary april = transactionService.getMonthlySummary(userId, 2024, 4);
+        assertEquals(-45.0, april.balance(), 1e-9);
+        assertEquals("Еда", april.categories().get(0).categoryName());
+        assertEquals(1, transactionService.getMonthlyTransactions(userId, 2024, 4).size());
+
+        // пересборка из строк даёт те же итоги
+        assertEquals(2, transactionRollupService.rebuildUser(userId));
+        assertEquals(transactionRepository.sumAmountByUserIdAndType(userId, "EXPENSE"),
+                transactionService.getTotalExpense(userId), 1e-9);
+        assertEquals(-45.0, transactionService.getMonthlySummary(userId, 2024, 4).balance(), 1e-9);
+    }
+
+    @Test
+    void balanceVerificationReportsAndRepairsDrift() {
+        Long userId = createHistory("balance", 0);
+        Long food = categoryRepository.findAll().stream().filter(c -> c.getName().equals("Еда")).findFirst()
+                .orElseThrow().getId();
+        transactionService.createTransaction(userId, food, 500.0, "INCOME", "возврат", LocalDate.of(2024, 5, 1));
+        Transaction bread = transactionService.createTransaction(userId, food, 120.0, "EXPENSE", "хлеб",
+                LocalDate.of(2024, 5, 2));
+        transactionService.updateTransaction(bread.getId(), food, 80.0, "EXPENSE", "хлеб", LocalDate.of(2024, 5, 2));
+        entityManager.flush();
+        assertEquals(420.0, transactionService.getUserBalance(userId), 1e-9);
+
+        UserBalanceJdbcRepository.BalanceRow row = userBalanceJdbcRepository.find(userId);
+        // запись по устаревшей версии отклоняется
+        assertFalse(userBalanceJdbcRepository.compareAndSet(userId, row.version() - 1, 0.0, 0.0));
+        assertTrue(userBalanceJdbcRepository.compareAndSet(userId, row.version(), 500.0, 0.0));
+
+        UserBalanceService.VerificationReport check = userBalanceService.verifyAll(false);
+        assertTrue(check.drifts().stream().anyMatch(d -> d.userId() == userId && d.actualExpense() == 80.0));
+        // баланс читается сущностью — сбрасываем её копию, прочитанную до записей через JDBC
+        entityManager.clear();
+        assertEquals(500.0, transactionService.getUserBalance(userId), 1e-9);
+
+        UserBalanceService.VerificationReport repair = userBalanceService.verifyAll(true);
+        assertTrue(repair.repaired() >= 1);
+        entityManager.clear();
+        assertEquals(420.0, transactionService.getUserBalance(userId), 1e-9);
+        assertTrue(userBalanceService.verifyAll(false).drifts().stream().noneMatch(d -> d.userId() == userId));
+    }
+
+    @Test
+    void firstChangeAfterDeploySeedsBalanceFromHistory() {
+        // история пользователя закоммичена до появления строк балансов, свёртки пересобраны
+        TransactionTemplate committed = new TransactionTemplate(transactionManager);
+        committed.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Long userId = committed.execute(status -> {
+            Long id = createHistory("history", 6);
+            transactionRollupService.rebuildUser(id);
+            return id;
+        });
+        assertNull(userBalanceJdbcRepository.find(userId));
+        Long food = categoryRepository.findAll().stream().filter(c -> c.getName().equals("Еда")).findFirst()
+                .orElseThrow().getId();
+
+        transactionService.createTransaction(userId, food, 1000.0, "INCOME", "премия", LocalDate.of(2024, 6, 1));
+        entityManager.flush();
+
+        // 100 + 101 + ... + 105 расходов из истории и новая транзакция
+        assertEquals(1000.0, transactionService.getTotalIncome(userId), 1e-9);
+        assertEquals(615.0, transactionService.getTotalExpense(userId), 1e-9);
+        assertEquals(385.0, transactionService.getUserBalance(userId), 1e-9);
+        assertTrue(userBalanceService.verifyAll(false).drifts().stream().noneMatch(d -> d.userId() == userId));
+    }
+
+    private Long createHistory(String name, int count) {
+        User user = fixtures.user(name);
+
+        Category category = categoryRepository.findAll().stream()
+                .filter(c -> c.getName().equals("Еда")).findFirst()
+                .orElseGet(() -> {
+                    Category created = new Category();
+                    created.setName("Еда");
+                    created.setType("EXPENSE");
+                    return categoryRepository.save(created);
+                });
+
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setUser(user);
+            transaction.setCategory(category);
+            transaction.setAmount(100.0 + i);
+            transaction.setType("EXPENSE");
+            transaction.setDescription("покупка " + i);
+            // по три транзакции на дату — порядок внутри даты решает id
+            transaction.setDate(LocalDate.of(2024, 1, 1).plusDays(i / 3));
+            transactionRepository.save(transaction);
+        }
+        entityManager.flush();
+        return user.getId();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.repository.JdbcCursor;
+import com.example.budgetflow.repository.TransactionRollupJdbcRepository;
+import com.example.budgetflow.repository.UserBalanceJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "budgetflow.balances.max-attempts=3"})
+@Import({UserBalanceService.class, TransactionRollupJdbcRepository.class, JdbcCursor.class,
+        UserBalanceServiceTest.Beans.class})
+class UserBalanceServiceTest {
+
+    @Autowired private UserBalanceService userBalanceService;
+    @Autowired private RacingBalanceRepository balanceRepository;
+    @Autowired private TransactionRollupJdbcRepository rollupJdbcRepository;
+
+    @AfterEach
+    void disarm() {
+        balanceRepository.racingWrites = 0;
+        balanceRepository.attempts = 0;
+    }
+
+    @Test
+    void retryAppliesDeltaOnTopOfConcurrentWrite() {
+        long userId = 9_001L;
+        balanceRepository.insert(userId, 100.0, 40.0);
+
+        // между чтением строки и записью её успевает изменить другая транзакция
+        balanceRepository.racingWrites = 1;
+        userBalanceService.apply(userId, "INCOME", 50.0, 1);
+
+        UserBalanceJdbcRepository.BalanceRow row = balanceRepository.find(userId);
+        assertEquals(100.0 + 30.0 + 50.0, row.income(), 1e-9);
+        assertEquals(40.0, row.expense(), 1e-9);
+        assertEquals(2, row.version());
+        assertEquals(2, balanceRepository.attempts);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        long userId = 9_002L;
+        balanceRepository.insert(userId, 0.0, 0.0);
+
+        balanceRepository.racingWrites = Integer.MAX_VALUE;
+        assertThrows(OptimisticLockingFailureException.class,
+                () -> userBalanceService.apply(userId, "EXPENSE", 10.0, 1));
+        assertEquals(3, balanceRepository.attempts);
+    }
+
+    @Test
+    void missingBalanceRowFallsBackToRollups() {
+        long userId = 9_003L;
+        rollupJdbcRepository.addDelta(userId, LocalDate.of(2024, 1, 1), 1L, "INCOME", 700.0, 2);
+        rollupJdbcRepository.addDelta(userId, LocalDate.of(2024, 2, 1), 2L, "EXPENSE", 120.5, 3);
+        rollupJdbcRepository.addDelta(userId, LocalDate.of(2024, 2, 1), 3L, "TRANSFER", 999.0, 1);
+
+        assertEquals(new UserBalanceService.Balance(700.0, 120.5, 579.5), userBalanceService.getBalance(userId));
+        assertEquals(new UserBalanceService.Balance(0.0, 0.0, 0.0), userBalanceService.getBalance(9_004L));
+    }
+
+    /**
+     * Перед записью строки изменяет её отдельной транзакцией (+30 к доходам), как параллельная запись
+     * транзакции того же пользователя; считает попытки записи.
+     */
+    static class RacingBalanceRepository extends UserBalanceJdbcRepository {
+        private final TransactionTemplate newTransaction;
+        private int racingWrites;
+        private int attempts;
+
+        RacingBalanceRepository(JdbcTemplate jdbcTemplate, JdbcCursor jdbcCursor,
+                                PlatformTransactionManager transactionManager) {
+            super(jdbcTemplate, jdbcCursor, transactionManager);
+            this.newTransaction = new TransactionTemplate(transactionManager);
+            this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        }
+
+        @Override
+        public boolean compareAndSet(long userId, long version, double income, double expense) {
+            attempts++;
+            if (racingWrites > 0) {
+                racingWrites--;
+                newTransaction.executeWithoutResult(status -> {
+                    BalanceRow current = find(userId);
+                    super.compareAndSet(userId, current.version(), current.income() + 30.0, current.expense());
+                });
+            }
+            return super.compareAndSet(userId, version, income, expense);
+        }
+    }
+
+    @TestConfiguration
+    static class Beans {
+        @Bean
+        RacingBalanceRepository userBalanceJdbcRepository(JdbcTemplate jdbcTemplate, JdbcCursor jdbcCursor,
+                                                          PlatformTransactionManager transactionManager) {
+            return new RacingBalanceRepository(jdbcTemplate, jdbcCursor, transactionManager);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.budgetflow.service;
+
+import com.example.budgetflow.entity.*;
+import com.example.budgetflow.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest(properties = {"spring.jpa.show-sql=false",
+        "budgetflow.prices.history.dir=${java.io.tmpdir}/budgetflow-prices-test-${random.uuid}"})
+@Import({ValueCurveService.class, PriceHistoryService.class, PriceHistoryStore.class, TradeJdbcRepository.class,
+        JdbcCursor.class, TestFixtures.class})
+class ValueCurveServiceTest {
+
+    private static final LocalDate FROM = LocalDate.of(2024, 3, 1);
+    private static final LocalDate TO = LocalDate.of(2024, 5, 31);
+
+    @Autowired private ValueCurveService valueCurveService;
+    @Autowired private TestFixtures fixtures;
+    @Autowired private TradeRepository tradeRepository;
+    @Autowired private AccrualRepository accrualRepository;
+    @Autowired private MarketDataRepository marketDataRepository;
+    @Autowired private EntityManager entityManager;
+
+    private final List<Trade> trades = new ArrayList<>();
+    private final List<MarketData> quotes = new ArrayList<>();
+    private final List<Accrual> accruals = new ArrayList<>();
+    private final List<Asset> assets = new ArrayList<>();
+
+    @Test
+    void dailyCurveMatchesPerDayRevaluation() {
+        Long userId = createHistory("daily");
+        List<ValueCurveService.ValuePoint> curve = new ArrayList<>();
+
+        int points = valueCurveService.streamValueCurve(userId, FROM, TO, 1, curve::add);
+
+        assertEquals(92, points);
+        assertMatchesReference(curve);
+    }
+
+    @Test
+    void downsampledCurveEndsOnLastDay() {
+        Long userId = createHistory("weekly");
+        List<ValueCurveService.ValuePoint> curve = new ArrayList<>();
+
+        valueCurveService.streamValueCurve(userId, FROM, TO, 7, curve::add);
+
+        assertEquals(14, curve.size());
+        assertEquals(FROM.plusDays(7), curve.get(1).date());
+        assertEquals(TO, curve.get(curve.size() - 1).date());
+        assertMatchesReference(curve);
+    }
+
+    @Test
+    void rejectsEmptyRange() {
+        assertThrows(IllegalArgumentException.class,
+                () -> valueCurveService.streamValueCurve(1L, TO, FROM, 1, point -> {}));
+        assertThrows(IllegalArgumentException.class,
+                () -> valueCurveService.streamValueCurve(1L, FROM, TO, 0, point -> {}));
+    }
+
+    private void assertMatchesReference(List<ValueCurveService.ValuePoint> curve) {
+        for (ValueCurveService.ValuePoint point : curve) {
+            ValueCurveService.ValuePoint expected = reference(point.date());
+            assertEquals(expected.value(), point.value(), 1e-6, "стоимость на " + point.date());
+            assertEquals(expected.cost(), point.cost(), 1e-6, "вложения на " + point.date());
+            assertEquals(expected.income(), point.income(), 1e-9, "доход на " + point.date());
+        }
+    }
+
+    /**
+     * Эталон: на каждую дату заново проигрываются сделки каждого актива и ищется последняя котировка.
+     */
+    private ValueCurveService.ValuePoint reference(LocalDate day) {
+        double value = 0.0;
+        double cost = 0.0;
+        for (Asset asset : assets) {
+            double quantity = 0.0;
+            double totalCost = 0.0;
+            for (Trade trade : trades) {
+                if (!trade.getAsset().getId().equals(asset.getId()) || trade.getDate().isAfter(day)) continue;
+                if (trade.getType().equals("BUY")) {
+                    quantity += trade.getQuantity();
+                    totalCost += trade.getQuantity() * trade.getPrice() + trade.getFee();
+                } else {
+                    totalCost -= totalCost / quantity * trade.getQuantity();
+                    quantity -= trade.getQuantity();
+                }
+            }
+            if (quantity <= 1e-9) continue;
+            MarketData latest = null;
+            for (MarketData quote : quotes) {
+                if (quote.getTicker().equals(asset.getTicker()) && quote.getDate().isBefore(day.plusDays(1).atStartOfDay())
+                        && (latest == null || !quote.getDate().isBefore(latest.getDate()))) {
+                    latest = quote;
+                }
+            }
+            value += latest != null ? quantity * latest.getPrice().doubleValue() : totalCost;
+            cost += totalCost;
+        }
+        double income = 0.0;
+        for (Accrual accrual : accruals) {
+            if (!accrual.getDate().isBefore(FROM) && !accrual.getDate().isAfter(day)) income += accrual.getAmount();
+        }
+        return new ValueCurveService.ValuePoint(day, value, cost, income);
+    }
+
+    private Long createHistory(String name) {
+        User user = fixtures.user(name);
+
+        Random random = new Random(name.hashCode());
+        String prefix = name.toUpperCase();
+        for (int a = 0; a < 2; a++) {
+            Account account = fixtures.account(user, "Брокерский " + a, name + "-" + a);
+            // тикер _1 есть на обоих счетах, у тикера _3 нет котировок
+            for (int i = a; i < 4; i++) {
+                assets.add(fixtures.asset(account, prefix + "_" + i));
+            }
+        }
+
+        LocalDate historyStart = FROM.minusDays(30);
+        for (Asset asset : assets) {
+            double held = 0.0;
+            for (LocalDate day = historyStart; !day.isAfter(TO); day = day.plusDays(1 + random.nextInt(9))) {
+                boolean sell = held > 2 && random.nextInt(3) == 0;
+                double quantity = sell ? Math.floor(held / 2) : 1 + random.nextInt(20);
+                held += sell ? -quantity : quantity;
+                trades.add(trade(asset, sell ? "SELL" : "BUY", day, quantity, 50 + random.nextInt(100), random.nextInt(5)));
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            String ticker = prefix + "_" + i;
+            LocalDateTime time = historyStart.atTime(10, 0).plusDays(5 + random.nextInt(10));
+            while (time.toLocalDate().isBefore(TO.plusDays(5))) {
+                MarketData quote = new MarketData();
+                quote.setTicker(ticker);
+                quote.setDate(time);
+                quote.setPrice(BigDecimal.valueOf(5_000 + random.nextInt(10_000), 2));
+                quotes.add(marketDataRepository.save(quote));
+                time = time.plusHours(1 + random.nextInt(60));
+            }
+        }
+        for (int i = 0; i < 6; i++) {
+            Accrual accrual = new Accrual();
+            accrual.setAsset(assets.get(i % assets.size()));
+            accrual.setType("DIVIDEND");
+            accrual.setDate(FROM.minusDays(10).plusDays(i * 20L));
+            accrual.setAmount(100.0 + i);
+            accruals.add(accrualRepository.save(accrual));
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return user.getId();
+    }
+
+    private Trade trade(Asset asset, String type, LocalDate date, double quantity, double price, double fee) {
+        Trade trade = new Trade();
+        trade.setAsset(asset);
+        trade.setType(type);
+        trade.setDate(date);
+        trade.setQuantity(quantity);
+        trade.setPrice(price);
+        trade.setFee(fee);
+        return tradeRepository.save(trade);
+    }
+}